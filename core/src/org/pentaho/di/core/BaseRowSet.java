@@ -35,7 +35,7 @@ import org.pentaho.di.core.row.RowMetaInterface;
  * @since 22-01-2010
  *
  */
-abstract class BaseRowSet implements Comparable<RowSet>, RowSet {
+abstract class BaseRowSet implements Comparable<RowSet>, RowSet, BatchRowSet, NotifyingRowSet {
   protected RowMetaInterface rowMeta;
 
   protected AtomicBoolean done;
@@ -46,6 +46,8 @@ abstract class BaseRowSet implements Comparable<RowSet>, RowSet {
 
   protected String remoteSlaveServerName;
 
+  protected volatile RowSetNotifier rowSetNotifier;
+
   /**
    * Create new non-blocking-queue with maxSize capacity.
    *
@@ -94,6 +96,45 @@ abstract class BaseRowSet implements Comparable<RowSet>, RowSet {
   @Override
   public abstract boolean putRowWait( RowMetaInterface rowMeta, Object[] rowData, long time, TimeUnit tu );
 
+  /**
+   * By default the rows are offered one at a time: the first one waits like {@link #putRow(RowMetaInterface, Object[])}
+   * does, the following ones are only added if there is room.
+   *
+   * @see org.pentaho.di.core.BatchRowSet#putRows(org.pentaho.di.core.row.RowMetaInterface, org.pentaho.di.core.RowBatch, int)
+   */
+  @Override
+  public int putRows( RowMetaInterface rowMeta, RowBatch batch, int offset ) {
+    int nrRows = batch.size();
+    if ( offset >= nrRows || !putRow( rowMeta, batch.get( offset ) ) ) {
+      return 0;
+    }
+    int added = 1;
+    while ( offset + added < nrRows && putRowWait( rowMeta, batch.get( offset + added ), 0, TimeUnit.MILLISECONDS ) ) {
+      added++;
+    }
+    return added;
+  }
+
+  /**
+   * By default the rows are read one at a time without waiting.
+   *
+   * @see org.pentaho.di.core.BatchRowSet#getRows(org.pentaho.di.core.RowBatch, int)
+   */
+  @Override
+  public int getRows( RowBatch batch, int maxRows ) {
+    int max = Math.min( maxRows, batch.remaining() );
+    int added = 0;
+    while ( added < max ) {
+      Object[] row = getRowWait( 0, TimeUnit.MILLISECONDS );
+      if ( row == null ) {
+        break;
+      }
+      batch.add( row );
+      added++;
+    }
+    return added;
+  }
+
   // default getRow with wait time = 100ms
   //
   /*
@@ -128,6 +169,7 @@ abstract class BaseRowSet implements Comparable<RowSet>, RowSet {
   @Override
   public void setDone() {
     done.set( true );
+    notifyReader();
   }
 
   /*
@@ -297,6 +339,27 @@ abstract class BaseRowSet implements Comparable<RowSet>, RowSet {
     this.remoteSlaveServerName = remoteSlaveServerName;
   }
 
+  /*
+   * (non-Javadoc)
+   *
+   * @see org.pentaho.di.core.NotifyingRowSet#setRowSetNotifier(org.pentaho.di.core.RowSetNotifier)
+   */
+  @Override
+  public void setRowSetNotifier( RowSetNotifier notifier ) {
+    this.rowSetNotifier = notifier;
+  }
+
+  /**
+   * Wakes up the reading step if it is waiting for rows on more than one rowset. To be called after a row was added or
+   * after the rowset was flagged as done.
+   */
+  protected void notifyReader() {
+    RowSetNotifier notifier = rowSetNotifier;
+    if ( notifier != null ) {
+      notifier.signal();
+    }
+  }
+
   /**
    * By default we don't report blocking, only for monitored transformations.
    *
@@ -0,0 +1,62 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2016 by Pentaho : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+package org.pentaho.di.core;
+
+import org.pentaho.di.core.row.RowMetaInterface;
+
+/**
+ * A rowset that can hand over several rows at once, implemented by the rowsets of the engine. Code working with any
+ * {@link RowSet} checks for this interface and falls back to moving the rows one at a time.
+ *
+ * @since 17-10-2016
+ *
+ */
+public interface BatchRowSet extends RowSet {
+
+  /**
+   * Offer the rows of a batch to this rowset, starting at the given position in the batch. If the buffer is full, wait
+   * (block) for a small period of time for room to put the first row. The remaining rows are only added as long as there
+   * is room for them.
+   *
+   * @param rowMeta
+   *          The description of the row data
+   * @param batch
+   *          the batch of rows to put
+   * @param offset
+   *          the position in the batch of the first row to put
+   * @return the number of rows that were added to the rowset, 0 if this buffer was full.
+   */
+  public int putRows( RowMetaInterface rowMeta, RowBatch batch, int offset );
+
+  /**
+   * Get the rows that are immediately available in the input buffer, without waiting, and add them to the end of the
+   * given batch.
+   *
+   * @param batch
+   *          the batch to add the rows to
+   * @param maxRows
+   *          the maximum number of rows to get
+   * @return the number of rows that were added to the batch
+   */
+  public int getRows( RowBatch batch, int maxRows );
+}
@@ -106,6 +106,7 @@ public class BlockingBatchingRowSet extends BaseRowSet implements Comparable<Row
       try {
         getArray.offer( inputBuffer, time, tu );
         inputBuffer = null;
+        notifyReader();
       } catch ( InterruptedException e ) {
         return false;
       }
@@ -177,6 +178,7 @@ public class BlockingBatchingRowSet extends BaseRowSet implements Comparable<Row
         inputBuffer[i] = null;
       }
       getArray.offer( inputBuffer );
+      notifyReader();
     }
     putArray.clear();
   }
@@ -77,8 +77,11 @@ public class BlockingRowSet extends BaseRowSet implements Comparable<RowSet>, Ro
   public boolean putRowWait( RowMetaInterface rowMeta, Object[] rowData, long time, TimeUnit tu ) {
     this.rowMeta = rowMeta;
     try {
-
-      return queArray.offer( rowData, time, tu );
+      if ( queArray.offer( rowData, time, tu ) ) {
+        notifyReader();
+        return true;
+      }
+      return false;
     } catch ( InterruptedException e ) {
       return false;
     } catch ( NullPointerException e ) {
@@ -87,6 +90,16 @@ public class BlockingRowSet extends BaseRowSet implements Comparable<RowSet>, Ro
 
   }
 
+  /**
+   * Drains the available rows from the queue while grabbing its lock only once.
+   *
+   * @see org.pentaho.di.core.BatchRowSet#getRows(org.pentaho.di.core.RowBatch, int)
+   */
+  @Override
+  public int getRows( RowBatch batch, int maxRows ) {
+    return queArray.drainTo( batch, Math.min( maxRows, batch.remaining() ) );
+  }
+
   // default getRow with wait time = 100ms
   //
   /*
@@ -780,6 +780,12 @@ public class Const {
    */
   public static final String KETTLE_CARTE_OBJECT_TIMEOUT_MINUTES = "KETTLE_CARTE_OBJECT_TIMEOUT_MINUTES";
 
+  /**
+   * The maximum number of requests to the incremental transformation status service that Carte holds at the same time
+   * while they wait for changes. Further requests are answered right away. (default = 10)
+   */
+  public static final String KETTLE_CARTE_MAX_STATUS_WAITERS = "KETTLE_CARTE_MAX_STATUS_WAITERS";
+
   /**
    * System wide parameter: the maximum number of step performance snapshots to keep in memory. Set to 0 to keep all
    * snapshots indefinitely (default)
@@ -823,6 +829,13 @@ public class Const {
    */
   public static final String KETTLE_PLUGIN_PACKAGES = "KETTLE_PLUGIN_PACKAGES";
 
+  /**
+   * Name of the environment variable to set to Y to keep the plugin annotations found in the jar files of the plugin
+   * folders in an index in the Kettle home directory. Only new or changed jar files are scanned at startup.
+   * (default = N)
+   */
+  public static final String KETTLE_PLUGIN_INDEX = "KETTLE_PLUGIN_INDEX";
+
   /**
    * Name of the environment variable that contains the size of the transformation rowset size. This overwrites values
    * that you set transformation settings.
@@ -924,6 +937,88 @@ public class Const {
    */
   public static final String KETTLE_BATCHING_ROWSET = "KETTLE_BATCHING_ROWSET";
 
+  /**
+   * Set this variable to Y to use a lock-free ring buffer row set for hops between a single step copy and another single
+   * step copy. This can be set per transformation. (default = N)
+   */
+  public static final String KETTLE_RING_BUFFER_ROWSET = "KETTLE_RING_BUFFER_ROWSET";
+
+  /**
+   * The name of the variable that contains the wait strategy of the lock-free ring buffer row set: SPIN, YIELD or PARK.
+   * (default = PARK)
+   */
+  public static final String KETTLE_RING_BUFFER_ROWSET_WAIT_STRATEGY = "KETTLE_RING_BUFFER_ROWSET_WAIT_STRATEGY";
+
+  /**
+   * The name of the variable that contains the number of rows passed at once to steps that can process batches of rows.
+   * Values of 0 or 1 disable row batching. (default = 0)
+   */
+  public static final String KETTLE_ROW_BATCH_SIZE = "KETTLE_ROW_BATCH_SIZE";
+
+  /**
+   * The name of the variable that defines how the step copies of a transformation are run: "thread" runs every step copy
+   * in its own thread, "pool" shares a bounded pool of threads between the steps of all transformations and "virtual"
+   * runs the step copies in virtual threads on Java runtimes that support them. This can be set per transformation.
+   * (default = thread)
+   */
+  public static final String KETTLE_STEP_SCHEDULER = "KETTLE_STEP_SCHEDULER";
+
+  /**
+   * The name of the variable that contains the number of threads of the shared step scheduler pool. (default = twice the
+   * number of processors)
+   */
+  public static final String KETTLE_STEP_SCHEDULER_POOL_SIZE = "KETTLE_STEP_SCHEDULER_POOL_SIZE";
+
+  /**
+   * The name of the variable that contains the number of threads the shared step scheduler pool can grow to when all of
+   * its threads are blocked. (default = 256)
+   */
+  public static final String KETTLE_STEP_SCHEDULER_MAX_POOL_SIZE = "KETTLE_STEP_SCHEDULER_MAX_POOL_SIZE";
+
+  /**
+   * The name of the variable that contains the memory budget shared by the row buffers of all steps of a
+   * transformation, in bytes, with a k, m or g suffix, or as a percentage of the maximum heap size. Steps like Sort Rows
+   * spill to disk when their buffers don't fit in the budget. This can be set per transformation. (default = no budget)
+   */
+  public static final String KETTLE_TRANS_MEMORY_BUDGET = "KETTLE_TRANS_MEMORY_BUDGET";
+
+  /**
+   * The name of the system property that contains the memory budget shared by all transformations running in the JVM,
+   * for example on a Carte server. The format is the same as for KETTLE_TRANS_MEMORY_BUDGET. (default = no budget)
+   */
+  public static final String KETTLE_GLOBAL_MEMORY_BUDGET = "KETTLE_GLOBAL_MEMORY_BUDGET";
+
+  /**
+   * Set this variable to Y to keep the rows that Stream Lookup and Database Lookup ("load all data") cache outside of
+   * the Java heap, in direct memory or in memory-mapped snapshot files. (default = N)
+   */
+  public static final String KETTLE_LOOKUP_CACHE_OFF_HEAP = "KETTLE_LOOKUP_CACHE_OFF_HEAP";
+
+  /**
+   * The name of the variable that contains the directory where Database Lookup stores the snapshots of its off-heap
+   * "load all data" caches, so that other step copies and later runs can map them instead of reading the table again.
+   * (default = no snapshots)
+   */
+  public static final String KETTLE_LOOKUP_CACHE_SNAPSHOT_DIR = "KETTLE_LOOKUP_CACHE_SNAPSHOT_DIR";
+
+  /**
+   * The name of the variable that contains the age in minutes after which a lookup cache snapshot is read again from
+   * the database. (default = 60)
+   */
+  public static final String KETTLE_LOOKUP_CACHE_SNAPSHOT_MAX_AGE = "KETTLE_LOOKUP_CACHE_SNAPSHOT_MAX_AGE";
+
+  /**
+   * Set this variable to Y to let the copies of a Database Lookup step and the transformations of the same job share
+   * one cache when they look up the same table with the same keys. (default = N)
+   */
+  public static final String KETTLE_LOOKUP_CACHE_SHARED = "KETTLE_LOOKUP_CACHE_SHARED";
+
+  /**
+   * The name of the variable that contains the number of seconds after which an entry of a Database Lookup cache
+   * expires, when the step doesn't load all data. (default = 0, entries don't expire)
+   */
+  public static final String KETTLE_LOOKUP_CACHE_TIME_TO_LIVE = "KETTLE_LOOKUP_CACHE_TIME_TO_LIVE";
+
   /**
    * Set this variable to Y to disable standard Kettle logging to the console. (stdout)
    */
@@ -998,6 +1093,68 @@ public class Const {
   public static final String KETTLE_AGGREGATION_MIN_NULL_IS_VALUED = "KETTLE_AGGREGATION_MIN_NULL_IS_VALUED";
   public static final String KETTLE_AGGREGATION_ALL_NULLS_ARE_ZERO = "KETTLE_AGGREGATION_ALL_NULLS_ARE_ZERO";
 
+  /**
+   * The name of the variable that contains the precision of the HyperLogLog sketches used by the approximate distinct
+   * count aggregates, between 4 and 18. The sketch takes 2^precision bytes. (default = 14, about 0.8% error)
+   */
+  public static final String KETTLE_AGGREGATION_DISTINCT_PRECISION = "KETTLE_AGGREGATION_DISTINCT_PRECISION";
+
+  /**
+   * The name of the variable that contains the compression of the t-digests used by the approximate median and
+   * percentile aggregates, roughly the number of centroids kept per group. (default = 100)
+   */
+  public static final String KETTLE_AGGREGATION_QUANTILE_COMPRESSION = "KETTLE_AGGREGATION_QUANTILE_COMPRESSION";
+
+  /**
+   * Set this variable to N to stop the transformation splitter from letting the slaves pre-aggregate the rows sent to
+   * a Memory Group By step on the master. (default = Y)
+   */
+  public static final String KETTLE_CLUSTER_PARTIAL_AGGREGATION = "KETTLE_CLUSTER_PARTIAL_AGGREGATION";
+
+  /**
+   * The name of the variable that contains the number of rows remote steps send over the network in a block, column by
+   * column. Set it to 0 to send the rows one by one like older versions do. (default = 1000)
+   */
+  public static final String KETTLE_REMOTE_STEP_ROW_BLOCK_SIZE = "KETTLE_REMOTE_STEP_ROW_BLOCK_SIZE";
+
+  /**
+   * Set this variable to Y to let the remote steps of a clustered transformation share a single connection per pair
+   * of slave servers instead of opening a server socket each. (default = N)
+   */
+  public static final String KETTLE_CLUSTER_MULTIPLEXED_TRANSPORT = "KETTLE_CLUSTER_MULTIPLEXED_TRANSPORT";
+
+  /**
+   * Set this variable to Y to let the Formula step compile the formulas it supports to Java classes instead of
+   * interpreting them for every row. Formulas using other functions are still interpreted. (default = N)
+   */
+  public static final String KETTLE_COMPILE_FORMULAS = "KETTLE_COMPILE_FORMULAS";
+
+  /**
+   * Set this variable to Y to let the Modified JavaScript Value step bind the field values used by a script as plain
+   * JavaScript values instead of creating wrapper objects for every row. Doesn't apply to compatibility mode.
+   * (default = N)
+   */
+  public static final String KETTLE_JAVASCRIPT_VALUE_SLOTS = "KETTLE_JAVASCRIPT_VALUE_SLOTS";
+
+  /**
+   * Set this variable to Y to let the Transformation Executor step prepare its transformation once and execute it for
+   * every group of rows with the single threaded engine. Only done when all the steps of the transformation support
+   * this. (default = N)
+   */
+  public static final String KETTLE_TRANS_EXECUTOR_REUSE = "KETTLE_TRANS_EXECUTOR_REUSE";
+
+  /**
+   * Set this variable to Y to keep the parsed XML of transformation and job files in memory. A file is only parsed
+   * again when its modification time or size changed. (default = N)
+   */
+  public static final String KETTLE_XML_FILE_CACHE = "KETTLE_XML_FILE_CACHE";
+
+  /**
+   * The maximum total size in KB of the transformation and job files of which the parsed XML is kept in memory. The
+   * least recently used documents are removed first. (default = 16384)
+   */
+  public static final String KETTLE_XML_FILE_CACHE_MAX_SIZE = "KETTLE_XML_FILE_CACHE_MAX_SIZE";
+
   /**
    * The name of the variable containing an alternative default timestamp format
    */
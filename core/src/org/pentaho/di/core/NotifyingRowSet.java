@@ -0,0 +1,43 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2016 by Pentaho : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+package org.pentaho.di.core;
+
+/**
+ * A rowset that can wake up the step reading from it, implemented by the rowsets of the engine. A step reading from
+ * several rowsets only waits on a {@link RowSetNotifier} when all of them implement this interface, otherwise it keeps
+ * polling them in turn.
+ *
+ * @since 17-10-2016
+ *
+ */
+public interface NotifyingRowSet extends RowSet {
+
+  /**
+   * Set the notifier of the step reading from this rowset. It is signalled every time a row is put in this rowset and
+   * when it is flagged as done, so that a step reading from several rowsets doesn't need to poll them.
+   *
+   * @param notifier
+   *          the notifier to signal or null to stop signalling
+   */
+  public void setRowSetNotifier( RowSetNotifier notifier );
+}
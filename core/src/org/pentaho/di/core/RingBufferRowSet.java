@@ -0,0 +1,304 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2016 by Pentaho : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+
+package org.pentaho.di.core;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.pentaho.di.core.row.RowMetaInterface;
+
+/**
+ * A row set that doesn't use any locks. It's a ring buffer that can only be used safely by exactly one writing thread
+ * and exactly one reading thread (single producer, single consumer). That is the case for a hop between a step with a
+ * single copy and another step with a single copy.<br>
+ * <br>
+ * The read and write positions are kept on separate cache lines to prevent false sharing between the 2 threads. When
+ * the buffer is empty or full we wait according to the configured {@link RowSetWaitStrategy}.
+ *
+ * @since 17-10-2016
+ *
+ */
+public class RingBufferRowSet extends BaseRowSet implements Comparable<RowSet>, RowSet {
+
+  /**
+   * An atomic long padded to fill a complete cache line.
+   */
+  @SuppressWarnings( "unused" )
+  private static final class PaddedSequence extends AtomicLong {
+    private static final long serialVersionUID = -3415778863406086371L;
+
+    public long p1, p2, p3, p4, p5, p6, p7 = 7L;
+
+    private PaddedSequence( long initialValue ) {
+      super( initialValue );
+    }
+  }
+
+  private final Object[][] buffer;
+  private final int capacity;
+  private final int mask;
+
+  /** The next position to read, only written by the reader thread */
+  private final PaddedSequence head;
+
+  /** The next position to write, only written by the writer thread */
+  private final PaddedSequence tail;
+
+  /** The writer's cached copy of the head, avoids reading the volatile for every row */
+  private long cachedHead;
+
+  /** The reader's cached copy of the tail, avoids reading the volatile for every row */
+  private long cachedTail;
+
+  private final RowSetWaitStrategy waitStrategy;
+
+  private int timeoutPut;
+  private int timeoutGet;
+
+  /**
+   * Create a new lock-free row set with the given capacity, using the {@link RowSetWaitStrategy#PARK} wait strategy.
+   *
+   * @param maxSize
+   *          the maximum number of rows in the row set
+   */
+  public RingBufferRowSet( int maxSize ) {
+    this( maxSize, RowSetWaitStrategy.PARK );
+  }
+
+  /**
+   * Create a new lock-free row set.
+   *
+   * @param maxSize
+   *          the maximum number of rows in the row set
+   * @param waitStrategy
+   *          the way to wait for the other thread when the buffer is empty or full
+   */
+  public RingBufferRowSet( int maxSize, RowSetWaitStrategy waitStrategy ) {
+    super();
+
+    capacity = Math.max( 1, maxSize );
+
+    // The internal buffer is rounded up to a power of 2 to allow for cheap index calculation.
+    // The capacity limit itself is still enforced exactly.
+    //
+    int bufferSize = Integer.highestOneBit( capacity );
+    if ( bufferSize < capacity ) {
+      bufferSize <<= 1;
+    }
+    buffer = new Object[bufferSize][];
+    mask = bufferSize - 1;
+
+    head = new PaddedSequence( 0L );
+    tail = new PaddedSequence( 0L );
+    cachedHead = 0L;
+    cachedTail = 0L;
+
+    this.waitStrategy = waitStrategy == null ? RowSetWaitStrategy.PARK : waitStrategy;
+
+    timeoutGet = Const.toInt( System.getProperty( Const.KETTLE_ROWSET_GET_TIMEOUT ), Const.TIMEOUT_GET_MILLIS );
+    timeoutPut = Const.toInt( System.getProperty( Const.KETTLE_ROWSET_PUT_TIMEOUT ), Const.TIMEOUT_PUT_MILLIS );
+  }
+
+  @Override
+  public boolean putRow( RowMetaInterface rowMeta, Object[] rowData ) {
+    return putRowWait( rowMeta, rowData, timeoutPut, TimeUnit.MILLISECONDS );
+  }
+
+  @Override
+  public boolean putRowWait( RowMetaInterface rowMeta, Object[] rowData, long time, TimeUnit tu ) {
+    if ( rowData == null ) {
+      return false;
+    }
+    this.rowMeta = rowMeta;
+
+    long currentTail = tail.get();
+    if ( currentTail - cachedHead >= capacity ) {
+      cachedHead = head.get();
+      if ( currentTail - cachedHead >= capacity ) {
+        long deadline = System.nanoTime() + tu.toNanos( time );
+        int counter = 0;
+        do {
+          if ( System.nanoTime() - deadline >= 0 || Thread.currentThread().isInterrupted() ) {
+            return false;
+          }
+          waitStrategy.idle( ++counter );
+          cachedHead = head.get();
+        } while ( currentTail - cachedHead >= capacity );
+      }
+    }
+
+    buffer[(int) currentTail & mask] = rowData;
+
+    // The ordered store publishes the row to the reader without a full memory fence
+    //
+    tail.lazySet( currentTail + 1 );
+    notifyReader();
+    return true;
+  }
+
+  /**
+   * Copies as many rows as there is room for and publishes them to the reader all at once.
+   *
+   * @see org.pentaho.di.core.BatchRowSet#putRows(org.pentaho.di.core.row.RowMetaInterface, org.pentaho.di.core.RowBatch, int)
+   */
+  @Override
+  public int putRows( RowMetaInterface rowMeta, RowBatch batch, int offset ) {
+    int nrRows = batch.size();
+    if ( offset >= nrRows ) {
+      return 0;
+    }
+    int added = 0;
+    long currentTail = tail.get();
+    if ( currentTail - cachedHead >= capacity ) {
+      // Only wait for room for the first row
+      //
+      if ( !putRow( rowMeta, batch.get( offset ) ) ) {
+        return 0;
+      }
+      added = 1;
+      currentTail++;
+    }
+    this.rowMeta = rowMeta;
+
+    if ( currentTail - cachedHead + ( nrRows - offset - added ) > capacity ) {
+      cachedHead = head.get();
+    }
+    long limit = cachedHead + capacity;
+    long position = currentTail;
+    while ( offset + added < nrRows && position < limit ) {
+      Object[] row = batch.get( offset + added );
+      if ( row == null ) {
+        break;
+      }
+      buffer[(int) position & mask] = row;
+      position++;
+      added++;
+    }
+    if ( position != currentTail ) {
+      tail.lazySet( position );
+      notifyReader();
+    }
+    return added;
+  }
+
+  /**
+   * Takes all the available rows and releases the space to the writer all at once.
+   *
+   * @see org.pentaho.di.core.BatchRowSet#getRows(org.pentaho.di.core.RowBatch, int)
+   */
+  @Override
+  public int getRows( RowBatch batch, int maxRows ) {
+    int max = Math.min( maxRows, batch.remaining() );
+    long currentHead = head.get();
+    if ( currentHead + max > cachedTail ) {
+      cachedTail = tail.get();
+    }
+    int available = (int) Math.min( max, cachedTail - currentHead );
+    for ( int i = 0; i < available; i++ ) {
+      int index = (int) ( currentHead + i ) & mask;
+      batch.add( buffer[index] );
+      buffer[index] = null; // prevent any hold-up to GC
+    }
+    if ( available > 0 ) {
+      head.lazySet( currentHead + available );
+    }
+    return Math.max( 0, available );
+  }
+
+  @Override
+  public Object[] getRow() {
+    return getRowWait( timeoutGet, TimeUnit.MILLISECONDS );
+  }
+
+  @Override
+  public Object[] getRowImmediate() {
+    long currentHead = head.get();
+    if ( currentHead >= cachedTail ) {
+      cachedTail = tail.get();
+      if ( currentHead >= cachedTail ) {
+        return null;
+      }
+    }
+    return take( currentHead );
+  }
+
+  @Override
+  public Object[] getRowWait( long timeout, TimeUnit tu ) {
+    long currentHead = head.get();
+    if ( currentHead >= cachedTail ) {
+      cachedTail = tail.get();
+      if ( currentHead >= cachedTail ) {
+        long deadline = System.nanoTime() + tu.toNanos( timeout );
+        int counter = 0;
+        do {
+          if ( System.nanoTime() - deadline >= 0 || Thread.currentThread().isInterrupted() ) {
+            return null;
+          }
+          waitStrategy.idle( ++counter );
+          cachedTail = tail.get();
+        } while ( currentHead >= cachedTail );
+      }
+    }
+    return take( currentHead );
+  }
+
+  private Object[] take( long currentHead ) {
+    int index = (int) currentHead & mask;
+    Object[] row = buffer[index];
+    buffer[index] = null; // prevent any hold-up to GC
+    head.lazySet( currentHead + 1 );
+    return row;
+  }
+
+  @Override
+  public int size() {
+    // Read the head first: the tail can only move forward in the mean time so the result is never negative.
+    //
+    long currentHead = head.get();
+    long currentTail = tail.get();
+    return (int) Math.max( 0L, currentTail - currentHead );
+  }
+
+  /**
+   * @return the wait strategy used by this row set
+   */
+  public RowSetWaitStrategy getWaitStrategy() {
+    return waitStrategy;
+  }
+
+  /**
+   * Clear the row set. This is only safe when neither the reader nor the writer thread is active.
+   */
+  @Override
+  public void clear() {
+    for ( int i = 0; i < buffer.length; i++ ) {
+      buffer[i] = null;
+    }
+    head.set( 0L );
+    tail.set( 0L );
+    cachedHead = 0L;
+    cachedTail = 0L;
+    done.set( false );
+  }
+}
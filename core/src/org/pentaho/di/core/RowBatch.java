@@ -0,0 +1,176 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2016 by Pentaho : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+
+package org.pentaho.di.core;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.RandomAccess;
+
+import org.pentaho.di.core.row.RowMetaInterface;
+
+/**
+ * A re-usable, fixed capacity batch of rows that share the same row metadata. Passing rows between steps in batches
+ * spreads the fixed per-row overhead (pause/stop checks, row listeners, partitioning, queue hand-off) over all the rows
+ * in the batch.<br>
+ * <br>
+ * This class is not thread-safe: a batch is filled and consumed by a single step thread.
+ *
+ * @since 17-10-2016
+ *
+ */
+public class RowBatch extends AbstractList<Object[]> implements RandomAccess {
+
+  /** The default number of rows in a batch */
+  public static final int DEFAULT_BATCH_SIZE = 256;
+
+  private RowMetaInterface rowMeta;
+
+  private Object[][] rows;
+
+  private int size;
+
+  /**
+   * Create a new empty batch with the default capacity.
+   */
+  public RowBatch() {
+    this( DEFAULT_BATCH_SIZE );
+  }
+
+  /**
+   * Create a new empty batch.
+   *
+   * @param capacity
+   *          the maximum number of rows in this batch
+   */
+  public RowBatch( int capacity ) {
+    if ( capacity <= 0 ) {
+      throw new IllegalArgumentException( "The capacity of a row batch needs to be larger than 0, not " + capacity );
+    }
+    rows = new Object[capacity][];
+    size = 0;
+  }
+
+  /**
+   * @return the maximum number of rows this batch can hold
+   */
+  public int capacity() {
+    return rows.length;
+  }
+
+  /**
+   * @return true if no more rows can be added to this batch
+   */
+  public boolean isFull() {
+    return size == rows.length;
+  }
+
+  /**
+   * @return the number of free slots in this batch
+   */
+  public int remaining() {
+    return rows.length - size;
+  }
+
+  /**
+   * Add a row at the end of the batch.
+   *
+   * @param row
+   *          the row to add
+   * @return true
+   * @throws IllegalStateException
+   *           in case the batch is full
+   */
+  @Override
+  public boolean add( Object[] row ) {
+    if ( size == rows.length ) {
+      throw new IllegalStateException( "Row batch is full, capacity is " + rows.length );
+    }
+    rows[size++] = row;
+    return true;
+  }
+
+  @Override
+  public Object[] get( int index ) {
+    if ( index >= size ) {
+      throw new IndexOutOfBoundsException( "Index: " + index + ", Size: " + size );
+    }
+    return rows[index];
+  }
+
+  /**
+   * Replace the row at the given position. This is typically used to transform the rows of a batch in place.
+   */
+  @Override
+  public Object[] set( int index, Object[] row ) {
+    if ( index >= size ) {
+      throw new IndexOutOfBoundsException( "Index: " + index + ", Size: " + size );
+    }
+    Object[] old = rows[index];
+    rows[index] = row;
+    return old;
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Only keep the first rows of the batch. In combination with {@link #set(int, Object[])} this allows a step to
+   * filter or compact a batch in place without allocating a new one.
+   *
+   * @param newSize
+   *          the new number of rows in the batch
+   */
+  public void truncate( int newSize ) {
+    if ( newSize < 0 || newSize > size ) {
+      throw new IndexOutOfBoundsException( "New size: " + newSize + ", Size: " + size );
+    }
+    Arrays.fill( rows, newSize, size, null ); // prevent any hold-up to GC
+    size = newSize;
+  }
+
+  /**
+   * Remove all rows from the batch. The row metadata is retained.
+   */
+  @Override
+  public void clear() {
+    truncate( 0 );
+  }
+
+  /**
+   * @return the metadata describing the rows in this batch
+   */
+  public RowMetaInterface getRowMeta() {
+    return rowMeta;
+  }
+
+  /**
+   * @param rowMeta
+   *          the metadata describing the rows in this batch
+   */
+  public void setRowMeta( RowMetaInterface rowMeta ) {
+    this.rowMeta = rowMeta;
+  }
+}
@@ -0,0 +1,119 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2016 by Pentaho : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+
+package org.pentaho.di.core;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Wakes up a step that reads from more than one row set as soon as one of them receives a row or is flagged as done.
+ * The reader calls {@link #clear()} before it scans its input row sets and {@link #await(long, TimeUnit)} when all of
+ * them turned out to be empty. Since a signal given after the clear is remembered, no wakeup can be lost in between.<br>
+ * <br>
+ * Signalling is cheap for the writers: as long as the reader is busy, nothing more than a volatile read is done.
+ *
+ * @since 17-10-2016
+ *
+ */
+public class RowSetNotifier {
+
+  private final ReentrantLock lock;
+  private final Condition rowsAvailable;
+
+  private volatile boolean signalled;
+  private volatile int waiting;
+
+  public RowSetNotifier() {
+    lock = new ReentrantLock();
+    rowsAvailable = lock.newCondition();
+  }
+
+  /**
+   * Signal that a row set got a new row or was flagged as done.
+   */
+  public void signal() {
+    if ( signalled ) {
+      // The reader didn't look at its row sets since the previous signal, it will see this row too.
+      //
+      return;
+    }
+    signalled = true;
+    if ( waiting > 0 ) {
+      lock.lock();
+      try {
+        rowsAvailable.signalAll();
+      } finally {
+        lock.unlock();
+      }
+    }
+  }
+
+  /**
+   * Forget about the previous signals, to be called before the row sets are scanned for rows.
+   */
+  public void clear() {
+    signalled = false;
+  }
+
+  /**
+   * @return true if a signal was given since the last call to {@link #clear()}
+   */
+  public boolean isSignalled() {
+    return signalled;
+  }
+
+  /**
+   * Wait until a signal is given or until the timeout expires. Returns immediately if a signal was already given since
+   * the last call to {@link #clear()}.
+   *
+   * @param timeout
+   *          The number of units of time to wait at most
+   * @param tu
+   *          The unit of time to use
+   * @return true if a signal was given, false if the timeout expired or if the thread was interrupted.
+   */
+  public boolean await( long timeout, TimeUnit tu ) {
+    if ( signalled ) {
+      return true;
+    }
+    lock.lock();
+    try {
+      waiting++;
+      try {
+        long nanos = tu.toNanos( timeout );
+        while ( !signalled && nanos > 0 ) {
+          nanos = rowsAvailable.awaitNanos( nanos );
+        }
+      } finally {
+        waiting--;
+      }
+      return signalled;
+    } catch ( InterruptedException e ) {
+      return false;
+    } finally {
+      lock.unlock();
+    }
+  }
+}
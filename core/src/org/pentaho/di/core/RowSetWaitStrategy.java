@@ -0,0 +1,100 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2016 by Pentaho : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+
+package org.pentaho.di.core;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Describes how a non-locking row set waits for its peer when the buffer is empty (reader) or full (writer).
+ *
+ * @since 17-10-2016
+ *
+ */
+public enum RowSetWaitStrategy {
+  /**
+   * Busy spin: lowest latency, burns a full core while waiting.
+   */
+  SPIN,
+
+  /**
+   * Spin for a short while, then hand the CPU back to the scheduler with Thread.yield().
+   */
+  YIELD,
+
+  /**
+   * Spin, then yield, then park the thread for short periods. The most friendly option when there are a lot more step
+   * threads than cores.
+   */
+  PARK;
+
+  private static final int SPIN_TRIES = 100;
+  private static final int YIELD_TRIES = 100;
+  private static final long PARK_NANOS = 1000L;
+
+  /**
+   * Wait a little bit.
+   *
+   * @param counter
+   *          the number of times we already waited without seeing progress from the other side.
+   */
+  public void idle( int counter ) {
+    switch ( this ) {
+      case SPIN:
+        break;
+      case YIELD:
+        if ( counter > SPIN_TRIES ) {
+          Thread.yield();
+        }
+        break;
+      default:
+        if ( counter > SPIN_TRIES + YIELD_TRIES ) {
+          LockSupport.parkNanos( PARK_NANOS );
+        } else if ( counter > SPIN_TRIES ) {
+          Thread.yield();
+        }
+        break;
+    }
+  }
+
+  /**
+   * Find the wait strategy with the given name, case insensitive.
+   *
+   * @param name
+   *          the name of the wait strategy
+   * @param defaultStrategy
+   *          the wait strategy to return if the name is empty or unknown
+   * @return the wait strategy
+   */
+  public static RowSetWaitStrategy getStrategy( String name, RowSetWaitStrategy defaultStrategy ) {
+    if ( Const.isEmpty( name ) ) {
+      return defaultStrategy;
+    }
+    for ( RowSetWaitStrategy strategy : values() ) {
+      if ( strategy.name().equalsIgnoreCase( name.trim() ) ) {
+        return strategy;
+      }
+    }
+    return defaultStrategy;
+  }
+}
@@ -56,6 +56,7 @@ public class SingleRowRowSet extends BaseRowSet implements Comparable<RowSet>, R
   public boolean putRow( RowMetaInterface rowMeta, Object[] rowData ) {
     this.rowMeta = rowMeta;
     this.row = rowData;
+    notifyReader();
     return true;
   }
 
@@ -64,6 +65,18 @@ public class SingleRowRowSet extends BaseRowSet implements Comparable<RowSet>, R
     return putRow( rowMeta, rowData );
   }
 
+  /**
+   * This row set can only hold a single row so only the first row of the batch is taken.
+   */
+  @Override
+  public int putRows( RowMetaInterface rowMeta, RowBatch batch, int offset ) {
+    if ( offset >= batch.size() ) {
+      return 0;
+    }
+    putRow( rowMeta, batch.get( offset ) );
+    return 1;
+  }
+
   @Override
   public int size() {
     return row == null ? 0 : 1;
@@ -0,0 +1,180 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2016 by Pentaho : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+
+package org.pentaho.di.core.cache;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.pentaho.di.core.exception.KettleException;
+
+/**
+ * A registry of named caches that are shared by the step copies of a transformation and by the transformations and
+ * jobs started from the same parent job. A cache is loaded by the first step copy that asks for it, the other ones
+ * wait for it to be loaded and then use the same instance.<br>
+ * <br>
+ * The caches are reference counted: they stay in the registry after their last user released them so that later
+ * transformations of the same job can use them, until the registry is closed when the job or transformation owning it
+ * finishes. Caches implementing {@link Closeable} are closed once they are no longer registered and no longer
+ * referenced.
+ *
+ * @since 17-10-2016
+ *
+ */
+public class SharedCacheRegistry {
+
+  /**
+   * Loads a cache the first time it is asked for.
+   */
+  public interface Loader<T> {
+    T load() throws KettleException;
+  }
+
+  private static final class Entry {
+    private Object cache;
+    private int references;
+  }
+
+  private final Map<String, Entry> entries;
+  private boolean closed;
+
+  public SharedCacheRegistry() {
+    entries = new HashMap<String, Entry>();
+  }
+
+  /**
+   * Get the cache with the given name, loading it if it isn't in the registry yet. Other threads asking for the same
+   * cache while it is loaded wait for the loader to finish. Every successful call needs to be followed by a call to
+   * {@link #release(String)}.
+   *
+   * @param name
+   *          the name of the cache, it needs to describe everything that determines the content of the cache
+   * @param loader
+   *          the loader to use if the cache isn't loaded yet
+   * @return the cache
+   * @throws KettleException
+   *           in case the loader failed, the next caller will try to load the cache again
+   */
+  @SuppressWarnings( "unchecked" )
+  public <T> T acquire( String name, Loader<T> loader ) throws KettleException {
+    Entry entry;
+    synchronized ( entries ) {
+      entry = entries.get( name );
+      if ( entry == null ) {
+        entry = new Entry();
+        entries.put( name, entry );
+      }
+      entry.references++;
+    }
+
+    boolean loaded = false;
+    try {
+      synchronized ( entry ) {
+        if ( entry.cache == null ) {
+          entry.cache = loader.load();
+        }
+        loaded = true;
+        return (T) entry.cache;
+      }
+    } finally {
+      if ( !loaded ) {
+        release( name );
+      }
+    }
+  }
+
+  /**
+   * Release a cache acquired earlier.
+   *
+   * @param name
+   *          the name of the cache
+   */
+  public void release( String name ) {
+    Object dispose = null;
+    synchronized ( entries ) {
+      Entry entry = entries.get( name );
+      if ( entry == null ) {
+        return;
+      }
+      entry.references--;
+      if ( entry.references <= 0 && ( closed || entry.cache == null ) ) {
+        entries.remove( name );
+        dispose = entry.cache;
+      }
+    }
+    dispose( dispose );
+  }
+
+  /**
+   * Remove all the caches from the registry. Caches still in use are closed when they are released.
+   */
+  public void close() {
+    List<Object> dispose = new ArrayList<Object>();
+    synchronized ( entries ) {
+      closed = true;
+      for ( String name : new ArrayList<String>( entries.keySet() ) ) {
+        Entry entry = entries.get( name );
+        if ( entry.references <= 0 ) {
+          entries.remove( name );
+          dispose.add( entry.cache );
+        }
+      }
+    }
+    for ( Object cache : dispose ) {
+      dispose( cache );
+    }
+  }
+
+  /**
+   * @return the number of step copies using the cache with the given name
+   */
+  public int getReferenceCount( String name ) {
+    synchronized ( entries ) {
+      Entry entry = entries.get( name );
+      return entry == null ? 0 : entry.references;
+    }
+  }
+
+  /**
+   * @return the number of caches in the registry
+   */
+  public int size() {
+    synchronized ( entries ) {
+      return entries.size();
+    }
+  }
+
+  private static void dispose( Object cache ) {
+    if ( cache instanceof Closeable ) {
+      try {
+        ( (Closeable) cache ).close();
+      } catch ( IOException e ) {
+        // Nothing to do about it, the cache isn't used anymore
+      }
+    }
+  }
+}
@@ -0,0 +1,577 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2016 by Pentaho : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+
+package org.pentaho.di.core.hash;
+
+import java.util.Arrays;
+import java.util.Date;
+
+import org.pentaho.di.core.exception.KettleValueException;
+import org.pentaho.di.core.row.RowMetaInterface;
+import org.pentaho.di.core.row.ValueMetaInterface;
+
+/**
+ * A hash index from composite keys to rows of values that keeps its data in columns of primitives instead of in row
+ * objects. Integers, numbers, booleans and date keys are stored in long arrays, strings as characters in shared pages
+ * and the other values as they are. Date values are kept as they are too, they can be timestamps or SQL dates. The
+ * entries are stored one after the other, the hash table itself is an array of entry numbers with open addressing
+ * (linear probing). When the values of a key are replaced, a string that doesn't fit in the characters of the old one
+ * is stored anew and the pages are compacted once too many characters are unused.<br>
+ * <br>
+ * Keys are compared the way {@link RowMetaInterface#compare(Object[], Object[])} compares them, so nulls (and empty
+ * strings) are equal to each other. Looking up a key doesn't allocate anything, only the returned value row is
+ * created. The index is not thread safe.
+ *
+ * @since 17-10-2016
+ *
+ */
+public class ColumnarHashIndex {
+
+  private static final int STANDARD_INDEX_SIZE = 512;
+  private static final float STANDARD_LOAD_FACTOR = 0.6f;
+
+  private static final int KIND_LONG = 0;
+  private static final int KIND_STRING = 1;
+  private static final int KIND_OBJECT = 2;
+
+  private final Column[] keyColumns;
+  private final Column[] valueColumns;
+  private CharPool charPool;
+
+  /** The entry number + 1 for every slot of the hash table, 0 for an empty slot */
+  private int[] table;
+  private int resizeThresHold;
+
+  /** The hash code of every entry */
+  private int[] hashes;
+  private int size;
+
+  // The key being looked up, converted once before probing
+  private final long[] probeLongs;
+  private final String[] probeStrings;
+  private final boolean[] probeNulls;
+
+  /**
+   * Create a new columnar hash index
+   *
+   * @param keyMeta
+   *          the metadata of the keys, see {@link #isSupported(RowMetaInterface)}
+   * @param valueMeta
+   *          the metadata of the values
+   * @param size
+   *          the initial size of the hash index
+   */
+  public ColumnarHashIndex( RowMetaInterface keyMeta, RowMetaInterface valueMeta, int size ) {
+    if ( !isSupported( keyMeta ) ) {
+      throw new IllegalArgumentException( "The keys can't be stored in a columnar hash index: " + keyMeta );
+    }
+    keyColumns = new Column[keyMeta.size()];
+    for ( int i = 0; i < keyColumns.length; i++ ) {
+      keyColumns[i] = new Column( keyMeta.getValueMeta( i ), getKind( keyMeta.getValueMeta( i ) ) );
+    }
+    valueColumns = new Column[valueMeta.size()];
+    for ( int i = 0; i < valueColumns.length; i++ ) {
+      ValueMetaInterface valueFieldMeta = valueMeta.getValueMeta( i );
+      int kind = valueFieldMeta.getType() == ValueMetaInterface.TYPE_DATE ? KIND_OBJECT : getKind( valueFieldMeta );
+      valueColumns[i] = new Column( valueFieldMeta, kind );
+    }
+    charPool = new CharPool();
+
+    // Find a suitable capacity being a factor of 2:
+    int factor2Size = 1;
+    while ( factor2Size < size ) {
+      factor2Size <<= 1; // Multiply by 2
+    }
+    table = new int[factor2Size];
+    resizeThresHold = (int) ( factor2Size * STANDARD_LOAD_FACTOR );
+    hashes = new int[resizeThresHold + 1];
+    for ( Column column : keyColumns ) {
+      column.setCapacity( hashes.length );
+    }
+    for ( Column column : valueColumns ) {
+      column.setCapacity( hashes.length );
+    }
+
+    probeLongs = new long[keyColumns.length];
+    probeStrings = new String[keyColumns.length];
+    probeNulls = new boolean[keyColumns.length];
+  }
+
+  /**
+   * Create a new columnar hash index
+   *
+   * @param keyMeta
+   *          the metadata of the keys, see {@link #isSupported(RowMetaInterface)}
+   * @param valueMeta
+   *          the metadata of the values
+   */
+  public ColumnarHashIndex( RowMetaInterface keyMeta, RowMetaInterface valueMeta ) {
+    this( keyMeta, valueMeta, STANDARD_INDEX_SIZE );
+  }
+
+  /**
+   * See if keys with the given metadata can be stored in a columnar hash index: all key fields need to be integers,
+   * numbers, dates, booleans or case sensitive strings in normal storage.
+   *
+   * @param keyMeta
+   *          the metadata of the keys
+   * @return true if the keys are supported
+   */
+  public static boolean isSupported( RowMetaInterface keyMeta ) {
+    for ( ValueMetaInterface valueMeta : keyMeta.getValueMetaList() ) {
+      if ( valueMeta.getStorageType() != ValueMetaInterface.STORAGE_TYPE_NORMAL ) {
+        return false;
+      }
+      int kind = getKind( valueMeta );
+      if ( kind == KIND_OBJECT || ( kind == KIND_STRING && valueMeta.isCaseInsensitive() ) ) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  public int getSize() {
+    return size;
+  }
+
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  /**
+   * Look up the values of a key.
+   *
+   * @param keyData
+   *          the key, in normal storage
+   * @return a new row with the values or null if the key isn't in the index
+   * @throws KettleValueException
+   *           in case a key can't be converted
+   */
+  public Object[] get( Object[] keyData ) throws KettleValueException {
+    int entry = find( keyData );
+    if ( entry < 0 ) {
+      return null;
+    }
+    Object[] valueData = new Object[valueColumns.length];
+    for ( int i = 0; i < valueColumns.length; i++ ) {
+      valueData[i] = valueColumns[i].getValue( entry, charPool );
+    }
+    return valueData;
+  }
+
+  /**
+   * Store the values of a key, replacing the values stored earlier for the same key.
+   *
+   * @param keyData
+   *          the key, in normal storage
+   * @param valueData
+   *          the values, in the storage type of the value metadata
+   * @throws KettleValueException
+   *           in case a key or value can't be converted
+   */
+  public void put( Object[] keyData, Object[] valueData ) throws KettleValueException {
+    int entry = find( keyData );
+    boolean replace = entry >= 0;
+    if ( !replace ) {
+      int slot = -( entry + 1 );
+      entry = size;
+      if ( entry == hashes.length ) {
+        growEntries();
+      }
+      hashes[entry] = probeHash();
+      for ( int i = 0; i < keyColumns.length; i++ ) {
+        keyColumns[i].setKey( entry, probeNulls[i], probeLongs[i], probeStrings[i], charPool );
+      }
+      table[slot] = entry + 1;
+      size++;
+      if ( size >= resizeThresHold ) {
+        resize();
+      }
+    }
+    for ( int i = 0; i < valueColumns.length; i++ ) {
+      valueColumns[i].setValue( entry, valueData[i], replace, charPool );
+    }
+    if ( charPool.needsCompaction() ) {
+      compactStrings();
+    }
+  }
+
+  /**
+   * Copy the strings that are still in use to new pages, leaving out the characters of replaced values.
+   */
+  private void compactStrings() {
+    CharPool compacted = new CharPool();
+    for ( Column column : keyColumns ) {
+      column.moveStrings( size, charPool, compacted );
+    }
+    for ( Column column : valueColumns ) {
+      column.moveStrings( size, charPool, compacted );
+    }
+    charPool = compacted;
+  }
+
+  /**
+   * Converts the key and probes the hash table for it.
+   *
+   * @return the entry number of the key or -(slot + 1) with the empty slot it should be stored in.
+   */
+  private int find( Object[] keyData ) throws KettleValueException {
+    for ( int i = 0; i < keyColumns.length; i++ ) {
+      Column column = keyColumns[i];
+      Object data = keyData[i];
+      probeNulls[i] = column.valueMeta.isNull( data );
+      probeStrings[i] = null;
+      probeLongs[i] = 0L;
+      if ( !probeNulls[i] ) {
+        if ( column.kind == KIND_STRING ) {
+          probeStrings[i] = column.valueMeta.getString( data );
+        } else {
+          probeLongs[i] = column.toLong( data );
+        }
+      }
+    }
+
+    int hashCode = probeHash();
+    int mask = table.length - 1;
+    int slot = hashCode & mask;
+    while ( true ) {
+      int entry = table[slot] - 1;
+      if ( entry < 0 ) {
+        return -( slot + 1 );
+      }
+      if ( hashes[entry] == hashCode && equalsProbe( entry ) ) {
+        return entry;
+      }
+      slot = ( slot + 1 ) & mask;
+    }
+  }
+
+  private int probeHash() {
+    int hashCode = 1;
+    for ( int i = 0; i < keyColumns.length; i++ ) {
+      int hash;
+      if ( probeNulls[i] ) {
+        hash = 0;
+      } else if ( probeStrings[i] != null ) {
+        hash = probeStrings[i].hashCode();
+      } else {
+        hash = (int) ( probeLongs[i] ^ ( probeLongs[i] >>> 32 ) );
+      }
+      hashCode = 31 * hashCode + hash;
+    }
+    // Spread the bits as the table size is a power of 2
+    hashCode *= 0x9E3779B9;
+    return hashCode ^ ( hashCode >>> 16 );
+  }
+
+  private boolean equalsProbe( int entry ) {
+    for ( int i = 0; i < keyColumns.length; i++ ) {
+      Column column = keyColumns[i];
+      boolean isNull = column.isNull( entry );
+      if ( isNull != probeNulls[i] ) {
+        return false;
+      }
+      if ( isNull ) {
+        continue;
+      }
+      if ( column.kind == KIND_STRING ) {
+        if ( !charPool.equals( column.longs[entry], column.lengths[entry], probeStrings[i] ) ) {
+          return false;
+        }
+      } else if ( column.longs[entry] != probeLongs[i] ) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private void growEntries() {
+    int capacity = hashes.length + ( hashes.length >> 1 ) + 1;
+    hashes = Arrays.copyOf( hashes, capacity );
+    for ( Column column : keyColumns ) {
+      column.setCapacity( capacity );
+    }
+    for ( Column column : valueColumns ) {
+      column.setCapacity( capacity );
+    }
+  }
+
+  private void resize() {
+    // Double the size to keep the size of the index a factor of 2, only the entry numbers move
+    //
+    int newSize = 2 * table.length;
+    int mask = newSize - 1;
+    int[] newTable = new int[newSize];
+    for ( int entry = 0; entry < size; entry++ ) {
+      int slot = hashes[entry] & mask;
+      while ( newTable[slot] != 0 ) {
+        slot = ( slot + 1 ) & mask;
+      }
+      newTable[slot] = entry + 1;
+    }
+    table = newTable;
+    resizeThresHold = (int) ( newSize * STANDARD_LOAD_FACTOR );
+  }
+
+  private static int getKind( ValueMetaInterface valueMeta ) {
+    if ( valueMeta.getStorageType() != ValueMetaInterface.STORAGE_TYPE_NORMAL ) {
+      return KIND_OBJECT;
+    }
+    switch ( valueMeta.getType() ) {
+      case ValueMetaInterface.TYPE_INTEGER:
+      case ValueMetaInterface.TYPE_NUMBER:
+      case ValueMetaInterface.TYPE_DATE:
+      case ValueMetaInterface.TYPE_BOOLEAN:
+        return KIND_LONG;
+      case ValueMetaInterface.TYPE_STRING:
+        return KIND_STRING;
+      default:
+        return KIND_OBJECT;
+    }
+  }
+
+  /**
+   * The values of one key or value field for all the entries. Longs hold the converted values or the addresses of the
+   * strings in the character pool.
+   */
+  private static final class Column {
+    private final ValueMetaInterface valueMeta;
+    private final int kind;
+
+    private long[] longs;
+    private int[] lengths;
+    private Object[] objects;
+    private long[] nulls;
+
+    Column( ValueMetaInterface valueMeta, int kind ) {
+      this.valueMeta = valueMeta;
+      this.kind = kind;
+      this.nulls = new long[0];
+    }
+
+    void setCapacity( int capacity ) {
+      switch ( kind ) {
+        case KIND_STRING:
+          lengths = lengths == null ? new int[capacity] : Arrays.copyOf( lengths, capacity );
+          longs = longs == null ? new long[capacity] : Arrays.copyOf( longs, capacity );
+          break;
+        case KIND_LONG:
+          longs = longs == null ? new long[capacity] : Arrays.copyOf( longs, capacity );
+          break;
+        default:
+          objects = objects == null ? new Object[capacity] : Arrays.copyOf( objects, capacity );
+          break;
+      }
+      nulls = Arrays.copyOf( nulls, ( capacity + 63 ) >>> 6 );
+    }
+
+    boolean isNull( int entry ) {
+      return ( nulls[entry >>> 6] & ( 1L << entry ) ) != 0;
+    }
+
+    void setNull( int entry, boolean isNull ) {
+      if ( isNull ) {
+        nulls[entry >>> 6] |= 1L << entry;
+      } else {
+        nulls[entry >>> 6] &= ~( 1L << entry );
+      }
+    }
+
+    void setKey( int entry, boolean isNull, long value, String string, CharPool charPool ) {
+      setNull( entry, isNull );
+      if ( isNull ) {
+        return;
+      }
+      if ( kind == KIND_STRING ) {
+        longs[entry] = charPool.add( string );
+        lengths[entry] = string.length();
+      } else {
+        longs[entry] = value;
+      }
+    }
+
+    /**
+     * @param replace
+     *          true if the entry already had a value
+     */
+    void setValue( int entry, Object data, boolean replace, CharPool charPool ) throws KettleValueException {
+      if ( kind == KIND_OBJECT ) {
+        objects[entry] = data;
+        return;
+      }
+      boolean hadString = kind == KIND_STRING && replace && !isNull( entry );
+      setNull( entry, data == null );
+      if ( data == null ) {
+        if ( hadString ) {
+          charPool.release( lengths[entry] );
+        }
+        return;
+      }
+      if ( kind == KIND_STRING ) {
+        String string = (String) data;
+        if ( hadString && string.length() <= lengths[entry] ) {
+          // Overwrite the old characters, only the part it doesn't use anymore is lost
+          charPool.set( longs[entry], string );
+          charPool.release( lengths[entry] - string.length() );
+        } else {
+          if ( hadString ) {
+            charPool.release( lengths[entry] );
+          }
+          longs[entry] = charPool.add( string );
+        }
+        lengths[entry] = string.length();
+      } else {
+        longs[entry] = toLong( data );
+      }
+    }
+
+    void moveStrings( int size, CharPool from, CharPool to ) {
+      if ( kind != KIND_STRING ) {
+        return;
+      }
+      for ( int entry = 0; entry < size; entry++ ) {
+        if ( !isNull( entry ) ) {
+          longs[entry] = to.add( from.get( longs[entry], lengths[entry] ) );
+        }
+      }
+    }
+
+    Object getValue( int entry, CharPool charPool ) {
+      if ( kind == KIND_OBJECT ) {
+        return objects[entry];
+      }
+      if ( isNull( entry ) ) {
+        return null;
+      }
+      if ( kind == KIND_STRING ) {
+        return charPool.get( longs[entry], lengths[entry] );
+      }
+      long value = longs[entry];
+      switch ( valueMeta.getType() ) {
+        case ValueMetaInterface.TYPE_INTEGER:
+          return Long.valueOf( value );
+        case ValueMetaInterface.TYPE_NUMBER:
+          return Double.valueOf( Double.longBitsToDouble( value ) );
+        case ValueMetaInterface.TYPE_DATE:
+          return new Date( value );
+        default:
+          return Boolean.valueOf( value != 0L );
+      }
+    }
+
+    long toLong( Object data ) throws KettleValueException {
+      switch ( valueMeta.getType() ) {
+        case ValueMetaInterface.TYPE_INTEGER:
+          return valueMeta.getInteger( data ).longValue();
+        case ValueMetaInterface.TYPE_NUMBER:
+          return Double.doubleToLongBits( valueMeta.getNumber( data ).doubleValue() );
+        case ValueMetaInterface.TYPE_DATE:
+          return valueMeta.getDate( data ).getTime();
+        default:
+          return valueMeta.getBoolean( data ).booleanValue() ? 1L : 0L;
+      }
+    }
+  }
+
+  /**
+   * Stores the characters of strings in pages of 1M characters. A string is addressed by its page number in the high
+   * and its offset in the low 32 bits of a long. Strings longer than a page get a page of their own.
+   */
+  private static final class CharPool {
+    private static final int PAGE_SIZE = 1 << 20;
+
+    private char[][] pages = new char[0][];
+    private char[] page;
+    private int pageNr;
+    private int used;
+
+    /** The number of characters stored and the number of those that aren't used anymore */
+    private long stored;
+    private long released;
+
+    long add( String string ) {
+      int length = string.length();
+      stored += length;
+      if ( length > PAGE_SIZE ) {
+        char[] bigPage = new char[length];
+        string.getChars( 0, length, bigPage, 0 );
+        addPage( bigPage );
+        return (long) ( pages.length - 1 ) << 32;
+      }
+      if ( page == null || used + length > page.length ) {
+        page = new char[PAGE_SIZE];
+        used = 0;
+        addPage( page );
+        pageNr = pages.length - 1;
+      }
+      string.getChars( 0, length, page, used );
+      long address = ( (long) pageNr << 32 ) | used;
+      used += length;
+      return address;
+    }
+
+    /**
+     * Overwrite the characters of a string with a string of the same length or shorter.
+     */
+    void set( long address, String string ) {
+      string.getChars( 0, string.length(), pages[(int) ( address >>> 32 )], (int) address );
+    }
+
+    /**
+     * Signal that a number of characters isn't used anymore.
+     */
+    void release( int length ) {
+      released += length;
+    }
+
+    /**
+     * @return true if more than half of the characters, and at least a page worth of them, aren't used anymore
+     */
+    boolean needsCompaction() {
+      return released > PAGE_SIZE && released * 2 > stored;
+    }
+
+    private void addPage( char[] newPage ) {
+      pages = Arrays.copyOf( pages, pages.length + 1 );
+      pages[pages.length - 1] = newPage;
+    }
+
+    boolean equals( long address, int length, String string ) {
+      if ( length != string.length() ) {
+        return false;
+      }
+      char[] chars = pages[(int) ( address >>> 32 )];
+      int offset = (int) address;
+      for ( int i = 0; i < length; i++ ) {
+        if ( chars[offset + i] != string.charAt( i ) ) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    String get( long address, int length ) {
+      return new String( pages[(int) ( address >>> 32 )], (int) address, length );
+    }
+  }
+}
@@ -0,0 +1,593 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2016 by Pentaho : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+
+package org.pentaho.di.core.hash;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import org.pentaho.di.core.exception.KettleException;
+import org.pentaho.di.core.exception.KettleFileException;
+import org.pentaho.di.core.row.RowMetaInterface;
+import org.pentaho.di.core.row.ValueMetaInterface;
+
+/**
+ * A hash index from key rows to value rows that keeps its data outside of the Java heap. The rows are serialized into
+ * segments of 64MB, either direct buffers or parts of a memory-mapped file. The hash table (open addressing, linear
+ * probing) holds the addresses of the rows and their hash codes in direct buffers as well, so the heap only holds
+ * a few objects whatever the number of rows.<br>
+ * <br>
+ * A file backed index can be finished into a snapshot, which can then be opened read-only by other step copies or
+ * later runs: the rows are mapped from the file, only the hash table is rebuilt.<br>
+ * <br>
+ * Keys are compared on their serialized form. Null values and empty strings are treated as the same key, like
+ * {@link RowMetaInterface#compare(Object[], Object[])} does. Putting a key that is already present replaces its values.
+ * The index is not thread safe.
+ *
+ * @since 17-10-2016
+ *
+ */
+public class OffHeapHashIndex {
+
+  /** The size of the segments the rows are stored in, no row can be larger than this */
+  static final int SEGMENT_SIZE = 64 * 1024 * 1024;
+
+  private static final int HEADER_SIZE = 64;
+  private static final long MAGIC = 0x4B4C4F4F4B555031L;
+  private static final int RECORD_HEADER_SIZE = 8;
+  private static final int MAX_TABLE_SIZE = 1 << 27;
+  private static final int STANDARD_INDEX_SIZE = 1024;
+  private static final float STANDARD_LOAD_FACTOR = 0.7f;
+
+  private final RowMetaInterface keyMeta;
+  private final RowMetaInterface valueMeta;
+  private final long fingerprint;
+
+  private final FileChannel channel;
+  private final boolean readOnly;
+
+  private ByteBuffer[] segments;
+  private ByteBuffer[] readViews;
+  private int segmentCount;
+  private ByteBuffer currentSegment;
+
+  /** The address + 1 of the row of every slot, 0 for an empty slot */
+  private LongBuffer addresses;
+  private IntBuffer hashCodes;
+  private int tableSize;
+  private int resizeThresHold;
+  private int size;
+
+  // Reused for every row we serialize or read back
+  private final Object[] keyData;
+  private final ExposedByteArrayOutputStream keyBytes;
+  private final DataOutputStream keyOutputStream;
+  private final ExposedByteArrayOutputStream valueBytes;
+  private final DataOutputStream valueOutputStream;
+  private final ByteBufferInputStream valueInput;
+  private final DataInputStream valueInputStream;
+
+  private OffHeapHashIndex( RowMetaInterface keyMeta, RowMetaInterface valueMeta, FileChannel channel,
+    boolean readOnly ) {
+    this.keyMeta = keyMeta;
+    this.valueMeta = valueMeta;
+    this.fingerprint = getFingerprint( keyMeta, valueMeta );
+    this.channel = channel;
+    this.readOnly = readOnly;
+
+    segments = new ByteBuffer[4];
+    readViews = new ByteBuffer[4];
+    createTable( STANDARD_INDEX_SIZE );
+
+    keyData = new Object[keyMeta.size()];
+    keyBytes = new ExposedByteArrayOutputStream();
+    keyOutputStream = new DataOutputStream( keyBytes );
+    valueBytes = new ExposedByteArrayOutputStream();
+    valueOutputStream = new DataOutputStream( valueBytes );
+    valueInput = new ByteBufferInputStream();
+    valueInputStream = new DataInputStream( valueInput );
+  }
+
+  /**
+   * Create a new off-heap hash index in direct memory. The size of the direct memory is limited by the
+   * -XX:MaxDirectMemorySize JVM option.
+   *
+   * @param keyMeta
+   *          the metadata of the keys
+   * @param valueMeta
+   *          the metadata of the values
+   */
+  public OffHeapHashIndex( RowMetaInterface keyMeta, RowMetaInterface valueMeta ) {
+    this( keyMeta, valueMeta, null, false );
+  }
+
+  /**
+   * Create a new off-heap hash index in a memory-mapped file. Call {@link #finish()} once all rows are stored to turn
+   * the file into a snapshot that can be opened with {@link #open(RowMetaInterface, RowMetaInterface, File)}.
+   *
+   * @param keyMeta
+   *          the metadata of the keys
+   * @param valueMeta
+   *          the metadata of the values
+   * @param file
+   *          the file to store the rows in, it is overwritten
+   * @return the new index
+   * @throws KettleFileException
+   *           in case the file can't be created
+   */
+  public static OffHeapHashIndex create( RowMetaInterface keyMeta, RowMetaInterface valueMeta, File file )
+    throws KettleFileException {
+    try {
+      RandomAccessFile randomAccessFile = new RandomAccessFile( file, "rw" );
+      randomAccessFile.setLength( 0L );
+      return new OffHeapHashIndex( keyMeta, valueMeta, randomAccessFile.getChannel(), false );
+    } catch ( IOException e ) {
+      throw new KettleFileException( "Unable to create lookup snapshot file " + file, e );
+    }
+  }
+
+  /**
+   * Open a snapshot written by an index created with {@link #create(RowMetaInterface, RowMetaInterface, File)}. The
+   * rows are mapped read-only from the file.
+   *
+   * @param keyMeta
+   *          the metadata of the keys
+   * @param valueMeta
+   *          the metadata of the values
+   * @param file
+   *          the snapshot file
+   * @return the index or null if the file doesn't exist, isn't a complete snapshot or was written for other metadata
+   * @throws KettleFileException
+   *           in case the file can't be read
+   */
+  public static OffHeapHashIndex open( RowMetaInterface keyMeta, RowMetaInterface valueMeta, File file )
+    throws KettleFileException {
+    if ( !file.isFile() || file.length() < HEADER_SIZE ) {
+      return null;
+    }
+    FileChannel channel = null;
+    try {
+      channel = new RandomAccessFile( file, "r" ).getChannel();
+      ByteBuffer header = ByteBuffer.allocate( HEADER_SIZE );
+      channel.read( header, 0L );
+      header.flip();
+      if ( header.getLong() != MAGIC || header.getLong() != getFingerprint( keyMeta, valueMeta ) ) {
+        channel.close();
+        return null;
+      }
+      int segmentCount = header.getInt();
+      if ( channel.size() < HEADER_SIZE + (long) segmentCount * SEGMENT_SIZE ) {
+        channel.close();
+        return null;
+      }
+
+      OffHeapHashIndex index = new OffHeapHashIndex( keyMeta, valueMeta, channel, true );
+      for ( int i = 0; i < segmentCount; i++ ) {
+        index.addSegment( channel.map( FileChannel.MapMode.READ_ONLY, HEADER_SIZE + (long) i * SEGMENT_SIZE,
+          SEGMENT_SIZE ) );
+      }
+      index.rebuildTable();
+      return index;
+    } catch ( Exception e ) {
+      closeQuietly( channel );
+      throw new KettleFileException( "Unable to open lookup snapshot file " + file, e );
+    }
+  }
+
+  /**
+   * See if rows with the given metadata can be stored in an off-heap hash index: the keys can't contain case
+   * insensitive strings, big numbers (which can be equal with different scales) or serializable objects, and need to be
+   * in normal storage. Values can be anything but serializable objects.
+   *
+   * @param keyMeta
+   *          the metadata of the keys
+   * @param valueMeta
+   *          the metadata of the values
+   * @return true if the rows are supported
+   */
+  public static boolean isSupported( RowMetaInterface keyMeta, RowMetaInterface valueMeta ) {
+    for ( ValueMetaInterface meta : keyMeta.getValueMetaList() ) {
+      if ( meta.getStorageType() != ValueMetaInterface.STORAGE_TYPE_NORMAL || meta.isBigNumber()
+        || ( meta.isString() && meta.isCaseInsensitive() ) || !isSerializable( meta ) ) {
+        return false;
+      }
+    }
+    for ( ValueMetaInterface meta : valueMeta.getValueMetaList() ) {
+      if ( !isSerializable( meta ) ) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static boolean isSerializable( ValueMetaInterface meta ) {
+    return meta.getType() != ValueMetaInterface.TYPE_SERIALIZABLE && meta.getType() != ValueMetaInterface.TYPE_NONE;
+  }
+
+  public int getSize() {
+    return size;
+  }
+
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  /**
+   * Look up the values of a key.
+   *
+   * @param key
+   *          the key
+   * @return a new row with the values or null if the key isn't in the index
+   * @throws KettleException
+   *           in case the key can't be serialized or the values can't be read
+   */
+  public Object[] get( Object[] key ) throws KettleException {
+    serializeKey( key );
+    int hashCode = hash( keyBytes.getBuffer(), keyBytes.size() );
+    int slot = findSlot( hashCode );
+    long address = addresses.get( slot ) - 1;
+    if ( address < 0 ) {
+      return null;
+    }
+
+    ByteBuffer view = readViews[(int) ( address >>> 32 )];
+    int offset = (int) address;
+    int keyLength = view.getInt( offset );
+    int valueLength = view.getInt( offset + 4 );
+    valueInput.reset( view, offset + RECORD_HEADER_SIZE + keyLength, valueLength );
+    try {
+      return valueMeta.readData( valueInputStream );
+    } catch ( SocketTimeoutException e ) {
+      // can't happen, we're reading from memory
+      throw new KettleFileException( e );
+    }
+  }
+
+  /**
+   * Store the values of a key, replacing the values stored earlier for the same key.
+   *
+   * @param key
+   *          the key
+   * @param value
+   *          the values
+   * @throws KettleException
+   *           in case the row can't be serialized or stored
+   */
+  public void put( Object[] key, Object[] value ) throws KettleException {
+    if ( readOnly ) {
+      throw new IllegalStateException( "This off-heap hash index is a read-only snapshot" );
+    }
+    serializeKey( key );
+    int hashCode = hash( keyBytes.getBuffer(), keyBytes.size() );
+
+    valueBytes.reset();
+    valueMeta.writeData( valueOutputStream, value );
+
+    long address = append( keyBytes, valueBytes );
+    int slot = findSlot( hashCode );
+    boolean isNew = addresses.get( slot ) == 0L;
+    addresses.put( slot, address + 1 );
+    hashCodes.put( slot, hashCode );
+    if ( isNew ) {
+      size++;
+      if ( size >= resizeThresHold ) {
+        resize();
+      }
+    }
+  }
+
+  /**
+   * Writes the header of the file backed index, after which it can be opened as a snapshot. Nothing happens for an
+   * index in direct memory.
+   *
+   * @throws KettleFileException
+   *           in case the file can't be written
+   */
+  public void finish() throws KettleFileException {
+    if ( channel == null || readOnly ) {
+      return;
+    }
+    try {
+      for ( int i = 0; i < segmentCount; i++ ) {
+        ( (MappedByteBuffer) segments[i] ).force();
+      }
+      ByteBuffer header = ByteBuffer.allocate( HEADER_SIZE );
+      header.putLong( MAGIC );
+      header.putLong( fingerprint );
+      header.putInt( segmentCount );
+      header.putInt( size );
+      header.flip();
+      channel.write( header, 0L );
+      channel.force( true );
+    } catch ( IOException e ) {
+      throw new KettleFileException( "Unable to write the lookup snapshot header", e );
+    }
+  }
+
+  /**
+   * Releases the buffers and closes the file, if any. The memory is given back when the buffers are garbage collected.
+   */
+  public void close() {
+    segments = new ByteBuffer[0];
+    readViews = new ByteBuffer[0];
+    segmentCount = 0;
+    currentSegment = null;
+    addresses = null;
+    hashCodes = null;
+    size = 0;
+    closeQuietly( channel );
+  }
+
+  private void serializeKey( Object[] key ) throws KettleException {
+    // Serialize null values and empty strings the same way
+    for ( int i = 0; i < keyData.length; i++ ) {
+      keyData[i] = keyMeta.getValueMeta( i ).isNull( key[i] ) ? null : key[i];
+    }
+    keyBytes.reset();
+    keyMeta.writeData( keyOutputStream, keyData );
+  }
+
+  /**
+   * Finds the slot of the serialized key or the empty slot where it should go.
+   */
+  private int findSlot( int hashCode ) {
+    int mask = tableSize - 1;
+    int slot = hashCode & mask;
+    while ( true ) {
+      long address = addresses.get( slot ) - 1;
+      if ( address < 0 ) {
+        return slot;
+      }
+      if ( hashCodes.get( slot ) == hashCode && keyEquals( address ) ) {
+        return slot;
+      }
+      slot = ( slot + 1 ) & mask;
+    }
+  }
+
+  private boolean keyEquals( long address ) {
+    ByteBuffer segment = readViews[(int) ( address >>> 32 )];
+    int offset = (int) address;
+    int length = keyBytes.size();
+    if ( segment.getInt( offset ) != length ) {
+      return false;
+    }
+    byte[] bytes = keyBytes.getBuffer();
+    offset += RECORD_HEADER_SIZE;
+    for ( int i = 0; i < length; i++ ) {
+      if ( segment.get( offset + i ) != bytes[i] ) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private long append( ExposedByteArrayOutputStream key, ExposedByteArrayOutputStream value ) throws KettleException {
+    int recordSize = RECORD_HEADER_SIZE + key.size() + value.size();
+    if ( recordSize > SEGMENT_SIZE - 4 ) {
+      throw new KettleException( "A lookup row of " + recordSize + " bytes is too large to be stored off-heap" );
+    }
+    if ( currentSegment == null || currentSegment.remaining() < recordSize ) {
+      if ( currentSegment != null && currentSegment.remaining() >= 4 ) {
+        currentSegment.putInt( -1 ); // end of segment marker
+      }
+      try {
+        if ( channel == null ) {
+          addSegment( ByteBuffer.allocateDirect( SEGMENT_SIZE ) );
+        } else {
+          addSegment( channel.map( FileChannel.MapMode.READ_WRITE, HEADER_SIZE + (long) segmentCount * SEGMENT_SIZE,
+            SEGMENT_SIZE ) );
+        }
+      } catch ( IOException e ) {
+        throw new KettleFileException( "Unable to map a new segment of the lookup snapshot file", e );
+      }
+      currentSegment = segments[segmentCount - 1];
+    }
+
+    long address = ( (long) ( segmentCount - 1 ) << 32 ) | currentSegment.position();
+    currentSegment.putInt( key.size() );
+    currentSegment.putInt( value.size() );
+    currentSegment.put( key.getBuffer(), 0, key.size() );
+    currentSegment.put( value.getBuffer(), 0, value.size() );
+    return address;
+  }
+
+  private void addSegment( ByteBuffer segment ) {
+    if ( segmentCount == segments.length ) {
+      ByteBuffer[] newSegments = new ByteBuffer[segmentCount * 2];
+      System.arraycopy( segments, 0, newSegments, 0, segmentCount );
+      segments = newSegments;
+      ByteBuffer[] newViews = new ByteBuffer[segmentCount * 2];
+      System.arraycopy( readViews, 0, newViews, 0, segmentCount );
+      readViews = newViews;
+    }
+    segments[segmentCount] = segment;
+    readViews[segmentCount] = segment.duplicate();
+    segmentCount++;
+  }
+
+  /**
+   * Indexes the rows of the segments of a snapshot, in the order they were stored so that replaced values stay
+   * replaced.
+   */
+  private void rebuildTable() throws KettleException {
+    for ( int s = 0; s < segmentCount; s++ ) {
+      ByteBuffer segment = readViews[s];
+      int offset = 0;
+      while ( offset + RECORD_HEADER_SIZE <= SEGMENT_SIZE ) {
+        int keyLength = segment.getInt( offset );
+        if ( keyLength <= 0 ) {
+          break; // end of segment
+        }
+        int valueLength = segment.getInt( offset + 4 );
+
+        keyBytes.reset();
+        for ( int i = 0; i < keyLength; i++ ) {
+          keyBytes.write( segment.get( offset + RECORD_HEADER_SIZE + i ) );
+        }
+        int hashCode = hash( keyBytes.getBuffer(), keyBytes.size() );
+        int slot = findSlot( hashCode );
+        boolean isNew = addresses.get( slot ) == 0L;
+        addresses.put( slot, ( ( (long) s << 32 ) | offset ) + 1 );
+        hashCodes.put( slot, hashCode );
+        if ( isNew ) {
+          size++;
+          if ( size >= resizeThresHold ) {
+            resize();
+          }
+        }
+        offset += RECORD_HEADER_SIZE + keyLength + valueLength;
+      }
+    }
+  }
+
+  private void createTable( int newSize ) {
+    tableSize = newSize;
+    addresses = ByteBuffer.allocateDirect( newSize * 8 ).asLongBuffer();
+    hashCodes = ByteBuffer.allocateDirect( newSize * 4 ).asIntBuffer();
+    resizeThresHold = (int) ( newSize * STANDARD_LOAD_FACTOR );
+  }
+
+  private void resize() throws KettleException {
+    if ( tableSize >= MAX_TABLE_SIZE ) {
+      throw new KettleException( "Too many rows for an off-heap lookup index: " + size );
+    }
+    LongBuffer oldAddresses = addresses;
+    IntBuffer oldHashCodes = hashCodes;
+    int oldSize = tableSize;
+
+    // Double the size to keep the size of the index a factor of 2, the hash codes are kept so no key is read
+    //
+    createTable( 2 * oldSize );
+    int mask = tableSize - 1;
+    for ( int i = 0; i < oldSize; i++ ) {
+      long address = oldAddresses.get( i );
+      if ( address != 0L ) {
+        int hashCode = oldHashCodes.get( i );
+        int slot = hashCode & mask;
+        while ( addresses.get( slot ) != 0L ) {
+          slot = ( slot + 1 ) & mask;
+        }
+        addresses.put( slot, address );
+        hashCodes.put( slot, hashCode );
+      }
+    }
+  }
+
+  private static int hash( byte[] bytes, int length ) {
+    int hashCode = 0x811C9DC5;
+    for ( int i = 0; i < length; i++ ) {
+      hashCode ^= bytes[i];
+      hashCode *= 0x01000193;
+    }
+    // Spread the bits as the table size is a power of 2
+    hashCode *= 0x9E3779B9;
+    return hashCode ^ ( hashCode >>> 16 );
+  }
+
+  private static long getFingerprint( RowMetaInterface keyMeta, RowMetaInterface valueMeta ) {
+    StringBuilder description = new StringBuilder();
+    for ( RowMetaInterface rowMeta : new RowMetaInterface[] { keyMeta, valueMeta } ) {
+      for ( ValueMetaInterface meta : rowMeta.getValueMetaList() ) {
+        description.append( meta.getName() ).append( ':' ).append( meta.getType() ).append( ':' ).append(
+          meta.getStorageType() ).append( ';' );
+      }
+      description.append( '|' );
+    }
+    long fingerprint = 0xCBF29CE484222325L;
+    for ( int i = 0; i < description.length(); i++ ) {
+      fingerprint ^= description.charAt( i );
+      fingerprint *= 0x100000001B3L;
+    }
+    return fingerprint;
+  }
+
+  private static void closeQuietly( FileChannel channel ) {
+    if ( channel != null ) {
+      try {
+        channel.close();
+      } catch ( IOException e ) {
+        // Ignore errors
+      }
+    }
+  }
+
+  /**
+   * Gives access to the bytes written without copying them.
+   */
+  private static final class ExposedByteArrayOutputStream extends ByteArrayOutputStream {
+    ExposedByteArrayOutputStream() {
+      super( 256 );
+    }
+
+    byte[] getBuffer() {
+      return buf;
+    }
+  }
+
+  /**
+   * Reads a part of a buffer without changing the buffer that is shared.
+   */
+  private static final class ByteBufferInputStream extends InputStream {
+    private ByteBuffer buffer;
+    private int position;
+    private int limit;
+
+    void reset( ByteBuffer buffer, int position, int length ) {
+      this.buffer = buffer;
+      this.position = position;
+      this.limit = position + length;
+    }
+
+    @Override
+    public int read() {
+      if ( position >= limit ) {
+        return -1;
+      }
+      return buffer.get( position++ ) & 0xff;
+    }
+
+    @Override
+    public int read( byte[] bytes, int offset, int length ) {
+      if ( position >= limit ) {
+        return -1;
+      }
+      int count = Math.min( length, limit - position );
+      buffer.position( position );
+      buffer.get( bytes, offset, count );
+      position += count;
+      return count;
+    }
+  }
+}
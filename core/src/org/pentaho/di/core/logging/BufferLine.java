@@ -28,6 +28,7 @@ public class BufferLine {
   private static AtomicInteger sequence = new AtomicInteger( 0 );
 
   private int nr;
+  private int position;
   private KettleLoggingEvent event;
 
   public BufferLine( KettleLoggingEvent event ) {
@@ -35,10 +36,23 @@ public class BufferLine {
     this.nr = sequence.incrementAndGet();
   }
 
+  /**
+   * Creates the line at a position in a {@link LoggingBuffer}. The buffer claims the position and the line number
+   * together so that the line numbers follow the positions.
+   */
+  BufferLine( KettleLoggingEvent event, int position ) {
+    this( event );
+    this.position = position;
+  }
+
   public int getNr() {
     return nr;
   }
 
+  int getPosition() {
+    return position;
+  }
+
   public KettleLoggingEvent getEvent() {
     return event;
   }
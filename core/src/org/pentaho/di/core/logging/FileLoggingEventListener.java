@@ -23,7 +23,6 @@
 package org.pentaho.di.core.logging;
 
 import java.io.OutputStream;
-import java.util.List;
 
 import org.apache.commons.vfs2.FileObject;
 import org.pentaho.di.core.Const;
@@ -93,10 +92,10 @@ public class FileLoggingEventListener implements KettleLoggingEventListener {
           logToFile = true;
         } else {
           LogMessage message = (LogMessage) messageObject;
-          // This should be fast enough cause cached.
-          List<String> logChannelChildren = LoggingRegistry.getInstance().getLogChannelChildren( logChannelId );
-          // This could be non-optimal, consider keeping the list sorted in the logging registry
-          logToFile = Const.indexOfString( message.getLogChannelId(), logChannelChildren ) >= 0;
+          // The descendants are kept up to date by the registry, no need to rebuild them for every line
+          logToFile =
+            LoggingRegistry.getInstance().getLogChannelDescendants( logChannelId ).contains(
+              message.getLogChannelId() );
         }
 
         if ( logToFile ) {
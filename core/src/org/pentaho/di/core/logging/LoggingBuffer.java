@@ -24,22 +24,69 @@ package org.pentaho.di.core.logging;
 
 import org.pentaho.di.core.Const;
 
-import java.util.Collections;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
-import java.util.LinkedList;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
- * This class keeps the last N lines in a buffer
+ * This class keeps the last N lines in a buffer.<br>
+ * <br>
+ * The lines are kept in a ring indexed by position: the line at position <i>p</i> lives in slot <i>p % size</i> until
+ * it is overwritten or removed, so a range of lines is found without walking the buffer. Appending a line only claims
+ * a position and sets a slot; readers and writers share a read lock that is only taken exclusively to resize the ring.
+ * Lines are also indexed per log channel so that reading the log of one transformation or job doesn't scan the lines
+ * of all the others.<br>
+ * <br>
+ * The line numbers handed to callers are the ones of {@link BufferLine}, shared by all buffers. They are claimed
+ * together with the positions, so they follow the positions and a range of line numbers maps to a range of
+ * positions.<br>
+ * <br>
+ * A buffer without a maximum size keeps all its lines: it grows its ring when it runs full and gives it back once most
+ * of the lines are removed.
  *
  * @author matt
  *
  */
 public class LoggingBuffer {
+  /** The initial number of slots of a buffer without a maximum size, it grows when it runs full. */
+  private static final int UNLIMITED_INITIAL_CAPACITY = 1024;
+
+  /** The largest ring an array can hold, a buffer without a maximum size runs out of memory long before. */
+  private static final int MAX_CAPACITY = 1 << 30;
+
+  /** Every so many lines, the channel index is cleaned of channels that have no more lines in the buffer. */
+  private static final int CHANNEL_PRUNE_INTERVAL = 4096;
+
   private String name;
 
-  private List<BufferLine> buffer;
+  private volatile AtomicReferenceArray<BufferLine> ring;
+
+  private final ReentrantReadWriteLock ringLock;
+
+  /** The last position handed out */
+  private final AtomicInteger sequence;
+
+  /** The last position for which all lines up to and including it are stored */
+  private final AtomicInteger published;
+
+  /** Claims a position and a line number at once */
+  private final Object claimLock;
+
+  private volatile PositionMap positionMap;
+
+  private final AtomicInteger nrLines;
+
+  private final ConcurrentMap<String, ChannelLines> channelIndex;
 
   private int bufferSize;
 
@@ -49,22 +96,38 @@ public class LoggingBuffer {
 
   public LoggingBuffer( int bufferSize ) {
     this.bufferSize = bufferSize;
-    buffer = Collections.synchronizedList( new LinkedList<BufferLine>() );
+    ringLock = new ReentrantReadWriteLock();
+    sequence = new AtomicInteger( 0 );
+    published = new AtomicInteger( 0 );
+    claimLock = new Object();
+    positionMap = new PositionMap( new int[] { 1 }, new int[] { 0 } );
+    nrLines = new AtomicInteger( 0 );
+    channelIndex = new ConcurrentHashMap<String, ChannelLines>();
+    ring = new AtomicReferenceArray<BufferLine>( bufferSize > 0 ? bufferSize : UNLIMITED_INITIAL_CAPACITY );
     layout = new KettleLogLayout( true );
-    eventListeners = Collections.synchronizedList( new ArrayList<KettleLoggingEventListener>() );
+    eventListeners = new CopyOnWriteArrayList<KettleLoggingEventListener>();
   }
 
   /**
    * @return the number (sequence, 1..N) of the last log line. If no records are present in the buffer, 0 is returned.
    */
   public int getLastBufferLineNr() {
-    synchronized ( buffer ) {
-      if ( buffer.size() > 0 ) {
-        return buffer.get( buffer.size() - 1 ).getNr();
-      } else {
-        return 0;
+    if ( nrLines.get() > 0 ) {
+      ringLock.readLock().lock();
+      try {
+        AtomicReferenceArray<BufferLine> slots = ring;
+        int last = published.get();
+        for ( int position = last; position > 0 && position > last - slots.length(); position-- ) {
+          BufferLine line = getLine( slots, position );
+          if ( line != null ) {
+            return line.getNr();
+          }
+        }
+      } finally {
+        ringLock.readLock().unlock();
       }
     }
+    return 0;
   }
 
   /**
@@ -78,57 +141,72 @@ public class LoggingBuffer {
    * @return
    */
   public List<KettleLoggingEvent> getLogBufferFromTo( List<String> channelId, boolean includeGeneral, int from,
+    int to ) {
+    return getLogBufferFromTo( channelId == null ? null : new HashSet<String>( channelId ), includeGeneral, from, to );
+  }
+
+  private List<KettleLoggingEvent> getLogBufferFromTo( Set<String> channelIds, boolean includeGeneral, int from,
     int to ) {
     List<KettleLoggingEvent> lines = new ArrayList<KettleLoggingEvent>();
 
-    synchronized ( buffer ) {
-      for ( BufferLine line : buffer ) {
-        if ( line.getNr() > from && line.getNr() <= to ) {
-          Object payload = line.getEvent().getMessage();
-          if ( payload instanceof LogMessage ) {
-            LogMessage message = (LogMessage) payload;
-
-            // Typically, the log channel id is the one from the transformation or job running currently.
-            // However, we also want to see the details of the steps etc.
-            // So we need to look at the parents all the way up if needed...
-            //
-            boolean include = channelId == null;
-
-            // See if we should include generic messages
-            //
-            if ( !include ) {
-              LoggingObjectInterface loggingObject =
-                LoggingRegistry.getInstance().getLoggingObject( message.getLogChannelId() );
-
-              if ( loggingObject != null
-                && includeGeneral && LoggingObjectType.GENERAL.equals( loggingObject.getObjectType() ) ) {
-                include = true;
-              }
-
-              // See if we should include a certain channel id (zero, one or more)
-              //
-              if ( !include ) {
-                for ( String id : channelId ) {
-                  if ( message.getLogChannelId().equals( id ) ) {
-                    include = true;
-                    break;
-                  }
-                }
-              }
-            }
-
-            if ( include ) {
-
-              try {
-                // String string = layout.format(line.getEvent());
-                lines.add( line.getEvent() );
-              } catch ( Exception e ) {
-                e.printStackTrace();
-              }
-            }
+    ringLock.readLock().lock();
+    try {
+      AtomicReferenceArray<BufferLine> slots = ring;
+      PositionMap map = positionMap;
+      int lastPosition = published.get();
+      int last = Math.min( map.positionAfter( to ) - 1, lastPosition );
+      int first = Math.max( map.positionAfter( from ), lastPosition - slots.length() + 1 );
+      if ( first > last ) {
+        return lines;
+      }
+
+      if ( channelIds == null ) {
+        for ( int position = first; position <= last; position++ ) {
+          BufferLine line = getLine( slots, position );
+          if ( line != null && line.getEvent().getMessage() instanceof LogMessage ) {
+            lines.add( line.getEvent() );
+          }
+        }
+        return lines;
+      }
+
+      // Typically, the log channel id is the one from the transformation or job running currently.
+      // However, we also want to see the details of the steps etc.
+      // So we look up the lines of all the channels that were asked for, plus the general ones if needed.
+      // Whichever is smaller is walked: the channels asked for or the channels with lines in the buffer.
+      //
+      LineNumbers numbers = new LineNumbers();
+      if ( channelIds.size() <= channelIndex.size() ) {
+        for ( String id : channelIds ) {
+          ChannelLines channelLines = channelIndex.get( id );
+          if ( channelLines != null ) {
+            channelLines.collect( first, last, numbers );
+          }
+        }
+      } else {
+        for ( Map.Entry<String, ChannelLines> entry : channelIndex.entrySet() ) {
+          if ( channelIds.contains( entry.getKey() ) ) {
+            entry.getValue().collect( first, last, numbers );
+          }
+        }
+      }
+      if ( includeGeneral ) {
+        for ( String id : getGeneralChannelIds() ) {
+          ChannelLines channelLines = channelIndex.get( id );
+          if ( channelLines != null && !channelIds.contains( id ) ) {
+            channelLines.collect( first, last, numbers );
           }
         }
       }
+      numbers.sort();
+      for ( int i = 0; i < numbers.size; i++ ) {
+        BufferLine line = getLine( slots, numbers.nrs[i] );
+        if ( line != null ) {
+          lines.add( line.getEvent() );
+        }
+      }
+    } finally {
+      ringLock.readLock().unlock();
     }
 
     return lines;
@@ -151,7 +229,7 @@ public class LoggingBuffer {
     // However, we also want to see the details of the steps etc.
     // So we need to look at the parents all the way up if needed...
     //
-    List<String> childIds = LoggingRegistry.getInstance().getLogChannelChildren( parentLogChannelId );
+    Set<String> childIds = LoggingRegistry.getInstance().getLogChannelDescendants( parentLogChannelId );
 
     return getLogBufferFromTo( childIds, includeGeneral, from, to );
   }
@@ -184,14 +262,212 @@ public class LoggingBuffer {
   }
 
   public void doAppend( KettleLoggingEvent event ) {
-    synchronized ( buffer ) {
-      buffer.add( new BufferLine( event ) );
-      while ( bufferSize > 0 && buffer.size() > bufferSize ) {
-        buffer.remove( 0 );
+    BufferLine line;
+    synchronized ( claimLock ) {
+      line = new BufferLine( event, sequence.incrementAndGet() );
+      if ( positionMap.toNr( line.getPosition() ) != line.getNr() ) {
+        // Other buffers took line numbers in between
+        //
+        positionMap = positionMap.add( line.getPosition(), line.getNr(), line.getPosition() - ring.length() );
+      }
+    }
+
+    while ( !store( line ) ) {
+      // A buffer without a maximum size ran full: make room and try again
+      //
+      grow();
+    }
+
+    Object payload = event.getMessage();
+    if ( payload instanceof LogMessage ) {
+      String channelId = ( (LogMessage) payload ).getLogChannelId();
+      if ( channelId != null ) {
+        indexLine( channelId, line.getPosition() );
+      }
+    }
+
+    if ( line.getPosition() % CHANNEL_PRUNE_INTERVAL == 0 ) {
+      pruneChannelIndex();
+    }
+  }
+
+  /**
+   * Puts the line in its slot.
+   *
+   * @return false if the slot is taken by an older line that can't be overwritten because the buffer has no maximum
+   *         size and can still grow
+   */
+  private boolean store( BufferLine line ) {
+    int position = line.getPosition();
+    ringLock.readLock().lock();
+    try {
+      AtomicReferenceArray<BufferLine> slots = ring;
+      int slot = slot( position, slots.length() );
+      while ( true ) {
+        BufferLine old = slots.get( slot );
+        if ( old != null && old.getPosition() > position ) {
+          // We were so slow that our line already fell out of the buffer
+          //
+          break;
+        }
+        if ( old != null && bufferSize <= 0 && slots.length() < MAX_CAPACITY ) {
+          return false;
+        }
+        if ( slots.compareAndSet( slot, old, line ) ) {
+          if ( old == null ) {
+            nrLines.incrementAndGet();
+          }
+          break;
+        }
+      }
+      advancePublished( slots );
+    } finally {
+      ringLock.readLock().unlock();
+    }
+    return true;
+  }
+
+  /**
+   * Moves the published line number past all the lines that are stored. A line that isn't stored yet holds back the
+   * lines after it so that readers never skip a line that shows up later.
+   */
+  private void advancePublished( AtomicReferenceArray<BufferLine> slots ) {
+    while ( true ) {
+      int last = published.get();
+      if ( last >= sequence.get() ) {
+        return;
+      }
+      BufferLine next = slots.get( slot( last + 1, slots.length() ) );
+      if ( next == null || next.getPosition() <= last ) {
+        return;
+      }
+      published.compareAndSet( last, last + 1 );
+    }
+  }
+
+  private static int slot( int position, int length ) {
+    return ( position & Integer.MAX_VALUE ) % length;
+  }
+
+  private BufferLine getLine( AtomicReferenceArray<BufferLine> slots, int position ) {
+    BufferLine line = slots.get( slot( position, slots.length() ) );
+    if ( line == null || line.getPosition() != position ) {
+      return null;
+    }
+    return line;
+  }
+
+  private void grow() {
+    ringLock.writeLock().lock();
+    try {
+      if ( bufferSize <= 0 && ring.length() < MAX_CAPACITY ) {
+        resize( ring.length() * 2 );
+      }
+    } finally {
+      ringLock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Gives a buffer without a maximum size a smaller ring once most of its lines are removed.
+   */
+  private void compact() {
+    if ( bufferSize > 0 || ring.length() <= UNLIMITED_INITIAL_CAPACITY || nrLines.get() * 4 > ring.length() ) {
+      return;
+    }
+    ringLock.writeLock().lock();
+    try {
+      if ( bufferSize <= 0 && fittingCapacity( UNLIMITED_INITIAL_CAPACITY ) < ring.length() ) {
+        resize( UNLIMITED_INITIAL_CAPACITY );
+      }
+    } finally {
+      ringLock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * @return the capacity, doubled until all the lines of a buffer without a maximum size fit
+   */
+  private int fittingCapacity( int capacity ) {
+    AtomicReferenceArray<BufferLine> slots = ring;
+    int lastPosition = sequence.get();
+    int oldest = lastPosition;
+    for ( int i = 0; i < slots.length(); i++ ) {
+      BufferLine line = slots.get( i );
+      if ( line != null && line.getPosition() < oldest ) {
+        oldest = line.getPosition();
+      }
+    }
+    while ( capacity < MAX_CAPACITY && lastPosition - oldest >= capacity ) {
+      capacity *= 2;
+    }
+    return capacity;
+  }
+
+  /**
+   * Copies the lines to a ring of a new size, keeping the most recent lines. Needs the write lock.
+   */
+  private void resize( int capacity ) {
+    if ( bufferSize <= 0 ) {
+      capacity = fittingCapacity( capacity );
+    }
+
+    AtomicReferenceArray<BufferLine> slots = ring;
+    int lastPosition = sequence.get();
+    AtomicReferenceArray<BufferLine> newSlots = new AtomicReferenceArray<BufferLine>( capacity );
+    int count = 0;
+    for ( int i = 0; i < slots.length(); i++ ) {
+      BufferLine line = slots.get( i );
+      if ( line != null && lastPosition - line.getPosition() < capacity ) {
+        newSlots.set( slot( line.getPosition(), capacity ), line );
+        count++;
+      }
+    }
+    ring = newSlots;
+    nrLines.set( count );
+    advancePublished( newSlots );
+  }
+
+  private void indexLine( String channelId, int position ) {
+    while ( true ) {
+      ChannelLines channelLines = channelIndex.get( channelId );
+      if ( channelLines == null ) {
+        channelLines = new ChannelLines();
+        ChannelLines existing = channelIndex.putIfAbsent( channelId, channelLines );
+        if ( existing != null ) {
+          channelLines = existing;
+        }
+      }
+      if ( channelLines.add( position, position - ring.length() ) ) {
+        return;
+      }
+    }
+  }
+
+  /**
+   * Drops the channels that have no more lines in the buffer from the index.
+   */
+  private void pruneChannelIndex() {
+    int firstPosition = published.get() - ring.length() + 1;
+    for ( Map.Entry<String, ChannelLines> entry : channelIndex.entrySet() ) {
+      if ( entry.getValue().discardIfBefore( firstPosition ) ) {
+        channelIndex.remove( entry.getKey(), entry.getValue() );
       }
     }
   }
 
+  private List<String> getGeneralChannelIds() {
+    List<String> ids = new ArrayList<String>();
+    LoggingRegistry registry = LoggingRegistry.getInstance();
+    for ( String id : channelIndex.keySet() ) {
+      LoggingObjectInterface loggingObject = registry.getLoggingObject( id );
+      if ( loggingObject != null && LoggingObjectType.GENERAL.equals( loggingObject.getObjectType() ) ) {
+        ids.add( id );
+      }
+    }
+    return ids;
+  }
+
   public void setName( String name ) {
     this.name = name;
   }
@@ -213,7 +489,15 @@ public class LoggingBuffer {
   }
 
   public void clear() {
-    buffer.clear();
+    ringLock.writeLock().lock();
+    try {
+      ring = new AtomicReferenceArray<BufferLine>( bufferSize > 0 ? ring.length() : UNLIMITED_INITIAL_CAPACITY );
+      nrLines.set( 0 );
+      channelIndex.clear();
+      published.set( sequence.get() );
+    } finally {
+      ringLock.writeLock().unlock();
+    }
   }
 
   /**
@@ -228,14 +512,20 @@ public class LoggingBuffer {
    *          the maximum number of lines that this buffer should contain, 0 or lower means: no limit
    */
   public void setMaxNrLines( int maxNrLines ) {
-    this.bufferSize = maxNrLines;
+    ringLock.writeLock().lock();
+    try {
+      this.bufferSize = maxNrLines;
+      resize( maxNrLines > 0 ? maxNrLines : Math.max( UNLIMITED_INITIAL_CAPACITY, ring.length() ) );
+    } finally {
+      ringLock.writeLock().unlock();
+    }
   }
 
   /**
    * @return the nrLines
    */
   public int getNrLines() {
-    return buffer.size();
+    return nrLines.get();
   }
 
   /**
@@ -245,45 +535,78 @@ public class LoggingBuffer {
    *          the id of the logging channel to remove
    */
   public void removeChannelFromBuffer( String id ) {
-    synchronized ( buffer ) {
-      Iterator<BufferLine> iterator = buffer.iterator();
-      while ( iterator.hasNext() ) {
-        BufferLine bufferLine = iterator.next();
-        Object payload = bufferLine.getEvent().getMessage();
-        if ( payload instanceof LogMessage ) {
-          LogMessage message = (LogMessage) payload;
-          if ( id.equals( message.getLogChannelId() ) ) {
-            iterator.remove();
-          }
-        }
+    ChannelLines channelLines = channelIndex.remove( id );
+    if ( channelLines == null ) {
+      return;
+    }
+    LineNumbers numbers = new LineNumbers();
+    channelLines.discard( numbers );
+
+    ringLock.readLock().lock();
+    try {
+      AtomicReferenceArray<BufferLine> slots = ring;
+      for ( int i = 0; i < numbers.size; i++ ) {
+        removeLine( slots, getLine( slots, numbers.nrs[i] ) );
+      }
+    } finally {
+      ringLock.readLock().unlock();
+    }
+    compact();
+  }
+
+  private void removeLine( AtomicReferenceArray<BufferLine> slots, BufferLine line ) {
+    // Lines that aren't published yet stay, a gap there would hold back the published line number
+    //
+    if ( line != null && line.getPosition() <= published.get() ) {
+      if ( slots.compareAndSet( slot( line.getPosition(), slots.length() ), line, null ) ) {
+        nrLines.decrementAndGet();
       }
     }
   }
 
   public int size() {
-    return buffer.size();
+    return nrLines.get();
+  }
+
+  /**
+   * @param channelId
+   *          the id of a logging channel
+   * @return true if lines of the channel are still in the buffer
+   */
+  public boolean hasLines( String channelId ) {
+    ChannelLines channelLines = channelIndex.get( channelId );
+    return channelLines != null && channelLines.hasLinesFrom( published.get() - ring.length() + 1 );
   }
 
   public void removeGeneralMessages() {
-    synchronized ( buffer ) {
-      Iterator<BufferLine> iterator = buffer.iterator();
-      while ( iterator.hasNext() ) {
-        BufferLine bufferLine = iterator.next();
-        Object payload = bufferLine.getEvent().getMessage();
-        if ( payload instanceof LogMessage ) {
-          LogMessage message = (LogMessage) payload;
-          LoggingObjectInterface loggingObject =
-            LoggingRegistry.getInstance().getLoggingObject( message.getLogChannelId() );
-          if ( loggingObject != null && LoggingObjectType.GENERAL.equals( loggingObject.getObjectType() ) ) {
-            iterator.remove();
-          }
-        }
-      }
+    for ( String id : getGeneralChannelIds() ) {
+      removeChannelFromBuffer( id );
     }
   }
 
   public Iterator<BufferLine> getBufferIterator() {
-    return buffer.iterator();
+    return getBufferLines().iterator();
+  }
+
+  /**
+   * @return a snapshot of the lines in the buffer, oldest first
+   */
+  private List<BufferLine> getBufferLines() {
+    List<BufferLine> lines = new ArrayList<BufferLine>();
+    ringLock.readLock().lock();
+    try {
+      AtomicReferenceArray<BufferLine> slots = ring;
+      int last = published.get();
+      for ( int position = Math.max( 1, last - slots.length() + 1 ); position <= last; position++ ) {
+        BufferLine line = getLine( slots, position );
+        if ( line != null ) {
+          lines.add( line );
+        }
+      }
+    } finally {
+      ringLock.readLock().unlock();
+    }
+    return lines;
   }
 
   /**
@@ -292,37 +615,40 @@ public class LoggingBuffer {
   @Deprecated
   public String dump() {
     StringBuffer buf = new StringBuffer( 50000 );
-    synchronized ( buffer ) {
-      for ( BufferLine line : buffer ) {
-        Object payload = line.getEvent().getMessage();
-        if ( payload instanceof LogMessage ) {
-          LogMessage message = (LogMessage) payload;
-          // LoggingObjectInterface loggingObject =
-          // LoggingRegistry.getInstance().getLoggingObject(message.getLogChannelId());
-          buf
-            .append( message.getLogChannelId()
-              + "\t" + message.getSubject() + "\t" + message.getMessage() + "\n" );
-        }
-
+    for ( BufferLine line : getBufferLines() ) {
+      Object payload = line.getEvent().getMessage();
+      if ( payload instanceof LogMessage ) {
+        LogMessage message = (LogMessage) payload;
+        // LoggingObjectInterface loggingObject =
+        // LoggingRegistry.getInstance().getLoggingObject(message.getLogChannelId());
+        buf
+          .append( message.getLogChannelId()
+            + "\t" + message.getSubject() + "\t" + message.getMessage() + "\n" );
       }
     }
     return buf.toString();
   }
 
   public void removeBufferLines( List<BufferLine> linesToRemove ) {
-    buffer.removeAll( linesToRemove );
+    ringLock.readLock().lock();
+    try {
+      AtomicReferenceArray<BufferLine> slots = ring;
+      for ( BufferLine line : linesToRemove ) {
+        removeLine( slots, line );
+      }
+    } finally {
+      ringLock.readLock().unlock();
+    }
+    compact();
   }
 
   public List<BufferLine> getBufferLinesBefore( long minTimeBoundary ) {
     List<BufferLine> linesToRemove = new ArrayList<BufferLine>();
-    synchronized ( buffer ) {
-      for ( Iterator<BufferLine> i = buffer.iterator(); i.hasNext(); ) {
-        BufferLine bufferLine = i.next();
-        if ( bufferLine.getEvent().timeStamp < minTimeBoundary ) {
-          linesToRemove.add( bufferLine );
-        } else {
-          break;
-        }
+    for ( BufferLine bufferLine : getBufferLines() ) {
+      if ( bufferLine.getEvent().timeStamp < minTimeBoundary ) {
+        linesToRemove.add( bufferLine );
+      } else {
+        break;
       }
     }
     return linesToRemove;
@@ -330,10 +656,8 @@ public class LoggingBuffer {
 
   public void addLogggingEvent( KettleLoggingEvent loggingEvent ) {
     doAppend( loggingEvent );
-    synchronized ( eventListeners ) {
-      for ( KettleLoggingEventListener listener : eventListeners ) {
-        listener.eventAdded( loggingEvent );
-      }
+    for ( KettleLoggingEventListener listener : eventListeners ) {
+      listener.eventAdded( loggingEvent );
     }
   }
 
@@ -344,4 +668,149 @@ public class LoggingBuffer {
   public void removeLoggingEventListener( KettleLoggingEventListener listener ) {
     eventListeners.remove( listener );
   }
+
+  /**
+   * The sorted positions of the lines of one log channel. Lines of the same channel are usually logged by one thread so
+   * locking per channel hardly ever contends.
+   */
+  private static class ChannelLines {
+    private int[] nrs = new int[16];
+    private int start;
+    private int end;
+    private boolean discarded;
+
+    /**
+     * @return false if this index was discarded and the line needs to go to a new one
+     */
+    synchronized boolean add( int nr, int minNr ) {
+      if ( discarded ) {
+        return false;
+      }
+      while ( start < end && nrs[start] < minNr ) {
+        start++;
+      }
+      if ( end == nrs.length ) {
+        int count = end - start;
+        int[] target = count * 2 > nrs.length ? new int[nrs.length * 2] : nrs;
+        System.arraycopy( nrs, start, target, 0, count );
+        nrs = target;
+        start = 0;
+        end = count;
+      }
+      // Threads of the same channel can store their lines slightly out of order
+      //
+      int i = end;
+      while ( i > start && nrs[i - 1] > nr ) {
+        nrs[i] = nrs[i - 1];
+        i--;
+      }
+      nrs[i] = nr;
+      end++;
+      return true;
+    }
+
+    synchronized void collect( int from, int to, LineNumbers numbers ) {
+      int i = Arrays.binarySearch( nrs, start, end, from );
+      if ( i < 0 ) {
+        i = -i - 1;
+      }
+      for ( ; i < end && nrs[i] <= to; i++ ) {
+        numbers.add( nrs[i] );
+      }
+    }
+
+    synchronized boolean discardIfBefore( int minNr ) {
+      if ( start == end || nrs[end - 1] < minNr ) {
+        discarded = true;
+      }
+      return discarded;
+    }
+
+    synchronized boolean hasLinesFrom( int minNr ) {
+      return !discarded && start < end && nrs[end - 1] >= minNr;
+    }
+
+    synchronized void discard( LineNumbers numbers ) {
+      discarded = true;
+      for ( int i = start; i < end; i++ ) {
+        numbers.add( nrs[i] );
+      }
+    }
+  }
+
+  /**
+   * Maps positions in the ring to line numbers. The line numbers are shared by all buffers, so they jump every time
+   * another buffer took numbers in between. Immutable, a new map is made for every jump.
+   */
+  private static class PositionMap {
+    /** The first position of every range of consecutive line numbers */
+    private final int[] positions;
+
+    /** The line number minus the position, per range */
+    private final int[] offsets;
+
+    PositionMap( int[] positions, int[] offsets ) {
+      this.positions = positions;
+      this.offsets = offsets;
+    }
+
+    int toNr( int position ) {
+      int i = positions.length - 1;
+      while ( i > 0 && positions[i] > position ) {
+        i--;
+      }
+      return position + offsets[i];
+    }
+
+    /**
+     * @return the first position of which the line number is higher than the given number
+     */
+    int positionAfter( long nr ) {
+      int i = 0;
+      long position = Math.max( positions[0], nr - offsets[0] + 1 );
+      while ( i < positions.length - 1 && position >= positions[i + 1] ) {
+        i++;
+        position = Math.max( positions[i], nr - offsets[i] + 1 );
+      }
+      return (int) Math.min( position, Integer.MAX_VALUE );
+    }
+
+    /**
+     * @return a map with a new range starting at the position, without the ranges before the minimum position
+     */
+    PositionMap add( int position, int nr, int minPosition ) {
+      int from = 0;
+      while ( from < positions.length - 1 && positions[from + 1] <= minPosition ) {
+        from++;
+      }
+      int to = positions.length;
+      while ( to > from && positions[to - 1] >= position ) {
+        to--;
+      }
+      int count = to - from;
+      int[] newPositions = new int[count + 1];
+      int[] newOffsets = new int[count + 1];
+      System.arraycopy( positions, from, newPositions, 0, count );
+      System.arraycopy( offsets, from, newOffsets, 0, count );
+      newPositions[count] = position;
+      newOffsets[count] = nr - position;
+      return new PositionMap( newPositions, newOffsets );
+    }
+  }
+
+  private static class LineNumbers {
+    private int[] nrs = new int[64];
+    private int size;
+
+    void add( int nr ) {
+      if ( size == nrs.length ) {
+        nrs = Arrays.copyOf( nrs, size * 2 );
+      }
+      nrs[size++] = nr;
+    }
+
+    void sort() {
+      Arrays.sort( nrs, 0, size );
+    }
+  }
 }
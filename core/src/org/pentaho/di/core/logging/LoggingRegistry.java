@@ -22,13 +22,18 @@
 
 package org.pentaho.di.core.logging;
 
+import java.lang.ref.WeakReference;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
-import java.util.Comparator;
 import java.util.Date;
+import java.util.Deque;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
 
@@ -39,6 +44,31 @@ public class LoggingRegistry {
   private static LoggingRegistry registry = new LoggingRegistry();
   private Map<String, LoggingObjectInterface> map;
   private Map<String, List<String>> childrenMap;
+
+  /** The parent log channel ID of every registered child */
+  private Map<String, String> parentMap;
+
+  /**
+   * The log channel ID and the IDs of all its descendants, per channel that was asked for. Built on first use and kept
+   * up to date when children register and when objects are removed.
+   */
+  private Map<String, Set<String>> descendantsMap;
+
+  /** The log channel IDs in order of registration, the oldest are purged first when the registry is full */
+  private Deque<String> registrationOrder;
+
+  /**
+   * The objects that registered, per log channel ID. An object is finished once it is garbage collected: only then its
+   * registration can be purged.
+   */
+  private Map<String, WeakReference<Object>> sources;
+
+  /** Purged log channel IDs that stay known to their parents until the log store no longer holds lines of them */
+  private Set<String> pendingRemovals;
+
+  /** The size the registry has to reach before the next purge */
+  private int nextPurgeSize;
+
   private Date lastModificationTime;
   private int maxSize;
   private final int DEFAULT_MAX_SIZE = 10000;
@@ -48,6 +78,11 @@ public class LoggingRegistry {
   private LoggingRegistry() {
     this.map = new ConcurrentHashMap<String, LoggingObjectInterface>();
     this.childrenMap = new ConcurrentHashMap<String, List<String>>();
+    this.parentMap = new ConcurrentHashMap<String, String>();
+    this.descendantsMap = new ConcurrentHashMap<String, Set<String>>();
+    this.registrationOrder = new ArrayDeque<String>();
+    this.sources = new ConcurrentHashMap<String, WeakReference<Object>>();
+    this.pendingRemovals = new HashSet<String>();
 
     this.lastModificationTime = new Date();
     this.maxSize = Const.toInt( EnvUtil.getSystemProperty( "KETTLE_MAX_LOGGING_REGISTRY_SIZE" ), DEFAULT_MAX_SIZE );
@@ -85,6 +120,11 @@ public class LoggingRegistry {
       loggingSource.setLogChannelId( logChannelId );
 
       this.map.put( logChannelId, loggingSource );
+      this.registrationOrder.add( logChannelId );
+      if ( !( object instanceof LoggingObject ) ) {
+        // Copies made by the registry itself are referenced by their children, they don't tell if anything still runs
+        this.sources.put( logChannelId, new WeakReference<Object>( object ) );
+      }
 
       if ( loggingSource.getParent() != null ) {
         String parentLogChannelId = loggingSource.getParent().getLogChannelId();
@@ -95,44 +135,34 @@ public class LoggingRegistry {
             this.childrenMap.put( parentLogChannelId, parentChildren );
           }
           parentChildren.add( logChannelId );
+          this.parentMap.put( logChannelId, parentLogChannelId );
+          addToAncestors( parentLogChannelId, logChannelId );
         }
       }
 
       this.lastModificationTime = new Date();
       loggingSource.setRegistrationDate( this.lastModificationTime );
 
-      if ( ( this.maxSize > 0 ) && ( this.map.size() > this.maxSize ) ) {
-        List<LoggingObjectInterface> all = new ArrayList<LoggingObjectInterface>( this.map.values() );
-        Collections.sort( all, new Comparator<LoggingObjectInterface>() {
-          @Override
-          public int compare( LoggingObjectInterface o1, LoggingObjectInterface o2 ) {
-            if ( ( o1 == null ) && ( o2 != null ) ) {
-              return -1;
-            }
-            if ( ( o1 != null ) && ( o2 == null ) ) {
-              return 1;
-            }
-            if ( ( o1 == null ) && ( o2 == null ) ) {
-              return 0;
-            }
-            if ( o1.getRegistrationDate() == null && o2.getRegistrationDate() != null ) {
-              return -1;
-            }
-            if ( o1.getRegistrationDate() != null && o2.getRegistrationDate() == null ) {
-              return 1;
-            }
-            if ( o1.getRegistrationDate() == null && o2.getRegistrationDate() == null ) {
-              return 0;
-            }
-            return ( o1.getRegistrationDate().compareTo( o2.getRegistrationDate() ) );
-          }
-        } );
+      if ( ( this.maxSize > 0 ) && ( this.map.size() > this.maxSize ) && ( this.map.size() >= this.nextPurgeSize ) ) {
+        // Drop the oldest registrations of finished objects that have no running ancestor. When the registry grows
+        // beyond twice its maximum size anyway, the oldest finished objects are dropped even if an ancestor still runs.
+        //
         int cutCount = this.maxSize < 1000 ? this.maxSize : 1000;
-        for ( int i = 0; i < cutCount; i++ ) {
-          LoggingObjectInterface toRemove = all.get( i );
-          this.map.remove( toRemove.getLogChannelId() );
+        List<String> purged = purge( cutCount, true );
+        if ( this.map.size() > 2 * this.maxSize ) {
+          purged.addAll( purge( cutCount - purged.size(), false ) );
         }
-        removeOrphans();
+        // The next sweep waits for as many new registrations as this one fell short, so the sweeps of a registry full
+        // of running objects don't make every registration walk the whole registry.
+        //
+        this.nextPurgeSize = this.map.size() + cutCount - purged.size();
+
+        purged.addAll( this.pendingRemovals );
+        forget( purged );
+      } else if ( this.registrationOrder.size() > 2 * this.map.size() + 1000 ) {
+        // Objects were removed directly from the map: forget about them
+        //
+        this.registrationOrder.retainAll( this.map.keySet() );
       }
       return logChannelId;
     }
@@ -166,6 +196,155 @@ public class LoggingRegistry {
     return list;
   }
 
+  /**
+   * Gets the log channel ID and the IDs of all its descendants as a set. The set is kept up to date as children
+   * register so repeated calls, and membership tests on the result, are cheap.
+   *
+   * @param parentLogChannelId
+   *          the log channel ID of the parent
+   * @return a read-only set with the parent ID and the IDs of all its descendants, or null if the parent ID is null
+   */
+  public Set<String> getLogChannelDescendants( String parentLogChannelId ) {
+    if ( parentLogChannelId == null ) {
+      return null;
+    }
+    Set<String> descendants = this.descendantsMap.get( parentLogChannelId );
+    if ( descendants == null ) {
+      synchronized ( this.syncObject ) {
+        descendants = this.descendantsMap.get( parentLogChannelId );
+        if ( descendants == null ) {
+          descendants = Collections.newSetFromMap( new ConcurrentHashMap<String, Boolean>() );
+          descendants.addAll( getLogChannelChildren( new ArrayList<String>(), parentLogChannelId ) );
+          descendants.add( parentLogChannelId );
+          this.descendantsMap.put( parentLogChannelId, descendants );
+        }
+      }
+    }
+    return Collections.unmodifiableSet( descendants );
+  }
+
+  /**
+   * Adds a new child to the cached descendants of its parent and of all the ancestors of that parent. Needs the sync
+   * object.
+   */
+  private void addToAncestors( String parentLogChannelId, String logChannelId ) {
+    String ancestor = parentLogChannelId;
+    while ( ancestor != null ) {
+      Set<String> descendants = this.descendantsMap.get( ancestor );
+      if ( descendants != null ) {
+        descendants.add( logChannelId );
+      }
+      ancestor = this.parentMap.get( ancestor );
+    }
+  }
+
+  /**
+   * Removes the oldest finished objects from the registry. Needs the sync object.
+   *
+   * @param limit
+   *          the maximum number of objects to remove
+   * @param withoutRunningAncestor
+   *          true to only remove the objects of which no ancestor still runs
+   * @return the log channel IDs of the removed objects
+   */
+  private List<String> purge( int limit, boolean withoutRunningAncestor ) {
+    List<String> purged = new ArrayList<String>();
+    Iterator<String> ids = this.registrationOrder.iterator();
+    while ( purged.size() < limit && ids.hasNext() ) {
+      String id = ids.next();
+      if ( !this.map.containsKey( id ) ) {
+        ids.remove();
+      } else if ( withoutRunningAncestor ? isPurgeable( id ) : isFinished( id ) ) {
+        this.map.remove( id );
+        ids.remove();
+        purged.add( id );
+      }
+    }
+    // Whatever was put in the map directly isn't in the registration order
+    //
+    ids = this.map.keySet().iterator();
+    while ( purged.size() < limit && ids.hasNext() ) {
+      String id = ids.next();
+      if ( !this.sources.containsKey( id ) && ( !withoutRunningAncestor || isPurgeable( id ) ) ) {
+        ids.remove();
+        purged.add( id );
+      }
+    }
+    return purged;
+  }
+
+  /**
+   * Removes objects that are no longer in the registry from the parent-child relations and the cached descendants.
+   * Objects with lines in the log store are kept in there until the lines are gone. Needs the sync object.
+   */
+  private void forget( Collection<String> logChannelIds ) {
+    Set<String> forgotten = new HashSet<String>();
+    for ( String id : logChannelIds ) {
+      this.sources.remove( id );
+      if ( this.map.containsKey( id ) ) {
+        this.pendingRemovals.remove( id );
+      } else if ( hasBufferedLines( id ) ) {
+        this.pendingRemovals.add( id );
+      } else {
+        this.pendingRemovals.remove( id );
+        forgotten.add( id );
+        String parentId = this.parentMap.remove( id );
+        if ( parentId != null ) {
+          List<String> siblings = this.childrenMap.get( parentId );
+          if ( siblings != null ) {
+            siblings.remove( id );
+          }
+        }
+        this.childrenMap.remove( id );
+      }
+    }
+    removeDescendants( forgotten );
+  }
+
+  /**
+   * Removes log channel IDs from the cached descendants. Needs the sync object.
+   */
+  private void removeDescendants( Set<String> logChannelIds ) {
+    if ( logChannelIds.isEmpty() ) {
+      return;
+    }
+    this.descendantsMap.keySet().removeAll( logChannelIds );
+    for ( Set<String> descendants : this.descendantsMap.values() ) {
+      descendants.removeAll( logChannelIds );
+    }
+  }
+
+  /**
+   * @return true if the object that registered the log channel is gone
+   */
+  private boolean isFinished( String logChannelId ) {
+    WeakReference<Object> source = this.sources.get( logChannelId );
+    return source == null || source.get() == null;
+  }
+
+  /**
+   * An object can be purged when it is finished and none of its ancestors still runs, the log of a running job or
+   * transformation includes the lines of its children. Needs the sync object.
+   */
+  private boolean isPurgeable( String logChannelId ) {
+    String id = logChannelId;
+    while ( id != null ) {
+      WeakReference<Object> source = this.sources.get( id );
+      if ( source != null && source.get() != null ) {
+        return false;
+      }
+      id = this.parentMap.get( id );
+    }
+    return true;
+  }
+
+  /**
+   * @return true if the central log store still holds lines of the log channel
+   */
+  private static boolean hasBufferedLines( String logChannelId ) {
+    return KettleLogStore.isInitialized() && KettleLogStore.getAppender().hasLines( logChannelId );
+  }
+
   private List<String> getLogChannelChildren( List<String> children, String parentLogChannelId ) {
     synchronized ( this.syncObject ) {
       List<String> list = this.childrenMap.get( parentLogChannelId );
@@ -232,8 +411,12 @@ public class LoggingRegistry {
     return Collections.unmodifiableMap( this.childrenMap );
   }
 
+  private boolean isRemoved( String logChannelId ) {
+    return !this.map.containsKey( logChannelId ) && !hasBufferedLines( logChannelId );
+  }
+
   public void removeIncludingChildren( String logChannelId ) {
-    synchronized ( this.map ) {
+    synchronized ( this.syncObject ) {
       List<String> children = getLogChannelChildren( logChannelId );
       for ( String child : children ) {
         this.map.remove( child );
@@ -244,7 +427,40 @@ public class LoggingRegistry {
   }
 
   public void removeOrphans() {
-    // Remove all orphaned children
-    this.childrenMap.keySet().retainAll( this.map.keySet() );
+    synchronized ( this.syncObject ) {
+      // Remove all orphaned children. Children with lines in the log store stay known to their parents until these
+      // lines are gone, so that the log of the parent still shows them.
+      //
+      Set<String> removed = new HashSet<String>();
+      Iterator<String> ids = this.childrenMap.keySet().iterator();
+      while ( ids.hasNext() ) {
+        String id = ids.next();
+        if ( isRemoved( id ) ) {
+          ids.remove();
+          removed.add( id );
+        }
+      }
+      for ( List<String> children : this.childrenMap.values() ) {
+        Iterator<String> kids = children.iterator();
+        while ( kids.hasNext() ) {
+          String id = kids.next();
+          if ( isRemoved( id ) ) {
+            kids.remove();
+            removed.add( id );
+          }
+        }
+      }
+      ids = this.parentMap.keySet().iterator();
+      while ( ids.hasNext() ) {
+        String id = ids.next();
+        if ( isRemoved( id ) ) {
+          ids.remove();
+          removed.add( id );
+        }
+      }
+      this.sources.keySet().retainAll( this.map.keySet() );
+      this.pendingRemovals.removeAll( removed );
+      removeDescendants( removed );
+    }
   }
 }
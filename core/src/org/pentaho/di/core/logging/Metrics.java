@@ -155,6 +155,15 @@ public class Metrics implements MetricsInterface {
     MetricsSnapshotType.COUNT, "METRIC_LOGGING_REGISTRY_GET_CHILDREN_COUNT",
     "Number of times retrieved log registry children" );
 
+  // Lookup caches
+  //
+  public static Metrics METRIC_LOOKUP_CACHE_HIT_COUNT = new Metrics(
+    MetricsSnapshotType.SUM, "METRIC_LOOKUP_CACHE_HIT_COUNT", "Lookup cache hits" );
+  public static Metrics METRIC_LOOKUP_CACHE_MISS_COUNT = new Metrics(
+    MetricsSnapshotType.SUM, "METRIC_LOOKUP_CACHE_MISS_COUNT", "Lookup cache misses" );
+  public static Metrics METRIC_LOOKUP_CACHE_EVICTION_COUNT = new Metrics(
+    MetricsSnapshotType.SUM, "METRIC_LOOKUP_CACHE_EVICTION_COUNT", "Lookup cache entries evicted or expired" );
+
   // Job
   //
   public static Metrics METRIC_JOB_START = new Metrics(
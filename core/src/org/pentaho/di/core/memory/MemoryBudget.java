@@ -0,0 +1,207 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2016 by Pentaho : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+
+package org.pentaho.di.core.memory;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.pentaho.di.core.Const;
+
+/**
+ * Keeps track of the estimated number of bytes held in row buffers by the steps that share it, for example all the
+ * steps of a transformation. A step reserves memory before it buffers more rows and releases it when it spills the
+ * rows to disk or passes them on. When a reservation is refused the step should free memory instead of growing.<br>
+ * <br>
+ * A budget can have a parent budget, every reservation then also has to fit in the parent. This is how the
+ * transformations running in the same JVM, for example on a Carte server, can share a global budget.
+ *
+ * @since 17-10-2016
+ *
+ */
+public class MemoryBudget {
+
+  private static MemoryBudget globalInstance;
+  private static boolean globalInstanceRead;
+
+  private final String name;
+  private final long limit;
+  private final MemoryBudget parent;
+
+  private final AtomicLong used;
+
+  /**
+   * Creates a new memory budget.
+   *
+   * @param name
+   *          the name of the budget, used for logging
+   * @param limit
+   *          the number of bytes that can be reserved
+   * @param parent
+   *          the budget that all reservations also have to fit in or null
+   */
+  public MemoryBudget( String name, long limit, MemoryBudget parent ) {
+    this.name = name;
+    this.limit = limit;
+    this.parent = parent;
+    this.used = new AtomicLong();
+  }
+
+  /**
+   * Gets the budget that is shared by all transformations running in this JVM. Its size is taken from the
+   * KETTLE_GLOBAL_MEMORY_BUDGET system property (or kettle.properties) the first time it is asked for.
+   *
+   * @return the global budget or null if no global budget was defined
+   */
+  public static synchronized MemoryBudget getGlobalInstance() {
+    if ( !globalInstanceRead ) {
+      long limit =
+        parseSize( System.getProperty( Const.KETTLE_GLOBAL_MEMORY_BUDGET ), Runtime.getRuntime().maxMemory() );
+      if ( limit > 0 ) {
+        globalInstance = new MemoryBudget( "global", limit, null );
+      }
+      globalInstanceRead = true;
+    }
+    return globalInstance;
+  }
+
+  /**
+   * Tries to reserve memory.
+   *
+   * @param bytes
+   *          the number of bytes to reserve
+   * @return true if the memory was reserved, false if it doesn't fit in this budget or in one of its parents.
+   */
+  public boolean reserve( long bytes ) {
+    long current;
+    do {
+      current = used.get();
+      if ( current + bytes > limit ) {
+        return false;
+      }
+    } while ( !used.compareAndSet( current, current + bytes ) );
+
+    if ( parent != null && !parent.reserve( bytes ) ) {
+      used.addAndGet( -bytes );
+      return false;
+    }
+    return true;
+  }
+
+  /**
+   * Reserves memory even if that exceeds the limit. This allows a consumer to make progress with a minimal amount of
+   * memory when the budget is taken by others.
+   *
+   * @param bytes
+   *          the number of bytes to reserve
+   */
+  public void forceReserve( long bytes ) {
+    used.addAndGet( bytes );
+    if ( parent != null ) {
+      parent.forceReserve( bytes );
+    }
+  }
+
+  /**
+   * Releases memory that was reserved earlier.
+   *
+   * @param bytes
+   *          the number of bytes to release
+   */
+  public void release( long bytes ) {
+    used.addAndGet( -bytes );
+    if ( parent != null ) {
+      parent.release( bytes );
+    }
+  }
+
+  /**
+   * @return the name of the budget
+   */
+  public String getName() {
+    return name;
+  }
+
+  /**
+   * @return the number of bytes that can be reserved
+   */
+  public long getLimit() {
+    return limit;
+  }
+
+  /**
+   * @return the number of bytes that are reserved right now
+   */
+  public long getUsed() {
+    return used.get();
+  }
+
+  /**
+   * @return the budget that all reservations also have to fit in or null
+   */
+  public MemoryBudget getParent() {
+    return parent;
+  }
+
+  /**
+   * Parses a memory size: a number of bytes, a number followed by k, m or g, or a percentage of the maximum heap size.
+   *
+   * @param size
+   *          the size to parse, for example 500000, 256m, 2g or 40%
+   * @param maxMemory
+   *          the maximum heap size, used for percentages
+   * @return the number of bytes or -1 if the size is empty or can't be parsed
+   */
+  public static long parseSize( String size, long maxMemory ) {
+    if ( Const.isEmpty( size ) ) {
+      return -1L;
+    }
+    String value = size.trim().toLowerCase();
+    long multiplier = 1L;
+    boolean percentage = false;
+    if ( value.endsWith( "%" ) ) {
+      percentage = true;
+    } else if ( value.endsWith( "k" ) ) {
+      multiplier = 1024L;
+    } else if ( value.endsWith( "m" ) ) {
+      multiplier = 1024L * 1024L;
+    } else if ( value.endsWith( "g" ) ) {
+      multiplier = 1024L * 1024L * 1024L;
+    }
+    if ( percentage || multiplier > 1L ) {
+      value = value.substring( 0, value.length() - 1 ).trim();
+    }
+    try {
+      if ( percentage ) {
+        return Math.round( maxMemory * Double.parseDouble( value ) / 100 );
+      }
+      return Long.parseLong( value ) * multiplier;
+    } catch ( NumberFormatException e ) {
+      return -1L;
+    }
+  }
+
+  @Override
+  public String toString() {
+    return name + " (" + used.get() + "/" + limit + " bytes)";
+  }
+}
@@ -0,0 +1,102 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2016 by Pentaho : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+
+package org.pentaho.di.core.memory;
+
+import java.math.BigDecimal;
+import java.util.Date;
+
+/**
+ * Estimates the number of bytes a row takes on the heap, assuming a 64-bit JVM with compressed object pointers. The
+ * estimate looks at the data objects in the row rather than at the row metadata so that lazy conversion (byte arrays)
+ * and wide strings are taken into account.
+ *
+ * @since 17-10-2016
+ *
+ */
+public class RowSizeEstimator {
+
+  private static final int OBJECT_HEADER = 12;
+  private static final int ARRAY_HEADER = 16;
+  private static final int REFERENCE = 4;
+
+  private RowSizeEstimator() {
+  }
+
+  /**
+   * Estimates the size of a row.
+   *
+   * @param row
+   *          the row data
+   * @return the estimated number of bytes taken by the row array and the values in it
+   */
+  public static long estimateRowSize( Object[] row ) {
+    if ( row == null ) {
+      return 0L;
+    }
+    long size = align( ARRAY_HEADER + REFERENCE * row.length );
+    for ( Object value : row ) {
+      size += estimateValueSize( value );
+    }
+    return size;
+  }
+
+  /**
+   * Estimates the size of a single value of a row.
+   *
+   * @param value
+   *          the value
+   * @return the estimated number of bytes taken by the value object
+   */
+  public static long estimateValueSize( Object value ) {
+    if ( value == null || value instanceof Boolean ) {
+      // nothing or one of the shared Boolean instances
+      return 0L;
+    }
+    if ( value instanceof String ) {
+      // the string object and its characters
+      return align( OBJECT_HEADER + 12 ) + align( ARRAY_HEADER + 2L * ( (String) value ).length() );
+    }
+    if ( value instanceof byte[] ) {
+      return align( ARRAY_HEADER + ( (byte[]) value ).length );
+    }
+    if ( value instanceof Long || value instanceof Double ) {
+      return align( OBJECT_HEADER + 8 );
+    }
+    if ( value instanceof Date ) {
+      // java.util.Date or java.sql.Timestamp
+      return align( OBJECT_HEADER + 8 + REFERENCE + 4 );
+    }
+    if ( value instanceof BigDecimal ) {
+      // the decimal, its unscaled BigInteger and the int[] of its magnitude
+      BigDecimal bigDecimal = (BigDecimal) value;
+      int magnitudeInts = ( bigDecimal.unscaledValue().bitLength() + 31 ) / 32;
+      return align( OBJECT_HEADER + 24 ) + align( OBJECT_HEADER + 24 ) + align( ARRAY_HEADER + 4L * magnitudeInts );
+    }
+    return align( OBJECT_HEADER + 8 );
+  }
+
+  private static long align( long size ) {
+    return ( size + 7 ) & ~7L;
+  }
+}
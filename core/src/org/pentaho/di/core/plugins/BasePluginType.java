@@ -46,7 +46,6 @@ import org.pentaho.di.core.vfs.KettleVFS;
 import org.pentaho.di.core.xml.XMLHandler;
 import org.pentaho.di.i18n.BaseMessages;
 import org.pentaho.di.i18n.LanguageChoice;
-import org.scannotation.AnnotationDB;
 import org.w3c.dom.Node;
 
 public abstract class BasePluginType implements PluginTypeInterface {
@@ -255,11 +254,7 @@ public abstract class BasePluginType implements PluginTypeInterface {
 
               // These are the jar files : find annotations in it...
               //
-              AnnotationDB annotationDB = jarFileCache.getAnnotationDB( fileObject );
-
-              // These are the jar files : find annotations in it...
-              //
-              Set<String> impls = annotationDB.getAnnotationIndex().get( annotationClassName );
+              Set<String> impls = jarFileCache.getAnnotationIndex( fileObject ).get( annotationClassName );
               if ( impls != null ) {
 
                 for ( String fil : impls ) {
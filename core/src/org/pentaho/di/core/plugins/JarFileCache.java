@@ -25,10 +25,14 @@ package org.pentaho.di.core.plugins;
 import java.io.IOException;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Set;
 
 import org.apache.commons.vfs2.FileObject;
 import org.apache.commons.vfs2.FileSystemException;
+import org.pentaho.di.core.Const;
 import org.pentaho.di.core.exception.KettleFileException;
+import org.pentaho.di.core.logging.LogChannel;
+import org.pentaho.di.core.util.EnvUtil;
 import org.scannotation.AnnotationDB;
 
 public class JarFileCache {
@@ -39,6 +43,8 @@ public class JarFileCache {
 
   private final Map<FileObject, AnnotationDB> annotationMap;
 
+  private PluginScanIndex scanIndex;
+
   private JarFileCache() {
     annotationMap = new HashMap<FileObject, AnnotationDB>();
     folderMap = new HashMap<PluginFolderInterface, FileObject[]>();
@@ -61,6 +67,39 @@ public class JarFileCache {
     return result;
   }
 
+  /**
+   * Get the annotations found in a jar file. When KETTLE_PLUGIN_INDEX is set to Y the annotations are taken from the
+   * persisted plugin index and only jar files that changed are scanned.
+   *
+   * @param fileObject
+   *          the jar file
+   * @return the annotation class names with the names of the annotated classes
+   */
+  public Map<String, Set<String>> getAnnotationIndex( FileObject fileObject ) throws FileSystemException,
+    IOException {
+    if ( "Y".equalsIgnoreCase( EnvUtil.getSystemProperty( Const.KETTLE_PLUGIN_INDEX ) ) ) {
+      if ( scanIndex == null ) {
+        scanIndex = new PluginScanIndex( PluginScanIndex.getDefaultFilename() );
+        scanIndex.load();
+      }
+      return scanIndex.getAnnotationIndex( fileObject );
+    }
+    return getAnnotationDB( fileObject ).getAnnotationIndex();
+  }
+
+  /**
+   * Save the plugin index if jar files were scanned for it.
+   */
+  public void saveScanIndex() {
+    if ( scanIndex != null && scanIndex.isChanged() ) {
+      try {
+        scanIndex.save();
+      } catch ( KettleFileException e ) {
+        LogChannel.GENERAL.logError( "Unable to save the plugin index", e );
+      }
+    }
+  }
+
   public FileObject[] getFileObjects( PluginFolderInterface pluginFolderInterface ) throws KettleFileException {
     FileObject[] result = folderMap.get( pluginFolderInterface );
     if ( result == null ) {
@@ -73,5 +112,6 @@ public class JarFileCache {
   public void clear() {
     annotationMap.clear();
     folderMap.clear();
+    scanIndex = null;
   }
 }
@@ -581,6 +581,10 @@ public class PluginRegistry {
      * System.out.println("   - "+duration.toString()+"          Total="+total); }
      */
 
+    // Keep what we found in the plugin jar files for the next start
+    //
+    JarFileCache.getInstance().saveScanIndex();
+
     // Clear the jar file cache so that we don't waste memory...
     //
     if ( !keepCache ) {
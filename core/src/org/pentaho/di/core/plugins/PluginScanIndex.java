@@ -0,0 +1,272 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2016 by Pentaho : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+package org.pentaho.di.core.plugins;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.vfs2.FileContent;
+import org.apache.commons.vfs2.FileObject;
+import org.pentaho.di.core.Const;
+import org.pentaho.di.core.exception.KettleFileException;
+import org.pentaho.di.core.logging.LogChannel;
+import org.pentaho.di.core.vfs.KettleVFS;
+import org.pentaho.di.version.BuildVersion;
+import org.scannotation.AnnotationDB;
+
+/**
+ * This class keeps the annotations found in plugin jar files between runs so that the jar files don't need to be
+ * scanned every time the plugin registry is initialized. The index is stored in the Kettle home directory. An entry is
+ * used as long as the size and the modification time of the jar file didn't change, other jar files are scanned again.
+ *
+ * @since 17-10-2016
+ *
+ */
+public class PluginScanIndex {
+  private static final int FORMAT_VERSION = 1;
+
+  /** The highest number of jar files, annotations or classes accepted when reading the index */
+  private static final int MAX_COUNT = 1000000;
+
+  private final String filename;
+
+  private final Map<String, IndexEntry> entries;
+
+  private final Set<String> usedPaths;
+
+  private boolean changed;
+
+  private static class IndexEntry {
+    private final long size;
+    private final long modified;
+    private final Map<String, Set<String>> annotationIndex;
+
+    private IndexEntry( long size, long modified, Map<String, Set<String>> annotationIndex ) {
+      this.size = size;
+      this.modified = modified;
+      this.annotationIndex = annotationIndex;
+    }
+  }
+
+  public PluginScanIndex( String filename ) {
+    this.filename = filename;
+    this.entries = new HashMap<String, IndexEntry>();
+    this.usedPaths = new HashSet<String>();
+  }
+
+  public static String getDefaultFilename() {
+    return Const.getKettleDirectory()
+      + Const.FILE_SEPARATOR + "plugin-index-" + BuildVersion.getInstance().getVersion();
+  }
+
+  /**
+   * Load the index from disk. A missing or unreadable index is simply rebuilt.
+   */
+  public void load() {
+    entries.clear();
+    usedPaths.clear();
+    changed = false;
+
+    File file = new File( filename );
+    if ( !file.canRead() ) {
+      return;
+    }
+
+    DataInputStream dis = null;
+    try {
+      dis = new DataInputStream( new BufferedInputStream( new FileInputStream( file ), 10000 ) );
+      if ( dis.readInt() != FORMAT_VERSION ) {
+        changed = true;
+        return;
+      }
+      int nrEntries = readCount( dis );
+      for ( int i = 0; i < nrEntries; i++ ) {
+        String path = dis.readUTF();
+        long size = dis.readLong();
+        long modified = dis.readLong();
+        int nrAnnotations = readCount( dis );
+        Map<String, Set<String>> annotationIndex = new HashMap<String, Set<String>>( nrAnnotations );
+        for ( int a = 0; a < nrAnnotations; a++ ) {
+          String annotationName = dis.readUTF();
+          int nrClasses = readCount( dis );
+          Set<String> classNames = new HashSet<String>( nrClasses );
+          for ( int c = 0; c < nrClasses; c++ ) {
+            classNames.add( dis.readUTF() );
+          }
+          annotationIndex.put( annotationName, classNames );
+        }
+        entries.put( path, new IndexEntry( size, modified, annotationIndex ) );
+      }
+    } catch ( IOException e ) {
+      discard( e );
+    } catch ( RuntimeException e ) {
+      // A damaged file can contain anything
+      discard( e );
+    } finally {
+      if ( dis != null ) {
+        try {
+          dis.close();
+        } catch ( IOException e ) {
+          // Ignore
+        }
+      }
+    }
+  }
+
+  private static int readCount( DataInputStream dis ) throws IOException {
+    int count = dis.readInt();
+    if ( count < 0 || count > MAX_COUNT ) {
+      throw new IOException( "Invalid number of elements: " + count );
+    }
+    return count;
+  }
+
+  private void discard( Exception e ) {
+    LogChannel.GENERAL.logDetailed( "Unable to read the plugin index from file [" + filename
+      + "], it will be rebuilt : " + e.getMessage() );
+    entries.clear();
+    changed = true;
+  }
+
+  /**
+   * Get the annotations found in a jar file: the annotation class names with the names of the annotated classes. The
+   * jar file is only scanned if it's not in the index or if it changed since it was indexed.
+   *
+   * @param jarFile
+   *          the jar file to look in
+   * @return the annotation index of the jar file
+   * @throws IOException
+   *           in case the jar file can't be read
+   */
+  public Map<String, Set<String>> getAnnotationIndex( FileObject jarFile ) throws IOException {
+    String path = jarFile.getName().getURI();
+    FileContent content = jarFile.getContent();
+    long size = content.getSize();
+    long modified = content.getLastModifiedTime();
+
+    usedPaths.add( path );
+    IndexEntry entry = entries.get( path );
+    if ( entry == null || entry.size != size || entry.modified != modified ) {
+      AnnotationDB annotationDB = new AnnotationDB();
+      annotationDB.scanArchives( jarFile.getURL() );
+      entry = new IndexEntry( size, modified, annotationDB.getAnnotationIndex() );
+      entries.put( path, entry );
+      changed = true;
+    }
+    return entry.annotationIndex;
+  }
+
+  /**
+   * @return true if jar files were scanned since the index was loaded or saved.
+   */
+  public boolean isChanged() {
+    return changed;
+  }
+
+  /**
+   * Save the index to disk if it changed. Entries of jar files that no longer exist are removed.
+   *
+   * @throws KettleFileException
+   *           in case the index can't be written
+   */
+  public void save() throws KettleFileException {
+    if ( !changed ) {
+      return;
+    }
+
+    Iterator<String> paths = entries.keySet().iterator();
+    while ( paths.hasNext() ) {
+      String path = paths.next();
+      if ( !usedPaths.contains( path ) && !KettleVFS.fileExists( path ) ) {
+        paths.remove();
+      }
+    }
+
+    // Write to a temporary file of our own first so that a concurrent start never reads or writes a partial index
+    //
+    File file = new File( filename ).getAbsoluteFile();
+    File tempFile = null;
+    DataOutputStream dos = null;
+    try {
+      file.getParentFile().mkdirs();
+      tempFile = File.createTempFile( file.getName(), ".tmp", file.getParentFile() );
+      dos = new DataOutputStream( new BufferedOutputStream( new FileOutputStream( tempFile ), 10000 ) );
+      dos.writeInt( FORMAT_VERSION );
+      dos.writeInt( entries.size() );
+      for ( Map.Entry<String, IndexEntry> entry : entries.entrySet() ) {
+        IndexEntry indexEntry = entry.getValue();
+        dos.writeUTF( entry.getKey() );
+        dos.writeLong( indexEntry.size );
+        dos.writeLong( indexEntry.modified );
+        dos.writeInt( indexEntry.annotationIndex.size() );
+        for ( Map.Entry<String, Set<String>> annotation : indexEntry.annotationIndex.entrySet() ) {
+          dos.writeUTF( annotation.getKey() );
+          dos.writeInt( annotation.getValue().size() );
+          for ( String className : annotation.getValue() ) {
+            dos.writeUTF( className );
+          }
+        }
+      }
+      dos.close();
+      dos = null;
+
+      if ( !tempFile.renameTo( file ) ) {
+        // Windows doesn't replace an existing file
+        file.delete();
+        if ( !tempFile.renameTo( file ) ) {
+          throw new IOException( "Unable to rename [" + tempFile + "] to [" + file + "]" );
+        }
+      }
+      tempFile = null;
+      changed = false;
+    } catch ( IOException e ) {
+      throw new KettleFileException( "Couldn't write the plugin index to file [" + filename + "]", e );
+    } finally {
+      if ( dos != null ) {
+        try {
+          dos.close();
+        } catch ( IOException e ) {
+          // Ignore
+        }
+      }
+      if ( tempFile != null ) {
+        tempFile.delete();
+      }
+    }
+  }
+
+  public int size() {
+    return entries.size();
+  }
+}
@@ -0,0 +1,250 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2016 by Pentaho : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+
+package org.pentaho.di.core.row;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.Date;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import org.pentaho.di.core.Const;
+import org.pentaho.di.core.exception.KettleEOFException;
+import org.pentaho.di.core.exception.KettleFileException;
+
+/**
+ * Reads the rows written by a {@link RowBlockWriter} back from a stream, a block at a time.
+ *
+ * @since 17-10-2016
+ *
+ */
+public class RowBlockReader {
+
+  private final RowMetaInterface rowMeta;
+  private final DataInputStream inputStream;
+
+  private Object[][] rows;
+  private int nrRows;
+  private int position;
+  private boolean finished;
+
+  private Inflater inflater;
+  private byte[] buffer;
+
+  public RowBlockReader( RowMetaInterface rowMeta, DataInputStream inputStream ) {
+    this.rowMeta = rowMeta;
+    this.inputStream = inputStream;
+  }
+
+  /**
+   * @return the next row or null if the end of the rows was reached
+   * @throws KettleEOFException
+   *           if the stream ended before the end of the rows was written
+   */
+  public Object[] readRow() throws KettleFileException {
+    if ( position == nrRows ) {
+      if ( finished || !readBlock() ) {
+        return null;
+      }
+    }
+    Object[] row = rows[position];
+    rows[position++] = null;
+    return row;
+  }
+
+  private boolean readBlock() throws KettleFileException {
+    try {
+      int size = readVarInt( inputStream );
+      if ( size == 0 ) {
+        finished = true;
+        if ( inflater != null ) {
+          inflater.end();
+          inflater = null;
+        }
+        return false;
+      }
+
+      int codec = inputStream.readUnsignedByte();
+      int length = readVarInt( inputStream );
+      ensureBuffer( length );
+      if ( codec == RowBlockWriter.CODEC_DEFLATE ) {
+        byte[] compressed = new byte[readVarInt( inputStream )];
+        inputStream.readFully( compressed );
+        if ( inflater == null ) {
+          inflater = new Inflater();
+        }
+        inflater.reset();
+        inflater.setInput( compressed );
+        int inflated = 0;
+        while ( inflated < length ) {
+          int count = inflater.inflate( buffer, inflated, length - inflated );
+          if ( count == 0 && ( inflater.finished() || inflater.needsInput() ) ) {
+            throw new KettleFileException( "Compressed block of rows is truncated" );
+          }
+          inflated += count;
+        }
+      } else if ( codec == RowBlockWriter.CODEC_NONE ) {
+        inputStream.readFully( buffer, 0, length );
+      } else {
+        throw new KettleFileException( "Unknown compression codec " + codec + " for a block of rows" );
+      }
+
+      DataInputStream block = new DataInputStream( new ByteArrayInputStream( buffer, 0, length ) );
+      if ( rows == null || rows.length < size ) {
+        rows = new Object[size][];
+      }
+      for ( int r = 0; r < size; r++ ) {
+        rows[r] = RowDataUtil.allocateRowData( rowMeta.size() );
+      }
+      nrRows = size;
+      position = 0;
+      for ( int i = 0; i < rowMeta.size(); i++ ) {
+        readColumn( block, i, rowMeta.getValueMeta( i ) );
+      }
+      return true;
+    } catch ( EOFException e ) {
+      throw new KettleEOFException( e );
+    } catch ( DataFormatException e ) {
+      throw new KettleFileException( "Unable to decompress a block of rows", e );
+    } catch ( IOException e ) {
+      throw new KettleFileException( "Unable to read a block of rows", e );
+    }
+  }
+
+  private void ensureBuffer( int length ) {
+    if ( buffer == null || buffer.length < length ) {
+      buffer = new byte[Math.max( length, 8192 )];
+    }
+  }
+
+  private void readColumn( DataInputStream block, int index, ValueMetaInterface valueMeta ) throws IOException,
+    KettleFileException {
+    boolean[] nulls = new boolean[nrRows];
+    if ( block.readBoolean() ) {
+      byte[] bitmap = new byte[( nrRows + 7 ) / 8];
+      block.readFully( bitmap );
+      for ( int r = 0; r < nrRows; r++ ) {
+        nulls[r] = ( bitmap[r >> 3] & ( 1 << ( r & 7 ) ) ) != 0;
+      }
+    }
+
+    if ( valueMeta.getStorageType() != ValueMetaInterface.STORAGE_TYPE_NORMAL ) {
+      readValues( block, index, valueMeta, nulls );
+      return;
+    }
+    switch ( valueMeta.getType() ) {
+      case ValueMetaInterface.TYPE_INTEGER:
+      case ValueMetaInterface.TYPE_DATE:
+        boolean dates = valueMeta.getType() == ValueMetaInterface.TYPE_DATE;
+        long previous = 0L;
+        for ( int r = 0; r < nrRows; r++ ) {
+          if ( !nulls[r] ) {
+            previous += unZigZag( readVarLong( block ) );
+            rows[r][index] = dates ? new Date( previous ) : Long.valueOf( previous );
+          }
+        }
+        break;
+      case ValueMetaInterface.TYPE_NUMBER:
+        for ( int r = 0; r < nrRows; r++ ) {
+          if ( !nulls[r] ) {
+            rows[r][index] = block.readDouble();
+          }
+        }
+        break;
+      case ValueMetaInterface.TYPE_STRING:
+        readStrings( block, index, nulls );
+        break;
+      case ValueMetaInterface.TYPE_BOOLEAN:
+        byte[] bitmap = new byte[( nrRows + 7 ) / 8];
+        block.readFully( bitmap );
+        for ( int r = 0; r < nrRows; r++ ) {
+          if ( !nulls[r] ) {
+            rows[r][index] = Boolean.valueOf( ( bitmap[r >> 3] & ( 1 << ( r & 7 ) ) ) != 0 );
+          }
+        }
+        break;
+      default:
+        readValues( block, index, valueMeta, nulls );
+        break;
+    }
+  }
+
+  private void readStrings( DataInputStream block, int index, boolean[] nulls ) throws IOException {
+    int encoding = block.readUnsignedByte();
+    if ( encoding == RowBlockWriter.STRINGS_DICTIONARY ) {
+      String[] dictionary = new String[readVarInt( block )];
+      for ( int d = 0; d < dictionary.length; d++ ) {
+        dictionary[d] = readString( block );
+      }
+      for ( int r = 0; r < nrRows; r++ ) {
+        if ( !nulls[r] ) {
+          rows[r][index] = dictionary[readVarInt( block )];
+        }
+      }
+    } else {
+      for ( int r = 0; r < nrRows; r++ ) {
+        if ( !nulls[r] ) {
+          rows[r][index] = readString( block );
+        }
+      }
+    }
+  }
+
+  private String readString( DataInputStream block ) throws IOException {
+    byte[] bytes = new byte[readVarInt( block )];
+    block.readFully( bytes );
+    return new String( bytes, Const.XML_ENCODING );
+  }
+
+  private void readValues( DataInputStream block, int index, ValueMetaInterface valueMeta, boolean[] nulls )
+    throws IOException, KettleFileException {
+    for ( int r = 0; r < nrRows; r++ ) {
+      if ( !nulls[r] ) {
+        rows[r][index] = valueMeta.readData( block );
+      }
+    }
+  }
+
+  static long unZigZag( long value ) {
+    return ( value >>> 1 ) ^ -( value & 1 );
+  }
+
+  static int readVarInt( DataInputStream inputStream ) throws IOException {
+    return (int) readVarLong( inputStream );
+  }
+
+  static long readVarLong( DataInputStream inputStream ) throws IOException {
+    long value = 0L;
+    for ( int shift = 0; shift < 64; shift += 7 ) {
+      int b = inputStream.readUnsignedByte();
+      value |= (long) ( b & 0x7F ) << shift;
+      if ( ( b & 0x80 ) == 0 ) {
+        return value;
+      }
+    }
+    throw new IOException( "Malformed variable length number" );
+  }
+}
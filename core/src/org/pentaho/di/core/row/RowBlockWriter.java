@@ -0,0 +1,309 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2016 by Pentaho : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+
+package org.pentaho.di.core.row;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.Deflater;
+
+import org.pentaho.di.core.Const;
+import org.pentaho.di.core.exception.KettleFileException;
+
+/**
+ * Writes rows to a stream in blocks, column by column, as an alternative to {@link RowMetaInterface#writeData}. Per
+ * block and column a null bitmap is written, followed by the values that are not null:
+ * <ul>
+ * <li>integers and dates as zig-zag variable length deltas from the previous value</li>
+ * <li>strings with a dictionary when the column has few distinct values in the block</li>
+ * <li>booleans as a bitmap</li>
+ * <li>everything else, including values that are not in normal storage, the way the value metadata serializes it</li>
+ * </ul>
+ * Blocks can optionally be compressed with a fast deflater setting, which costs far less than compressing the whole
+ * stream with gzip. The stream is read back with {@link RowBlockReader}.
+ *
+ * @since 17-10-2016
+ *
+ */
+public class RowBlockWriter {
+
+  public static final int DEFAULT_BLOCK_SIZE = 1000;
+
+  static final int CODEC_NONE = 0;
+  static final int CODEC_DEFLATE = 1;
+
+  static final int STRINGS_PLAIN = 0;
+  static final int STRINGS_DICTIONARY = 1;
+
+  /** Blocks smaller than this are not worth compressing */
+  private static final int MIN_COMPRESS_SIZE = 256;
+
+  private final RowMetaInterface rowMeta;
+  private final DataOutputStream outputStream;
+  private final Object[][] rows;
+  private int nrRows;
+
+  private final ByteArrayOutputStream blockBytes;
+  private final DataOutputStream block;
+
+  private final Deflater deflater;
+  private byte[] compressed;
+
+  /**
+   * @param rowMeta
+   *          the metadata of the rows to write
+   * @param outputStream
+   *          the stream to write the blocks to
+   * @param blockSize
+   *          the maximum number of rows in a block
+   * @param compressing
+   *          true if the blocks should be compressed
+   */
+  public RowBlockWriter( RowMetaInterface rowMeta, DataOutputStream outputStream, int blockSize,
+    boolean compressing ) {
+    this.rowMeta = rowMeta;
+    this.outputStream = outputStream;
+    this.rows = new Object[Math.max( 1, blockSize )][];
+    this.blockBytes = new ByteArrayOutputStream( 8192 );
+    this.block = new DataOutputStream( blockBytes );
+    this.deflater = compressing ? new Deflater( Deflater.BEST_SPEED ) : null;
+  }
+
+  /**
+   * Adds a row to the current block, the block is written once it is full.
+   */
+  public void writeRow( Object[] row ) throws KettleFileException {
+    rows[nrRows++] = row;
+    if ( nrRows == rows.length ) {
+      writeBlock();
+    }
+  }
+
+  /**
+   * Writes the rows left in the current block followed by the end of stream marker.
+   */
+  public void finish() throws KettleFileException {
+    if ( nrRows > 0 ) {
+      writeBlock();
+    }
+    try {
+      writeVarInt( outputStream, 0 );
+    } catch ( IOException e ) {
+      throw new KettleFileException( "Unable to write the end of the row blocks", e );
+    } finally {
+      if ( deflater != null ) {
+        deflater.end();
+      }
+    }
+  }
+
+  private void writeBlock() throws KettleFileException {
+    try {
+      blockBytes.reset();
+      for ( int i = 0; i < rowMeta.size(); i++ ) {
+        writeColumn( i, rowMeta.getValueMeta( i ) );
+      }
+      block.flush();
+
+      writeVarInt( outputStream, nrRows );
+      byte[] bytes = blockBytes.toByteArray();
+      if ( deflater != null && bytes.length >= MIN_COMPRESS_SIZE ) {
+        int length = compress( bytes );
+        outputStream.writeByte( CODEC_DEFLATE );
+        writeVarInt( outputStream, bytes.length );
+        writeVarInt( outputStream, length );
+        outputStream.write( compressed, 0, length );
+      } else {
+        outputStream.writeByte( CODEC_NONE );
+        writeVarInt( outputStream, bytes.length );
+        outputStream.write( bytes );
+      }
+    } catch ( IOException e ) {
+      throw new KettleFileException( "Unable to write a block of " + nrRows + " rows", e );
+    } finally {
+      for ( int i = 0; i < nrRows; i++ ) {
+        rows[i] = null;
+      }
+      nrRows = 0;
+    }
+  }
+
+  private int compress( byte[] bytes ) {
+    if ( compressed == null || compressed.length < bytes.length + 64 ) {
+      compressed = new byte[bytes.length + 64];
+    }
+    deflater.reset();
+    deflater.setInput( bytes );
+    deflater.finish();
+    int length = 0;
+    while ( !deflater.finished() ) {
+      if ( length == compressed.length ) {
+        byte[] larger = new byte[compressed.length * 2];
+        System.arraycopy( compressed, 0, larger, 0, length );
+        compressed = larger;
+      }
+      length += deflater.deflate( compressed, length, compressed.length - length );
+    }
+    return length;
+  }
+
+  private void writeColumn( int index, ValueMetaInterface valueMeta ) throws IOException, KettleFileException {
+    boolean hasNulls = false;
+    for ( int r = 0; r < nrRows && !hasNulls; r++ ) {
+      hasNulls = rows[r][index] == null;
+    }
+    block.writeBoolean( hasNulls );
+    if ( hasNulls ) {
+      byte[] bitmap = new byte[( nrRows + 7 ) / 8];
+      for ( int r = 0; r < nrRows; r++ ) {
+        if ( rows[r][index] == null ) {
+          bitmap[r >> 3] |= 1 << ( r & 7 );
+        }
+      }
+      block.write( bitmap );
+    }
+
+    if ( valueMeta.getStorageType() != ValueMetaInterface.STORAGE_TYPE_NORMAL ) {
+      writeValues( index, valueMeta );
+      return;
+    }
+    switch ( valueMeta.getType() ) {
+      case ValueMetaInterface.TYPE_INTEGER:
+      case ValueMetaInterface.TYPE_DATE:
+        writeDeltas( index, valueMeta.getType() == ValueMetaInterface.TYPE_DATE );
+        break;
+      case ValueMetaInterface.TYPE_NUMBER:
+        for ( int r = 0; r < nrRows; r++ ) {
+          if ( rows[r][index] != null ) {
+            block.writeDouble( (Double) rows[r][index] );
+          }
+        }
+        break;
+      case ValueMetaInterface.TYPE_STRING:
+        writeStrings( index );
+        break;
+      case ValueMetaInterface.TYPE_BOOLEAN:
+        writeBooleans( index );
+        break;
+      default:
+        writeValues( index, valueMeta );
+        break;
+    }
+  }
+
+  private void writeDeltas( int index, boolean dates ) throws IOException {
+    long previous = 0L;
+    for ( int r = 0; r < nrRows; r++ ) {
+      Object value = rows[r][index];
+      if ( value != null ) {
+        long current = dates ? ( (Date) value ).getTime() : (Long) value;
+        writeVarLong( block, zigZag( current - previous ) );
+        previous = current;
+      }
+    }
+  }
+
+  private void writeStrings( int index ) throws IOException {
+    // Only use a dictionary if it saves at least half of the strings
+    //
+    Map<String, Integer> dictionary = new HashMap<String, Integer>();
+    int nrValues = 0;
+    for ( int r = 0; r < nrRows && dictionary.size() <= nrRows / 2; r++ ) {
+      String value = (String) rows[r][index];
+      if ( value != null ) {
+        nrValues++;
+        if ( !dictionary.containsKey( value ) ) {
+          dictionary.put( value, dictionary.size() );
+        }
+      }
+    }
+
+    if ( nrValues > 1 && dictionary.size() <= nrRows / 2 ) {
+      block.writeByte( STRINGS_DICTIONARY );
+      String[] entries = new String[dictionary.size()];
+      for ( Map.Entry<String, Integer> entry : dictionary.entrySet() ) {
+        entries[entry.getValue()] = entry.getKey();
+      }
+      writeVarInt( block, entries.length );
+      for ( String entry : entries ) {
+        writeString( entry );
+      }
+      for ( int r = 0; r < nrRows; r++ ) {
+        if ( rows[r][index] != null ) {
+          writeVarInt( block, dictionary.get( rows[r][index] ) );
+        }
+      }
+    } else {
+      block.writeByte( STRINGS_PLAIN );
+      for ( int r = 0; r < nrRows; r++ ) {
+        if ( rows[r][index] != null ) {
+          writeString( (String) rows[r][index] );
+        }
+      }
+    }
+  }
+
+  private void writeString( String string ) throws IOException {
+    byte[] bytes = string.getBytes( Const.XML_ENCODING );
+    writeVarInt( block, bytes.length );
+    block.write( bytes );
+  }
+
+  private void writeBooleans( int index ) throws IOException {
+    byte[] bitmap = new byte[( nrRows + 7 ) / 8];
+    for ( int r = 0; r < nrRows; r++ ) {
+      if ( Boolean.TRUE.equals( rows[r][index] ) ) {
+        bitmap[r >> 3] |= 1 << ( r & 7 );
+      }
+    }
+    block.write( bitmap );
+  }
+
+  private void writeValues( int index, ValueMetaInterface valueMeta ) throws KettleFileException {
+    for ( int r = 0; r < nrRows; r++ ) {
+      if ( rows[r][index] != null ) {
+        valueMeta.writeData( block, rows[r][index] );
+      }
+    }
+  }
+
+  static long zigZag( long value ) {
+    return ( value << 1 ) ^ ( value >> 63 );
+  }
+
+  static void writeVarInt( DataOutputStream outputStream, int value ) throws IOException {
+    writeVarLong( outputStream, value & 0xFFFFFFFFL );
+  }
+
+  static void writeVarLong( DataOutputStream outputStream, long value ) throws IOException {
+    while ( ( value & ~0x7FL ) != 0 ) {
+      outputStream.writeByte( (int) ( ( value & 0x7F ) | 0x80 ) );
+      value >>>= 7;
+    }
+    outputStream.writeByte( (int) value );
+  }
+}
@@ -0,0 +1,222 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2016 by Pentaho : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+
+package org.pentaho.di.core.sketch;
+
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.util.Date;
+
+/**
+ * A HyperLogLog sketch that estimates the number of distinct values it has seen in a fixed amount of memory: 2^precision
+ * bytes. The relative standard error of the estimate is about 1.04 / sqrt(2^precision), 0.8% for the default precision
+ * of 14 (16KB). Sketches with the same precision can be merged, which gives the same result as adding all values to a
+ * single sketch, and can be serialized with {@link #toBytes()} to combine partial aggregates of other step copies or
+ * slave servers.<br>
+ * <br>
+ * Values are hashed the way they compare in a TreeSet, so 1.0 and 1.00 (BigDecimal) count once. Nulls must be skipped by
+ * the caller. The sketch is not thread safe.
+ *
+ * @since 17-10-2016
+ *
+ */
+public class HyperLogLog {
+
+  public static final int MIN_PRECISION = 4;
+  public static final int MAX_PRECISION = 18;
+  public static final int DEFAULT_PRECISION = 14;
+
+  private static final byte VERSION = 1;
+
+  private final int precision;
+  private final byte[] registers;
+
+  /**
+   * @param precision
+   *          the number of bits of the hash code that select a register, between {@link #MIN_PRECISION} and
+   *          {@link #MAX_PRECISION}
+   */
+  public HyperLogLog( int precision ) {
+    if ( precision < MIN_PRECISION || precision > MAX_PRECISION ) {
+      throw new IllegalArgumentException( "The precision of a HyperLogLog sketch has to be between " + MIN_PRECISION
+        + " and " + MAX_PRECISION + ", not " + precision );
+    }
+    this.precision = precision;
+    this.registers = new byte[1 << precision];
+  }
+
+  public int getPrecision() {
+    return precision;
+  }
+
+  /**
+   * Adds a value in normal storage: a String, Long, Double, BigDecimal, Date, Boolean, byte[] or any other object with
+   * a proper hashCode().
+   */
+  public void add( Object value ) {
+    addHash( hash( value ) );
+  }
+
+  /**
+   * Adds a 64-bit hash code, the bits have to be well mixed.
+   */
+  public void addHash( long hash ) {
+    int index = (int) ( hash >>> ( 64 - precision ) );
+    long remainder = hash << precision;
+    int rank = remainder == 0 ? 64 - precision + 1 : Long.numberOfLeadingZeros( remainder ) + 1;
+    if ( rank > registers[index] ) {
+      registers[index] = (byte) rank;
+    }
+  }
+
+  /**
+   * Adds all the values seen by the other sketch to this one.
+   *
+   * @throws IllegalArgumentException
+   *           in case the precision of the sketches is different
+   */
+  public void merge( HyperLogLog other ) {
+    if ( other.precision != precision ) {
+      throw new IllegalArgumentException( "Unable to merge a HyperLogLog sketch with precision " + other.precision
+        + " into one with precision " + precision );
+    }
+    for ( int i = 0; i < registers.length; i++ ) {
+      if ( other.registers[i] > registers[i] ) {
+        registers[i] = other.registers[i];
+      }
+    }
+  }
+
+  /**
+   * @return the estimated number of distinct values
+   */
+  public long cardinality() {
+    int m = registers.length;
+    double sum = 0.0;
+    int zeros = 0;
+    for ( int i = 0; i < m; i++ ) {
+      sum += 1.0 / ( 1L << registers[i] );
+      if ( registers[i] == 0 ) {
+        zeros++;
+      }
+    }
+    double estimate = alpha( m ) * m * m / sum;
+    if ( estimate <= 2.5 * m && zeros > 0 ) {
+      // Linear counting is more accurate for small cardinalities
+      //
+      estimate = m * Math.log( (double) m / zeros );
+    }
+    return Math.round( estimate );
+  }
+
+  private static double alpha( int m ) {
+    switch ( m ) {
+      case 16:
+        return 0.673;
+      case 32:
+        return 0.697;
+      case 64:
+        return 0.709;
+      default:
+        return 0.7213 / ( 1.0 + 1.079 / m );
+    }
+  }
+
+  public byte[] toBytes() {
+    ByteBuffer buffer = ByteBuffer.allocate( 2 + registers.length );
+    buffer.put( VERSION );
+    buffer.put( (byte) precision );
+    buffer.put( registers );
+    return buffer.array();
+  }
+
+  /**
+   * @throws IllegalArgumentException
+   *           in case the bytes are not a serialized HyperLogLog sketch
+   */
+  public static HyperLogLog fromBytes( byte[] bytes ) {
+    if ( bytes == null || bytes.length < 2 || bytes[0] != VERSION ) {
+      throw new IllegalArgumentException( "Not a serialized HyperLogLog sketch" );
+    }
+    HyperLogLog sketch = new HyperLogLog( bytes[1] );
+    if ( bytes.length != 2 + sketch.registers.length ) {
+      throw new IllegalArgumentException( "Not a serialized HyperLogLog sketch" );
+    }
+    System.arraycopy( bytes, 2, sketch.registers, 0, sketch.registers.length );
+    return sketch;
+  }
+
+  /**
+   * Calculates a well mixed 64-bit hash code of a value in normal storage.
+   */
+  public static long hash( Object value ) {
+    if ( value instanceof String ) {
+      return hash( (String) value );
+    }
+    if ( value instanceof Long ) {
+      return mix( (Long) value );
+    }
+    if ( value instanceof Double ) {
+      double d = (Double) value;
+      return mix( Double.doubleToLongBits( d == 0.0 ? 0.0 : d ) );
+    }
+    if ( value instanceof Date ) {
+      return mix( ( (Date) value ).getTime() );
+    }
+    if ( value instanceof BigDecimal ) {
+      BigDecimal bd = (BigDecimal) value;
+      return hash( bd.signum() == 0 ? "0" : bd.stripTrailingZeros().toString() );
+    }
+    if ( value instanceof Boolean ) {
+      return mix( ( (Boolean) value ) ? 1L : 0L );
+    }
+    if ( value instanceof byte[] ) {
+      long h = 0x9E3779B97F4A7C15L;
+      for ( byte b : (byte[]) value ) {
+        h = ( h ^ b ) * 0x100000001B3L;
+      }
+      return mix( h );
+    }
+    return mix( value.hashCode() );
+  }
+
+  private static long hash( String value ) {
+    long h = 0xCBF29CE484222325L;
+    for ( int i = 0; i < value.length(); i++ ) {
+      h = ( h ^ value.charAt( i ) ) * 0x100000001B3L;
+    }
+    return mix( h );
+  }
+
+  /**
+   * The finalizer of MurmurHash3, spreads every bit of the input over the whole hash code.
+   */
+  private static long mix( long h ) {
+    h ^= h >>> 33;
+    h *= 0xFF51AFD7ED558CCDL;
+    h ^= h >>> 33;
+    h *= 0xC4CEB9FE1A85EC53L;
+    h ^= h >>> 33;
+    return h;
+  }
+}
@@ -0,0 +1,314 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2016 by Pentaho : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+
+package org.pentaho.di.core.sketch;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * A t-digest that estimates quantiles of a stream of numbers in a small, fixed amount of memory. The values are kept as
+ * weighted centroids; centroids near the tails hold few values so extreme quantiles stay accurate. The number of
+ * centroids stays below the compression factor (100 by default, a few kilobytes), the error is typically well below
+ * 1% of the rank. Digests can be merged and serialized with {@link #toBytes()} to combine partial aggregates of other
+ * step copies or slave servers.<br>
+ * <br>
+ * Values are collected in a buffer that is sorted and merged into the centroids when it's full. The digest is not
+ * thread safe.
+ *
+ * @since 17-10-2016
+ *
+ */
+public class QuantileDigest {
+
+  public static final double DEFAULT_COMPRESSION = 100.0;
+
+  private static final byte VERSION = 1;
+
+  private final double compression;
+
+  private double[] means;
+  private double[] weights;
+  private int nrCentroids;
+
+  private final double[] buffer;
+  private int nrBuffered;
+
+  private double totalWeight;
+  private double min = Double.POSITIVE_INFINITY;
+  private double max = Double.NEGATIVE_INFINITY;
+
+  /**
+   * @param compression
+   *          the accuracy of the digest, roughly the maximum number of centroids kept. Has to be at least 10.
+   */
+  public QuantileDigest( double compression ) {
+    if ( !( compression >= 10.0 ) ) {
+      throw new IllegalArgumentException( "The compression of a quantile digest has to be at least 10, not "
+        + compression );
+    }
+    this.compression = compression;
+    this.means = new double[0];
+    this.weights = new double[0];
+    this.buffer = new double[(int) Math.ceil( compression * 5 )];
+  }
+
+  public double getCompression() {
+    return compression;
+  }
+
+  /**
+   * Adds a value, NaN is ignored.
+   */
+  public void add( double value ) {
+    if ( Double.isNaN( value ) ) {
+      return;
+    }
+    if ( nrBuffered == buffer.length ) {
+      compress();
+    }
+    buffer[nrBuffered++] = value;
+    totalWeight++;
+    if ( value < min ) {
+      min = value;
+    }
+    if ( value > max ) {
+      max = value;
+    }
+  }
+
+  /**
+   * Adds all the values seen by the other digest to this one. The digests don't need to have the same compression.
+   */
+  public void merge( QuantileDigest other ) {
+    if ( other.totalWeight == 0 ) {
+      return;
+    }
+    other.compress();
+    compress();
+    mergeSorted( other.means, other.weights, other.nrCentroids );
+    totalWeight += other.totalWeight;
+    min = Math.min( min, other.min );
+    max = Math.max( max, other.max );
+  }
+
+  /**
+   * @return the number of values added
+   */
+  public long size() {
+    return (long) totalWeight;
+  }
+
+  /**
+   * Estimates a quantile.
+   *
+   * @param q
+   *          the quantile, between 0 and 1 (0.5 is the median)
+   * @return the estimated value or NaN if no values were added
+   */
+  public double quantile( double q ) {
+    if ( q < 0.0 || q > 1.0 ) {
+      throw new IllegalArgumentException( "A quantile has to be between 0 and 1, not " + q );
+    }
+    compress();
+    if ( nrCentroids == 0 ) {
+      return Double.NaN;
+    }
+    if ( nrCentroids == 1 ) {
+      return means[0];
+    }
+
+    double index = q * totalWeight;
+    if ( index < 1.0 ) {
+      return min;
+    }
+    if ( index > totalWeight - 1.0 ) {
+      return max;
+    }
+
+    // Between the minimum and the center of the first centroid
+    //
+    double firstHalf = weights[0] / 2;
+    if ( index < firstHalf ) {
+      return min + ( index - 1.0 ) / ( firstHalf - 1.0 ) * ( means[0] - min );
+    }
+
+    // Between the centers of two centroids
+    //
+    double weightSoFar = firstHalf;
+    for ( int i = 0; i < nrCentroids - 1; i++ ) {
+      double delta = ( weights[i] + weights[i + 1] ) / 2;
+      if ( weightSoFar + delta > index ) {
+        double fraction = ( index - weightSoFar ) / delta;
+        return means[i] + fraction * ( means[i + 1] - means[i] );
+      }
+      weightSoFar += delta;
+    }
+
+    // Between the center of the last centroid and the maximum
+    //
+    double lastHalf = weights[nrCentroids - 1] / 2;
+    if ( lastHalf <= 1.0 ) {
+      return means[nrCentroids - 1];
+    }
+    double fraction = ( index - weightSoFar ) / ( lastHalf - 1.0 );
+    return means[nrCentroids - 1] + Math.min( 1.0, fraction ) * ( max - means[nrCentroids - 1] );
+  }
+
+  /**
+   * Merges the buffered values into the centroids.
+   */
+  private void compress() {
+    if ( nrBuffered == 0 ) {
+      return;
+    }
+    Arrays.sort( buffer, 0, nrBuffered );
+    int n = nrBuffered;
+    nrBuffered = 0;
+    mergeSorted( buffer, null, n );
+  }
+
+  /**
+   * Merges sorted centroids with the current ones in a single pass. Neighbouring centroids are combined as long as the
+   * result doesn't span more than one unit of the scale function k(q) = compression / 2pi * asin(2q - 1), which keeps
+   * the centroids near q = 0 and q = 1 small.
+   *
+   * @param otherWeights
+   *          the weights of the other centroids, null if they all weigh 1
+   */
+  private void mergeSorted( double[] otherMeans, double[] otherWeights, int nrOther ) {
+    double total = 0;
+    for ( int i = 0; i < nrCentroids; i++ ) {
+      total += weights[i];
+    }
+    for ( int i = 0; i < nrOther; i++ ) {
+      total += otherWeights == null ? 1.0 : otherWeights[i];
+    }
+
+    double[] newMeans = new double[Math.max( 16, (int) Math.ceil( compression ) * 2 )];
+    double[] newWeights = new double[newMeans.length];
+    int nrNew = 0;
+
+    int a = 0;
+    int b = 0;
+    double mean = 0;
+    double weight = 0;
+    double weightBefore = 0;
+    double kLeft = 0;
+    while ( a < nrCentroids || b < nrOther ) {
+      double x;
+      double w;
+      if ( b >= nrOther || ( a < nrCentroids && means[a] <= otherMeans[b] ) ) {
+        x = means[a];
+        w = weights[a];
+        a++;
+      } else {
+        x = otherMeans[b];
+        w = otherWeights == null ? 1.0 : otherWeights[b];
+        b++;
+      }
+
+      if ( weight == 0 ) {
+        mean = x;
+        weight = w;
+        kLeft = scale( weightBefore / total );
+      } else if ( scale( ( weightBefore + weight + w ) / total ) - kLeft <= 1.0 ) {
+        weight += w;
+        mean += ( x - mean ) * w / weight;
+      } else {
+        if ( nrNew == newMeans.length ) {
+          newMeans = Arrays.copyOf( newMeans, nrNew * 2 );
+          newWeights = Arrays.copyOf( newWeights, nrNew * 2 );
+        }
+        newMeans[nrNew] = mean;
+        newWeights[nrNew] = weight;
+        nrNew++;
+        weightBefore += weight;
+        mean = x;
+        weight = w;
+        kLeft = scale( weightBefore / total );
+      }
+    }
+    if ( weight > 0 ) {
+      if ( nrNew == newMeans.length ) {
+        newMeans = Arrays.copyOf( newMeans, nrNew + 1 );
+        newWeights = Arrays.copyOf( newWeights, nrNew + 1 );
+      }
+      newMeans[nrNew] = mean;
+      newWeights[nrNew] = weight;
+      nrNew++;
+    }
+
+    means = newMeans;
+    weights = newWeights;
+    nrCentroids = nrNew;
+  }
+
+  private double scale( double q ) {
+    return compression / ( 2 * Math.PI ) * Math.asin( 2 * Math.min( 1.0, q ) - 1 );
+  }
+
+  public byte[] toBytes() {
+    compress();
+    ByteBuffer bytes = ByteBuffer.allocate( 1 + 8 * 4 + 4 + 16 * nrCentroids );
+    bytes.put( VERSION );
+    bytes.putDouble( compression );
+    bytes.putDouble( totalWeight );
+    bytes.putDouble( min );
+    bytes.putDouble( max );
+    bytes.putInt( nrCentroids );
+    for ( int i = 0; i < nrCentroids; i++ ) {
+      bytes.putDouble( means[i] );
+      bytes.putDouble( weights[i] );
+    }
+    return bytes.array();
+  }
+
+  /**
+   * @throws IllegalArgumentException
+   *           in case the bytes are not a serialized quantile digest
+   */
+  public static QuantileDigest fromBytes( byte[] data ) {
+    if ( data == null || data.length < 37 || data[0] != VERSION ) {
+      throw new IllegalArgumentException( "Not a serialized quantile digest" );
+    }
+    ByteBuffer bytes = ByteBuffer.wrap( data );
+    bytes.get();
+    QuantileDigest digest = new QuantileDigest( bytes.getDouble() );
+    digest.totalWeight = bytes.getDouble();
+    digest.min = bytes.getDouble();
+    digest.max = bytes.getDouble();
+    int n = bytes.getInt();
+    if ( n < 0 || bytes.remaining() != 16 * n ) {
+      throw new IllegalArgumentException( "Not a serialized quantile digest" );
+    }
+    digest.means = new double[n];
+    digest.weights = new double[n];
+    for ( int i = 0; i < n; i++ ) {
+      digest.means[i] = bytes.getDouble();
+      digest.weights[i] = bytes.getDouble();
+    }
+    digest.nrCentroids = n;
+    return digest;
+  }
+}
@@ -0,0 +1,238 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2016 by Pentaho : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+package org.pentaho.di.core.xml;
+
+import java.io.InputStream;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.apache.commons.vfs2.FileContent;
+import org.apache.commons.vfs2.FileObject;
+import org.apache.commons.vfs2.FileSystemException;
+import org.pentaho.di.core.Const;
+import org.pentaho.di.core.exception.KettleXMLException;
+import org.pentaho.di.core.util.EnvUtil;
+import org.pentaho.di.core.vfs.KettleVFS;
+import org.w3c.dom.Document;
+
+/**
+ * Singleton keeping the parsed XML documents of transformation and job files in memory for the whole JVM. A file that
+ * is loaded over and over again (a job entry in a loop, a mapping or a transformation executor, the requests of a Carte
+ * server) is only read and parsed again when its modification time or size changed.<br>
+ * <br>
+ * Every caller gets its own deep copy of the document so that the cached document is never changed. The cached
+ * documents are parsed without deferred node expansion: a deferred DOM expands its nodes while it is read, a fully
+ * expanded one can be copied by several threads at once, outside of the lock of the cache.<br>
+ * <br>
+ * The cache holds at most KETTLE_XML_FILE_CACHE_MAX_SIZE KB of XML files, the least recently used documents are
+ * removed first. The cache is only used when variable KETTLE_XML_FILE_CACHE is set to Y.
+ *
+ * @since 17-10-2016
+ *
+ */
+public class XMLDocumentCache {
+  /** The default maximum total size in KB of the files of the cached documents */
+  public static final long DEFAULT_MAX_SIZE_KB = 16384L;
+
+  private static final String DEFER_NODE_EXPANSION = "http://apache.org/xml/features/dom/defer-node-expansion";
+
+  private static XMLDocumentCache cache;
+
+  private final Map<String, CachedDocument> documents;
+
+  private long totalSize;
+
+  private long cacheHits;
+
+  private static class CachedDocument {
+    private final long modified;
+    private final long size;
+    private final Document document;
+
+    private CachedDocument( long modified, long size, Document document ) {
+      this.modified = modified;
+      this.size = size;
+      this.document = document;
+    }
+  }
+
+  private XMLDocumentCache() {
+    documents = new LinkedHashMap<String, CachedDocument>( 16, 0.75f, true );
+  }
+
+  public static final synchronized XMLDocumentCache getInstance() {
+    if ( cache != null ) {
+      return cache;
+    }
+
+    cache = new XMLDocumentCache();
+    return cache;
+  }
+
+  /**
+   * @return true if the parsed documents are kept (variable KETTLE_XML_FILE_CACHE)
+   */
+  public static boolean isEnabled() {
+    return "Y".equalsIgnoreCase( EnvUtil.getSystemProperty( Const.KETTLE_XML_FILE_CACHE ) );
+  }
+
+  /**
+   * @return the maximum total size in bytes of the files of the cached documents (variable
+   *         KETTLE_XML_FILE_CACHE_MAX_SIZE, in KB)
+   */
+  public static long getMaxSize() {
+    String maxSize = EnvUtil.getSystemProperty( Const.KETTLE_XML_FILE_CACHE_MAX_SIZE );
+    return Const.toLong( maxSize, DEFAULT_MAX_SIZE_KB ) * 1024L;
+  }
+
+  /**
+   * Load a file into an XML document through the cache if it's enabled, otherwise simply parse the file.
+   *
+   * @param fileObject
+   *          The file to load
+   * @return the document, never shared with other callers
+   * @throws KettleXMLException
+   *           in case the file can't be read or parsed
+   */
+  public static Document loadXMLFile( FileObject fileObject ) throws KettleXMLException {
+    if ( isEnabled() ) {
+      return getInstance().getDocument( fileObject );
+    }
+    return XMLHandler.loadXMLFile( fileObject );
+  }
+
+  /**
+   * Load a file into an XML document, re-using the parsed document if the file didn't change since it was loaded.
+   *
+   * @param fileObject
+   *          The file to load
+   * @return a copy of the parsed document
+   * @throws KettleXMLException
+   *           in case the file can't be read or parsed
+   */
+  public Document getDocument( FileObject fileObject ) throws KettleXMLException {
+    String uri = fileObject.getName().getURI();
+    long modified;
+    long size;
+    try {
+      // Don't trust the attributes cached by VFS
+      fileObject.refresh();
+      FileContent content = fileObject.getContent();
+      modified = content.getLastModifiedTime();
+      size = content.getSize();
+    } catch ( FileSystemException e ) {
+      throw new KettleXMLException( "Unable to read file [" + fileObject.toString() + "]", e );
+    }
+
+    CachedDocument cachedDocument;
+    synchronized ( this ) {
+      cachedDocument = documents.get( uri );
+      if ( cachedDocument != null && cachedDocument.modified == modified && cachedDocument.size == size ) {
+        cacheHits++;
+      } else {
+        cachedDocument = null;
+      }
+    }
+
+    // Parse and copy outside of the lock, other files can be handed out in the mean time
+    //
+    if ( cachedDocument == null ) {
+      cachedDocument = new CachedDocument( modified, size, parse( fileObject ) );
+      put( uri, cachedDocument );
+    }
+    return (Document) cachedDocument.document.cloneNode( true );
+  }
+
+  private synchronized void put( String uri, CachedDocument cachedDocument ) {
+    CachedDocument previous = documents.remove( uri );
+    if ( previous != null ) {
+      totalSize -= previous.size;
+    }
+
+    long maxSize = getMaxSize();
+    if ( cachedDocument.size > maxSize ) {
+      return;
+    }
+    documents.put( uri, cachedDocument );
+    totalSize += cachedDocument.size;
+
+    // Remove the least recently used documents until the others fit
+    //
+    Iterator<CachedDocument> iterator = documents.values().iterator();
+    while ( totalSize > maxSize && iterator.hasNext() ) {
+      totalSize -= iterator.next().size;
+      iterator.remove();
+    }
+  }
+
+  /**
+   * Parses the file the way {@link XMLHandler#loadXMLFile(FileObject)} does, with all nodes expanded right away.
+   */
+  private static Document parse( FileObject fileObject ) throws KettleXMLException {
+    InputStream inputStream = null;
+    try {
+      DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
+      dbf.setIgnoringComments( true );
+      dbf.setFeature( DEFER_NODE_EXPANSION, false );
+      inputStream = KettleVFS.getInputStream( fileObject );
+      return dbf.newDocumentBuilder().parse( inputStream );
+    } catch ( Exception e ) {
+      throw new KettleXMLException( "Unable to read file [" + fileObject.toString() + "]", e );
+    } finally {
+      if ( inputStream != null ) {
+        try {
+          inputStream.close();
+        } catch ( Exception e ) {
+          // Ignore, the document was read or the error is thrown already
+        }
+      }
+    }
+  }
+
+  /**
+   * Remove all documents from the cache.
+   */
+  public synchronized void clear() {
+    documents.clear();
+    totalSize = 0L;
+    cacheHits = 0;
+  }
+
+  public synchronized int size() {
+    return documents.size();
+  }
+
+  /**
+   * @return the total size in bytes of the files of the cached documents
+   */
+  public synchronized long getTotalSize() {
+    return totalSize;
+  }
+
+  public synchronized long getCacheHits() {
+    return cacheHits;
+  }
+}
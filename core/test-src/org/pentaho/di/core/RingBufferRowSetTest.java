@@ -0,0 +1,153 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2016 by Pentaho : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+
+package org.pentaho.di.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.pentaho.di.core.row.RowMeta;
+
+public class RingBufferRowSetTest {
+  Object[] row;
+  RingBufferRowSet rowSet;
+
+  @Before
+  public void setup() {
+    rowSet = new RingBufferRowSet( 3 );
+    row = new Object[]{};
+  }
+
+  @Test
+  public void testPutRow() throws Exception {
+    assertTrue( rowSet.putRow( new RowMeta(), row ) );
+    assertSame( row, rowSet.getRow() );
+    assertNull( rowSet.getRowImmediate() );
+  }
+
+  @Test
+  public void testCapacityIsEnforced() throws Exception {
+    // 3 isn't a power of 2, the internal buffer is larger but we should still only accept 3 rows
+    //
+    assertTrue( rowSet.putRowWait( new RowMeta(), row, 1, TimeUnit.MILLISECONDS ) );
+    assertTrue( rowSet.putRowWait( new RowMeta(), row, 1, TimeUnit.MILLISECONDS ) );
+    assertTrue( rowSet.putRowWait( new RowMeta(), row, 1, TimeUnit.MILLISECONDS ) );
+    assertFalse( rowSet.putRowWait( new RowMeta(), row, 1, TimeUnit.MILLISECONDS ) );
+    assertEquals( 3, rowSet.size() );
+
+    assertSame( row, rowSet.getRowImmediate() );
+    assertTrue( rowSet.putRowWait( new RowMeta(), row, 1, TimeUnit.MILLISECONDS ) );
+    assertEquals( 3, rowSet.size() );
+  }
+
+  @Test
+  public void testNullRowIsRefused() throws Exception {
+    assertFalse( rowSet.putRow( new RowMeta(), null ) );
+    assertEquals( 0, rowSet.size() );
+  }
+
+  @Test
+  public void testSizeAndClear() throws Exception {
+    assertEquals( 0, rowSet.size() );
+    rowSet.putRow( new RowMeta(), row );
+    assertEquals( 1, rowSet.size() );
+    rowSet.putRow( new RowMeta(), row );
+    assertEquals( 2, rowSet.size() );
+    rowSet.setDone();
+    rowSet.clear();
+    assertEquals( 0, rowSet.size() );
+    assertFalse( rowSet.isDone() );
+  }
+
+  @Test
+  public void testWaitStrategyLookup() throws Exception {
+    assertEquals( RowSetWaitStrategy.SPIN, RowSetWaitStrategy.getStrategy( "spin", RowSetWaitStrategy.PARK ) );
+    assertEquals( RowSetWaitStrategy.YIELD, RowSetWaitStrategy.getStrategy( " YIELD ", RowSetWaitStrategy.PARK ) );
+    assertEquals( RowSetWaitStrategy.PARK, RowSetWaitStrategy.getStrategy( null, RowSetWaitStrategy.PARK ) );
+    assertEquals( RowSetWaitStrategy.PARK, RowSetWaitStrategy.getStrategy( "foo", RowSetWaitStrategy.PARK ) );
+  }
+
+  @Test
+  public void testOrderingWithConcurrentReaderAndWriter() throws Exception {
+    // SPIN is left out on purpose: it assumes a core per thread which a build server doesn't always have
+    //
+    for ( final RowSetWaitStrategy strategy : new RowSetWaitStrategy[] { RowSetWaitStrategy.YIELD,
+      RowSetWaitStrategy.PARK } ) {
+      final RingBufferRowSet set = new RingBufferRowSet( 16, strategy );
+      final int nrRows = 100000;
+      final AtomicBoolean failed = new AtomicBoolean( false );
+
+      Thread writer = new Thread( new Runnable() {
+        @Override
+        public void run() {
+          RowMeta rowMeta = new RowMeta();
+          for ( long i = 0; i < nrRows; i++ ) {
+            Object[] data = new Object[] { Long.valueOf( i ) };
+            while ( !set.putRow( rowMeta, data ) ) {
+              if ( failed.get() ) {
+                return;
+              }
+            }
+          }
+          set.setDone();
+        }
+      } );
+      writer.start();
+
+      long expected = 0;
+      Object[] r = set.getRow();
+      while ( r != null || !set.isDone() ) {
+        if ( r != null ) {
+          if ( ( (Long) r[0] ).longValue() != expected ) {
+            failed.set( true );
+            break;
+          }
+          expected++;
+        }
+        r = set.getRow();
+      }
+      // the done flag can be set right after the last row was written
+      //
+      r = set.getRowImmediate();
+      while ( r != null && !failed.get() ) {
+        if ( ( (Long) r[0] ).longValue() != expected ) {
+          failed.set( true );
+        }
+        expected++;
+        r = set.getRowImmediate();
+      }
+      writer.join();
+
+      assertFalse( "Rows arrived out of order using wait strategy " + strategy, failed.get() );
+      assertEquals( nrRows, expected );
+    }
+  }
+}
@@ -0,0 +1,136 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2016 by Pentaho : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+
+package org.pentaho.di.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.pentaho.di.core.row.RowMeta;
+
+public class RowBatchTest {
+
+  @Test
+  public void testAddAndTruncate() {
+    RowBatch batch = new RowBatch( 3 );
+    assertEquals( 3, batch.capacity() );
+    assertTrue( batch.isEmpty() );
+
+    Object[] r1 = new Object[] { 1L };
+    Object[] r2 = new Object[] { 2L };
+    Object[] r3 = new Object[] { 3L };
+    batch.add( r1 );
+    batch.add( r2 );
+    batch.add( r3 );
+    assertTrue( batch.isFull() );
+    assertEquals( 0, batch.remaining() );
+
+    // compact in place: only keep the 2nd row
+    batch.set( 0, r2 );
+    batch.truncate( 1 );
+    assertEquals( 1, batch.size() );
+    assertSame( r2, batch.get( 0 ) );
+
+    batch.clear();
+    assertEquals( 0, batch.size() );
+    assertEquals( 3, batch.remaining() );
+  }
+
+  @Test( expected = IllegalStateException.class )
+  public void testAddToFullBatch() {
+    RowBatch batch = new RowBatch( 1 );
+    batch.add( new Object[] {} );
+    batch.add( new Object[] {} );
+  }
+
+  @Test( expected = IndexOutOfBoundsException.class )
+  public void testGetBeyondSize() {
+    RowBatch batch = new RowBatch( 2 );
+    batch.add( new Object[] {} );
+    batch.get( 1 );
+  }
+
+  @Test
+  public void testBlockingRowSetBatchTransfer() {
+    BatchRowSet rowSet = new BlockingRowSet( 4 );
+    RowBatch batch = new RowBatch( 6 );
+    for ( int i = 0; i < 6; i++ ) {
+      batch.add( new Object[] { Long.valueOf( i ) } );
+    }
+
+    // Only 4 rows fit in the row set
+    //
+    assertEquals( 4, rowSet.putRows( new RowMeta(), batch, 0 ) );
+    assertEquals( 4, rowSet.size() );
+
+    RowBatch target = new RowBatch( 3 );
+    assertEquals( 3, rowSet.getRows( target, 10 ) );
+    assertEquals( 0L, target.get( 0 )[0] );
+    assertEquals( 2L, target.get( 2 )[0] );
+
+    // Put the remaining rows after making room
+    //
+    assertEquals( 2, rowSet.putRows( new RowMeta(), batch, 4 ) );
+    target.clear();
+    assertEquals( 3, rowSet.getRows( target, 3 ) );
+    assertEquals( 3L, target.get( 0 )[0] );
+    assertEquals( 5L, target.get( 2 )[0] );
+    assertEquals( 0, rowSet.getRows( target, 3 ) );
+  }
+
+  @Test
+  public void testRingBufferRowSetBatchTransfer() {
+    BatchRowSet rowSet = new RingBufferRowSet( 4 );
+    RowBatch batch = new RowBatch( 6 );
+    for ( int i = 0; i < 6; i++ ) {
+      batch.add( new Object[] { Long.valueOf( i ) } );
+    }
+
+    assertEquals( 4, rowSet.putRows( new RowMeta(), batch, 0 ) );
+    assertEquals( 4, rowSet.size() );
+
+    RowBatch target = new RowBatch( 2 );
+    assertEquals( 2, rowSet.getRows( target, 10 ) );
+    assertEquals( 1L, target.get( 1 )[0] );
+
+    assertEquals( 2, rowSet.putRows( new RowMeta(), batch, 4 ) );
+    assertEquals( 4, rowSet.size() );
+    for ( long expected = 2; expected < 6; expected++ ) {
+      assertEquals( expected, rowSet.getRowImmediate()[0] );
+    }
+    assertFalse( rowSet.getRows( target, 1 ) > 0 );
+  }
+
+  @Test
+  public void testSingleRowRowSetOnlyTakesOneRow() {
+    BatchRowSet rowSet = new SingleRowRowSet();
+    RowBatch batch = new RowBatch( 2 );
+    batch.add( new Object[] { 1L } );
+    batch.add( new Object[] { 2L } );
+    assertEquals( 1, rowSet.putRows( new RowMeta(), batch, 0 ) );
+    assertEquals( 1L, rowSet.getRow()[0] );
+  }
+}
@@ -0,0 +1,96 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2016 by Pentaho : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+
+package org.pentaho.di.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+import org.pentaho.di.core.row.RowMeta;
+import org.pentaho.di.core.row.RowMetaInterface;
+
+public class RowSetNotifierTest {
+
+  @Test
+  public void testSignalIsRememberedUntilCleared() {
+    RowSetNotifier notifier = new RowSetNotifier();
+    assertFalse( notifier.isSignalled() );
+    assertFalse( notifier.await( 1, TimeUnit.MILLISECONDS ) );
+
+    notifier.signal();
+    assertTrue( notifier.isSignalled() );
+    assertTrue( notifier.await( 0, TimeUnit.MILLISECONDS ) );
+
+    notifier.clear();
+    assertFalse( notifier.isSignalled() );
+  }
+
+  @Test
+  public void testRowSetsSignalOnPutAndDone() {
+    RowMetaInterface rowMeta = new RowMeta();
+    NotifyingRowSet[] rowSets =
+      new NotifyingRowSet[] {
+        new BlockingRowSet( 2 ), new BlockingListeningRowSet( 2 ), new QueueRowSet(), new SingleRowRowSet(),
+        new RingBufferRowSet( 2 ), };
+    for ( NotifyingRowSet rowSet : rowSets ) {
+      RowSetNotifier notifier = new RowSetNotifier();
+      rowSet.setRowSetNotifier( notifier );
+
+      assertTrue( rowSet.putRow( rowMeta, new Object[] {} ) );
+      assertTrue( rowSet.getClass().getName(), notifier.isSignalled() );
+
+      notifier.clear();
+      rowSet.setDone();
+      assertTrue( rowSet.getClass().getName(), notifier.isSignalled() );
+    }
+  }
+
+  @Test
+  public void testAwaitIsWokenUpBySignal() throws Exception {
+    final NotifyingRowSet rowSet = new BlockingRowSet( 2 );
+    RowSetNotifier notifier = new RowSetNotifier();
+    rowSet.setRowSetNotifier( notifier );
+
+    Thread writer = new Thread() {
+      @Override
+      public void run() {
+        try {
+          Thread.sleep( 50 );
+        } catch ( InterruptedException e ) {
+          // Ignore
+        }
+        rowSet.putRow( new RowMeta(), new Object[] {} );
+      }
+    };
+    writer.start();
+
+    // Way beyond the time the writer needs
+    assertTrue( notifier.await( 10, TimeUnit.SECONDS ) );
+    assertEquals( 1, rowSet.size() );
+    writer.join();
+  }
+}
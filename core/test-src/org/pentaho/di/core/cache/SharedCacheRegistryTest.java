@@ -0,0 +1,164 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2016 by Pentaho : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+
+package org.pentaho.di.core.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.Closeable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+import org.pentaho.di.core.exception.KettleException;
+
+public class SharedCacheRegistryTest {
+
+  private static class TestCache implements Closeable {
+    private boolean closed;
+
+    @Override
+    public void close() {
+      closed = true;
+    }
+  }
+
+  private static class TestLoader implements SharedCacheRegistry.Loader<TestCache> {
+    private final AtomicInteger loads = new AtomicInteger();
+
+    @Override
+    public TestCache load() throws KettleException {
+      loads.incrementAndGet();
+      return new TestCache();
+    }
+  }
+
+  @Test
+  public void testCacheIsLoadedOnce() throws Exception {
+    SharedCacheRegistry registry = new SharedCacheRegistry();
+    TestLoader loader = new TestLoader();
+
+    TestCache first = registry.acquire( "a", loader );
+    TestCache second = registry.acquire( "a", loader );
+    TestCache other = registry.acquire( "b", loader );
+    assertSame( first, second );
+    assertFalse( first == other );
+    assertEquals( 2, loader.loads.get() );
+    assertEquals( 2, registry.getReferenceCount( "a" ) );
+    assertEquals( 2, registry.size() );
+  }
+
+  @Test
+  public void testReleasedCacheStaysUntilClose() throws Exception {
+    SharedCacheRegistry registry = new SharedCacheRegistry();
+    TestLoader loader = new TestLoader();
+
+    TestCache cache = registry.acquire( "a", loader );
+    registry.release( "a" );
+    assertEquals( 0, registry.getReferenceCount( "a" ) );
+    assertEquals( 1, registry.size() );
+    assertFalse( cache.closed );
+
+    // A later transformation of the same job reuses it
+    assertSame( cache, registry.acquire( "a", loader ) );
+    assertEquals( 1, loader.loads.get() );
+    registry.release( "a" );
+
+    registry.close();
+    assertEquals( 0, registry.size() );
+    assertTrue( cache.closed );
+  }
+
+  @Test
+  public void testCacheInUseIsClosedOnRelease() throws Exception {
+    SharedCacheRegistry registry = new SharedCacheRegistry();
+    TestCache cache = registry.acquire( "a", new TestLoader() );
+
+    registry.close();
+    assertFalse( cache.closed );
+    assertEquals( 1, registry.size() );
+
+    registry.release( "a" );
+    assertTrue( cache.closed );
+    assertEquals( 0, registry.size() );
+  }
+
+  @Test
+  public void testFailedLoadIsRetried() throws Exception {
+    SharedCacheRegistry registry = new SharedCacheRegistry();
+    try {
+      registry.acquire( "a", new SharedCacheRegistry.Loader<TestCache>() {
+        @Override
+        public TestCache load() throws KettleException {
+          throw new KettleException( "failed" );
+        }
+      } );
+      fail( "Expected the loader exception" );
+    } catch ( KettleException e ) {
+      // expected
+    }
+    assertEquals( 0, registry.size() );
+
+    TestLoader loader = new TestLoader();
+    registry.acquire( "a", loader );
+    assertEquals( 1, loader.loads.get() );
+  }
+
+  @Test
+  public void testConcurrentAcquire() throws Exception {
+    final SharedCacheRegistry registry = new SharedCacheRegistry();
+    final TestLoader loader = new TestLoader();
+    final TestCache[] caches = new TestCache[ 8 ];
+    final CountDownLatch start = new CountDownLatch( 1 );
+    Thread[] threads = new Thread[ caches.length ];
+    for ( int i = 0; i < threads.length; i++ ) {
+      final int nr = i;
+      threads[ i ] = new Thread( new Runnable() {
+        @Override
+        public void run() {
+          try {
+            start.await();
+            caches[ nr ] = registry.acquire( "a", loader );
+          } catch ( Exception e ) {
+            throw new RuntimeException( e );
+          }
+        }
+      } );
+      threads[ i ].start();
+    }
+    start.countDown();
+    for ( Thread thread : threads ) {
+      thread.join();
+    }
+
+    assertEquals( 1, loader.loads.get() );
+    assertEquals( caches.length, registry.getReferenceCount( "a" ) );
+    for ( TestCache cache : caches ) {
+      assertSame( caches[ 0 ], cache );
+    }
+  }
+}
@@ -0,0 +1,197 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2016 by Pentaho : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+
+package org.pentaho.di.core.hash;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+import java.util.Arrays;
+import java.util.Date;
+
+import org.junit.Test;
+import org.pentaho.di.core.exception.KettleValueException;
+import org.pentaho.di.core.row.RowMeta;
+import org.pentaho.di.core.row.RowMetaInterface;
+import org.pentaho.di.core.row.ValueMetaInterface;
+import org.pentaho.di.core.row.value.ValueMetaBigNumber;
+import org.pentaho.di.core.row.value.ValueMetaBoolean;
+import org.pentaho.di.core.row.value.ValueMetaDate;
+import org.pentaho.di.core.row.value.ValueMetaInteger;
+import org.pentaho.di.core.row.value.ValueMetaNumber;
+import org.pentaho.di.core.row.value.ValueMetaString;
+
+/**
+ * Test class for the basic functionality of ColumnarHashIndex.
+ */
+public class ColumnarHashIndexTest {
+
+  private RowMetaInterface createKeyMeta() {
+    RowMetaInterface keyMeta = new RowMeta();
+    keyMeta.addValueMeta( new ValueMetaInteger( "id" ) );
+    keyMeta.addValueMeta( new ValueMetaString( "code" ) );
+    keyMeta.addValueMeta( new ValueMetaDate( "date" ) );
+    return keyMeta;
+  }
+
+  private RowMetaInterface createValueMeta() {
+    RowMetaInterface valueMeta = new RowMeta();
+    valueMeta.addValueMeta( new ValueMetaString( "name" ) );
+    valueMeta.addValueMeta( new ValueMetaNumber( "amount" ) );
+    valueMeta.addValueMeta( new ValueMetaBoolean( "flag" ) );
+    valueMeta.addValueMeta( new ValueMetaBigNumber( "big" ) );
+    return valueMeta;
+  }
+
+  @Test
+  public void testPutAndGet() throws KettleValueException {
+    ColumnarHashIndex index = new ColumnarHashIndex( createKeyMeta(), createValueMeta(), 4 );
+    assertTrue( index.isEmpty() );
+
+    int nrRows = 10000;
+    for ( int i = 0; i < nrRows; i++ ) {
+      index.put( new Object[] { (long) i, "code" + ( i % 7 ), new Date( i * 1000L ) },
+        new Object[] { "name" + i, i / 2.0, i % 2 == 0, i % 3 == 0 ? null : new BigDecimal( i ) } );
+    }
+    assertEquals( nrRows, index.getSize() );
+
+    for ( int i = 0; i < nrRows; i++ ) {
+      Object[] value = index.get( new Object[] { (long) i, "code" + ( i % 7 ), new Date( i * 1000L ) } );
+      assertEquals( "name" + i, value[0] );
+      assertEquals( i / 2.0, value[1] );
+      assertEquals( i % 2 == 0, value[2] );
+      assertEquals( i % 3 == 0 ? null : new BigDecimal( i ), value[3] );
+    }
+
+    assertNull( index.get( new Object[] { 1L, "code2", new Date( 1000L ) } ) );
+    assertNull( index.get( new Object[] { (long) nrRows, "code0", new Date( nrRows * 1000L ) } ) );
+  }
+
+  @Test
+  public void testPutReplacesValues() throws KettleValueException {
+    ColumnarHashIndex index = new ColumnarHashIndex( createKeyMeta(), createValueMeta() );
+    Object[] key = new Object[] { 1L, "a", new Date( 0L ) };
+    index.put( key, new Object[] { "first", 1.0, true, null } );
+    index.put( key.clone(), new Object[] { "second", null, false, null } );
+
+    assertEquals( 1, index.getSize() );
+    assertArrayEquals( new Object[] { "second", null, false, null }, index.get( key ) );
+  }
+
+  @Test
+  public void testReplacedStringsAreCompacted() throws KettleValueException {
+    RowMetaInterface keyMeta = new RowMeta();
+    keyMeta.addValueMeta( new ValueMetaString( "key" ) );
+    RowMetaInterface valueMeta = new RowMeta();
+    valueMeta.addValueMeta( new ValueMetaString( "value" ) );
+    ColumnarHashIndex index = new ColumnarHashIndex( keyMeta, valueMeta );
+
+    char[] chars = new char[1000];
+    for ( int i = 0; i < 10000; i++ ) {
+      // Alternate between longer and shorter values, so some fit in place and some don't
+      Arrays.fill( chars, (char) ( 'a' + i % 26 ) );
+      String value = new String( chars, 0, 500 + ( i % 3 ) * 250 );
+      index.put( new Object[] { "key" + ( i % 10 ) }, new Object[] { value } );
+      assertEquals( value, index.get( new Object[] { "key" + ( i % 10 ) } )[0] );
+    }
+    assertEquals( 10, index.getSize() );
+    for ( int i = 9990; i < 10000; i++ ) {
+      Arrays.fill( chars, (char) ( 'a' + i % 26 ) );
+      assertEquals( new String( chars, 0, 500 + ( i % 3 ) * 250 ),
+        index.get( new Object[] { "key" + ( i % 10 ) } )[0] );
+    }
+
+    index.put( new Object[] { "key0" }, new Object[] { null } );
+    assertNull( index.get( new Object[] { "key0" } )[0] );
+  }
+
+  @Test
+  public void testDateValuesKeepTheirClass() throws KettleValueException {
+    RowMetaInterface valueMeta = new RowMeta();
+    valueMeta.addValueMeta( new ValueMetaDate( "date" ) );
+    ColumnarHashIndex index = new ColumnarHashIndex( createKeyMeta(), valueMeta );
+
+    Timestamp timestamp = new Timestamp( 1000L );
+    timestamp.setNanos( 123456789 );
+    Object[] key = new Object[] { 1L, "a", new Date( 0L ) };
+    index.put( key, new Object[] { timestamp } );
+
+    assertEquals( timestamp, index.get( key )[0] );
+  }
+
+  @Test
+  public void testNullKeysAreEqual() throws KettleValueException {
+    ColumnarHashIndex index = new ColumnarHashIndex( createKeyMeta(), createValueMeta() );
+    index.put( new Object[] { null, null, null }, new Object[] { "nulls", null, null, null } );
+    index.put( new Object[] { 0L, "x", new Date( 0L ) }, new Object[] { "zeros", null, null, null } );
+
+    assertEquals( "nulls", index.get( new Object[] { null, null, null } )[0] );
+    // An empty string is a null value in Kettle
+    assertEquals( "nulls", index.get( new Object[] { null, "", null } )[0] );
+    assertEquals( "zeros", index.get( new Object[] { 0L, "x", new Date( 0L ) } )[0] );
+    assertNull( index.get( new Object[] { 0L, null, new Date( 0L ) } ) );
+  }
+
+  @Test
+  public void testLongStrings() throws KettleValueException {
+    RowMetaInterface keyMeta = new RowMeta();
+    keyMeta.addValueMeta( new ValueMetaString( "key" ) );
+    RowMetaInterface valueMeta = new RowMeta();
+    valueMeta.addValueMeta( new ValueMetaString( "value" ) );
+    ColumnarHashIndex index = new ColumnarHashIndex( keyMeta, valueMeta );
+
+    char[] chars = new char[( 1 << 20 ) + 10];
+    Arrays.fill( chars, 'x' );
+    String longString = new String( chars );
+    index.put( new Object[] { "short" }, new Object[] { "before" } );
+    index.put( new Object[] { longString }, new Object[] { longString } );
+    index.put( new Object[] { "other" }, new Object[] { "after" } );
+
+    assertEquals( "before", index.get( new Object[] { "short" } )[0] );
+    assertEquals( longString, index.get( new Object[] { longString } )[0] );
+    assertEquals( "after", index.get( new Object[] { "other" } )[0] );
+    assertNull( index.get( new Object[] { longString.substring( 1 ) } ) );
+  }
+
+  @Test
+  public void testSupportedKeys() {
+    assertTrue( ColumnarHashIndex.isSupported( createKeyMeta() ) );
+
+    RowMetaInterface keyMeta = createKeyMeta();
+    keyMeta.addValueMeta( new ValueMetaBigNumber( "big" ) );
+    assertFalse( ColumnarHashIndex.isSupported( keyMeta ) );
+
+    keyMeta = createKeyMeta();
+    keyMeta.getValueMeta( 1 ).setCaseInsensitive( true );
+    assertFalse( ColumnarHashIndex.isSupported( keyMeta ) );
+
+    keyMeta = createKeyMeta();
+    keyMeta.getValueMeta( 0 ).setStorageType( ValueMetaInterface.STORAGE_TYPE_BINARY_STRING );
+    assertFalse( ColumnarHashIndex.isSupported( keyMeta ) );
+  }
+}
@@ -0,0 +1,163 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2016 by Pentaho : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+package org.pentaho.di.core.hash;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.Date;
+
+import org.junit.Test;
+import org.pentaho.di.core.exception.KettleException;
+import org.pentaho.di.core.row.RowMeta;
+import org.pentaho.di.core.row.RowMetaInterface;
+import org.pentaho.di.core.row.value.ValueMetaBigNumber;
+import org.pentaho.di.core.row.value.ValueMetaDate;
+import org.pentaho.di.core.row.value.ValueMetaInteger;
+import org.pentaho.di.core.row.value.ValueMetaNumber;
+import org.pentaho.di.core.row.value.ValueMetaString;
+
+/**
+ * Test class for the basic functionality of OffHeapHashIndex.
+ */
+public class OffHeapHashIndexTest {
+
+  private RowMetaInterface createKeyMeta() {
+    RowMetaInterface keyMeta = new RowMeta();
+    keyMeta.addValueMeta( new ValueMetaInteger( "id" ) );
+    keyMeta.addValueMeta( new ValueMetaString( "code" ) );
+    return keyMeta;
+  }
+
+  private RowMetaInterface createValueMeta() {
+    RowMetaInterface valueMeta = new RowMeta();
+    valueMeta.addValueMeta( new ValueMetaString( "name" ) );
+    valueMeta.addValueMeta( new ValueMetaNumber( "amount" ) );
+    valueMeta.addValueMeta( new ValueMetaDate( "date" ) );
+    return valueMeta;
+  }
+
+  private void fill( OffHeapHashIndex index, int nrRows ) throws KettleException {
+    for ( int i = 0; i < nrRows; i++ ) {
+      index.put( new Object[] { (long) i, "code" + ( i % 7 ) },
+        new Object[] { "name" + i, i / 2.0, i % 3 == 0 ? null : new Date( i * 1000L ) } );
+    }
+  }
+
+  private void verify( OffHeapHashIndex index, int nrRows ) throws KettleException {
+    assertEquals( nrRows, index.getSize() );
+    for ( int i = 0; i < nrRows; i++ ) {
+      Object[] values = index.get( new Object[] { (long) i, "code" + ( i % 7 ) } );
+      assertArrayEquals( new Object[] { "name" + i, i / 2.0, i % 3 == 0 ? null : new Date( i * 1000L ) }, values );
+    }
+    assertNull( index.get( new Object[] { (long) nrRows, "code0" } ) );
+    assertNull( index.get( new Object[] { 1L, "code2" } ) );
+  }
+
+  @Test
+  public void testPutAndGet() throws KettleException {
+    OffHeapHashIndex index = new OffHeapHashIndex( createKeyMeta(), createValueMeta() );
+    assertTrue( index.isEmpty() );
+
+    // More rows than the initial table size to force a few resizes
+    int nrRows = 10000;
+    fill( index, nrRows );
+    verify( index, nrRows );
+    index.close();
+  }
+
+  @Test
+  public void testReplace() throws KettleException {
+    OffHeapHashIndex index = new OffHeapHashIndex( createKeyMeta(), createValueMeta() );
+    index.put( new Object[] { 1L, "a" }, new Object[] { "first", 1.0, null } );
+    index.put( new Object[] { 1L, "a" }, new Object[] { "second", 2.0, null } );
+    assertEquals( 1, index.getSize() );
+    assertArrayEquals( new Object[] { "second", 2.0, null }, index.get( new Object[] { 1L, "a" } ) );
+    index.close();
+  }
+
+  @Test
+  public void testNullAndEmptyString() throws KettleException {
+    OffHeapHashIndex index = new OffHeapHashIndex( createKeyMeta(), createValueMeta() );
+    index.put( new Object[] { null, "" }, new Object[] { "empty", 1.0, null } );
+    assertEquals( "empty", index.get( new Object[] { null, null } )[0] );
+    assertEquals( "empty", index.get( new Object[] { null, "" } )[0] );
+    assertNull( index.get( new Object[] { 0L, "" } ) );
+    index.close();
+  }
+
+  @Test
+  public void testIsSupported() {
+    assertTrue( OffHeapHashIndex.isSupported( createKeyMeta(), createValueMeta() ) );
+
+    RowMetaInterface bigNumberKey = createKeyMeta();
+    bigNumberKey.addValueMeta( new ValueMetaBigNumber( "big" ) );
+    assertFalse( OffHeapHashIndex.isSupported( bigNumberKey, createValueMeta() ) );
+
+    RowMetaInterface caseInsensitiveKey = createKeyMeta();
+    caseInsensitiveKey.getValueMeta( 1 ).setCaseInsensitive( true );
+    assertFalse( OffHeapHashIndex.isSupported( caseInsensitiveKey, createValueMeta() ) );
+
+    RowMetaInterface bigNumberValue = createValueMeta();
+    bigNumberValue.addValueMeta( new ValueMetaBigNumber( "big" ) );
+    assertTrue( OffHeapHashIndex.isSupported( createKeyMeta(), bigNumberValue ) );
+  }
+
+  @Test
+  public void testSnapshot() throws Exception {
+    File file = File.createTempFile( "lookup", ".snapshot" );
+    file.deleteOnExit();
+    try {
+      int nrRows = 5000;
+      OffHeapHashIndex index = OffHeapHashIndex.create( createKeyMeta(), createValueMeta(), file );
+      fill( index, nrRows );
+      index.put( new Object[] { 0L, "code0" }, new Object[] { "replaced", 0.0, null } );
+      index.finish();
+      index.close();
+
+      OffHeapHashIndex snapshot = OffHeapHashIndex.open( createKeyMeta(), createValueMeta(), file );
+      assertEquals( nrRows, snapshot.getSize() );
+      assertArrayEquals( new Object[] { "replaced", 0.0, null }, snapshot.get( new Object[] { 0L, "code0" } ) );
+      for ( int i = 1; i < nrRows; i++ ) {
+        assertEquals( "name" + i, snapshot.get( new Object[] { (long) i, "code" + ( i % 7 ) } )[0] );
+      }
+      snapshot.close();
+
+      // A snapshot written for other metadata is ignored
+      RowMetaInterface otherValueMeta = createValueMeta();
+      otherValueMeta.addValueMeta( new ValueMetaBigNumber( "big" ) );
+      assertNull( OffHeapHashIndex.open( createKeyMeta(), otherValueMeta, file ) );
+    } finally {
+      file.delete();
+    }
+  }
+
+  @Test
+  public void testMissingSnapshot() throws KettleException {
+    assertNull( OffHeapHashIndex.open( createKeyMeta(), createValueMeta(), new File( "does-not-exist.snapshot" ) ) );
+  }
+}
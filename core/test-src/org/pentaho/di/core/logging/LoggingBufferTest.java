@@ -23,13 +23,16 @@ package org.pentaho.di.core.logging;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 import junit.framework.Assert;
 
 import org.junit.Test;
 import org.pentaho.di.core.Const;
 
+import java.util.Arrays;
 import java.util.Iterator;
+import java.util.List;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.atomic.AtomicBoolean;
 
@@ -146,4 +149,152 @@ public class LoggingBufferTest {
       fail( "This should never be reached, as the LogBuffer is empty" );
     }
   }
+
+  @Test
+  public void testChannelRangeReads() {
+    final LoggingBuffer buff = new LoggingBuffer( 100 );
+    for ( int i = 1; i <= 50; i++ ) {
+      buff.addLogggingEvent( newEvent( i % 2 == 0 ? "even" : "odd", i ) );
+    }
+    int base = firstLineNr( buff ) - 1;
+    assertEquals( base + 50, buff.getLastBufferLineNr() );
+
+    List<KettleLoggingEvent> events = buff.getLogBufferFromTo( Arrays.asList( "even" ), false, base + 10, base + 20 );
+    assertEquals( 5, events.size() );
+    for ( int i = 0; i < events.size(); i++ ) {
+      assertEquals( 12L + i * 2, events.get( i ).getTimeStamp() );
+    }
+
+    int last = base + 50;
+    assertEquals( 50, buff.getLogBufferFromTo( Arrays.asList( "even", "odd" ), false, base, last ).size() );
+    assertEquals( 50, buff.getLogBufferFromTo( (List<String>) null, false, base, last ).size() );
+    assertEquals( 0, buff.getLogBufferFromTo( Arrays.asList( "other" ), false, base, last ).size() );
+
+    buff.removeChannelFromBuffer( "odd" );
+    assertEquals( 25, buff.getNrLines() );
+    assertEquals( 0, buff.getLogBufferFromTo( Arrays.asList( "odd" ), false, base, last ).size() );
+    assertEquals( 25, buff.getLogBufferFromTo( (List<String>) null, false, base, last ).size() );
+    assertEquals( last, buff.getLastBufferLineNr() );
+  }
+
+  @Test
+  public void testEvictedLinesAreNotReturned() {
+    final LoggingBuffer buff = new LoggingBuffer( 10 );
+    for ( int i = 1; i <= 25; i++ ) {
+      buff.addLogggingEvent( newEvent( "channel", i ) );
+    }
+    List<KettleLoggingEvent> events =
+      buff.getLogBufferFromTo( Arrays.asList( "channel" ), false, 0, buff.getLastBufferLineNr() );
+    assertEquals( 10, events.size() );
+    assertEquals( 16L, events.get( 0 ).getTimeStamp() );
+
+    buff.setMaxNrLines( 5 );
+    assertEquals( 5, buff.getNrLines() );
+    assertEquals( 21L, buff.getBufferIterator().next().getEvent().getTimeStamp() );
+  }
+
+  @Test
+  public void testUnlimitedBufferKeepsAllLines() {
+    final LoggingBuffer buff = new LoggingBuffer( 0 );
+    for ( int i = 1; i <= 5000; i++ ) {
+      buff.addLogggingEvent( newEvent( "channel", i ) );
+    }
+    int base = firstLineNr( buff ) - 1;
+    assertEquals( 5000, buff.getNrLines() );
+    assertEquals( base + 5000, buff.getLastBufferLineNr() );
+    assertEquals( 1000,
+      buff.getLogBufferFromTo( Arrays.asList( "channel" ), false, base + 4000, base + 5000 ).size() );
+
+    buff.removeBufferLines( buff.getBufferLinesBefore( 4001L ) );
+    assertEquals( 1000, buff.getNrLines() );
+    assertEquals( 4001L, buff.getBufferIterator().next().getEvent().getTimeStamp() );
+    assertEquals( 1000,
+      buff.getLogBufferFromTo( Arrays.asList( "channel" ), false, base, base + 5000 ).size() );
+  }
+
+  @Test
+  public void testUnlimitedBufferGivesBackItsRing() {
+    final LoggingBuffer buff = new LoggingBuffer( 0 );
+    for ( int i = 0; i < 10000; i++ ) {
+      buff.addLogggingEvent( newEvent( "filler", -i ) );
+    }
+    for ( int i = 1; i <= 100; i++ ) {
+      buff.addLogggingEvent( newEvent( "channel", i ) );
+    }
+    assertEquals( 10100, buff.getNrLines() );
+    List<KettleLoggingEvent> filler =
+      buff.getLogBufferFromTo( Arrays.asList( "filler" ), false, 0, buff.getLastBufferLineNr() );
+    assertEquals( 10000, filler.size() );
+    assertEquals( 0L, filler.get( 0 ).getTimeStamp() );
+
+    // Once the filler is removed, the ring shrinks again and still finds the lines that are left
+    //
+    buff.removeChannelFromBuffer( "filler" );
+    assertEquals( 100, buff.getNrLines() );
+    List<KettleLoggingEvent> events =
+      buff.getLogBufferFromTo( (List<String>) null, false, 0, buff.getLastBufferLineNr() );
+    assertEquals( 100, events.size() );
+    assertEquals( 1L, events.get( 0 ).getTimeStamp() );
+    buff.addLogggingEvent( newEvent( "channel", 101L ) );
+    events = buff.getLogBufferFromTo( Arrays.asList( "channel" ), false, 0, buff.getLastBufferLineNr() );
+    assertEquals( 101, events.size() );
+  }
+
+  @Test
+  public void testLineNumbersAreSharedByBuffers() {
+    final LoggingBuffer first = new LoggingBuffer( 10 );
+    final LoggingBuffer second = new LoggingBuffer( 10 );
+    first.addLogggingEvent( newEvent( "channel", 1L ) );
+    second.addLogggingEvent( newEvent( "channel", 2L ) );
+    first.addLogggingEvent( newEvent( "channel", 3L ) );
+
+    int lastNr = first.getLastBufferLineNr();
+    assertEquals( second.getLastBufferLineNr() + 1, lastNr );
+    List<KettleLoggingEvent> events = first.getLogBufferFromTo( Arrays.asList( "channel" ), false, lastNr - 2, lastNr );
+    assertEquals( 1, events.size() );
+    assertEquals( 3L, events.get( 0 ).getTimeStamp() );
+  }
+
+  @Test
+  public void testConcurrentAppends() throws Exception {
+    final int nrThreads = 8;
+    final int nrLines = 5000;
+    final LoggingBuffer buf = new LoggingBuffer( nrThreads * nrLines );
+
+    Thread[] threads = new Thread[ nrThreads ];
+    for ( int t = 0; t < nrThreads; t++ ) {
+      final String channelId = "channel-" + t;
+      threads[ t ] = new Thread( new Runnable() {
+        @Override public void run() {
+          for ( int i = 1; i <= nrLines; i++ ) {
+            buf.addLogggingEvent( newEvent( channelId, i ) );
+          }
+        }
+      } );
+      threads[ t ].start();
+    }
+    for ( Thread thread : threads ) {
+      thread.join();
+    }
+
+    assertEquals( nrThreads * nrLines, buf.getNrLines() );
+    assertEquals( firstLineNr( buf ) + nrThreads * nrLines - 1, buf.getLastBufferLineNr() );
+    for ( int t = 0; t < nrThreads; t++ ) {
+      List<KettleLoggingEvent> events =
+        buf.getLogBufferFromTo( Arrays.asList( "channel-" + t ), false, 0, buf.getLastBufferLineNr() );
+      assertEquals( nrLines, events.size() );
+      for ( int i = 0; i < nrLines; i++ ) {
+        assertTrue( events.get( i ).getTimeStamp() == i + 1 );
+      }
+    }
+  }
+
+  private static int firstLineNr( LoggingBuffer buffer ) {
+    return buffer.getBufferIterator().next().getNr();
+  }
+
+  private static KettleLoggingEvent newEvent( String channelId, long timeStamp ) {
+    return new KettleLoggingEvent(
+      new LogMessage( "Line " + timeStamp, channelId, LogLevel.BASIC ), timeStamp, LogLevel.BASIC );
+  }
 }
@@ -24,7 +24,12 @@ package org.pentaho.di.core.logging;
 
 import org.junit.Test;
 
+import java.util.Set;
+
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
 
 public class LoggingRegistryTest {
   public static final String LOG_CHANEL_ID_PARENT = "parent-chanel-id";
@@ -48,4 +53,134 @@ public class LoggingRegistryTest {
     assertEquals( logChanelId, LOG_CHANEL_ID_CHILD );
   }
 
+  @Test
+  public void descendantsFollowNewRegistrations() {
+    LoggingRegistry loggingRegistry = LoggingRegistry.getInstance();
+
+    String jobId =
+      loggingRegistry.registerLoggingSource( new SimpleLoggingObject( "job", LoggingObjectType.JOB, null ) );
+    LoggingObjectInterface job = loggingRegistry.getLoggingObject( jobId );
+    String transId =
+      loggingRegistry.registerLoggingSource( new SimpleLoggingObject( "trans", LoggingObjectType.TRANS, job ) );
+    LoggingObjectInterface trans = loggingRegistry.getLoggingObject( transId );
+
+    Set<String> descendants = loggingRegistry.getLogChannelDescendants( jobId );
+    assertEquals( 2, descendants.size() );
+    assertTrue( descendants.contains( jobId ) );
+    assertTrue( descendants.contains( transId ) );
+
+    // A grandchild registered later shows up in the descendants of all its ancestors
+    //
+    String stepId =
+      loggingRegistry.registerLoggingSource( new SimpleLoggingObject( "step", LoggingObjectType.STEP, trans ) );
+    assertTrue( loggingRegistry.getLogChannelDescendants( jobId ).contains( stepId ) );
+    assertTrue( loggingRegistry.getLogChannelDescendants( transId ).contains( stepId ) );
+    assertEquals( loggingRegistry.getLogChannelChildren( jobId ).size(),
+      loggingRegistry.getLogChannelDescendants( jobId ).size() );
+
+    loggingRegistry.removeIncludingChildren( transId );
+    Set<String> remaining = loggingRegistry.getLogChannelDescendants( jobId );
+    assertEquals( 1, remaining.size() );
+    assertFalse( remaining.contains( stepId ) );
+
+    loggingRegistry.removeIncludingChildren( jobId );
+  }
+
+  @Test
+  public void runningObjectsAndTheirChildrenAreNotPurged() {
+    LoggingRegistry loggingRegistry = LoggingRegistry.getInstance();
+    String maxSize = System.getProperty( "KETTLE_MAX_LOGGING_REGISTRY_SIZE" );
+    System.setProperty( "KETTLE_MAX_LOGGING_REGISTRY_SIZE", "10" );
+    try {
+      SimpleLoggingObject job = new SimpleLoggingObject( "running job", LoggingObjectType.JOB, null );
+      String jobId = loggingRegistry.registerLoggingSource( job );
+      LoggingObjectInterface jobObject = loggingRegistry.getLoggingObject( jobId );
+      String transId = loggingRegistry.registerLoggingSource(
+        new SimpleLoggingObject( "finished trans", LoggingObjectType.TRANS, jobObject ) );
+
+      // Below twice the maximum size, children of running objects are never purged
+      //
+      for ( int i = 0; i < 15; i++ ) {
+        loggingRegistry.registerLoggingSource(
+          new SimpleLoggingObject( "other " + i, LoggingObjectType.GENERAL, null ) );
+      }
+
+      assertNotNull( loggingRegistry.getLoggingObject( jobId ) );
+      assertNotNull( loggingRegistry.getLoggingObject( transId ) );
+      assertTrue( loggingRegistry.getLogChannelDescendants( jobId ).contains( transId ) );
+      assertEquals( "running job", job.getObjectName() );
+
+      loggingRegistry.removeIncludingChildren( jobId );
+    } finally {
+      if ( maxSize == null ) {
+        System.clearProperty( "KETTLE_MAX_LOGGING_REGISTRY_SIZE" );
+      } else {
+        System.setProperty( "KETTLE_MAX_LOGGING_REGISTRY_SIZE", maxSize );
+      }
+    }
+  }
+
+  @Test
+  public void finishedChildrenOfRunningObjectsArePurgedBeyondTwiceTheMaximumSize() {
+    LoggingRegistry loggingRegistry = LoggingRegistry.getInstance();
+    String maxSize = System.getProperty( "KETTLE_MAX_LOGGING_REGISTRY_SIZE" );
+    System.setProperty( "KETTLE_MAX_LOGGING_REGISTRY_SIZE", "10" );
+    try {
+      SimpleLoggingObject job = new SimpleLoggingObject( "long running job", LoggingObjectType.JOB, null );
+      String jobId = loggingRegistry.registerLoggingSource( job );
+      LoggingObjectInterface jobObject = loggingRegistry.getLoggingObject( jobId );
+      assertEquals( 1, loggingRegistry.getLogChannelDescendants( jobId ).size() );
+
+      // Copies made by the registry don't keep anything running: these children are finished
+      //
+      for ( int i = 0; i < 200; i++ ) {
+        loggingRegistry.registerLoggingSource(
+          new LoggingObject( new SimpleLoggingObject( "child " + i, LoggingObjectType.TRANS, jobObject ) ) );
+      }
+
+      assertNotNull( loggingRegistry.getLoggingObject( jobId ) );
+      int children = 0;
+      for ( LoggingObjectInterface object : loggingRegistry.getMap().values() ) {
+        if ( object.getParent() != null && jobId.equals( object.getParent().getLogChannelId() ) ) {
+          children++;
+        }
+      }
+      assertTrue( children <= 30 );
+      assertEquals( children + 1, loggingRegistry.getLogChannelDescendants( jobId ).size() );
+      assertEquals( "long running job", job.getObjectName() );
+
+      loggingRegistry.removeIncludingChildren( jobId );
+    } finally {
+      if ( maxSize == null ) {
+        System.clearProperty( "KETTLE_MAX_LOGGING_REGISTRY_SIZE" );
+      } else {
+        System.setProperty( "KETTLE_MAX_LOGGING_REGISTRY_SIZE", maxSize );
+      }
+    }
+  }
+
+  @Test
+  public void removedChildrenStayDescendantsWhileTheirLinesAreBuffered() {
+    KettleLogStore.init();
+    LoggingRegistry loggingRegistry = LoggingRegistry.getInstance();
+
+    String jobId =
+      loggingRegistry.registerLoggingSource( new SimpleLoggingObject( "job", LoggingObjectType.JOB, null ) );
+    String transId = loggingRegistry.registerLoggingSource(
+      new SimpleLoggingObject( "trans", LoggingObjectType.TRANS, loggingRegistry.getLoggingObject( jobId ) ) );
+    KettleLogStore.getAppender().doAppend( new KettleLoggingEvent(
+      new LogMessage( "a line of the transformation", transId, LogLevel.BASIC ), System.currentTimeMillis(),
+      LogLevel.BASIC ) );
+
+    loggingRegistry.removeIncludingChildren( transId );
+    assertTrue( loggingRegistry.getLogChannelDescendants( jobId ).contains( transId ) );
+    assertTrue( KettleLogStore.getAppender().getBuffer( jobId, false ).toString()
+      .contains( "a line of the transformation" ) );
+
+    KettleLogStore.discardLines( transId, false );
+    loggingRegistry.removeOrphans();
+    assertFalse( loggingRegistry.getLogChannelDescendants( jobId ).contains( transId ) );
+
+    loggingRegistry.removeIncludingChildren( jobId );
+  }
 }
@@ -0,0 +1,93 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2016 by Pentaho : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+
+package org.pentaho.di.core.memory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class MemoryBudgetTest {
+
+  @Test
+  public void testReserveAndRelease() {
+    MemoryBudget budget = new MemoryBudget( "test", 100L, null );
+
+    assertTrue( budget.reserve( 60L ) );
+    assertFalse( budget.reserve( 50L ) );
+    assertEquals( 60L, budget.getUsed() );
+    assertTrue( budget.reserve( 40L ) );
+    assertEquals( 100L, budget.getUsed() );
+
+    budget.release( 60L );
+    assertEquals( 40L, budget.getUsed() );
+    assertTrue( budget.reserve( 50L ) );
+  }
+
+  @Test
+  public void testForceReserveExceedsTheLimit() {
+    MemoryBudget budget = new MemoryBudget( "test", 100L, null );
+
+    budget.forceReserve( 150L );
+    assertEquals( 150L, budget.getUsed() );
+    assertFalse( budget.reserve( 1L ) );
+
+    budget.release( 150L );
+    assertTrue( budget.reserve( 1L ) );
+  }
+
+  @Test
+  public void testReservationsMustFitInTheParent() {
+    MemoryBudget global = new MemoryBudget( "global", 100L, null );
+    MemoryBudget trans1 = new MemoryBudget( "trans1", 80L, global );
+    MemoryBudget trans2 = new MemoryBudget( "trans2", 80L, global );
+
+    assertTrue( trans1.reserve( 70L ) );
+    assertFalse( trans2.reserve( 40L ) );
+    // a refused reservation leaves nothing behind
+    assertEquals( 0L, trans2.getUsed() );
+    assertEquals( 70L, global.getUsed() );
+
+    assertTrue( trans2.reserve( 30L ) );
+    assertEquals( 100L, global.getUsed() );
+
+    trans1.release( 70L );
+    assertEquals( 0L, trans1.getUsed() );
+    assertEquals( 30L, global.getUsed() );
+  }
+
+  @Test
+  public void testParseSize() {
+    long maxMemory = 1000L;
+    assertEquals( -1L, MemoryBudget.parseSize( null, maxMemory ) );
+    assertEquals( -1L, MemoryBudget.parseSize( "", maxMemory ) );
+    assertEquals( -1L, MemoryBudget.parseSize( "lots", maxMemory ) );
+    assertEquals( 500000L, MemoryBudget.parseSize( "500000", maxMemory ) );
+    assertEquals( 2048L, MemoryBudget.parseSize( "2k", maxMemory ) );
+    assertEquals( 256L * 1024L * 1024L, MemoryBudget.parseSize( "256M", maxMemory ) );
+    assertEquals( 2L * 1024L * 1024L * 1024L, MemoryBudget.parseSize( " 2g ", maxMemory ) );
+    assertEquals( 400L, MemoryBudget.parseSize( "40%", maxMemory ) );
+  }
+}
@@ -0,0 +1,54 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2016 by Pentaho : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+
+package org.pentaho.di.core.memory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigDecimal;
+import java.util.Date;
+
+import org.junit.Test;
+
+public class RowSizeEstimatorTest {
+
+  @Test
+  public void testEmptyRows() {
+    assertEquals( 0L, RowSizeEstimator.estimateRowSize( null ) );
+    assertEquals( 16L, RowSizeEstimator.estimateRowSize( new Object[0] ) );
+    assertEquals( 32L, RowSizeEstimator.estimateRowSize( new Object[] { null, null, null, Boolean.TRUE } ) );
+  }
+
+  @Test
+  public void testWideValuesTakeMoreMemory() {
+    long small = RowSizeEstimator.estimateRowSize( new Object[] { "a", 1L, 1.0, new Date(), new byte[8] } );
+    long wide = RowSizeEstimator.estimateRowSize( new Object[] { "a", 1L, 1.0, new Date(), new byte[1008] } );
+    assertEquals( 1000L, wide - small );
+
+    assertTrue( RowSizeEstimator.estimateValueSize( "abcdefghijklmnopqrstuvwxyz" ) > RowSizeEstimator
+      .estimateValueSize( "abc" ) );
+    assertTrue( RowSizeEstimator.estimateValueSize( new BigDecimal( "123456789012345678901234567890.5" ) )
+      > RowSizeEstimator.estimateValueSize( BigDecimal.ONE ) );
+  }
+}
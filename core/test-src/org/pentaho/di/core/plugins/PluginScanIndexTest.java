@@ -0,0 +1,164 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2016 by Pentaho : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+package org.pentaho.di.core.plugins;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.util.Map;
+import java.util.Set;
+import java.util.jar.JarOutputStream;
+import java.util.zip.ZipEntry;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.vfs2.FileObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.pentaho.di.core.vfs.KettleVFS;
+
+public class PluginScanIndexTest {
+
+  @Deprecated
+  public static class AnnotatedClass {
+  }
+
+  private File jarFile;
+  private File indexFile;
+
+  @Before
+  public void setUp() throws Exception {
+    jarFile = File.createTempFile( "plugin", ".jar" );
+    indexFile = File.createTempFile( "plugin-index", ".tmp" );
+    indexFile.delete();
+    writeJar( "first.txt" );
+  }
+
+  @After
+  public void tearDown() {
+    jarFile.delete();
+    indexFile.delete();
+  }
+
+  @Test
+  public void testScannedJarIsTakenFromSavedIndex() throws Exception {
+    PluginScanIndex index = new PluginScanIndex( indexFile.getAbsolutePath() );
+    index.load();
+    assertAnnotatedClassFound( index.getAnnotationIndex( getJar() ) );
+    assertTrue( index.isChanged() );
+    index.save();
+    assertFalse( index.isChanged() );
+
+    PluginScanIndex reloaded = new PluginScanIndex( indexFile.getAbsolutePath() );
+    reloaded.load();
+    assertEquals( 1, reloaded.size() );
+    assertAnnotatedClassFound( reloaded.getAnnotationIndex( getJar() ) );
+    assertFalse( "The jar file didn't change and shouldn't be scanned again", reloaded.isChanged() );
+  }
+
+  @Test
+  public void testChangedJarIsScannedAgain() throws Exception {
+    PluginScanIndex index = new PluginScanIndex( indexFile.getAbsolutePath() );
+    index.load();
+    index.getAnnotationIndex( getJar() );
+    index.save();
+
+    writeJar( "second-and-longer.txt" );
+    jarFile.setLastModified( jarFile.lastModified() - 60000L );
+
+    PluginScanIndex reloaded = new PluginScanIndex( indexFile.getAbsolutePath() );
+    reloaded.load();
+    assertAnnotatedClassFound( reloaded.getAnnotationIndex( getJar() ) );
+    assertTrue( reloaded.isChanged() );
+  }
+
+  @Test
+  public void testDamagedIndexIsRebuilt() throws Exception {
+    FileOutputStream fos = new FileOutputStream( indexFile );
+    try {
+      fos.write( new byte[] { 0, 0, 0, 1, 0, 0 } );
+    } finally {
+      fos.close();
+    }
+
+    PluginScanIndex index = new PluginScanIndex( indexFile.getAbsolutePath() );
+    index.load();
+    assertEquals( 0, index.size() );
+    assertAnnotatedClassFound( index.getAnnotationIndex( getJar() ) );
+  }
+
+  @Test
+  public void testInvalidCountsAreRejected() throws Exception {
+    DataOutputStream dos = new DataOutputStream( new FileOutputStream( indexFile ) );
+    try {
+      dos.writeInt( 1 ); // format version
+      dos.writeInt( 1 ); // one jar file
+      dos.writeUTF( "file:///plugin.jar" );
+      dos.writeLong( 0L );
+      dos.writeLong( 0L );
+      dos.writeInt( -1 ); // number of annotations
+    } finally {
+      dos.close();
+    }
+
+    PluginScanIndex index = new PluginScanIndex( indexFile.getAbsolutePath() );
+    index.load();
+    assertEquals( 0, index.size() );
+    assertTrue( index.isChanged() );
+  }
+
+  private FileObject getJar() throws Exception {
+    FileObject fileObject = KettleVFS.getFileObject( jarFile.getAbsolutePath() );
+    fileObject.refresh();
+    return fileObject;
+  }
+
+  private void assertAnnotatedClassFound( Map<String, Set<String>> annotationIndex ) {
+    Set<String> classNames = annotationIndex.get( Deprecated.class.getName() );
+    assertNotNull( classNames );
+    assertTrue( classNames.contains( AnnotatedClass.class.getName() ) );
+  }
+
+  private void writeJar( String extraEntry ) throws Exception {
+    String classFile = AnnotatedClass.class.getName().replace( '.', '/' ) + ".class";
+    JarOutputStream jos = new JarOutputStream( new FileOutputStream( jarFile ) );
+    InputStream classStream = getClass().getClassLoader().getResourceAsStream( classFile );
+    try {
+      jos.putNextEntry( new ZipEntry( classFile ) );
+      IOUtils.copy( classStream, jos );
+      jos.closeEntry();
+      jos.putNextEntry( new ZipEntry( extraEntry ) );
+      jos.write( extraEntry.getBytes( "UTF-8" ) );
+      jos.closeEntry();
+    } finally {
+      classStream.close();
+      jos.close();
+    }
+  }
+}
@@ -0,0 +1,152 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2016 by Pentaho : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+
+package org.pentaho.di.core.row;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.pentaho.di.core.exception.KettleEOFException;
+import org.pentaho.di.core.row.value.ValueMetaBigNumber;
+import org.pentaho.di.core.row.value.ValueMetaBoolean;
+import org.pentaho.di.core.row.value.ValueMetaDate;
+import org.pentaho.di.core.row.value.ValueMetaInteger;
+import org.pentaho.di.core.row.value.ValueMetaNumber;
+import org.pentaho.di.core.row.value.ValueMetaString;
+
+public class RowBlockWriterTest {
+
+  private RowMetaInterface rowMeta;
+  private List<Object[]> rows;
+
+  @Before
+  public void setUp() {
+    rowMeta = new RowMeta();
+    rowMeta.addValueMeta( new ValueMetaInteger( "id" ) );
+    rowMeta.addValueMeta( new ValueMetaString( "country" ) );
+    rowMeta.addValueMeta( new ValueMetaString( "name" ) );
+    rowMeta.addValueMeta( new ValueMetaDate( "date" ) );
+    rowMeta.addValueMeta( new ValueMetaNumber( "amount" ) );
+    rowMeta.addValueMeta( new ValueMetaBoolean( "flag" ) );
+    rowMeta.addValueMeta( new ValueMetaBigNumber( "total" ) );
+
+    String[] countries = { "BE", "US", "FR", null };
+    rows = new ArrayList<Object[]>();
+    for ( int i = 0; i < 2503; i++ ) {
+      rows.add( new Object[] {
+        i % 10 == 0 ? null : Long.valueOf( i * 37L - 5000L ),
+        countries[i % countries.length],
+        "name \u00e9" + i,
+        new Date( 1476700000000L + i * 60000L ),
+        i % 7 == 0 ? null : Double.valueOf( i / 3.0 ),
+        i % 3 == 0 ? null : Boolean.valueOf( i % 2 == 0 ),
+        new BigDecimal( i + ".25" ) } );
+    }
+  }
+
+  @Test
+  public void testRoundTrip() throws Exception {
+    assertRoundTrip( write( 1000, false ) );
+  }
+
+  @Test
+  public void testCompressedRoundTrip() throws Exception {
+    byte[] plain = write( 1000, false );
+    byte[] compressed = write( 1000, true );
+    assertTrue( compressed.length < plain.length );
+    assertRoundTrip( compressed );
+  }
+
+  @Test
+  public void testSmallBlocks() throws Exception {
+    assertRoundTrip( write( 1, false ) );
+    assertRoundTrip( write( 7, true ) );
+  }
+
+  @Test
+  public void testSmallerThanRowByRow() throws Exception {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream outputStream = new DataOutputStream( bytes );
+    for ( Object[] row : rows ) {
+      rowMeta.writeData( outputStream, row );
+    }
+    outputStream.flush();
+    assertTrue( write( 1000, false ).length < bytes.size() );
+  }
+
+  @Test( expected = KettleEOFException.class )
+  public void testTruncatedStream() throws Exception {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream outputStream = new DataOutputStream( bytes );
+    RowBlockWriter writer = new RowBlockWriter( rowMeta, outputStream, 10, false );
+    for ( int i = 0; i < 15; i++ ) {
+      writer.writeRow( rows.get( i ) );
+    }
+    outputStream.flush();
+
+    RowBlockReader reader = new RowBlockReader( rowMeta, toInputStream( bytes.toByteArray() ) );
+    for ( int i = 0; i < 15; i++ ) {
+      reader.readRow();
+    }
+  }
+
+  private byte[] write( int blockSize, boolean compressing ) throws Exception {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream outputStream = new DataOutputStream( bytes );
+    RowBlockWriter writer = new RowBlockWriter( rowMeta, outputStream, blockSize, compressing );
+    for ( Object[] row : rows ) {
+      writer.writeRow( row );
+    }
+    writer.finish();
+    outputStream.flush();
+    return bytes.toByteArray();
+  }
+
+  private void assertRoundTrip( byte[] bytes ) throws Exception {
+    RowBlockReader reader = new RowBlockReader( rowMeta, toInputStream( bytes ) );
+    for ( Object[] expected : rows ) {
+      Object[] row = reader.readRow();
+      for ( int i = 0; i < expected.length; i++ ) {
+        assertEquals( expected[i], row[i] );
+      }
+    }
+    assertNull( reader.readRow() );
+    assertNull( reader.readRow() );
+  }
+
+  private static DataInputStream toInputStream( byte[] bytes ) {
+    return new DataInputStream( new ByteArrayInputStream( bytes ) );
+  }
+}
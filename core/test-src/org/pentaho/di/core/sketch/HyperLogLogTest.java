@@ -0,0 +1,101 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2016 by Pentaho : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+
+package org.pentaho.di.core.sketch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigDecimal;
+
+import org.junit.Test;
+
+public class HyperLogLogTest {
+
+  @Test
+  public void testSmallCardinalityIsExact() {
+    HyperLogLog sketch = new HyperLogLog( HyperLogLog.DEFAULT_PRECISION );
+    assertEquals( 0, sketch.cardinality() );
+    for ( int i = 0; i < 3; i++ ) {
+      sketch.add( "a" );
+      sketch.add( "b" );
+      sketch.add( 1L );
+    }
+    assertEquals( 3, sketch.cardinality() );
+  }
+
+  @Test
+  public void testLargeCardinality() {
+    HyperLogLog sketch = new HyperLogLog( HyperLogLog.DEFAULT_PRECISION );
+    for ( long i = 0; i < 1000000; i++ ) {
+      sketch.add( "user-" + i );
+      sketch.add( "user-" + ( i / 2 ) );
+    }
+    assertError( 1000000, sketch.cardinality(), 0.03 );
+  }
+
+  @Test
+  public void testMerge() {
+    HyperLogLog left = new HyperLogLog( 12 );
+    HyperLogLog right = new HyperLogLog( 12 );
+    HyperLogLog all = new HyperLogLog( 12 );
+    for ( long i = 0; i < 100000; i++ ) {
+      ( i % 3 == 0 ? left : right ).add( i );
+      all.add( i );
+    }
+    // Overlapping values count once
+    for ( long i = 0; i < 50000; i++ ) {
+      left.add( i );
+    }
+    left.merge( right );
+    assertEquals( all.cardinality(), left.cardinality() );
+    assertError( 100000, left.cardinality(), 0.06 );
+  }
+
+  @Test( expected = IllegalArgumentException.class )
+  public void testMergeDifferentPrecision() {
+    new HyperLogLog( 12 ).merge( new HyperLogLog( 14 ) );
+  }
+
+  @Test
+  public void testSerialization() {
+    HyperLogLog sketch = new HyperLogLog( 10 );
+    for ( double d = 0; d < 5000; d++ ) {
+      sketch.add( d );
+    }
+    HyperLogLog copy = HyperLogLog.fromBytes( sketch.toBytes() );
+    assertEquals( 10, copy.getPrecision() );
+    assertEquals( sketch.cardinality(), copy.cardinality() );
+  }
+
+  @Test
+  public void testEqualBigNumbersHashTheSame() {
+    assertEquals( HyperLogLog.hash( new BigDecimal( "1.0" ) ), HyperLogLog.hash( new BigDecimal( "1.00" ) ) );
+    assertEquals( HyperLogLog.hash( 0.0 ), HyperLogLog.hash( -0.0 ) );
+  }
+
+  private static void assertError( long expected, long actual, double maxError ) {
+    double error = Math.abs( actual - expected ) / (double) expected;
+    assertTrue( "Estimated " + actual + " instead of " + expected, error <= maxError );
+  }
+}
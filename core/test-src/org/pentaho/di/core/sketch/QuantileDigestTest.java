@@ -0,0 +1,108 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2016 by Pentaho : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+
+package org.pentaho.di.core.sketch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class QuantileDigestTest {
+
+  @Test
+  public void testEmptyDigest() {
+    assertTrue( Double.isNaN( new QuantileDigest( QuantileDigest.DEFAULT_COMPRESSION ).quantile( 0.5 ) ) );
+  }
+
+  @Test
+  public void testSingleValue() {
+    QuantileDigest digest = new QuantileDigest( QuantileDigest.DEFAULT_COMPRESSION );
+    digest.add( 42.0 );
+    assertEquals( 42.0, digest.quantile( 0.0 ), 0.0 );
+    assertEquals( 42.0, digest.quantile( 0.5 ), 0.0 );
+    assertEquals( 42.0, digest.quantile( 1.0 ), 0.0 );
+  }
+
+  @Test
+  public void testUniformDistribution() {
+    QuantileDigest digest = new QuantileDigest( QuantileDigest.DEFAULT_COMPRESSION );
+    Random random = new Random( 1234 );
+    for ( int i = 0; i < 200000; i++ ) {
+      digest.add( random.nextDouble() * 1000 );
+    }
+    assertEquals( 200000, digest.size() );
+    assertEquals( 500.0, digest.quantile( 0.5 ), 10.0 );
+    assertEquals( 10.0, digest.quantile( 0.01 ), 2.0 );
+    assertEquals( 990.0, digest.quantile( 0.99 ), 2.0 );
+    assertTrue( digest.quantile( 0.0 ) >= 0.0 );
+    assertTrue( digest.quantile( 1.0 ) <= 1000.0 );
+  }
+
+  @Test
+  public void testSmallSetIsExact() {
+    QuantileDigest digest = new QuantileDigest( QuantileDigest.DEFAULT_COMPRESSION );
+    for ( int i = 5; i >= 1; i-- ) {
+      digest.add( i );
+    }
+    digest.add( Double.NaN );
+    assertEquals( 5, digest.size() );
+    assertEquals( 1.0, digest.quantile( 0.0 ), 0.0 );
+    assertEquals( 3.0, digest.quantile( 0.5 ), 0.5 );
+    assertEquals( 5.0, digest.quantile( 1.0 ), 0.0 );
+  }
+
+  @Test
+  public void testMerge() {
+    QuantileDigest left = new QuantileDigest( QuantileDigest.DEFAULT_COMPRESSION );
+    QuantileDigest right = new QuantileDigest( QuantileDigest.DEFAULT_COMPRESSION );
+    for ( int i = 0; i < 100000; i++ ) {
+      if ( i % 2 == 0 ) {
+        left.add( i );
+      } else {
+        right.add( i );
+      }
+    }
+    left.merge( right );
+    assertEquals( 100000, left.size() );
+    assertEquals( 50000.0, left.quantile( 0.5 ), 1000.0 );
+    assertEquals( 90000.0, left.quantile( 0.9 ), 1000.0 );
+    assertEquals( 0.0, left.quantile( 0.0 ), 0.0 );
+    assertEquals( 99999.0, left.quantile( 1.0 ), 0.0 );
+  }
+
+  @Test
+  public void testSerialization() {
+    QuantileDigest digest = new QuantileDigest( 50 );
+    for ( int i = 0; i < 10000; i++ ) {
+      digest.add( Math.sqrt( i ) );
+    }
+    QuantileDigest copy = QuantileDigest.fromBytes( digest.toBytes() );
+    assertEquals( 50.0, copy.getCompression(), 0.0 );
+    assertEquals( digest.size(), copy.size() );
+    assertEquals( digest.quantile( 0.25 ), copy.quantile( 0.25 ), 0.0 );
+    assertEquals( digest.quantile( 0.75 ), copy.quantile( 0.75 ), 0.0 );
+  }
+}
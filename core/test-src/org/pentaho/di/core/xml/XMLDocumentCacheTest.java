@@ -0,0 +1,168 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2016 by Pentaho : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+package org.pentaho.di.core.xml;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.FileOutputStream;
+
+import org.apache.commons.vfs2.FileObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.pentaho.di.core.Const;
+import org.pentaho.di.core.vfs.KettleVFS;
+import org.w3c.dom.Document;
+import org.w3c.dom.Node;
+
+public class XMLDocumentCacheTest {
+
+  private File file;
+
+  @Before
+  public void setUp() throws Exception {
+    XMLDocumentCache.getInstance().clear();
+    file = File.createTempFile( "transformation", ".ktr" );
+  }
+
+  @After
+  public void tearDown() {
+    System.clearProperty( Const.KETTLE_XML_FILE_CACHE_MAX_SIZE );
+    XMLDocumentCache.getInstance().clear();
+    file.delete();
+  }
+
+  @Test
+  public void testUnchangedFileIsParsedOnce() throws Exception {
+    writeFile( "<transformation><info><name>first</name></info></transformation>" );
+    XMLDocumentCache cache = XMLDocumentCache.getInstance();
+
+    Document first = cache.getDocument( getFileObject() );
+    Document second = cache.getDocument( getFileObject() );
+
+    assertEquals( 1, cache.size() );
+    assertEquals( 1, cache.getCacheHits() );
+    assertNotSame( "Every caller gets its own copy", first, second );
+    assertEquals( "first", getName( second ) );
+  }
+
+  @Test
+  public void testChangedFileIsParsedAgain() throws Exception {
+    writeFile( "<transformation><info><name>first</name></info></transformation>" );
+    XMLDocumentCache cache = XMLDocumentCache.getInstance();
+    assertEquals( "first", getName( cache.getDocument( getFileObject() ) ) );
+
+    writeFile( "<transformation><info><name>second one</name></info></transformation>" );
+    file.setLastModified( file.lastModified() - 60000L );
+
+    assertEquals( "second one", getName( cache.getDocument( getFileObject() ) ) );
+    assertEquals( 0, cache.getCacheHits() );
+  }
+
+  @Test
+  public void testCacheIsBoundedBySize() throws Exception {
+    System.setProperty( Const.KETTLE_XML_FILE_CACHE_MAX_SIZE, "1" );
+    XMLDocumentCache cache = XMLDocumentCache.getInstance();
+    String xml = "<transformation><info><name>" + Const.rightPad( "", 600 ) + "</name></info></transformation>";
+    File other = File.createTempFile( "transformation", ".ktr" );
+    try {
+      writeFile( file, xml );
+      writeFile( other, xml );
+      cache.getDocument( getFileObject() );
+      cache.getDocument( KettleVFS.getFileObject( other.getAbsolutePath() ) );
+
+      // The two files don't fit in 1 KB, only the most recent one is kept
+      //
+      assertEquals( 1, cache.size() );
+      assertEquals( other.length(), cache.getTotalSize() );
+
+      // A file that doesn't fit at all is not kept
+      //
+      writeFile( file, xml + xml );
+      cache.getDocument( getFileObject() );
+      assertEquals( 1, cache.size() );
+    } finally {
+      other.delete();
+    }
+  }
+
+  @Test
+  public void testCopiesAreMadeConcurrently() throws Exception {
+    StringBuilder xml = new StringBuilder( "<transformation><info><name>first</name></info><steps>" );
+    for ( int i = 0; i < 1000; i++ ) {
+      xml.append( "<step><name>step " ).append( i ).append( "</name></step>" );
+    }
+    writeFile( xml.append( "</steps></transformation>" ).toString() );
+    final XMLDocumentCache cache = XMLDocumentCache.getInstance();
+    cache.getDocument( getFileObject() );
+
+    final Throwable[] error = new Throwable[1];
+    Thread[] threads = new Thread[4];
+    for ( int t = 0; t < threads.length; t++ ) {
+      threads[t] = new Thread( new Runnable() {
+        @Override
+        public void run() {
+          try {
+            for ( int i = 0; i < 20; i++ ) {
+              Document document = cache.getDocument( getFileObject() );
+              Node steps = XMLHandler.getSubNode( XMLHandler.getSubNode( document, "transformation" ), "steps" );
+              assertEquals( 1000, XMLHandler.countNodes( steps, "step" ) );
+            }
+          } catch ( Throwable e ) {
+            error[0] = e;
+          }
+        }
+      } );
+      threads[t].start();
+    }
+    for ( Thread thread : threads ) {
+      thread.join();
+    }
+    assertNull( error[0] );
+    assertEquals( 80, cache.getCacheHits() );
+  }
+
+  private String getName( Document document ) {
+    return XMLHandler.getTagValue( XMLHandler.getSubNode( document, "transformation" ), "info", "name" );
+  }
+
+  private FileObject getFileObject() throws Exception {
+    return KettleVFS.getFileObject( file.getAbsolutePath() );
+  }
+
+  private void writeFile( String xml ) throws Exception {
+    writeFile( file, xml );
+  }
+
+  private void writeFile( File file, String xml ) throws Exception {
+    FileOutputStream fos = new FileOutputStream( file );
+    try {
+      fos.write( xml.getBytes( "UTF-8" ) );
+    } finally {
+      fos.close();
+    }
+  }
+}
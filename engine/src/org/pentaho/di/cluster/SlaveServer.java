@@ -78,6 +78,7 @@ import org.pentaho.di.www.GetJobStatusServlet;
 import org.pentaho.di.www.GetPropertiesServlet;
 import org.pentaho.di.www.GetSlavesServlet;
 import org.pentaho.di.www.GetStatusServlet;
+import org.pentaho.di.www.GetTransStatusDeltaServlet;
 import org.pentaho.di.www.GetTransStatusServlet;
 import org.pentaho.di.www.NextSequenceValueServlet;
 import org.pentaho.di.www.PauseTransServlet;
@@ -88,6 +89,7 @@ import org.pentaho.di.www.SlaveServerDetection;
 import org.pentaho.di.www.SlaveServerJobStatus;
 import org.pentaho.di.www.SlaveServerStatus;
 import org.pentaho.di.www.SlaveServerTransStatus;
+import org.pentaho.di.www.SlaveServerTransStatusDelta;
 import org.pentaho.di.www.SniffStepServlet;
 import org.pentaho.di.www.SslConfiguration;
 import org.pentaho.di.www.StartJobServlet;
@@ -783,6 +785,38 @@ public class SlaveServer extends ChangedFlag implements Cloneable, SharedObjectI
     return SlaveServerTransStatus.fromXML( xml );
   }
 
+  /**
+   * Asks the incremental status service for the changes since the last request and applies them to the status.
+   *
+   * @param status
+   *          the status of the transformation built from the previous requests
+   * @param waitMs
+   *          the time in ms the slave server may hold the request until something changes, 0 to answer right away
+   * @return the updated status, or null if the slave server doesn't have the incremental status service
+   */
+  public SlaveServerTransStatusDelta getTransStatusDelta( SlaveServerTransStatusDelta status, long waitMs )
+    throws Exception {
+    String json;
+    try {
+      json =
+          execService( GetTransStatusDeltaServlet.CONTEXT_PATH + "/?name=" + URLEncoder.encode( status.getTransName(),
+              "UTF-8" ) + "&id=" + Const.NVL( status.getId(), "" ) + "&version=" + status.getVersion() + "&from="
+              + status.getLastLoggingLineNr() + "&wait=" + waitMs, true );
+    } catch ( KettleException e ) {
+      if ( e.getMessage() != null && e.getMessage().contains( "HTTP Status 404" ) ) {
+        return null;
+      }
+      throw e;
+    }
+    // Older slave servers may answer with some other page instead of a 404
+    //
+    if ( !json.trim().startsWith( "{" ) ) {
+      return null;
+    }
+    status.update( json );
+    return status;
+  }
+
   public SlaveServerJobStatus getJobStatus( String jobName, String carteObjectId, int startLogLineNr ) throws Exception {
     String xml =
         execService( GetJobStatusServlet.CONTEXT_PATH + "/?name=" + URLEncoder.encode( jobName, "UTF-8" ) + "&id="
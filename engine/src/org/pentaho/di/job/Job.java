@@ -51,6 +51,7 @@ import org.pentaho.di.core.ExtensionDataInterface;
 import org.pentaho.di.core.KettleEnvironment;
 import org.pentaho.di.core.Result;
 import org.pentaho.di.core.RowMetaAndData;
+import org.pentaho.di.core.cache.SharedCacheRegistry;
 import org.pentaho.di.core.database.Database;
 import org.pentaho.di.core.database.DatabaseMeta;
 import org.pentaho.di.core.exception.KettleDatabaseException;
@@ -224,6 +225,9 @@ public class Job extends Thread implements VariableSpace, NamedParams, HasLogCha
 
   private Map<String, Object> extensionDataMap;
 
+  /** The caches shared by the transformations of this job, if it has no parent. */
+  private SharedCacheRegistry sharedCacheRegistry;
+
   /** The command line arguments for the job. */
   protected String[] arguments;
 
@@ -2413,6 +2417,33 @@ public class Job extends Thread implements VariableSpace, NamedParams, HasLogCha
     return extensionDataMap;
   }
 
+  /**
+   * Gets the registry of the caches shared by the transformations started by this job. Sub-jobs and jobs started by a
+   * transformation share the registry of their parent. The caches are dropped when the top level job or transformation
+   * finishes.
+   *
+   * @return the shared cache registry
+   */
+  public synchronized SharedCacheRegistry getSharedCacheRegistry() {
+    if ( parentJob != null ) {
+      return parentJob.getSharedCacheRegistry();
+    }
+    if ( parentTrans != null ) {
+      return parentTrans.getSharedCacheRegistry();
+    }
+    if ( sharedCacheRegistry == null ) {
+      final SharedCacheRegistry registry = new SharedCacheRegistry();
+      addJobListener( new JobAdapter() {
+        @Override
+        public void jobFinished( Job job ) {
+          registry.close();
+        }
+      } );
+      sharedCacheRegistry = registry;
+    }
+    return sharedCacheRegistry;
+  }
+
   public Result getStartJobEntryResult() {
     return startJobEntryResult;
   }
@@ -70,6 +70,7 @@ import org.pentaho.di.core.row.RowMetaInterface;
 import org.pentaho.di.core.util.StringUtil;
 import org.pentaho.di.core.variables.VariableSpace;
 import org.pentaho.di.core.vfs.KettleVFS;
+import org.pentaho.di.core.xml.XMLDocumentCache;
 import org.pentaho.di.core.xml.XMLHandler;
 import org.pentaho.di.core.xml.XMLInterface;
 import org.pentaho.di.i18n.BaseMessages;
@@ -725,7 +726,7 @@ public class JobMeta extends AbstractMeta
     this.metaStore = metaStore;
     try {
       // OK, try to load using the VFS stuff...
-      Document doc = XMLHandler.loadXMLFile( KettleVFS.getFileObject( fname, this ) );
+      Document doc = XMLDocumentCache.loadXMLFile( KettleVFS.getFileObject( fname, this ) );
       if ( doc != null ) {
         // The jobnode
         Node jobnode = XMLHandler.getSubNode( doc, XML_TAG );
@@ -68,8 +68,11 @@ import org.pentaho.di.core.QueueRowSet;
 import org.pentaho.di.core.Result;
 import org.pentaho.di.core.ResultFile;
 import org.pentaho.di.core.RowMetaAndData;
+import org.pentaho.di.core.RingBufferRowSet;
 import org.pentaho.di.core.RowSet;
+import org.pentaho.di.core.RowSetWaitStrategy;
 import org.pentaho.di.core.SingleRowRowSet;
+import org.pentaho.di.core.cache.SharedCacheRegistry;
 import org.pentaho.di.core.database.Database;
 import org.pentaho.di.core.database.DatabaseMeta;
 import org.pentaho.di.core.database.DatabaseTransactionListener;
@@ -99,6 +102,7 @@ import org.pentaho.di.core.logging.MetricsRegistry;
 import org.pentaho.di.core.logging.PerformanceLogTable;
 import org.pentaho.di.core.logging.StepLogTable;
 import org.pentaho.di.core.logging.TransLogTable;
+import org.pentaho.di.core.memory.MemoryBudget;
 import org.pentaho.di.core.metrics.MetricsDuration;
 import org.pentaho.di.core.metrics.MetricsSnapshotInterface;
 import org.pentaho.di.core.metrics.MetricsUtil;
@@ -127,7 +131,6 @@ import org.pentaho.di.trans.cluster.TransSplitter;
 import org.pentaho.di.trans.performance.StepPerformanceSnapShot;
 import org.pentaho.di.trans.step.BaseStep;
 import org.pentaho.di.trans.step.BaseStepData.StepExecutionStatus;
-import org.pentaho.di.trans.step.RunThread;
 import org.pentaho.di.trans.step.StepAdapter;
 import org.pentaho.di.trans.step.StepDataInterface;
 import org.pentaho.di.trans.step.StepInitThread;
@@ -136,12 +139,16 @@ import org.pentaho.di.trans.step.StepListener;
 import org.pentaho.di.trans.step.StepMeta;
 import org.pentaho.di.trans.step.StepMetaDataCombi;
 import org.pentaho.di.trans.step.StepPartitioningMeta;
+import org.pentaho.di.trans.step.StepScheduler;
+import org.pentaho.di.trans.step.StepSchedulerType;
+import org.pentaho.di.trans.step.VirtualThreadStepScheduler;
 import org.pentaho.di.trans.steps.mappinginput.MappingInput;
 import org.pentaho.di.trans.steps.mappingoutput.MappingOutput;
 import org.pentaho.di.www.AddExportServlet;
 import org.pentaho.di.www.PrepareExecutionTransServlet;
 import org.pentaho.di.www.RegisterTransServlet;
 import org.pentaho.di.www.SlaveServerTransStatus;
+import org.pentaho.di.www.SlaveServerTransStatusDelta;
 import org.pentaho.di.www.SocketRepository;
 import org.pentaho.di.www.StartExecutionTransServlet;
 import org.pentaho.di.www.WebResult;
@@ -239,6 +246,17 @@ public class Trans implements VariableSpace, NamedParams, HasLogChannelInterface
   /** A list of all the steps. */
   private List<StepMetaDataCombi> steps;
 
+  /** Runs the step copies, selected with the KETTLE_STEP_SCHEDULER variable unless it is set explicitly. */
+  private StepScheduler stepScheduler;
+
+  /** The memory budget shared by the row buffers of the steps, if any. */
+  private MemoryBudget memoryBudget;
+
+  private boolean memoryBudgetRead;
+
+  /** The caches shared by the steps of this transformation and its sub-transformations, if it has no parent. */
+  private SharedCacheRegistry sharedCacheRegistry;
+
   /** The class number. */
   public int class_nr;
 
@@ -702,6 +720,13 @@ public class Trans implements VariableSpace, NamedParams, HasLogChannelInterface
 
     List<StepMeta> hopsteps = transMeta.getTransHopSteps( false );
 
+    // Lock-free row sets can be enabled per transformation for hops with a single reader and a single writer
+    //
+    boolean ringBufferRowSet = getBooleanValueOfVariable( "${" + Const.KETTLE_RING_BUFFER_ROWSET + "}", false );
+    RowSetWaitStrategy ringBufferWaitStrategy =
+        RowSetWaitStrategy.getStrategy( getVariable( Const.KETTLE_RING_BUFFER_ROWSET_WAIT_STRATEGY ),
+            RowSetWaitStrategy.PARK );
+
     if ( log.isDetailed() ) {
       log.logDetailed( BaseMessages.getString( PKG, "Trans.Log.FoundDefferentSteps", String.valueOf( hopsteps
           .size() ) ) );
@@ -792,6 +817,10 @@ public class Trans implements VariableSpace, NamedParams, HasLogChannelInterface
                     ValueMeta.convertStringToBoolean( System.getProperty( Const.KETTLE_BATCHING_ROWSET ) );
                 if ( batchingRowSet != null && batchingRowSet.booleanValue() ) {
                   rowSet = new BlockingBatchingRowSet( transMeta.getSizeRowset() );
+                } else if ( ringBufferRowSet && dispatchType == TYPE_DISP_1_1 ) {
+                  // Exactly one writing and one reading thread: no need for locking
+                  //
+                  rowSet = new RingBufferRowSet( transMeta.getSizeRowset(), ringBufferWaitStrategy );
                 } else {
                   rowSet = new BlockingRowSet( transMeta.getSizeRowset() );
                 }
@@ -1336,11 +1365,9 @@ public class Trans implements VariableSpace, NamedParams, HasLogChannelInterface
 
         // Now start all the threads...
         //
+        StepScheduler scheduler = getStepScheduler();
         for ( int i = 0; i < steps.size(); i++ ) {
           final StepMetaDataCombi combi = steps.get( i );
-          RunThread runThread = new RunThread( combi );
-          Thread thread = new Thread( runThread );
-          thread.setName( getName() + " - " + combi.stepname );
           ExtensionPointHandler.callExtensionPoint( log, KettleExtensionPoint.StepBeforeStart.id, combi );
           // Call an extension point at the end of the step
           //
@@ -1357,7 +1384,7 @@ public class Trans implements VariableSpace, NamedParams, HasLogChannelInterface
 
           } );
 
-          thread.start();
+          scheduler.startStep( this, combi );
         }
         break;
 
@@ -3206,6 +3233,99 @@ public class Trans implements VariableSpace, NamedParams, HasLogChannelInterface
     return safeModeEnabled;
   }
 
+  /**
+   * Gets the scheduler that runs the step copies of this transformation. Unless one was set, it is chosen with the
+   * KETTLE_STEP_SCHEDULER variable: "thread" (the default), "pool" or "virtual".
+   *
+   * @return the step scheduler
+   */
+  public StepScheduler getStepScheduler() {
+    if ( stepScheduler != null ) {
+      return stepScheduler;
+    }
+    StepSchedulerType type = StepSchedulerType.getStepSchedulerType( getVariable( Const.KETTLE_STEP_SCHEDULER ) );
+    if ( type == StepSchedulerType.VIRTUAL && !VirtualThreadStepScheduler.isSupported() && log.isDetailed() ) {
+      log.logDetailed( "Virtual threads are not supported by this Java runtime, running one thread per step copy." );
+    }
+    return type.getStepScheduler();
+  }
+
+  /**
+   * Sets the scheduler that runs the step copies of this transformation, overriding the KETTLE_STEP_SCHEDULER variable.
+   *
+   * @param stepScheduler
+   *          the step scheduler to use or null to use the variable
+   */
+  public void setStepScheduler( StepScheduler stepScheduler ) {
+    this.stepScheduler = stepScheduler;
+  }
+
+  /**
+   * Gets the memory budget shared by the row buffers of the steps of this transformation. Sub-transformations share the
+   * budget of their parent. The size is taken from the KETTLE_TRANS_MEMORY_BUDGET variable, the budget is part of the
+   * global budget of the JVM if there is one.
+   *
+   * @return the memory budget or null if the steps should fall back on their own memory settings
+   */
+  public synchronized MemoryBudget getMemoryBudget() {
+    if ( parentTrans != null ) {
+      return parentTrans.getMemoryBudget();
+    }
+    if ( !memoryBudgetRead ) {
+      MemoryBudget globalBudget = MemoryBudget.getGlobalInstance();
+      long limit =
+        MemoryBudget.parseSize( getVariable( Const.KETTLE_TRANS_MEMORY_BUDGET ), Runtime.getRuntime().maxMemory() );
+      if ( limit > 0 ) {
+        memoryBudget = new MemoryBudget( getName(), limit, globalBudget );
+      } else {
+        memoryBudget = globalBudget;
+      }
+      if ( memoryBudget != null && log.isDetailed() ) {
+        log.logDetailed( "Using memory budget " + memoryBudget );
+      }
+      memoryBudgetRead = true;
+    }
+    return memoryBudget;
+  }
+
+  /**
+   * Sets the memory budget shared by the row buffers of the steps, overriding the KETTLE_TRANS_MEMORY_BUDGET variable.
+   *
+   * @param memoryBudget
+   *          the memory budget or null to let the steps use their own memory settings
+   */
+  public synchronized void setMemoryBudget( MemoryBudget memoryBudget ) {
+    this.memoryBudget = memoryBudget;
+    this.memoryBudgetRead = true;
+  }
+
+  /**
+   * Gets the registry of the caches shared by the step copies of this transformation. Sub-transformations and
+   * transformations started by a job share the registry of their parent, so that they can reuse each other's caches.
+   * The caches are dropped when the top level transformation or job finishes.
+   *
+   * @return the shared cache registry
+   */
+  public synchronized SharedCacheRegistry getSharedCacheRegistry() {
+    if ( parentTrans != null ) {
+      return parentTrans.getSharedCacheRegistry();
+    }
+    if ( parentJob != null ) {
+      return parentJob.getSharedCacheRegistry();
+    }
+    if ( sharedCacheRegistry == null ) {
+      final SharedCacheRegistry registry = new SharedCacheRegistry();
+      addTransListener( new TransAdapter() {
+        @Override
+        public void transFinished( Trans trans ) {
+          registry.close();
+        }
+      } );
+      sharedCacheRegistry = registry;
+    }
+    return sharedCacheRegistry;
+  }
+
   /**
    * This adds a row producer to the transformation that just got set up. It is preferable to run this BEFORE execute()
    * but after prepareExecution()
@@ -3775,6 +3895,9 @@ public class Trans implements VariableSpace, NamedParams, HasLogChannelInterface
    * When the master and slave transformations have all finished, we should also run<br>
    * a cleanup on those transformations to release sockets, etc.<br>
    * <br>
+   * The status is asked from the incremental status service, so only what changed since the previous poll is sent.<br>
+   * Slave servers without that service are asked for the complete status instead.<br>
+   * <br>
    *
    * @param log
    *          the subject to use for logging
@@ -3810,6 +3933,17 @@ public class Trans implements VariableSpace, NamedParams, HasLogChannelInterface
     }
     TransMeta masterTransMeta = transSplitter.getMaster();
 
+    // The incremental status service only sends what changed since the previous request
+    //
+    SlaveServerTransStatusDelta[] slaveStatus = new SlaveServerTransStatusDelta[slaveServers.length];
+    for ( int s = 0; s < slaveServers.length; s++ ) {
+      slaveStatus[s] = new SlaveServerTransStatusDelta( slaves[s].getName(), carteObjectMap.get( slaves[s] ) );
+    }
+    SlaveServerTransStatusDelta masterStatus = masterTransMeta == null ? null
+        : new SlaveServerTransStatusDelta( masterTransMeta.getName(), carteObjectMap.get( masterTransMeta ) );
+    boolean[] slaveFallback = new boolean[slaveServers.length];
+    boolean masterFallback = false;
+
     boolean allFinished = false;
     while ( !allFinished && errors == 0 && ( parentJob == null || !parentJob.isStopped() ) ) {
       allFinished = true;
@@ -3819,9 +3953,28 @@ public class Trans implements VariableSpace, NamedParams, HasLogChannelInterface
       //
       for ( int s = 0; s < slaveServers.length && allFinished && errors == 0; s++ ) {
         try {
-          String carteObjectId = carteObjectMap.get( slaves[s] );
-          SlaveServerTransStatus transStatus = slaveServers[s].getTransStatus( slaves[s].getName(), carteObjectId, 0 );
-          if ( transStatus.isRunning() ) {
+          SlaveServerTransStatusDelta delta = null;
+          if ( !slaveFallback[s] ) {
+            delta = slaveServers[s].getTransStatusDelta( slaveStatus[s], 0L );
+            if ( delta == null ) {
+              log.logBasic( "Slave server '" + slaveServers[s].getName()
+                  + "' doesn't have the incremental status service, asking for the complete status instead." );
+              slaveFallback[s] = true;
+            }
+          }
+          boolean running;
+          long nrErrors;
+          if ( delta != null ) {
+            running = delta.isRunning();
+            nrErrors = delta.getErrors();
+          } else {
+            String carteObjectId = carteObjectMap.get( slaves[s] );
+            SlaveServerTransStatus transStatus =
+                slaveServers[s].getTransStatus( slaves[s].getName(), carteObjectId, 0 );
+            running = transStatus.isRunning();
+            nrErrors = transStatus.getNrStepErrors();
+          }
+          if ( running ) {
             if ( log.isDetailed() ) {
               log.logDetailed( "Slave transformation on '" + slaveServers[s] + "' is still running." );
             }
@@ -3831,7 +3984,7 @@ public class Trans implements VariableSpace, NamedParams, HasLogChannelInterface
               log.logDetailed( "Slave transformation on '" + slaveServers[s] + "' has finished." );
             }
           }
-          errors += transStatus.getNrStepErrors();
+          errors += nrErrors;
         } catch ( Exception e ) {
           errors += 1;
           log.logError( "Unable to contact slave server '" + slaveServers[s].getName()
@@ -3842,10 +3995,28 @@ public class Trans implements VariableSpace, NamedParams, HasLogChannelInterface
       // Check the master too
       if ( allFinished && errors == 0 && masterTransMeta != null && masterTransMeta.nrSteps() > 0 ) {
         try {
-          String carteObjectId = carteObjectMap.get( masterTransMeta );
-          SlaveServerTransStatus transStatus =
-              masterServer.getTransStatus( masterTransMeta.getName(), carteObjectId, 0 );
-          if ( transStatus.isRunning() ) {
+          SlaveServerTransStatusDelta delta = null;
+          if ( !masterFallback ) {
+            delta = masterServer.getTransStatusDelta( masterStatus, 0L );
+            if ( delta == null ) {
+              log.logBasic( "Master server '" + masterServer.getName()
+                  + "' doesn't have the incremental status service, asking for the complete status instead." );
+              masterFallback = true;
+            }
+          }
+          boolean running;
+          long nrErrors;
+          if ( delta != null ) {
+            running = delta.isRunning();
+            nrErrors = delta.getErrors();
+          } else {
+            String carteObjectId = carteObjectMap.get( masterTransMeta );
+            SlaveServerTransStatus transStatus =
+                masterServer.getTransStatus( masterTransMeta.getName(), carteObjectId, 0 );
+            running = transStatus.isRunning();
+            nrErrors = transStatus.getResult( transSplitter.getOriginalTransformation() ).getNrErrors();
+          }
+          if ( running ) {
             if ( log.isDetailed() ) {
               log.logDetailed( "Master transformation is still running." );
             }
@@ -3855,8 +4026,7 @@ public class Trans implements VariableSpace, NamedParams, HasLogChannelInterface
               log.logDetailed( "Master transformation has finished." );
             }
           }
-          Result result = transStatus.getResult( transSplitter.getOriginalTransformation() );
-          errors += result.getNrErrors();
+          errors += nrErrors;
         } catch ( Exception e ) {
           errors += 1;
           log.logError( "Unable to contact master server '" + masterServer.getName()
@@ -90,6 +90,7 @@ import org.pentaho.di.core.undo.TransAction;
 import org.pentaho.di.core.util.StringUtil;
 import org.pentaho.di.core.variables.VariableSpace;
 import org.pentaho.di.core.vfs.KettleVFS;
+import org.pentaho.di.core.xml.XMLDocumentCache;
 import org.pentaho.di.core.xml.XMLHandler;
 import org.pentaho.di.core.xml.XMLInterface;
 import org.pentaho.di.i18n.BaseMessages;
@@ -2713,7 +2714,7 @@ public class TransMeta extends AbstractMeta
     // OK, try to load using the VFS stuff...
     Document doc = null;
     try {
-      doc = XMLHandler.loadXMLFile( KettleVFS.getFileObject( fname, parentVariableSpace ) );
+      doc = XMLDocumentCache.loadXMLFile( KettleVFS.getFileObject( fname, parentVariableSpace ) );
     } catch ( KettleFileException e ) {
       throw new KettleXMLException( BaseMessages.getString(
         PKG, "TransMeta.Exception.ErrorOpeningOrValidatingTheXMLFile", fname ), e );
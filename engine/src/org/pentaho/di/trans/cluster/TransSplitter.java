@@ -60,6 +60,7 @@ import org.pentaho.di.trans.step.RemoteStep;
 import org.pentaho.di.trans.step.StepMeta;
 import org.pentaho.di.trans.step.StepPartitioningMeta;
 import org.pentaho.di.trans.steps.dummytrans.DummyTransMeta;
+import org.pentaho.di.trans.steps.memgroupby.MemoryGroupByMeta;
 import org.pentaho.di.trans.steps.socketreader.SocketReaderMeta;
 import org.pentaho.di.trans.steps.socketwriter.SocketWriterMeta;
 
@@ -75,6 +76,9 @@ public class TransSplitter {
   private static final int FANOUT = 30;
   private static final int SPLIT = 120;
 
+  /** The step name the port of a multiplexed transport is allocated for */
+  private static final String MULTIPLEXED_TRANSPORT = "multiplexed transport";
+
   private TransMeta originalTransformation;
   private Map<SlaveServer, TransMeta> slaveTransMap;
   private TransMeta masterTransMeta;
@@ -93,6 +97,10 @@ public class TransSplitter {
 
   private Map<String, Integer> portCache;
 
+  /** The logical streams of the remote steps when they share a connection per pair of slave servers */
+  private Map<String, Integer> streamIdCache;
+  private boolean multiplexingStreams;
+
   private Map<TransMeta, String> carteObjectMap;
 
   private String clusteredRunId;
@@ -105,6 +113,7 @@ public class TransSplitter {
     slaveTransMap = new Hashtable<SlaveServer, TransMeta>();
     slaveStepPartitionFlag = new Hashtable<TransMeta, Map<StepMeta, String>>();
     portCache = new Hashtable<String, Integer>();
+    streamIdCache = new Hashtable<String, Integer>();
     carteObjectMap = new Hashtable<TransMeta, String>();
 
     clusteredRunId = UUID.randomUUID().toString();
@@ -158,6 +167,56 @@ public class TransSplitter {
       clusterSchema.setDynamic( false );
       clusterSchema.setSlaveServers( slaveServers );
     }
+
+    // Aggregate on the slaves before sending the rows to the master
+    //
+    if ( "Y".equalsIgnoreCase( this.originalTransformation.getVariable( Const.KETTLE_CLUSTER_PARTIAL_AGGREGATION,
+      "Y" ) ) ) {
+      insertPartialAggregationSteps();
+    }
+  }
+
+  /**
+   * Lets every slave pre-aggregate the rows it sends to a Memory Group By step running on the master. A copy of the
+   * step is inserted in partial aggregation mode on the slaves and the original step merges the intermediate states in
+   * final mode. This way only a row per group and slave travels over the network instead of every input row.
+   */
+  protected void insertPartialAggregationSteps() {
+    List<StepMeta> steps = new ArrayList<StepMeta>( originalTransformation.getSteps() );
+    for ( StepMeta stepMeta : steps ) {
+      if ( stepMeta.isClustered() || !( stepMeta.getStepMetaInterface() instanceof MemoryGroupByMeta ) ) {
+        continue;
+      }
+      MemoryGroupByMeta groupByMeta = (MemoryGroupByMeta) stepMeta.getStepMetaInterface();
+      if ( groupByMeta.getAggregationMode() != MemoryGroupByMeta.AGGREGATION_MODE_NORMAL
+        || !groupByMeta.isPartialAggregationSupported() ) {
+        continue;
+      }
+      List<StepMeta> previousSteps = originalTransformation.findPreviousSteps( stepMeta );
+      if ( previousSteps.size() != 1 || !previousSteps.get( 0 ).isClustered() ) {
+        continue;
+      }
+      StepMeta previousStep = previousSteps.get( 0 );
+      TransHopMeta hop = originalTransformation.findTransHop( previousStep, stepMeta );
+      if ( hop == null ) {
+        continue;
+      }
+
+      StepMeta partialStep = (StepMeta) stepMeta.clone();
+      partialStep.setName( originalTransformation.getAlternativeStepname( stepMeta.getName() + " (partial)" ) );
+      partialStep.setClusterSchema( previousStep.getClusterSchema() );
+      ( (MemoryGroupByMeta) partialStep.getStepMetaInterface() )
+        .setAggregationMode( MemoryGroupByMeta.AGGREGATION_MODE_PARTIAL );
+      if ( stepMeta.getLocation() != null ) {
+        partialStep.setLocation( stepMeta.getLocation().x, stepMeta.getLocation().y + 50 );
+      }
+      groupByMeta.setAggregationMode( MemoryGroupByMeta.AGGREGATION_MODE_FINAL );
+
+      originalTransformation.addStep( partialStep );
+      originalTransformation.removeTransHop( hop );
+      originalTransformation.addTransHop( new TransHopMeta( previousStep, partialStep ) );
+      originalTransformation.addTransHop( new TransHopMeta( partialStep, stepMeta ) );
+    }
   }
 
   /**
@@ -176,6 +235,9 @@ public class TransSplitter {
   }
 
   private void checkClusterConfiguration() throws KettleException {
+    multiplexingStreams =
+      "Y".equalsIgnoreCase( originalTransformation.getVariable( Const.KETTLE_CLUSTER_MULTIPLEXED_TRANSPORT, "N" ) );
+
     Map<String, ClusterSchema> map = new Hashtable<String, ClusterSchema>();
     List<StepMeta> steps = originalTransformation.getSteps();
     for ( int i = 0; i < steps.size(); i++ ) {
@@ -279,6 +341,55 @@ public class TransSplitter {
     return port;
   }
 
+  /**
+   * Get the port for a remote step. With a multiplexed transport all remote steps writing from the same slave server
+   * share its port, otherwise every remote step gets a port of its own.
+   */
+  private int getRemoteStepPort( ClusterSchema clusterSchema, SlaveServer sourceSlave, String sourceStepName,
+    int sourceStepCopy, SlaveServer targetSlave, String targetStepName, int targetStepCopy ) throws Exception {
+    if ( !multiplexingStreams ) {
+      return getPort(
+        clusterSchema, sourceSlave, sourceStepName, sourceStepCopy, targetSlave, targetStepName, targetStepCopy );
+    }
+
+    String portCacheKey = clusteredRunId + "/" + sourceSlave.getHostname() + sourceSlave.getName() + "/transport";
+    Integer portNumber = portCache.get( portCacheKey );
+    if ( portNumber != null ) {
+      return portNumber.intValue();
+    }
+
+    String realHostname = sourceSlave.environmentSubstitute( sourceSlave.getHostname() );
+    int port =
+      clusterSchema.findMaster().allocateServerSocket(
+        clusteredRunId, Const.toInt( clusterSchema.getBasePort(), 40000 ), realHostname,
+        originalTransformation.getName(), sourceSlave.getName(), MULTIPLEXED_TRANSPORT, "0", sourceSlave.getName(),
+        MULTIPLEXED_TRANSPORT, "0" );
+
+    portCache.put( portCacheKey, port );
+
+    return port;
+  }
+
+  /**
+   * @return the logical stream of a remote step on the port of the multiplexed transport, 0 if every remote step gets a
+   *         port of its own.
+   */
+  private int getStreamId( ClusterSchema clusterSchema, SlaveServer sourceSlave, String sourceStepName,
+    int sourceStepCopy, SlaveServer targetSlave, String targetStepName, int targetStepCopy ) {
+    if ( !multiplexingStreams ) {
+      return 0;
+    }
+    String streamKey =
+      createPortCacheKey(
+        sourceSlave, sourceStepName, sourceStepCopy, targetSlave, targetStepName, targetStepCopy );
+    Integer streamId = streamIdCache.get( streamKey );
+    if ( streamId == null ) {
+      streamId = streamIdCache.size() + 1;
+      streamIdCache.put( streamKey, streamId );
+    }
+    return streamId;
+  }
+
   public String createPortCacheKey( SlaveServer sourceSlave, String sourceStepName, int sourceStepCopy,
     SlaveServer targetSlave, String targetStepName, int targetStepCopy ) {
     return clusteredRunId
@@ -590,7 +701,11 @@ public class TransSplitter {
                     // So the source is the slave server, the target the master.
                     //
                     int port =
-                      getPort(
+                      getRemoteStepPort(
+                        clusterSchema, sourceSlaveServer, slaveStep.getName(), sourceCopyNr,
+                        masterSlaveServer, masterStep.getName(), masterStepCopyNr );
+                    int streamId =
+                      getStreamId(
                         clusterSchema, sourceSlaveServer, slaveStep.getName(), sourceCopyNr,
                         masterSlaveServer, masterStep.getName(), masterStepCopyNr );
 
@@ -603,6 +718,7 @@ public class TransSplitter {
                           .getStepFields( previousStep ) );
                     remoteMasterStep.setEncryptingStreams( encrypt );
                     remoteMasterStep.setKey( transformationKey );
+                    remoteMasterStep.setStreamId( streamId );
                     masterStep.getRemoteInputSteps().add( remoteMasterStep );
 
                     RemoteStep remoteSlaveStep =
@@ -614,6 +730,7 @@ public class TransSplitter {
                           .getStepFields( previousStep ) );
                     remoteSlaveStep.setEncryptingStreams( encrypt );
                     remoteSlaveStep.setKey( transformationKey );
+                    remoteSlaveStep.setStreamId( streamId );
                     slaveStep.getRemoteOutputSteps().add( remoteSlaveStep );
 
                     // OK, create a partition number for the target step in the partition distribution...
@@ -736,7 +853,11 @@ public class TransSplitter {
                     // So the IP address should be the same, in this case, the master...
                     //
                     int port =
-                      getPort(
+                      getRemoteStepPort(
+                        clusterSchema, masterSlaveServer, sourceStep.getName(), masterStepCopyNr,
+                        targetSlaveServer, referenceStep.getName(), targetCopyNr );
+                    int streamId =
+                      getStreamId(
                         clusterSchema, masterSlaveServer, sourceStep.getName(), masterStepCopyNr,
                         targetSlaveServer, referenceStep.getName(), targetCopyNr );
 
@@ -749,6 +870,7 @@ public class TransSplitter {
                           .getStepFields( previousStep ) );
                     remoteMasterStep.setEncryptingStreams( encrypt );
                     remoteMasterStep.setKey( transformationKey );
+                    remoteMasterStep.setStreamId( streamId );
                     sourceStep.getRemoteOutputSteps().add( remoteMasterStep );
 
                     RemoteStep remoteSlaveStep =
@@ -760,6 +882,7 @@ public class TransSplitter {
                           .getStepFields( previousStep ) );
                     remoteSlaveStep.setEncryptingStreams( encrypt );
                     remoteSlaveStep.setKey( transformationKey );
+                    remoteSlaveStep.setStreamId( streamId );
                     targetStep.getRemoteInputSteps().add( remoteSlaveStep );
 
                     // OK, create a partition number for the target step in the partition distribution...
@@ -951,7 +1074,11 @@ public class TransSplitter {
                               // That's why it's OK to generate all combinations.
                               //
                               int outPort =
-                                getPort(
+                                getRemoteStepPort(
+                                  clusterSchema, targetSlaveServer, sourceStep.getName(), sourceCopyNr,
+                                  sourceSlaveServer, targetStep.getName(), targetCopyNr );
+                              int outStreamId =
+                                getStreamId(
                                   clusterSchema, targetSlaveServer, sourceStep.getName(), sourceCopyNr,
                                   sourceSlaveServer, targetStep.getName(), targetCopyNr );
                               RemoteStep remoteOutputStep =
@@ -963,13 +1090,18 @@ public class TransSplitter {
                                   originalTransformation.getStepFields( previousStep ) );
                               remoteOutputStep.setEncryptingStreams( encrypt );
                               remoteOutputStep.setKey( transformationKey );
+                              remoteOutputStep.setStreamId( outStreamId );
                               sourceStep.getRemoteOutputSteps().add( remoteOutputStep );
 
                               // OK, so the source step is sending rows out on the reserved ports
                               // What we need to do now is link all the OTHER slaves up to them.
                               //
                               int inPort =
-                                getPort(
+                                getRemoteStepPort(
+                                  clusterSchema, sourceSlaveServer, sourceStep.getName(), sourceCopyNr,
+                                  targetSlaveServer, targetStep.getName(), targetCopyNr );
+                              int inStreamId =
+                                getStreamId(
                                   clusterSchema, sourceSlaveServer, sourceStep.getName(), sourceCopyNr,
                                   targetSlaveServer, targetStep.getName(), targetCopyNr );
                               RemoteStep remoteInputStep =
@@ -981,6 +1113,7 @@ public class TransSplitter {
                                   originalTransformation.getStepFields( previousStep ) );
                               remoteInputStep.setEncryptingStreams( encrypt );
                               remoteInputStep.setKey( transformationKey );
+                              remoteInputStep.setStreamId( inStreamId );
                               targetStep.getRemoteInputSteps().add( remoteInputStep );
                             }
                             // OK, save the partition number for the target step in the partition distribution...
@@ -37,16 +37,21 @@ import java.util.Hashtable;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
+import org.pentaho.di.core.BatchRowSet;
 import org.pentaho.di.core.BlockingRowSet;
 import org.pentaho.di.core.Const;
 import org.pentaho.di.core.ExtensionDataInterface;
+import org.pentaho.di.core.NotifyingRowSet;
 import org.pentaho.di.core.ResultFile;
+import org.pentaho.di.core.RowBatch;
 import org.pentaho.di.core.RowMetaAndData;
 import org.pentaho.di.core.RowSet;
+import org.pentaho.di.core.RowSetNotifier;
 import org.pentaho.di.core.exception.KettleException;
 import org.pentaho.di.core.exception.KettleRowException;
 import org.pentaho.di.core.exception.KettleStepException;
@@ -269,7 +274,10 @@ public class BaseStep implements VariableSpace, StepInterface, LoggingObjectInte
 
   private StepDataInterface stepDataInterface;
 
-  /** The list of RowListener interfaces */
+  /**
+   * The list of RowListener interfaces. This is a copy-on-write list: listeners are only added or removed in
+   * preview/sniff situations while the list is read for every row, without locking.
+   */
   private List<RowListener> rowListeners;
 
   /**
@@ -341,6 +349,12 @@ public class BaseStep implements VariableSpace, StepInterface, LoggingObjectInte
 
   private int blockPointer;
 
+  /** Wakes up getRow() when one of several input row sets receives a row, created on first use. */
+  private RowSetNotifier inputRowSetNotifier;
+
+  /** Set when one of the input row sets can't signal a notifier, they are polled in turn then. */
+  private boolean pollingInputRowSets;
+
   /**
    * A flag to indicate that clustered partitioning was not yet initialized
    */
@@ -482,7 +496,7 @@ public class BaseStep implements VariableSpace, StepInterface, LoggingObjectInte
       }
     }
 
-    rowListeners = new ArrayList<RowListener>();
+    rowListeners = new CopyOnWriteArrayList<RowListener>();
     resultFiles = new HashMap<String, ResultFile>();
     resultFilesLock = new ReentrantReadWriteLock(  );
 
@@ -857,6 +871,20 @@ public class BaseStep implements VariableSpace, StepInterface, LoggingObjectInte
     }
   }
 
+  /**
+   * Adds a number of rows to the number of lines read from previous steps.
+   *
+   * @param nrRows
+   *          the number of rows read
+   * @return Returns the new value
+   */
+  private long addLinesRead( long nrRows ) {
+    synchronized ( statusCountersLock ) {
+      linesRead += nrRows;
+      return linesRead;
+    }
+  }
+
   /**
    * Decrements the number of lines read from previous steps by one
    *
@@ -958,6 +986,20 @@ public class BaseStep implements VariableSpace, StepInterface, LoggingObjectInte
     }
   }
 
+  /**
+   * Adds a number of rows to the number of lines written to next steps.
+   *
+   * @param nrRows
+   *          the number of rows written
+   * @return Returns the new value
+   */
+  private long addLinesWritten( long nrRows ) {
+    synchronized ( statusCountersLock ) {
+      linesWritten += nrRows;
+      return linesWritten;
+    }
+  }
+
   /**
    * Decrements the number of lines written to next steps by one
    *
@@ -1221,9 +1263,8 @@ public class BaseStep implements VariableSpace, StepInterface, LoggingObjectInte
 
     // call all row listeners...
     //
-    synchronized ( rowListeners ) {
-      for ( int i = 0; i < rowListeners.size(); i++ ) {
-        RowListener rowListener = rowListeners.get( i );
+    if ( !rowListeners.isEmpty() ) {
+      for ( RowListener rowListener : rowListeners ) {
         rowListener.rowWrittenEvent( rowMeta, row );
       }
     }
@@ -1519,6 +1560,81 @@ public class BaseStep implements VariableSpace, StepInterface, LoggingObjectInte
     }
   }
 
+  /**
+   * putRows is the batch equivalent of {@link #putRow(RowMetaInterface, Object[])}: the pause, stop and start-up checks
+   * are done once for the whole batch and the rows are handed over to the output rowset in bulk. In the cases where
+   * every row needs individual treatment (row listeners, partitioning, distribution over multiple output rowsets, ...)
+   * or when the output rowset can't take batches, the rows are passed to putRow() one by one.
+   *
+   * @param rowMeta
+   *          The row meta-data of the rows in the batch
+   * @param batch
+   *          The rows to put to the destination rowset(s).
+   * @throws KettleStepException
+   */
+  public void putRows( RowMetaInterface rowMeta, RowBatch batch ) throws KettleStepException {
+    int nrRows = batch.size();
+    if ( nrRows == 0 ) {
+      return;
+    }
+
+    if ( nrRows == 1 || !rowListeners.isEmpty() || ( terminator && terminator_rows != null )
+      || repartitioning != StepPartitioningMeta.PARTITIONING_METHOD_NONE || outputRowSets.size() > 1
+      || ( distributed && rowDistribution != null )
+      || ( outputRowSets.size() == 1 && !( outputRowSets.get( 0 ) instanceof BatchRowSet ) ) ) {
+      for ( int i = 0; i < nrRows; i++ ) {
+        putRow( rowMeta, batch.get( i ) );
+      }
+      return;
+    }
+
+    // Are we pausing the step? If so, stall forever...
+    //
+    while ( paused.get() && !stopped.get() ) {
+      try {
+        Thread.sleep( 1 );
+      } catch ( InterruptedException e ) {
+        throw new KettleStepException( e );
+      }
+    }
+
+    if ( stopped.get() ) {
+      if ( log.isDebug() ) {
+        logDebug( BaseMessages.getString( PKG, "BaseStep.Log.StopPuttingARow" ) );
+      }
+      stopAll();
+      return;
+    }
+
+    waitUntilTransformationIsStarted();
+
+    if ( outputRowSets.isEmpty() ) {
+      // No more output rowsets!
+      // Still update the nr of lines written.
+      //
+      addLinesWritten( nrRows );
+      return;
+    }
+
+    BatchRowSet rs = (BatchRowSet) outputRowSets.get( 0 );
+    RowMetaInterface toBeSent = rs.getRowMeta();
+    if ( toBeSent == null ) {
+      // RowSet is not initialised so far
+      toBeSent = rowMeta.clone();
+    }
+
+    int offset = 0;
+    while ( offset < nrRows ) {
+      int added = rs.putRows( toBeSent, batch, offset );
+      if ( added > 0 ) {
+        offset += added;
+        addLinesWritten( added );
+      } else if ( isStopped() ) {
+        return;
+      }
+    }
+  }
+
   /**
    * putRowTo is used to put a row in a certain specific RowSet.
    *
@@ -1545,9 +1661,8 @@ public class BaseStep implements VariableSpace, StepInterface, LoggingObjectInte
 
     // call all row listeners...
     //
-    synchronized ( rowListeners ) {
-      for ( int i = 0; i < rowListeners.size(); i++ ) {
-        RowListener rowListener = rowListeners.get( i );
+    if ( !rowListeners.isEmpty() ) {
+      for ( RowListener rowListener : rowListeners ) {
         rowListener.rowWrittenEvent( rowMeta, row );
       }
     }
@@ -1626,9 +1741,8 @@ public class BaseStep implements VariableSpace, StepInterface, LoggingObjectInte
       errorRowData, rowMeta.size(), nrErrors, errorDescriptions, fieldNames, errorCodes );
 
     // call all row listeners...
-    synchronized ( rowListeners ) {
-      for ( int i = 0; i < rowListeners.size(); i++ ) {
-        RowListener rowListener = rowListeners.get( i );
+    if ( !rowListeners.isEmpty() ) {
+      for ( RowListener rowListener : rowListeners ) {
         rowListener.errorRowWrittenEvent( rowMeta, row );
       }
     }
@@ -1685,6 +1799,29 @@ public class BaseStep implements VariableSpace, StepInterface, LoggingObjectInte
     return inputRowSets.get( currentInputRowSetNr );
   }
 
+  /**
+   * Gets the notifier that is signalled by all the input row sets, registering it with them the first time around.
+   *
+   * @return the input row set notifier or null if one of the input row sets can't signal it
+   */
+  private RowSetNotifier getInputRowSetNotifier() {
+    if ( inputRowSetNotifier == null && !pollingInputRowSets ) {
+      synchronized ( inputRowSets ) {
+        for ( RowSet rowSet : inputRowSets ) {
+          if ( !( rowSet instanceof NotifyingRowSet ) ) {
+            pollingInputRowSets = true;
+            return null;
+          }
+        }
+        inputRowSetNotifier = new RowSetNotifier();
+        for ( RowSet rowSet : inputRowSets ) {
+          ( (NotifyingRowSet) rowSet ).setRowSetNotifier( inputRowSetNotifier );
+        }
+      }
+    }
+    return inputRowSetNotifier;
+  }
+
   /**
    * Find the next not-finished input-stream... in_handling says which one...
    */
@@ -1818,12 +1955,27 @@ public class BaseStep implements VariableSpace, StepInterface, LoggingObjectInte
     // rowset, then switch to another etc.
     // We can use timeouts to switch from one to another...
     //
+    // When there is more than one row set to read from, we don't wait on any
+    // of them in particular. Once all of them turned out to be empty, we
+    // sleep until one of them signals that it received a row or is done.
+    // Row sets that can't signal are waited on for a moment in turn instead.
+    //
+    int emptyRowSets = 0;
     while ( row == null && !isStopped() ) {
+      boolean multipleInputs = inputRowSets.size() > 1 && getInputRowSetNotifier() != null;
+
       // Get a row from the input in row set ...
       // Timeout immediately if nothing is there to read.
       // We will then switch to the next row set to read from...
       //
-      row = inputRowSet.getRowWait( 1, TimeUnit.MILLISECONDS );
+      if ( multipleInputs ) {
+        if ( emptyRowSets == 0 ) {
+          getInputRowSetNotifier().clear();
+        }
+        row = inputRowSet.getRowImmediate();
+      } else {
+        row = inputRowSet.getRowWait( 1, TimeUnit.MILLISECONDS );
+      }
       if ( row != null ) {
         incrementLinesRead();
         blockPointer++;
@@ -1834,16 +1986,25 @@ public class BaseStep implements VariableSpace, StepInterface, LoggingObjectInte
         // the input stream and move on to the next one...
         //
         if ( inputRowSet.isDone() ) {
-          row = inputRowSet.getRowWait( 1, TimeUnit.MILLISECONDS );
+          if ( multipleInputs ) {
+            row = inputRowSet.getRowImmediate();
+          } else {
+            row = inputRowSet.getRowWait( 1, TimeUnit.MILLISECONDS );
+          }
           if ( row == null ) {
             inputRowSets.remove( currentInputRowSetNr );
             if ( inputRowSets.isEmpty() ) {
               return null; // We're completely done.
             }
+            emptyRowSets = -1; // start scanning the remaining row sets all over
           } else {
             incrementLinesRead();
           }
         }
+        if ( row == null && multipleInputs && ++emptyRowSets >= inputRowSets.size() ) {
+          getInputRowSetNotifier().await( Const.TIMEOUT_GET_MILLIS, TimeUnit.MILLISECONDS );
+          emptyRowSets = 0;
+        }
         nextInputStream();
         inputRowSet = currentInputStream();
       }
@@ -1885,9 +2046,8 @@ public class BaseStep implements VariableSpace, StepInterface, LoggingObjectInte
         }
       }
 
-      synchronized ( rowListeners ) {
-        for ( int i = 0; i < rowListeners.size(); i++ ) {
-          RowListener rowListener = rowListeners.get( i );
+      if ( !rowListeners.isEmpty() ) {
+        for ( RowListener rowListener : rowListeners ) {
           rowListener.rowReadEvent( inputRowMeta, row );
         }
       }
@@ -1899,6 +2059,62 @@ public class BaseStep implements VariableSpace, StepInterface, LoggingObjectInte
     return row;
   }
 
+  /**
+   * getRows is the batch equivalent of {@link #getRow()}. It waits for the next row just like getRow() does and then
+   * adds the rows that are immediately available in the same input rowset to the batch, up to its capacity. Rowsets
+   * that can't hand over batches deliver one row per call.
+   *
+   * @param batch
+   *          the batch to re-use. It is cleared first.
+   * @return the batch with at least one row or null if there are no more rows to be expected from the previous steps.
+   * @throws KettleException
+   */
+  public RowBatch getRows( RowBatch batch ) throws KettleException {
+    batch.clear();
+
+    Object[] row = getRow();
+    if ( row == null ) {
+      return null;
+    }
+    batch.setRowMeta( inputRowMeta );
+    batch.add( row );
+
+    if ( batch.isFull() || currentInputRowSetNr >= inputRowSets.size() ) {
+      return batch;
+    }
+
+    // The row we just received came from the current input rowset: take what else is waiting there.
+    //
+    RowSet inputRowSet = currentInputStream();
+    if ( !( inputRowSet instanceof BatchRowSet ) ) {
+      return batch;
+    }
+    int nrRows = ( (BatchRowSet) inputRowSet ).getRows( batch, batch.remaining() );
+    if ( nrRows > 0 ) {
+      addLinesRead( nrRows );
+      blockPointer += nrRows;
+
+      if ( trans.isSafeModeEnabled() ) {
+        for ( int i = batch.size() - nrRows; i < batch.size(); i++ ) {
+          if ( batch.get( i ).length < inputRowMeta.size() ) {
+            throw new KettleException( "Safe mode check noticed that the length of the row data is smaller ("
+              + batch.get( i ).length + ") than the row metadata size (" + inputRowMeta.size() + ")" );
+          }
+        }
+      }
+
+      if ( !rowListeners.isEmpty() ) {
+        for ( RowListener rowListener : rowListeners ) {
+          for ( int i = batch.size() - nrRows; i < batch.size(); i++ ) {
+            rowListener.rowReadEvent( inputRowMeta, batch.get( i ) );
+          }
+        }
+      }
+    }
+
+    return batch;
+  }
+
   /**
    * Opens socket connections to the remote input steps of this step. <br>
    * This method should be used by steps that don't call getRow() first in which it is executed automatically. <br>
@@ -2165,9 +2381,8 @@ public class BaseStep implements VariableSpace, StepInterface, LoggingObjectInte
 
     // call all rowlisteners...
     //
-    synchronized ( rowListeners ) {
-      for ( int i = 0; i < rowListeners.size(); i++ ) {
-        RowListener rowListener = rowListeners.get( i );
+    if ( !rowListeners.isEmpty() ) {
+      for ( RowListener rowListener : rowListeners ) {
         rowListener.rowReadEvent( rowSet.getRowMeta(), rowData );
       }
     }
@@ -3262,6 +3477,8 @@ public class BaseStep implements VariableSpace, StepInterface, LoggingObjectInte
    */
   public void setInputRowSets( List<RowSet> inputRowSets ) {
     this.inputRowSets = inputRowSets;
+    this.inputRowSetNotifier = null;
+    this.pollingInputRowSets = false;
   }
 
   /**
@@ -3479,6 +3696,23 @@ public class BaseStep implements VariableSpace, StepInterface, LoggingObjectInte
       && ( lines % getTransMeta().getFeedbackSize() ) == 0;
   }
 
+  /**
+   * Batch version of {@link #checkFeedback(long)}: checks if feedback needs to be given for any of the line numbers
+   * after previousLines, up to and including lines.
+   *
+   * @param previousLines
+   *          the number of lines before the batch was processed
+   * @param lines
+   *          the number of lines after the batch was processed
+   * @return true if a feedback line needs to be logged
+   */
+  protected boolean checkFeedback( long previousLines, long lines ) {
+    int feedbackSize = getTransMeta().getFeedbackSize();
+    return getTransMeta().isFeedbackShown()
+      && ( lines > 0 ) && ( feedbackSize > 0 )
+      && ( lines / feedbackSize ) != ( previousLines / feedbackSize );
+  }
+
   /**
    * @return the rowMeta
    */
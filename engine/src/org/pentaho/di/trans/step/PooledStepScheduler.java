@@ -0,0 +1,293 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2016 by Pentaho : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+
+package org.pentaho.di.trans.step;
+
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.pentaho.di.core.Const;
+import org.pentaho.di.core.RowSet;
+import org.pentaho.di.core.logging.LogChannel;
+import org.pentaho.di.i18n.BaseMessages;
+import org.pentaho.di.trans.Trans;
+
+/**
+ * Runs the step copies of all transformations on a bounded pool of threads. Instead of looping until the step is done,
+ * a step copy processes a limited number of rows per turn and hands its thread back to the pool as soon as it has no
+ * input rows to read or no room left in its output row sets. It is then scheduled again after a short pause.<br>
+ * <br>
+ * Some steps still wait for rows inside processRow(), for example to read an info stream. When all the threads of the
+ * pool are tied up like that and no step makes any progress, the pool grows by one thread at a time, up to a maximum
+ * size. Once the transformations are running smoothly again, it shrinks back to its configured size.<br>
+ * <br>
+ * Steps implementing {@link ThreadBoundStep} can't move from one thread to another and get a thread of their own.
+ *
+ * @since 17-10-2016
+ *
+ */
+public class PooledStepScheduler implements StepScheduler {
+  private static Class<?> PKG = BaseStep.class; // for i18n purposes, needed by Translator2!!
+
+  /** The maximum number of times processRow() is called before the thread is handed to the next step copy */
+  private static final int ROWS_PER_TURN = 1000;
+
+  /** The longest pause before a step copy without work is scheduled again, in microseconds */
+  private static final long MAX_IDLE_MICROS = 1000;
+
+  /** How often the pool is checked for steps that don't make progress, in milliseconds */
+  private static final long WATCHDOG_INTERVAL_MILLIS = 200;
+
+  /** The default number of threads the pool can grow to */
+  private static final int DEFAULT_MAX_POOL_SIZE = 256;
+
+  private static PooledStepScheduler instance;
+
+  private final int poolSize;
+  private final int maxPoolSize;
+  private final ScheduledThreadPoolExecutor pool;
+  private final ThreadStepScheduler threadBoundScheduler;
+  private final ScheduledExecutorService watchdog;
+
+  /** The number of times processRow() was called, to detect that the pool got stuck */
+  private final AtomicLong progress;
+  private long lastProgress;
+  private boolean maxPoolSizeReached;
+
+  public PooledStepScheduler( int poolSize ) {
+    this( poolSize, DEFAULT_MAX_POOL_SIZE );
+  }
+
+  /**
+   * @param poolSize
+   *          the number of threads of the pool
+   * @param maxPoolSize
+   *          the number of threads the pool can grow to when all its threads are blocked
+   */
+  public PooledStepScheduler( int poolSize, int maxPoolSize ) {
+    this.poolSize = Math.max( 1, poolSize );
+    this.maxPoolSize = Math.max( this.poolSize, maxPoolSize );
+    this.threadBoundScheduler = new ThreadStepScheduler();
+    this.progress = new AtomicLong( 0L );
+    this.lastProgress = -1L;
+
+    pool = new ScheduledThreadPoolExecutor( this.poolSize, new DaemonThreadFactory( "Step scheduler pool thread" ) );
+    pool.setKeepAliveTime( 60, TimeUnit.SECONDS );
+    pool.allowCoreThreadTimeOut( true );
+
+    watchdog = Executors.newSingleThreadScheduledExecutor( new DaemonThreadFactory( "Step scheduler watchdog" ) );
+    watchdog.scheduleWithFixedDelay( new Runnable() {
+      @Override
+      public void run() {
+        checkProgress();
+      }
+    }, WATCHDOG_INTERVAL_MILLIS, WATCHDOG_INTERVAL_MILLIS, TimeUnit.MILLISECONDS );
+  }
+
+  /**
+   * Gets the pool shared by all transformations. Its size is read from the KETTLE_STEP_SCHEDULER_POOL_SIZE and
+   * KETTLE_STEP_SCHEDULER_MAX_POOL_SIZE variables when it is first used.
+   *
+   * @return the shared step scheduler pool
+   */
+  public static synchronized PooledStepScheduler getInstance() {
+    if ( instance == null ) {
+      int size =
+        Const.toInt( System.getProperty( Const.KETTLE_STEP_SCHEDULER_POOL_SIZE ), 2 * Runtime
+          .getRuntime().availableProcessors() );
+      int maxSize =
+        Const.toInt( System.getProperty( Const.KETTLE_STEP_SCHEDULER_MAX_POOL_SIZE ), DEFAULT_MAX_POOL_SIZE );
+      instance = new PooledStepScheduler( size, maxSize );
+    }
+    return instance;
+  }
+
+  @Override
+  public void startStep( Trans trans, StepMetaDataCombi combi ) {
+    if ( combi.step instanceof ThreadBoundStep ) {
+      threadBoundScheduler.startStep( trans, combi );
+      return;
+    }
+    pool.execute( new StepTask( combi, trans.getTransMeta().getSizeRowset() ) );
+  }
+
+  /**
+   * @return the number of threads the pool is currently allowed to use
+   */
+  public int getPoolSize() {
+    return pool.getCorePoolSize();
+  }
+
+  /**
+   * Stops the threads of this pool once the running step copies are done. Not to be used on the shared instance.
+   */
+  public void shutdown() {
+    watchdog.shutdownNow();
+    pool.shutdown();
+  }
+
+  /**
+   * @return the number of threads the pool can grow to
+   */
+  public int getMaxPoolSize() {
+    return maxPoolSize;
+  }
+
+  /**
+   * Grows the pool when all its threads are busy while no step made progress since the previous check, shrinks it back
+   * when threads are left unused.
+   */
+  void checkProgress() {
+    long currentProgress = progress.get();
+    int size = pool.getCorePoolSize();
+    int active = pool.getActiveCount();
+    if ( currentProgress == lastProgress && active >= size ) {
+      if ( size < maxPoolSize ) {
+        pool.setCorePoolSize( size + 1 );
+      } else if ( !maxPoolSizeReached ) {
+        // Only report it once until the pool shrinks again
+        maxPoolSizeReached = true;
+        LogChannel.GENERAL.logError( BaseMessages.getString( PKG, "PooledStepScheduler.Log.MaxPoolSizeReached",
+          String.valueOf( size ) ) );
+      }
+    } else if ( size > poolSize && active < size - 1 ) {
+      pool.setCorePoolSize( size - 1 );
+      maxPoolSizeReached = false;
+    }
+    lastProgress = currentProgress;
+  }
+
+  /**
+   * A step copy can do some work if it has at least one input row set with rows in it or that is done (or no input at
+   * all) and if none of its output row sets is full.
+   *
+   * @param step
+   *          the step copy to check
+   * @param rowSetSize
+   *          the capacity of the row sets of the transformation
+   * @return true if processRow() can be called without having to wait for rows or for room to put them
+   */
+  static boolean isReady( StepInterface step, int rowSetSize ) {
+    List<RowSet> inputRowSets = step.getInputRowSets();
+    int nrInputs = inputRowSets.size();
+    if ( nrInputs > 0 ) {
+      boolean available = false;
+      for ( int i = 0; i < nrInputs && !available; i++ ) {
+        RowSet rowSet = inputRowSets.get( i );
+        available = rowSet.size() > 0 || rowSet.isDone();
+      }
+      if ( !available ) {
+        return false;
+      }
+    }
+    List<RowSet> outputRowSets = step.getOutputRowSets();
+    for ( int i = 0; i < outputRowSets.size(); i++ ) {
+      if ( outputRowSets.get( i ).size() >= rowSetSize ) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Runs a step copy one turn at a time.
+   */
+  private class StepTask implements Runnable {
+    private final RunThread runThread;
+    private final StepInterface step;
+    private final int rowSetSize;
+
+    private boolean started;
+    private int idleTurns;
+
+    public StepTask( StepMetaDataCombi combi, int rowSetSize ) {
+      this.runThread = new RunThread( combi );
+      this.step = combi.step;
+      this.rowSetSize = rowSetSize;
+    }
+
+    @Override
+    public void run() {
+      boolean done = false;
+      boolean idle = false;
+      try {
+        if ( !started ) {
+          started = true;
+          runThread.starting();
+        }
+        for ( int i = 0; i < ROWS_PER_TURN && !done && !idle; i++ ) {
+          if ( step.isStopped() ) {
+            done = true;
+          } else if ( !isReady( step, rowSetSize ) ) {
+            idle = true;
+          } else {
+            idleTurns = 0;
+            done = !runThread.processOnce();
+            progress.incrementAndGet();
+          }
+        }
+      } catch ( Throwable t ) {
+        runThread.handleError( t );
+        done = true;
+      }
+
+      if ( done ) {
+        try {
+          runThread.finished();
+        } catch ( Throwable t ) {
+          runThread.handleError( t );
+        }
+      } else if ( idle && ++idleTurns > 1 ) {
+        // Nothing to do for a while, back off a bit to leave the threads to the other steps
+        //
+        long pause = Math.min( 1L << Math.min( idleTurns, 10 ), MAX_IDLE_MICROS );
+        pool.schedule( this, pause, TimeUnit.MICROSECONDS );
+      } else {
+        pool.execute( this );
+      }
+    }
+  }
+
+  private static class DaemonThreadFactory implements ThreadFactory {
+    private final String name;
+    private final AtomicInteger threadNr;
+
+    public DaemonThreadFactory( String name ) {
+      this.name = name;
+      this.threadNr = new AtomicInteger( 0 );
+    }
+
+    @Override
+    public Thread newThread( Runnable runnable ) {
+      Thread thread = new Thread( runnable, name + " " + threadNr.incrementAndGet() );
+      thread.setDaemon( true );
+      return thread;
+    }
+  }
+}
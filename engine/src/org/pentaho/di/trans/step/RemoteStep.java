@@ -24,11 +24,14 @@ package org.pentaho.di.trans.step;
 
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.PushbackInputStream;
 import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
@@ -50,10 +53,13 @@ import org.pentaho.di.core.encryption.CertificateGenEncryptUtil;
 import org.pentaho.di.core.exception.KettleEOFException;
 import org.pentaho.di.core.exception.KettleException;
 import org.pentaho.di.core.exception.KettleFileException;
+import org.pentaho.di.core.row.RowBlockReader;
+import org.pentaho.di.core.row.RowBlockWriter;
 import org.pentaho.di.core.row.RowMeta;
 import org.pentaho.di.core.row.RowMetaInterface;
 import org.pentaho.di.core.xml.XMLHandler;
 import org.pentaho.di.core.xml.XMLInterface;
+import org.pentaho.di.www.MultiplexedTransport;
 import org.pentaho.di.www.SocketRepository;
 import org.w3c.dom.Node;
 
@@ -71,6 +77,16 @@ public class RemoteStep implements Cloneable, XMLInterface, Comparable<RemoteSte
 
   private static final long TIMEOUT_IN_SECONDS = 30;
 
+  /**
+   * Sent by a reader that understands rows in blocks (see {@link RowBlockWriter}) and answered by a writer that is
+   * going to send them that way. Readers and writers from before the block format don't send it.
+   */
+  private static final long ROW_BLOCK_HANDSHAKE = 0x4B54524F57424C4BL;
+  private static final int ROW_BLOCK_VERSION = 1;
+
+  /** How long a writer waits for the handshake of the reader before falling back to sending rows one by one */
+  private static final int ROW_BLOCK_HANDSHAKE_TIMEOUT_MS = 2000;
+
   /** The target or source slave server with which we're exchanging data */
   private String targetSlaveServerName;
 
@@ -122,6 +138,14 @@ public class RemoteStep implements Cloneable, XMLInterface, Comparable<RemoteSte
 
   protected RowMetaInterface rowMeta;
 
+  private RowBlockReader rowBlockReader;
+
+  /** The logical stream on the port of a multiplexed transport, 0 if this remote step uses a socket of its own */
+  private int streamId;
+
+  private MultiplexedTransport.StreamWriter streamWriter;
+  private MultiplexedTransport.StreamReader streamReader;
+
   /**
    * @param hostname
    * @param remoteHostname
@@ -180,6 +204,7 @@ public class RemoteStep implements Cloneable, XMLInterface, Comparable<RemoteSte
     xml.append( XMLHandler.addTagValue( "port", port, false ) );
     xml.append( XMLHandler.addTagValue( "buffer_size", bufferSize, false ) );
     xml.append( XMLHandler.addTagValue( "compressed_streams", compressingStreams, false ) );
+    xml.append( XMLHandler.addTagValue( "stream_id", streamId, false ) );
 
     xml.append( XMLHandler.addTagValue( "source_step_name", sourceStep, false ) );
     xml.append( XMLHandler.addTagValue( "source_step_copy", sourceStepCopyNr, false ) );
@@ -213,6 +238,7 @@ public class RemoteStep implements Cloneable, XMLInterface, Comparable<RemoteSte
     port = XMLHandler.getTagValue( node, "port" );
     bufferSize = Integer.parseInt( XMLHandler.getTagValue( node, "buffer_size" ) );
     compressingStreams = "Y".equalsIgnoreCase( XMLHandler.getTagValue( node, "compressed_streams" ) );
+    streamId = Const.toInt( XMLHandler.getTagValue( node, "stream_id" ), 0 );
 
     sourceStep = XMLHandler.getTagValue( node, "source_step_name" );
     sourceStepCopyNr = Integer.parseInt( XMLHandler.getTagValue( node, "source_step_copy" ) );
@@ -285,6 +311,12 @@ public class RemoteStep implements Cloneable, XMLInterface, Comparable<RemoteSte
     int portNumber = Integer.parseInt( baseStep.environmentSubstitute( port ) );
 
     SocketRepository socketRepository = baseStep.getSocketRepository();
+    if ( isMultiplexed() ) {
+      // The port is shared with the other remote steps writing from this slave server
+      //
+      streamWriter = socketRepository.getMultiplexedTransport().openWriter( portNumber, streamId );
+      return;
+    }
     serverSocket =
       socketRepository.openServerSocket( portNumber, baseStep.getTransMeta().getName()
         + " - " + baseStep.toString() );
@@ -346,12 +378,28 @@ public class RemoteStep implements Cloneable, XMLInterface, Comparable<RemoteSte
           // Accept the socket, create a connection
           // This blocks until something comes through...
           //
-          socket = serverSocket.accept();
-
-          // Create the output stream...
-          OutputStream socketOut = socket.getOutputStream();
+          // Send the rows in blocks if the reader understands them.
+          // Blocks are compressed one by one so the stream itself isn't.
+          //
+          int rowBlockSize = getRowBlockSize();
+          boolean rowBlocks;
+          OutputStream socketOut;
+          if ( isMultiplexed() ) {
+            // The reader tells us in which format it can read when it opens the stream
+            //
+            int flags = streamWriter.awaitReader();
+            rowBlocks = rowBlockSize > 0 && ( flags & MultiplexedTransport.FLAG_ROW_BLOCKS ) != 0;
+            socketOut = streamWriter;
+          } else {
+            socket = serverSocket.accept();
+            rowBlocks = rowBlockSize > 0 && acceptRowBlocks();
+            socketOut = socket.getOutputStream();
+          }
+          if ( rowBlocks ) {
+            confirmRowBlocks( socketOut );
+          }
 
-          if ( compressingStreams ) {
+          if ( compressingStreams && !rowBlocks ) {
             gzipOutputStream = new GZIPOutputStream( socketOut, 50000 );
             bufferedOutputStream = new BufferedOutputStream( gzipOutputStream, bufferSize );
           } else {
@@ -388,8 +436,13 @@ public class RemoteStep implements Cloneable, XMLInterface, Comparable<RemoteSte
 
           // get a row of data...
           Object[] rowData = baseStep.getRowFrom( rowSet );
+          RowBlockWriter rowBlockWriter = null;
           if ( rowData != null ) {
             rowSet.getRowMeta().writeMeta( outputStream );
+            if ( rowBlocks ) {
+              rowBlockWriter =
+                new RowBlockWriter( rowSet.getRowMeta(), outputStream, rowBlockSize, compressingStreams );
+            }
           }
 
           // Send that row to the remote step
@@ -401,7 +454,11 @@ public class RemoteStep implements Cloneable, XMLInterface, Comparable<RemoteSte
 
             // Write the row to the remote step via the output stream....
             //
-            rowSet.getRowMeta().writeData( outputStream, rowData );
+            if ( rowBlockWriter != null ) {
+              rowBlockWriter.writeRow( rowData );
+            } else {
+              rowSet.getRowMeta().writeData( outputStream, rowData );
+            }
             baseStep.incrementLinesOutput();
 
             if ( baseStep.log.isDebug() ) {
@@ -410,7 +467,11 @@ public class RemoteStep implements Cloneable, XMLInterface, Comparable<RemoteSte
             rowData = baseStep.getRowFrom( rowSet );
           }
 
-          if ( compressingStreams ) {
+          if ( rowBlockWriter != null ) {
+            rowBlockWriter.finish();
+          }
+
+          if ( gzipOutputStream != null ) {
             outputStream.flush();
             gzipOutputStream.finish();
           } else {
@@ -471,10 +532,128 @@ public class RemoteStep implements Cloneable, XMLInterface, Comparable<RemoteSte
     return rowSet;
   }
 
+  private String getLocalPortDescription() {
+    return socket != null ? " - Local port=" + socket.getLocalPort() : " - stream " + streamId;
+  }
+
+  /**
+   * @return the number of rows to send in a block or 0 if rows have to be sent one by one
+   */
+  private int getRowBlockSize() {
+    return Const.toInt( baseStep.getVariable( Const.KETTLE_REMOTE_STEP_ROW_BLOCK_SIZE ),
+      RowBlockWriter.DEFAULT_BLOCK_SIZE );
+  }
+
+  /**
+   * Waits a little while for the reader to say it understands rows in blocks.
+   *
+   * @return true if the rows can be sent in blocks
+   */
+  private boolean acceptRowBlocks() throws IOException {
+    int timeout = socket.getSoTimeout();
+    try {
+      socket.setSoTimeout( ROW_BLOCK_HANDSHAKE_TIMEOUT_MS );
+      DataInputStream handshake = new DataInputStream( socket.getInputStream() );
+      return handshake.readLong() == ROW_BLOCK_HANDSHAKE && handshake.readInt() >= ROW_BLOCK_VERSION;
+    } catch ( SocketTimeoutException e ) {
+      baseStep.logDetailed( "No row block handshake received on port " + port + ", sending rows one by one" );
+      return false;
+    } catch ( EOFException e ) {
+      return false;
+    } finally {
+      socket.setSoTimeout( timeout );
+    }
+  }
+
+  /**
+   * Lets the reader know the rows are sent in blocks.
+   */
+  private void confirmRowBlocks( OutputStream socketOut ) throws IOException {
+    DataOutputStream answer = new DataOutputStream( socketOut );
+    answer.writeLong( ROW_BLOCK_HANDSHAKE );
+    answer.writeInt( ROW_BLOCK_VERSION );
+    answer.flush();
+  }
+
+  /**
+   * Reads the answer of the writer to the row block handshake and opens the input stream accordingly. A writer that
+   * doesn't answer sends the rows one by one, whatever it did send is left in the stream.
+   *
+   * @return true if the writer sends the rows in blocks
+   */
+  private boolean openInputStream() throws IOException {
+    InputStream socketStream = isMultiplexed() ? streamReader : socket.getInputStream();
+    boolean rowBlocks = false;
+    if ( getRowBlockSize() > 0 ) {
+      PushbackInputStream pushbackStream = new PushbackInputStream( socketStream, 12 );
+      byte[] answer = new byte[12];
+      int length = 0;
+      while ( length < answer.length ) {
+        int read = pushbackStream.read( answer, length, answer.length - length );
+        if ( read < 0 ) {
+          break;
+        }
+        length += read;
+      }
+      if ( length == answer.length ) {
+        DataInputStream answerStream = new DataInputStream( new ByteArrayInputStream( answer ) );
+        rowBlocks = answerStream.readLong() == ROW_BLOCK_HANDSHAKE && answerStream.readInt() >= ROW_BLOCK_VERSION;
+      }
+      if ( !rowBlocks ) {
+        pushbackStream.unread( answer, 0, length );
+      }
+      socketStream = pushbackStream;
+    }
+
+    if ( compressingStreams && !rowBlocks ) {
+      gzipInputStream = new GZIPInputStream( socketStream );
+      bufferedInputStream = new BufferedInputStream( gzipInputStream, bufferSize );
+    } else {
+      bufferedInputStream = new BufferedInputStream( socketStream, bufferSize );
+    }
+    socketStream = bufferedInputStream;
+
+    if ( encryptingStreams && key != null ) {
+      byte[] transKey = baseStep.getTransMeta().getKey();
+      Key unwrappedKey = null;
+      try {
+        unwrappedKey = CertificateGenEncryptUtil.decodeTransmittedKey( transKey, key,
+          baseStep.getTransMeta().isPrivateKey() );
+      } catch ( InvalidKeyException ex ) {
+        baseStep.logError( "Invalid key was received", ex );
+      } catch ( InvalidKeySpecException ex ) {
+        baseStep.logError( "Invalid key specification was received. Most probably public key was "
+            + "sent instead of private or vice versa", ex );
+      } catch ( Exception ex ) {
+        baseStep.logError( "Error occurred during encryption initialization", ex );
+      }
+      try {
+        Cipher decryptionCip = CertificateGenEncryptUtil.initDecryptionCipher( unwrappedKey, key );
+        socketStream = cipherInputStream = new CipherInputStream( bufferedInputStream, decryptionCip );
+      } catch ( InvalidKeyException ex ) {
+        baseStep.logError( "Invalid key was received", ex );
+      } catch ( Exception ex ) {
+        baseStep.logError( "Error occurred during encryption initialization", ex );
+      }
+    }
+    inputStream = new DataInputStream( socketStream );
+    return rowBlocks;
+  }
+
   /**
    * Close left-over sockets, streams and so on.
    */
   public void cleanup() {
+    if ( streamWriter != null ) {
+      try {
+        streamWriter.close();
+      } catch ( IOException e ) {
+        baseStep.logError( "Error closing stream", e );
+      }
+    }
+    if ( streamReader != null ) {
+      streamReader.close();
+    }
     if ( socket != null && socket.isConnected() && !socket.isClosed() ) {
       try {
         if ( socket != null && !socket.isOutputShutdown() ) {
@@ -526,6 +705,9 @@ public class RemoteStep implements Cloneable, XMLInterface, Comparable<RemoteSte
   }
 
   private Object[] getRowOfData( RowMetaInterface rowMeta ) throws KettleFileException {
+    if ( rowBlockReader != null ) {
+      return rowBlockReader.readRow(); // null at the end of the blocks
+    }
     Object[] rowData = null;
 
     while ( !baseStep.isStopped() && rowData == null ) {
@@ -567,6 +749,19 @@ public class RemoteStep implements Cloneable, XMLInterface, Comparable<RemoteSte
     while ( !connected
       && ( TIMEOUT_IN_SECONDS > ( System.currentTimeMillis() - startTime ) / 1000 ) && !baseStep.isStopped() ) {
       try {
+        if ( isMultiplexed() ) {
+          // Open the stream on the connection shared with the other remote steps reading from the same slave server.
+          // The writer learns whether we can read rows in blocks from the flags.
+          //
+          int flags = getRowBlockSize() > 0 ? MultiplexedTransport.FLAG_ROW_BLOCKS : 0;
+          streamReader =
+            baseStep.getSocketRepository().getMultiplexedTransport().openReader( realHostname, portNumber, streamId,
+              flags, MultiplexedTransport.DEFAULT_WINDOW_SIZE );
+          connected = true;
+          lastException = null;
+          continue;
+        }
+
         socket = new Socket();
         socket.setReuseAddress( true );
 
@@ -577,39 +772,15 @@ public class RemoteStep implements Cloneable, XMLInterface, Comparable<RemoteSte
 
         connected = true;
 
-        InputStream socketStream = socket.getInputStream();
-        if ( compressingStreams ) {
-          gzipInputStream = new GZIPInputStream( socketStream );
-          bufferedInputStream = new BufferedInputStream( gzipInputStream, bufferSize );
-        } else {
-          bufferedInputStream = new BufferedInputStream( socketStream, bufferSize );
-        }
-        socketStream = bufferedInputStream;
-
-        if ( encryptingStreams && key != null ) {
-          byte[] transKey = baseStep.getTransMeta().getKey();
-          Key unwrappedKey = null;
-          try {
-            unwrappedKey = CertificateGenEncryptUtil.decodeTransmittedKey( transKey, key,
-              baseStep.getTransMeta().isPrivateKey() );
-          } catch ( InvalidKeyException ex ) {
-            baseStep.logError( "Invalid key was received", ex );
-          } catch ( InvalidKeySpecException ex ) {
-            baseStep.logError( "Invalid key specification was received. Most probably public key was "
-                + "sent instead of private or vice versa", ex );
-          } catch ( Exception ex ) {
-            baseStep.logError( "Error occurred during encryption initialization", ex );
-          }
-          try {
-            Cipher decryptionCip = CertificateGenEncryptUtil.initDecryptionCipher( unwrappedKey, key );
-            socketStream = cipherInputStream = new CipherInputStream( bufferedInputStream, decryptionCip );
-          } catch ( InvalidKeyException ex ) {
-            baseStep.logError( "Invalid key was received", ex );
-          } catch ( Exception ex ) {
-            baseStep.logError( "Error occurred during encryption initialization", ex );
-          }
+        // Tell the writer we can read rows in blocks.
+        // The input streams are opened once the writer answered, in the reader thread.
+        //
+        if ( getRowBlockSize() > 0 ) {
+          DataOutputStream handshake = new DataOutputStream( socket.getOutputStream() );
+          handshake.writeLong( ROW_BLOCK_HANDSHAKE );
+          handshake.writeInt( ROW_BLOCK_VERSION );
+          handshake.flush();
         }
-        inputStream = new DataInputStream( socketStream );
 
         lastException = null;
       } catch ( Exception e ) {
@@ -647,14 +818,14 @@ public class RemoteStep implements Cloneable, XMLInterface, Comparable<RemoteSte
       }
       throw lastException;
     } else {
-      if ( inputStream == null ) {
+      if ( !connected ) {
         throw new KettleException( "Unable to connect to the SocketWriter in the "
           + TIMEOUT_IN_SECONDS + "s timeout period." );
       }
     }
 
     baseStep.logDetailed( "Opened connection to server socket to read rows from remote step on server "
-      + realHostname + " port " + portNumber + " - Local port=" + socket.getLocalPort() );
+      + realHostname + " port " + portNumber + getLocalPortDescription() );
 
     // Create a thread to take care of the reading from the client socket.
     // The rows read will be put in a RowSet buffer.
@@ -665,6 +836,7 @@ public class RemoteStep implements Cloneable, XMLInterface, Comparable<RemoteSte
     Runnable runnable = new Runnable() {
       public void run() {
         try {
+          boolean rowBlocks = openInputStream();
 
           // First read the row meta data from the socket...
           //
@@ -680,6 +852,9 @@ public class RemoteStep implements Cloneable, XMLInterface, Comparable<RemoteSte
           if ( rowMeta == null ) {
             throw new KettleEOFException(); // leave now.
           }
+          if ( rowBlocks ) {
+            rowBlockReader = new RowBlockReader( rowMeta, inputStream );
+          }
 
           // And a first row of data...
           //
@@ -767,8 +942,12 @@ public class RemoteStep implements Cloneable, XMLInterface, Comparable<RemoteSte
             }
           }
           gzipInputStream = null;
+          if ( streamReader != null ) {
+            streamReader.close();
+            streamReader = null;
+          }
           baseStep.logDetailed( "Closed connection to server socket to read rows from remote step on server "
-            + realHostname + " port " + portNumber + " - Local port=" + socket.getLocalPort() );
+            + realHostname + " port " + portNumber + getLocalPortDescription() );
         }
 
         // signal baseStep that nothing else comes from this step.
@@ -934,6 +1113,28 @@ public class RemoteStep implements Cloneable, XMLInterface, Comparable<RemoteSte
     }
   }
 
+  /**
+   * @return the logical stream on the port of a multiplexed transport, 0 if this remote step uses a socket of its own
+   */
+  public int getStreamId() {
+    return streamId;
+  }
+
+  /**
+   * @param streamId
+   *          the logical stream on the port of a multiplexed transport, 0 to use a socket of its own
+   */
+  public void setStreamId( int streamId ) {
+    this.streamId = streamId;
+  }
+
+  /**
+   * @return true if the rows are sent over a connection shared with other remote steps
+   */
+  public boolean isMultiplexed() {
+    return streamId > 0;
+  }
+
   public RowMetaInterface getRowMeta() {
     return rowMeta;
   }
@@ -0,0 +1,49 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2016 by Pentaho : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+package org.pentaho.di.trans.step;
+
+import org.pentaho.di.core.exception.KettleException;
+
+/**
+ * Steps that can run more than once in the same prepared transformation implement this interface on top of
+ * {@link StepInterface}. The Transformation Executor step prepares its sub-transformation only once if all of its
+ * steps implement it (see variable KETTLE_TRANS_EXECUTOR_REUSE) and then executes it with the single threaded engine
+ * for every group of rows.<br>
+ * <br>
+ * Before every execution resetForNextExecution() is called. Implementations clear the state that belongs to the
+ * previous group of rows but keep what is expensive to set up again, like database connections and lookup caches.
+ * Steps that keep buffered rows pass them on in {@link StepInterface#batchComplete()}.
+ *
+ * @since 17-10-2016
+ *
+ */
+public interface ReusableStep {
+
+  /**
+   * Prepare the step for the execution of the transformation with the next group of rows.
+   *
+   * @throws KettleException
+   *           In case the step state can't be reset.
+   */
+  public void resetForNextExecution() throws KettleException;
+}
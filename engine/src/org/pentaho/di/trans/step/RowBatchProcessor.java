@@ -0,0 +1,68 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2016 by Pentaho : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+
+package org.pentaho.di.trans.step;
+
+import org.pentaho.di.core.RowBatch;
+import org.pentaho.di.core.exception.KettleException;
+
+/**
+ * Steps that can process a complete batch of rows at once implement this interface on top of {@link StepInterface}.
+ * When row batching is enabled for a transformation (see variable KETTLE_ROW_BATCH_SIZE) the step thread calls
+ * processRows() instead of processRow(). Steps that don't implement this interface keep being called row by row.<br>
+ * <br>
+ * getRows() is implemented by {@link BaseStep}. Implementations of processRows() typically transform the rows of the
+ * batch in place and pass the batch on with {@link BaseStep#putRows(org.pentaho.di.core.row.RowMetaInterface,
+ * RowBatch)}.
+ *
+ * @since 17-10-2016
+ *
+ */
+public interface RowBatchProcessor {
+
+  /**
+   * Read the next batch of rows from the input rowsets.
+   *
+   * @param batch
+   *          the batch to re-use
+   * @return the batch containing at least one row or null if no more rows are to be expected.
+   * @throws KettleException
+   */
+  public RowBatch getRows( RowBatch batch ) throws KettleException;
+
+  /**
+   * Process a batch of rows. This is the batch equivalent of
+   * {@link StepInterface#processRow(StepMetaInterface, StepDataInterface)}.
+   *
+   * @param smi
+   *          The steps metadata to work with
+   * @param sdi
+   *          The steps temporary working data to work with
+   * @param batch
+   *          The rows to process or null if there is no more input. In that case the step needs to signal the end of
+   *          the output with setOutputDone() and return false, just like processRow() does.
+   * @return false if no more batches can be processed or an error occurred.
+   * @throws KettleException
+   */
+  public boolean processRows( StepMetaInterface smi, StepDataInterface sdi, RowBatch batch ) throws KettleException;
+}
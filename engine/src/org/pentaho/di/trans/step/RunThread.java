@@ -25,6 +25,8 @@ package org.pentaho.di.trans.step;
 import java.util.List;
 
 import org.pentaho.di.core.Const;
+import org.pentaho.di.core.RowBatch;
+import org.pentaho.di.core.exception.KettleException;
 import org.pentaho.di.core.logging.KettleLogStore;
 import org.pentaho.di.core.logging.LogChannelInterface;
 import org.pentaho.di.core.logging.LoggingObjectInterface;
@@ -41,6 +43,7 @@ public class RunThread implements Runnable {
   private StepMetaInterface meta;
   private StepDataInterface data;
   private LogChannelInterface log;
+  private RowBatch batch;
 
   public RunThread( StepMetaDataCombi combi ) {
     this.step = combi.step;
@@ -51,48 +54,94 @@ public class RunThread implements Runnable {
 
   public void run() {
     try {
-      step.setRunning( true );
-      step.getLogChannel().snap( Metrics.METRIC_STEP_EXECUTION_START );
+      starting();
 
-      if ( log.isDetailed() ) {
-        log.logDetailed( BaseMessages.getString( "System.Log.StartingToRun" ) );
-      }
-
-      // Wait
-      while ( step.processRow( meta, data ) ) {
+      while ( processOnce() ) {
         if ( step.isStopped() ) {
           break;
         }
       }
     } catch ( Throwable t ) {
-      try {
-        // check for OOME
-        if ( t instanceof OutOfMemoryError ) {
-          // Handle this different with as less overhead as possible to get an error message in the log.
-          // Otherwise it crashes likely with another OOME in Me$$ages.getString() and does not log
-          // nor call the setErrors() and stopAll() below.
-          log.logError( "UnexpectedError: ", t );
-        } else {
-          t.printStackTrace();
-          log.logError( BaseMessages.getString( "System.Log.UnexpectedError" ), t );
-        }
+      handleError( t );
+    } finally {
+      finished();
+    }
+  }
+
+  /**
+   * Flags the step as running, to be called once before the rows are processed.
+   */
+  void starting() {
+    step.setRunning( true );
+    step.getLogChannel().snap( Metrics.METRIC_STEP_EXECUTION_START );
+
+    if ( log.isDetailed() ) {
+      log.logDetailed( BaseMessages.getString( "System.Log.StartingToRun" ) );
+    }
+
+    int rowBatchSize = Const.toInt( step.getVariable( Const.KETTLE_ROW_BATCH_SIZE ), 0 );
+    if ( rowBatchSize > 1 && step instanceof RowBatchProcessor ) {
+      batch = new RowBatch( rowBatchSize );
+    }
+  }
+
+  /**
+   * Processes a single row or, if the step works on row batches, a single batch of rows.
+   *
+   * @return true if the step wants to process more rows, false if it is done.
+   * @throws KettleException
+   *           in case something goes wrong while processing the rows
+   */
+  boolean processOnce() throws KettleException {
+    if ( batch != null ) {
+      RowBatchProcessor processor = (RowBatchProcessor) step;
+      return processor.processRows( meta, data, processor.getRows( batch ) );
+    } else {
+      return step.processRow( meta, data );
+    }
+  }
 
-        String logChannelId = log.getLogChannelId();
-        LoggingObjectInterface loggingObject = LoggingRegistry.getInstance().getLoggingObject( logChannelId );
-        String parentLogChannelId = loggingObject.getParent().getLogChannelId();
-        List<String> logChannelChildren = LoggingRegistry.getInstance().getLogChannelChildren( parentLogChannelId );
-        int childIndex = Const.indexOfString( log.getLogChannelId(), logChannelChildren );
-        System.out.println( "child index = "
-          + childIndex + ", logging object : " + loggingObject.toString() + " parent=" + parentLogChannelId );
-        KettleLogStore.getAppender().getBuffer( "2bcc6b3f-c660-4a8b-8b17-89e8cbd5b29b", false );
-        // baseStep.logError(Const.getStackTracker(t));
-      } catch ( OutOfMemoryError e ) {
-        e.printStackTrace();
-      } finally {
-        step.setErrors( 1 );
-        step.stopAll();
+  /**
+   * Logs an unexpected error and stops the transformation.
+   *
+   * @param t
+   *          the error thrown while running the step
+   */
+  void handleError( Throwable t ) {
+    try {
+      // check for OOME
+      if ( t instanceof OutOfMemoryError ) {
+        // Handle this different with as less overhead as possible to get an error message in the log.
+        // Otherwise it crashes likely with another OOME in Me$$ages.getString() and does not log
+        // nor call the setErrors() and stopAll() below.
+        log.logError( "UnexpectedError: ", t );
+      } else {
+        t.printStackTrace();
+        log.logError( BaseMessages.getString( "System.Log.UnexpectedError" ), t );
       }
+
+      String logChannelId = log.getLogChannelId();
+      LoggingObjectInterface loggingObject = LoggingRegistry.getInstance().getLoggingObject( logChannelId );
+      String parentLogChannelId = loggingObject.getParent().getLogChannelId();
+      List<String> logChannelChildren = LoggingRegistry.getInstance().getLogChannelChildren( parentLogChannelId );
+      int childIndex = Const.indexOfString( log.getLogChannelId(), logChannelChildren );
+      System.out.println( "child index = "
+        + childIndex + ", logging object : " + loggingObject.toString() + " parent=" + parentLogChannelId );
+      KettleLogStore.getAppender().getBuffer( "2bcc6b3f-c660-4a8b-8b17-89e8cbd5b29b", false );
+      // baseStep.logError(Const.getStackTracker(t));
+    } catch ( OutOfMemoryError e ) {
+      e.printStackTrace();
     } finally {
+      step.setErrors( 1 );
+      step.stopAll();
+    }
+  }
+
+  /**
+   * Disposes of the step and logs its summary, to be called once after the last row was processed.
+   */
+  void finished() {
+    try {
       step.dispose( meta, data );
       step.getLogChannel().snap( Metrics.METRIC_STEP_EXECUTION_STOP );
       try {
@@ -117,9 +166,16 @@ public class RunThread implements Runnable {
         // it's likely an OOME, so we don't want to introduce overhead by using BaseMessages.getString(), see above
         //
         log.logError( "UnexpectedError: " + Const.getStackTracker( t ) );
-      } finally {
-        step.markStop();
       }
+    } finally {
+      step.markStop();
     }
   }
+
+  /**
+   * @return the step that is run
+   */
+  StepInterface getStep() {
+    return step;
+  }
 }
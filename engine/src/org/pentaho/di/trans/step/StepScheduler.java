@@ -0,0 +1,49 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2016 by Pentaho : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+
+package org.pentaho.di.trans.step;
+
+import org.pentaho.di.core.exception.KettleException;
+import org.pentaho.di.trans.Trans;
+
+/**
+ * Decides which threads run the step copies of a transformation. The step copies are initialized before they are
+ * handed over to the scheduler, the scheduler calls {@link RunThread#run()} for them in one way or another.
+ *
+ * @since 17-10-2016
+ *
+ */
+public interface StepScheduler {
+
+  /**
+   * Start running the given step copy.
+   *
+   * @param trans
+   *          the transformation the step copy belongs to
+   * @param combi
+   *          the initialized step copy to run
+   * @throws KettleException
+   *           in case the step copy could not be started
+   */
+  public void startStep( Trans trans, StepMetaDataCombi combi ) throws KettleException;
+}
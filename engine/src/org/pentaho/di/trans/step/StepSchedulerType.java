@@ -0,0 +1,85 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2016 by Pentaho : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+
+package org.pentaho.di.trans.step;
+
+/**
+ * The ways to run the step copies of a transformation, selected with the KETTLE_STEP_SCHEDULER variable.
+ *
+ * @since 17-10-2016
+ *
+ */
+public enum StepSchedulerType {
+
+  /** Every step copy runs in its own thread. */
+  THREAD( "thread" ),
+
+  /** The step copies of all transformations share a bounded pool of threads. */
+  POOL( "pool" ),
+
+  /** Every step copy runs in its own virtual thread, if the Java runtime supports it. */
+  VIRTUAL( "virtual" );
+
+  private String code;
+
+  private StepSchedulerType( String code ) {
+    this.code = code;
+  }
+
+  /**
+   * @return the code used in the KETTLE_STEP_SCHEDULER variable
+   */
+  public String getCode() {
+    return code;
+  }
+
+  /**
+   * @return a step scheduler of this type
+   */
+  public StepScheduler getStepScheduler() {
+    switch ( this ) {
+      case POOL:
+        return PooledStepScheduler.getInstance();
+      case VIRTUAL:
+        return new VirtualThreadStepScheduler();
+      default:
+        return new ThreadStepScheduler();
+    }
+  }
+
+  /**
+   * Finds the scheduler type for a code, ignoring case.
+   *
+   * @param code
+   *          the code to look for
+   * @return the scheduler type or THREAD if the code is empty or unknown
+   */
+  public static StepSchedulerType getStepSchedulerType( String code ) {
+    for ( StepSchedulerType type : values() ) {
+      if ( type.code.equalsIgnoreCase( code ) ) {
+        return type;
+      }
+    }
+    return THREAD;
+  }
+}
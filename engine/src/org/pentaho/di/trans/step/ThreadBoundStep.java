@@ -2,7 +2,7 @@
  *
  * Pentaho Data Integration
  *
- * Copyright (C) 2002-2013 by Pentaho : http://www.pentaho.com
+ * Copyright (C) 2002-2016 by Pentaho : http://www.pentaho.com
  *
  *******************************************************************************
  *
@@ -20,17 +20,15 @@
  *
  ******************************************************************************/
 
-package org.pentaho.di.trans.steps.sort;
+package org.pentaho.di.trans.step;
 
 /**
- * Keeps track of which temporary file a row is coming from
+ * Steps that keep state bound to the thread running them implement this interface on top of {@link StepInterface}, for
+ * example the JavaScript context of Modified JavaScript Value. A {@link StepScheduler} that hands the threads around
+ * between step copies runs these steps in a thread of their own instead.
+ *
+ * @since 17-10-2016
+ *
  */
-public class RowTempFile {
-  public Object[] row;
-  public int fileNumber;
-
-  public RowTempFile( Object[] row, int fileNumber ) {
-    this.row = row;
-    this.fileNumber = fileNumber;
-  }
+public interface ThreadBoundStep {
 }
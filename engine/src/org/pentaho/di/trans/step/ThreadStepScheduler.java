@@ -0,0 +1,42 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2016 by Pentaho : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+
+package org.pentaho.di.trans.step;
+
+import org.pentaho.di.trans.Trans;
+
+/**
+ * Runs every step copy in its own thread, this is the default.
+ *
+ * @since 17-10-2016
+ *
+ */
+public class ThreadStepScheduler implements StepScheduler {
+
+  @Override
+  public void startStep( Trans trans, StepMetaDataCombi combi ) {
+    Thread thread = new Thread( new RunThread( combi ) );
+    thread.setName( trans.getName() + " - " + combi.stepname );
+    thread.start();
+  }
+}
@@ -0,0 +1,89 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2016 by Pentaho : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+
+package org.pentaho.di.trans.step;
+
+import java.lang.reflect.Method;
+
+import org.pentaho.di.core.exception.KettleException;
+import org.pentaho.di.trans.Trans;
+
+/**
+ * Runs every step copy in a virtual thread. Virtual threads are cheap to create and don't tie up an operating system
+ * thread while the step waits for rows, so many small transformations can run side by side. On Java runtimes without
+ * virtual threads the step copies are run in regular threads.
+ *
+ * @since 17-10-2016
+ *
+ */
+public class VirtualThreadStepScheduler implements StepScheduler {
+
+  private static final Method OF_VIRTUAL;
+  private static final Method BUILDER_NAME;
+  private static final Method BUILDER_UNSTARTED;
+
+  static {
+    Method ofVirtual = null;
+    Method builderName = null;
+    Method builderUnstarted = null;
+    try {
+      // We're compiled for older Java versions, so look the API up at runtime
+      //
+      Class<?> builderClass = Class.forName( "java.lang.Thread$Builder" );
+      ofVirtual = Thread.class.getMethod( "ofVirtual" );
+      builderName = builderClass.getMethod( "name", String.class );
+      builderUnstarted = builderClass.getMethod( "unstarted", Runnable.class );
+    } catch ( Exception e ) {
+      ofVirtual = null;
+    }
+    OF_VIRTUAL = ofVirtual;
+    BUILDER_NAME = builderName;
+    BUILDER_UNSTARTED = builderUnstarted;
+  }
+
+  /**
+   * @return true if the Java runtime supports virtual threads
+   */
+  public static boolean isSupported() {
+    return OF_VIRTUAL != null;
+  }
+
+  @Override
+  public void startStep( Trans trans, StepMetaDataCombi combi ) throws KettleException {
+    RunThread runThread = new RunThread( combi );
+    String name = trans.getName() + " - " + combi.stepname;
+    Thread thread;
+    if ( isSupported() ) {
+      try {
+        Object builder = BUILDER_NAME.invoke( OF_VIRTUAL.invoke( null ), name );
+        thread = (Thread) BUILDER_UNSTARTED.invoke( builder, runThread );
+      } catch ( Exception e ) {
+        throw new KettleException( "Unable to create a virtual thread for step " + combi.stepname, e );
+      }
+    } else {
+      thread = new Thread( runThread );
+      thread.setName( name );
+    }
+    thread.start();
+  }
+}
@@ -24,6 +24,7 @@ package org.pentaho.di.trans.steps.addsequence;
 
 import org.pentaho.di.core.Const;
 import org.pentaho.di.core.Counter;
+import org.pentaho.di.core.RowBatch;
 import org.pentaho.di.core.database.Database;
 import org.pentaho.di.core.exception.KettleDatabaseException;
 import org.pentaho.di.core.exception.KettleException;
@@ -34,6 +35,7 @@ import org.pentaho.di.i18n.BaseMessages;
 import org.pentaho.di.trans.Trans;
 import org.pentaho.di.trans.TransMeta;
 import org.pentaho.di.trans.step.BaseStep;
+import org.pentaho.di.trans.step.RowBatchProcessor;
 import org.pentaho.di.trans.step.StepDataInterface;
 import org.pentaho.di.trans.step.StepInterface;
 import org.pentaho.di.trans.step.StepMeta;
@@ -45,7 +47,7 @@ import org.pentaho.di.trans.step.StepMetaInterface;
  * @author Matt
  * @since 13-may-2003
  */
-public class AddSequence extends BaseStep implements StepInterface {
+public class AddSequence extends BaseStep implements StepInterface, RowBatchProcessor {
   private static Class<?> PKG = AddSequence.class; // for i18n purposes, needed by Translator2!!
 
   private AddSequenceMeta meta;
@@ -146,6 +148,46 @@ public class AddSequence extends BaseStep implements StepInterface {
     return true;
   }
 
+  public boolean processRows( StepMetaInterface smi, StepDataInterface sdi, RowBatch batch ) throws KettleException {
+    meta = (AddSequenceMeta) smi;
+    data = (AddSequenceData) sdi;
+
+    if ( batch == null ) {
+      // no more input to be expected...
+      setOutputDone();
+      return false;
+    }
+
+    if ( first ) {
+      first = false;
+      data.outputRowMeta = getInputRowMeta().clone();
+      meta.getFields( data.outputRowMeta, getStepname(), null, null, this, repository, metaStore );
+    }
+
+    try {
+      RowMetaInterface inputRowMeta = getInputRowMeta();
+      for ( int i = 0; i < batch.size(); i++ ) {
+        batch.set( i, addSequence( inputRowMeta, batch.get( i ) ) );
+      }
+      putRows( data.outputRowMeta, batch );
+
+      long linesRead = getLinesRead();
+      if ( checkFeedback( linesRead - batch.size(), linesRead ) ) {
+        if ( log.isBasic() ) {
+          logBasic( BaseMessages.getString( PKG, "AddSequence.Log.LineNumber" ) + linesRead );
+        }
+      }
+    } catch ( KettleException e ) {
+      logError( BaseMessages.getString( PKG, "AddSequence.Log.ErrorInStep" ) + e.getMessage() );
+      setErrors( 1 );
+      stopAll();
+      setOutputDone(); // signal end to receiver(s)
+      return false;
+    }
+
+    return true;
+  }
+
   public boolean init( StepMetaInterface smi, StepDataInterface sdi ) {
     meta = (AddSequenceMeta) smi;
     data = (AddSequenceData) sdi;
@@ -44,6 +44,12 @@ public class CalculatorData extends BaseStepData implements StepDataInterface {
 
   private int[] tempIndexes;
 
+  private CalculatorEvaluator[] evaluators;
+
+  private int[] keepIndexes;
+
+  private Object[] calcBuffer;
+
   private final Map<Integer, ValueMetaInterface> resultMetaMapping;
 
   public CalculatorData() {
@@ -83,6 +89,33 @@ public class CalculatorData extends BaseStepData implements StepDataInterface {
     this.tempIndexes = tempIndexes;
   }
 
+  public CalculatorEvaluator[] getEvaluators() {
+    return evaluators;
+  }
+
+  public void setEvaluators( CalculatorEvaluator[] evaluators ) {
+    this.evaluators = evaluators;
+  }
+
+  /**
+   * @return the indexes in the calculation row of the fields passed on to the output row, null if all of them are
+   */
+  public int[] getKeepIndexes() {
+    return keepIndexes;
+  }
+
+  public void setKeepIndexes( int[] keepIndexes ) {
+    this.keepIndexes = keepIndexes;
+  }
+
+  public Object[] getCalcBuffer() {
+    return calcBuffer;
+  }
+
+  public void setCalcBuffer( Object[] calcBuffer ) {
+    this.calcBuffer = calcBuffer;
+  }
+
   public ValueMetaInterface getValueMetaFor( int resultType, String name ) throws KettlePluginException {
     // don't need any synchronization as data instance belongs only to one step instance
     ValueMetaInterface meta = resultMetaMapping.get( resultType );
@@ -0,0 +1,600 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2016 by Pentaho : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+
+package org.pentaho.di.trans.steps.calculator;
+
+import java.math.BigDecimal;
+
+import org.pentaho.di.core.exception.KettleValueException;
+import org.pentaho.di.core.row.RowMetaInterface;
+import org.pentaho.di.core.row.ValueDataUtil;
+import org.pentaho.di.core.row.ValueMetaInterface;
+import org.pentaho.di.core.variables.VariableSpace;
+import org.pentaho.di.i18n.BaseMessages;
+
+/**
+ * One calculation of the Calculator step, compiled when the first row arrives. The argument fields, their metadata,
+ * the data type of the result and the conversion to the target type are resolved once, so evaluating a row only reads
+ * the arguments, calculates and converts. Integer and Number arithmetic on plain (not lazily converted) values is done
+ * directly on the values instead of going through {@link ValueDataUtil}.
+ *
+ * @since 17-10-2016
+ */
+public abstract class CalculatorEvaluator {
+  private static Class<?> PKG = CalculatorMeta.class; // for i18n purposes, needed by Translator2!!
+
+  protected final CalculatorMetaFunction function;
+  protected final int index;
+  protected final int indexA;
+  protected final int indexB;
+  protected final int indexC;
+  protected final ValueMetaInterface metaA;
+  protected final ValueMetaInterface metaB;
+  protected final ValueMetaInterface metaC;
+
+  private ValueMetaInterface targetMeta;
+  private int resultType;
+
+  /** The metadata of the calculated value when it needs to be converted to the target type, null if not */
+  private ValueMetaInterface resultMeta;
+
+  /** Set when there is no target data type or the result metadata can't be created: every row fails with it */
+  private String error;
+
+  protected CalculatorEvaluator( CalculatorMetaFunction function, int index, Calculator.FieldIndexes fieldIndexes,
+    RowMetaInterface calcRowMeta ) {
+    this.function = function;
+    this.index = index;
+    this.indexA = fieldIndexes.indexA;
+    this.indexB = fieldIndexes.indexB;
+    this.indexC = fieldIndexes.indexC;
+    this.metaA = indexA >= 0 ? calcRowMeta.getValueMeta( indexA ) : null;
+    this.metaB = indexB >= 0 ? calcRowMeta.getValueMeta( indexB ) : null;
+    this.metaC = indexC >= 0 ? calcRowMeta.getValueMeta( indexC ) : null;
+  }
+
+  /**
+   * Compiles a calculation.
+   *
+   * @param function
+   *          the calculation, it has to have a field name
+   * @param nr
+   *          the number of the calculation, 0 based
+   * @param index
+   *          the index of the calculated field in the calculation row
+   * @param fieldIndexes
+   *          the indexes of the arguments in the calculation row
+   * @param calcRowMeta
+   *          the metadata of the calculation row: the input fields followed by the calculated fields
+   * @param data
+   *          the step data, used to look up the metadata of the result type
+   * @param space
+   *          the variables to use for variable substitution
+   * @return the compiled calculation
+   */
+  public static CalculatorEvaluator compile( CalculatorMetaFunction function, int nr, int index,
+    Calculator.FieldIndexes fieldIndexes, RowMetaInterface calcRowMeta, CalculatorData data, VariableSpace space ) {
+    CalculatorEvaluator evaluator = createEvaluator( function, index, fieldIndexes, calcRowMeta, space );
+    evaluator.resolveTypes( nr, calcRowMeta.getValueMeta( index ), data );
+    return evaluator;
+  }
+
+  private static CalculatorEvaluator createEvaluator( CalculatorMetaFunction function, int index,
+    Calculator.FieldIndexes fieldIndexes, RowMetaInterface calcRowMeta, VariableSpace space ) {
+    ValueMetaInterface metaA = fieldIndexes.indexA >= 0 ? calcRowMeta.getValueMeta( fieldIndexes.indexA ) : null;
+    ValueMetaInterface metaB = fieldIndexes.indexB >= 0 ? calcRowMeta.getValueMeta( fieldIndexes.indexB ) : null;
+
+    switch ( function.getCalcType() ) {
+      case CalculatorMetaFunction.CALC_COPY_OF_FIELD:
+        return new CopyEvaluator( function, index, fieldIndexes, calcRowMeta );
+      case CalculatorMetaFunction.CALC_CONSTANT:
+        return new ConstantEvaluator( function, index, fieldIndexes, calcRowMeta );
+      case CalculatorMetaFunction.CALC_ADD:
+      case CalculatorMetaFunction.CALC_SUBTRACT:
+      case CalculatorMetaFunction.CALC_MULTIPLY:
+      case CalculatorMetaFunction.CALC_DIVIDE:
+        if ( isPlain( metaA, ValueMetaInterface.TYPE_INTEGER ) && isPlain( metaB, ValueMetaInterface.TYPE_INTEGER ) ) {
+          return new IntegerEvaluator( function, index, fieldIndexes, calcRowMeta );
+        }
+        if ( isPlain( metaA, ValueMetaInterface.TYPE_NUMBER ) && isPlain( metaB, ValueMetaInterface.TYPE_NUMBER ) ) {
+          return new NumberEvaluator( function, index, fieldIndexes, calcRowMeta );
+        }
+        break;
+      default:
+        break;
+    }
+    return new GenericEvaluator( function, index, fieldIndexes, calcRowMeta, space );
+  }
+
+  /**
+   * @return true if the values of the field are of the given type and stored as such
+   */
+  private static boolean isPlain( ValueMetaInterface valueMeta, int type ) {
+    return valueMeta != null
+      && valueMeta.getType() == type && valueMeta.getStorageType() == ValueMetaInterface.STORAGE_TYPE_NORMAL;
+  }
+
+  private void resolveTypes( int nr, ValueMetaInterface targetMeta, CalculatorData data ) {
+    this.targetMeta = targetMeta;
+    this.resultType = getResultType( function.getCalcType(), metaA, metaB, metaC );
+
+    // If we don't have a target data type, throw an error.
+    // Otherwise the result is non-deterministic.
+    //
+    if ( targetMeta.getType() == ValueMetaInterface.TYPE_NONE ) {
+      error = BaseMessages.getString( PKG, "Calculator.Log.NoType" )
+        + ( nr + 1 ) + " : " + function.getFieldName() + " = " + function.getCalcTypeDesc() + " / "
+        + function.getCalcTypeLongDesc();
+      return;
+    }
+
+    if ( targetMeta.getType() != resultType ) {
+      try {
+        // The result metadata is shared per type, but every calculation has its own conversion mask
+        resultMeta = data.getValueMetaFor( resultType, "result" ).clone();
+      } catch ( Exception exception ) {
+        error = "Error creating value";
+        return;
+      }
+      resultMeta.setConversionMask( function.getConversionMask() );
+      resultMeta.setGroupingSymbol( function.getGroupingSymbol() );
+      resultMeta.setDecimalSymbol( function.getDecimalSymbol() );
+      resultMeta.setCurrencySymbol( function.getCurrencySymbol() );
+    }
+  }
+
+  /**
+   * The data types are those of the first argument field, convert to the target field. Exceptions:<br>
+   * - add and multiply can be string<br>
+   * - subtracting dates gives an integer<br>
+   * - constant is string<br>
+   * - all date functions except add days/months<br>
+   * - hex encode / decodes<br>
+   */
+  static int getResultType( int calcType, ValueMetaInterface metaA, ValueMetaInterface metaB,
+    ValueMetaInterface metaC ) {
+    switch ( calcType ) {
+      case CalculatorMetaFunction.CALC_ADD:
+      case CalculatorMetaFunction.CALC_MULTIPLY:
+        if ( isString( metaA ) || isString( metaB ) ) {
+          return ValueMetaInterface.TYPE_STRING;
+        }
+        break;
+      case CalculatorMetaFunction.CALC_ADD3:
+        if ( isString( metaA ) || isString( metaB ) || isString( metaC ) ) {
+          return ValueMetaInterface.TYPE_STRING;
+        }
+        break;
+      case CalculatorMetaFunction.CALC_SUBTRACT:
+        if ( metaA != null && metaA.isDate() ) {
+          return ValueMetaInterface.TYPE_INTEGER;
+        }
+        break;
+      case CalculatorMetaFunction.CALC_CONSTANT:
+      case CalculatorMetaFunction.CALC_ADD_DAYS:
+      case CalculatorMetaFunction.CALC_ADD_HOURS:
+      case CalculatorMetaFunction.CALC_ADD_MINUTES:
+      case CalculatorMetaFunction.CALC_YEAR_OF_DATE:
+      case CalculatorMetaFunction.CALC_MONTH_OF_DATE:
+      case CalculatorMetaFunction.CALC_DAY_OF_YEAR:
+      case CalculatorMetaFunction.CALC_DAY_OF_MONTH:
+      case CalculatorMetaFunction.CALC_DAY_OF_WEEK:
+      case CalculatorMetaFunction.CALC_WEEK_OF_YEAR:
+      case CalculatorMetaFunction.CALC_WEEK_OF_YEAR_ISO8601:
+      case CalculatorMetaFunction.CALC_YEAR_OF_DATE_ISO8601:
+      case CalculatorMetaFunction.CALC_BYTE_TO_HEX_ENCODE:
+      case CalculatorMetaFunction.CALC_HEX_TO_BYTE_DECODE:
+      case CalculatorMetaFunction.CALC_CHAR_TO_HEX_ENCODE:
+      case CalculatorMetaFunction.CALC_HEX_TO_CHAR_DECODE:
+      case CalculatorMetaFunction.CALC_CRC32:
+      case CalculatorMetaFunction.CALC_ADLER32:
+      case CalculatorMetaFunction.CALC_MD5:
+      case CalculatorMetaFunction.CALC_SHA1:
+      case CalculatorMetaFunction.CALC_LEVENSHTEIN_DISTANCE:
+      case CalculatorMetaFunction.CALC_METAPHONE:
+      case CalculatorMetaFunction.CALC_DOUBLE_METAPHONE:
+      case CalculatorMetaFunction.CALC_DATE_DIFF:
+      case CalculatorMetaFunction.CALC_INITCAP:
+      case CalculatorMetaFunction.CALC_UPPER_CASE:
+      case CalculatorMetaFunction.CALC_LOWER_CASE:
+      case CalculatorMetaFunction.CALC_MASK_XML:
+      case CalculatorMetaFunction.CALC_USE_CDATA:
+      case CalculatorMetaFunction.CALC_REMOVE_CR:
+      case CalculatorMetaFunction.CALC_REMOVE_LF:
+      case CalculatorMetaFunction.CALC_REMOVE_CRLF:
+      case CalculatorMetaFunction.CALC_REMOVE_TAB:
+      case CalculatorMetaFunction.CALC_GET_ONLY_DIGITS:
+      case CalculatorMetaFunction.CALC_REMOVE_DIGITS:
+      case CalculatorMetaFunction.CALC_STRING_LEN:
+      case CalculatorMetaFunction.CALC_LOAD_FILE_CONTENT_BINARY:
+      case CalculatorMetaFunction.CALC_ADD_TIME_TO_DATE:
+      case CalculatorMetaFunction.CALC_QUARTER_OF_DATE:
+      case CalculatorMetaFunction.CALC_SUBSTITUTE_VARIABLE:
+      case CalculatorMetaFunction.CALC_UNESCAPE_XML:
+      case CalculatorMetaFunction.CALC_ESCAPE_HTML:
+      case CalculatorMetaFunction.CALC_UNESCAPE_HTML:
+      case CalculatorMetaFunction.CALC_ESCAPE_SQL:
+      case CalculatorMetaFunction.CALC_DATE_WORKING_DIFF:
+      case CalculatorMetaFunction.CALC_ADD_MONTHS:
+      case CalculatorMetaFunction.CALC_CHECK_XML_FILE_WELL_FORMED:
+      case CalculatorMetaFunction.CALC_CHECK_XML_WELL_FORMED:
+      case CalculatorMetaFunction.CALC_GET_FILE_ENCODING:
+      case CalculatorMetaFunction.CALC_DAMERAU_LEVENSHTEIN:
+      case CalculatorMetaFunction.CALC_NEEDLEMAN_WUNSH:
+      case CalculatorMetaFunction.CALC_JARO:
+      case CalculatorMetaFunction.CALC_JARO_WINKLER:
+      case CalculatorMetaFunction.CALC_SOUNDEX:
+      case CalculatorMetaFunction.CALC_REFINED_SOUNDEX:
+      case CalculatorMetaFunction.CALC_DATE_DIFF_MSEC:
+      case CalculatorMetaFunction.CALC_DATE_DIFF_SEC:
+      case CalculatorMetaFunction.CALC_DATE_DIFF_MN:
+      case CalculatorMetaFunction.CALC_DATE_DIFF_HR:
+      case CalculatorMetaFunction.CALC_HOUR_OF_DAY:
+      case CalculatorMetaFunction.CALC_MINUTE_OF_HOUR:
+      case CalculatorMetaFunction.CALC_SECOND_OF_MINUTE:
+        return CalculatorMetaFunction.calcDefaultResultType[calcType];
+      default:
+        break;
+    }
+    return metaA != null ? metaA.getType() : ValueMetaInterface.TYPE_NONE;
+  }
+
+  private static boolean isString( ValueMetaInterface valueMeta ) {
+    return valueMeta != null && valueMeta.isString();
+  }
+
+  /**
+   * Calculates the value of a row and stores it, converted to the target data type, in the calculation row.
+   *
+   * @param calcData
+   *          the calculation row: the input fields followed by the calculated fields
+   * @throws KettleValueException
+   *           in case there is a calculation error
+   */
+  public void evaluate( Object[] calcData ) throws KettleValueException {
+    Object result =
+      calculate( indexA >= 0 ? calcData[indexA] : null, indexB >= 0 ? calcData[indexB] : null,
+        indexC >= 0 ? calcData[indexC] : null );
+    if ( error != null ) {
+      throw new KettleValueException( error );
+    }
+
+    // Convert the data to the correct target data type.
+    //
+    if ( result != null && resultMeta != null ) {
+      try {
+        result = targetMeta.convertData( resultMeta, result );
+      } catch ( Exception ex ) {
+        throw new KettleValueException( "resultType: " + resultType + "; targetMeta: " + targetMeta.getType(), ex );
+      }
+    }
+    calcData[index] = result;
+  }
+
+  /**
+   * @return the calculated value of the arguments, in the result type
+   */
+  protected abstract Object calculate( Object dataA, Object dataB, Object dataC ) throws KettleValueException;
+
+  private static class CopyEvaluator extends CalculatorEvaluator {
+    CopyEvaluator( CalculatorMetaFunction function, int index, Calculator.FieldIndexes fieldIndexes,
+      RowMetaInterface calcRowMeta ) {
+      super( function, index, fieldIndexes, calcRowMeta );
+    }
+
+    @Override
+    protected Object calculate( Object dataA, Object dataB, Object dataC ) {
+      return dataA;
+    }
+  }
+
+  /**
+   * Converts the constant only once when the converted value is immutable.
+   */
+  private static class ConstantEvaluator extends CalculatorEvaluator {
+    private boolean cached;
+    private Object value;
+
+    ConstantEvaluator( CalculatorMetaFunction function, int index, Calculator.FieldIndexes fieldIndexes,
+      RowMetaInterface calcRowMeta ) {
+      super( function, index, fieldIndexes, calcRowMeta );
+    }
+
+    @Override
+    protected Object calculate( Object dataA, Object dataB, Object dataC ) {
+      return function.getFieldA(); // A string
+    }
+
+    @Override
+    public void evaluate( Object[] calcData ) throws KettleValueException {
+      if ( cached ) {
+        calcData[index] = value;
+        return;
+      }
+      super.evaluate( calcData );
+      Object converted = calcData[index];
+      if ( converted == null || converted instanceof String || converted instanceof Long
+        || converted instanceof Double || converted instanceof Boolean || converted instanceof BigDecimal ) {
+        value = converted;
+        cached = true;
+      }
+    }
+  }
+
+  private static class IntegerEvaluator extends CalculatorEvaluator {
+    private final int calcType;
+
+    IntegerEvaluator( CalculatorMetaFunction function, int index, Calculator.FieldIndexes fieldIndexes,
+      RowMetaInterface calcRowMeta ) {
+      super( function, index, fieldIndexes, calcRowMeta );
+      calcType = function.getCalcType();
+    }
+
+    @Override
+    protected Object calculate( Object dataA, Object dataB, Object dataC ) {
+      if ( dataA == null || dataB == null ) {
+        return null;
+      }
+      long a = ( (Long) dataA ).longValue();
+      long b = ( (Long) dataB ).longValue();
+      switch ( calcType ) {
+        case CalculatorMetaFunction.CALC_ADD:
+          return Long.valueOf( a + b );
+        case CalculatorMetaFunction.CALC_SUBTRACT:
+          return Long.valueOf( a - b );
+        case CalculatorMetaFunction.CALC_MULTIPLY:
+          return Long.valueOf( a * b );
+        default:
+          return Long.valueOf( a / b );
+      }
+    }
+  }
+
+  private static class NumberEvaluator extends CalculatorEvaluator {
+    private final int calcType;
+
+    NumberEvaluator( CalculatorMetaFunction function, int index, Calculator.FieldIndexes fieldIndexes,
+      RowMetaInterface calcRowMeta ) {
+      super( function, index, fieldIndexes, calcRowMeta );
+      calcType = function.getCalcType();
+    }
+
+    @Override
+    protected Object calculate( Object dataA, Object dataB, Object dataC ) {
+      if ( dataA == null || dataB == null ) {
+        return null;
+      }
+      double a = ( (Double) dataA ).doubleValue();
+      double b = ( (Double) dataB ).doubleValue();
+      switch ( calcType ) {
+        case CalculatorMetaFunction.CALC_ADD:
+          return Double.valueOf( a + b );
+        case CalculatorMetaFunction.CALC_SUBTRACT:
+          return Double.valueOf( a - b );
+        case CalculatorMetaFunction.CALC_MULTIPLY:
+          return Double.valueOf( a * b );
+        default:
+          return Double.valueOf( a / b );
+      }
+    }
+  }
+
+  /**
+   * All other calculations go through {@link ValueDataUtil}, with the argument metadata resolved up front.
+   */
+  private static class GenericEvaluator extends CalculatorEvaluator {
+    private final int calcType;
+    private final VariableSpace space;
+
+    GenericEvaluator( CalculatorMetaFunction function, int index, Calculator.FieldIndexes fieldIndexes,
+      RowMetaInterface calcRowMeta, VariableSpace space ) {
+      super( function, index, fieldIndexes, calcRowMeta );
+      this.calcType = function.getCalcType();
+      this.space = space;
+    }
+
+    @Override
+    protected Object calculate( Object dataA, Object dataB, Object dataC ) throws KettleValueException {
+      switch ( calcType ) {
+        case CalculatorMetaFunction.CALC_NONE:
+          return null;
+        case CalculatorMetaFunction.CALC_COPY_OF_FIELD: // Create a copy of field A
+          return dataA;
+        case CalculatorMetaFunction.CALC_ADD: // A + B
+          return ValueDataUtil.plus( metaA, dataA, metaB, dataB );
+        case CalculatorMetaFunction.CALC_SUBTRACT: // A - B
+          return ValueDataUtil.minus( metaA, dataA, metaB, dataB );
+        case CalculatorMetaFunction.CALC_MULTIPLY: // A * B
+          return ValueDataUtil.multiply( metaA, dataA, metaB, dataB );
+        case CalculatorMetaFunction.CALC_DIVIDE: // A / B
+          return ValueDataUtil.divide( metaA, dataA, metaB, dataB );
+        case CalculatorMetaFunction.CALC_SQUARE: // A * A
+          return ValueDataUtil.multiply( metaA, dataA, metaA, dataA );
+        case CalculatorMetaFunction.CALC_SQUARE_ROOT: // SQRT( A )
+          return ValueDataUtil.sqrt( metaA, dataA );
+        case CalculatorMetaFunction.CALC_PERCENT_1: // 100 * A / B
+          return ValueDataUtil.percent1( metaA, dataA, metaB, dataB );
+        case CalculatorMetaFunction.CALC_PERCENT_2: // A - ( A * B / 100 )
+          return ValueDataUtil.percent2( metaA, dataA, metaB, dataB );
+        case CalculatorMetaFunction.CALC_PERCENT_3: // A + ( A * B / 100 )
+          return ValueDataUtil.percent3( metaA, dataA, metaB, dataB );
+        case CalculatorMetaFunction.CALC_COMBINATION_1: // A + B * C
+          return ValueDataUtil.combination1( metaA, dataA, metaB, dataB, metaC, dataC );
+        case CalculatorMetaFunction.CALC_COMBINATION_2: // SQRT( A*A + B*B )
+          return ValueDataUtil.combination2( metaA, dataA, metaB, dataB );
+        case CalculatorMetaFunction.CALC_ROUND_1: // ROUND( A )
+          return ValueDataUtil.round( metaA, dataA );
+        case CalculatorMetaFunction.CALC_ROUND_2: // ROUND( A , B )
+          return ValueDataUtil.round( metaA, dataA, metaB, dataB );
+        case CalculatorMetaFunction.CALC_ROUND_CUSTOM_1: // ROUND( A , B )
+          return ValueDataUtil.round( metaA, dataA, metaB.getNumber( dataB ).intValue() );
+        case CalculatorMetaFunction.CALC_ROUND_CUSTOM_2: // ROUND( A , B, C )
+          return ValueDataUtil.round( metaA, dataA, metaB, dataB, metaC.getNumber( dataC ).intValue() );
+        case CalculatorMetaFunction.CALC_ROUND_STD_1: // ROUND( A )
+          return ValueDataUtil.round( metaA, dataA, java.math.BigDecimal.ROUND_HALF_UP );
+        case CalculatorMetaFunction.CALC_ROUND_STD_2: // ROUND( A , B )
+          return ValueDataUtil.round( metaA, dataA, metaB, dataB, java.math.BigDecimal.ROUND_HALF_UP );
+        case CalculatorMetaFunction.CALC_CEIL: // CEIL( A )
+          return ValueDataUtil.ceil( metaA, dataA );
+        case CalculatorMetaFunction.CALC_FLOOR: // FLOOR( A )
+          return ValueDataUtil.floor( metaA, dataA );
+        case CalculatorMetaFunction.CALC_CONSTANT: // Set field to constant value...
+          return function.getFieldA(); // A string
+        case CalculatorMetaFunction.CALC_NVL: // Replace null values with another value
+          return ValueDataUtil.nvl( metaA, dataA, metaB, dataB );
+        case CalculatorMetaFunction.CALC_ADD_DAYS: // Add B days to date field A
+          return ValueDataUtil.addDays( metaA, dataA, metaB, dataB );
+        case CalculatorMetaFunction.CALC_ADD_HOURS: // Add B hours to date field A
+          return ValueDataUtil.addHours( metaA, dataA, metaB, dataB );
+        case CalculatorMetaFunction.CALC_ADD_MINUTES: // Add B minutes to date field A
+          return ValueDataUtil.addMinutes( metaA, dataA, metaB, dataB );
+        case CalculatorMetaFunction.CALC_YEAR_OF_DATE: // What is the year (Integer) of a date?
+          return ValueDataUtil.yearOfDate( metaA, dataA );
+        case CalculatorMetaFunction.CALC_MONTH_OF_DATE: // What is the month (Integer) of a date?
+          return ValueDataUtil.monthOfDate( metaA, dataA );
+        case CalculatorMetaFunction.CALC_DAY_OF_YEAR: // What is the day of year (Integer) of a date?
+          return ValueDataUtil.dayOfYear( metaA, dataA );
+        case CalculatorMetaFunction.CALC_DAY_OF_MONTH: // What is the day of month (Integer) of a date?
+          return ValueDataUtil.dayOfMonth( metaA, dataA );
+        case CalculatorMetaFunction.CALC_DAY_OF_WEEK: // What is the day of week (Integer) of a date?
+          return ValueDataUtil.dayOfWeek( metaA, dataA );
+        case CalculatorMetaFunction.CALC_WEEK_OF_YEAR: // What is the week of year (Integer) of a date?
+          return ValueDataUtil.weekOfYear( metaA, dataA );
+        case CalculatorMetaFunction.CALC_WEEK_OF_YEAR_ISO8601: // What is the week of year (Integer) of a date ISO8601
+                                                               // style?
+          return ValueDataUtil.weekOfYearISO8601( metaA, dataA );
+        case CalculatorMetaFunction.CALC_YEAR_OF_DATE_ISO8601: // What is the year (Integer) of a date ISO8601 style?
+          return ValueDataUtil.yearOfDateISO8601( metaA, dataA );
+        case CalculatorMetaFunction.CALC_BYTE_TO_HEX_ENCODE: // Byte to Hex encode string field A
+          return ValueDataUtil.byteToHexEncode( metaA, dataA );
+        case CalculatorMetaFunction.CALC_HEX_TO_BYTE_DECODE: // Hex to Byte decode string field A
+          return ValueDataUtil.hexToByteDecode( metaA, dataA );
+        case CalculatorMetaFunction.CALC_CHAR_TO_HEX_ENCODE: // Char to Hex encode string field A
+          return ValueDataUtil.charToHexEncode( metaA, dataA );
+        case CalculatorMetaFunction.CALC_HEX_TO_CHAR_DECODE: // Hex to Char decode string field A
+          return ValueDataUtil.hexToCharDecode( metaA, dataA );
+        case CalculatorMetaFunction.CALC_CRC32: // CRC32
+          return ValueDataUtil.ChecksumCRC32( metaA, dataA );
+        case CalculatorMetaFunction.CALC_ADLER32: // ADLER32
+          return ValueDataUtil.ChecksumAdler32( metaA, dataA );
+        case CalculatorMetaFunction.CALC_MD5: // MD5
+          return ValueDataUtil.createChecksum( metaA, dataA, "MD5" );
+        case CalculatorMetaFunction.CALC_SHA1: // SHA-1
+          return ValueDataUtil.createChecksum( metaA, dataA, "SHA-1" );
+        case CalculatorMetaFunction.CALC_LEVENSHTEIN_DISTANCE: // LEVENSHTEIN DISTANCE
+          return ValueDataUtil.getLevenshtein_Distance( metaA, dataA, metaB, dataB );
+        case CalculatorMetaFunction.CALC_METAPHONE: // METAPHONE
+          return ValueDataUtil.get_Metaphone( metaA, dataA );
+        case CalculatorMetaFunction.CALC_DOUBLE_METAPHONE: // Double METAPHONE
+          return ValueDataUtil.get_Double_Metaphone( metaA, dataA );
+        case CalculatorMetaFunction.CALC_ABS: // ABS( A )
+          return ValueDataUtil.abs( metaA, dataA );
+        case CalculatorMetaFunction.CALC_REMOVE_TIME_FROM_DATE: // Remove Time from field A
+          return ValueDataUtil.removeTimeFromDate( metaA, dataA );
+        case CalculatorMetaFunction.CALC_DATE_DIFF: // DateA - DateB
+          return ValueDataUtil.DateDiff( metaA, dataA, metaB, dataB, "d" );
+        case CalculatorMetaFunction.CALC_ADD3: // A + B + C
+          return ValueDataUtil.plus3( metaA, dataA, metaB, dataB, metaC, dataC );
+        case CalculatorMetaFunction.CALC_INITCAP: // InitCap( A )
+          return ValueDataUtil.initCap( metaA, dataA );
+        case CalculatorMetaFunction.CALC_UPPER_CASE: // UpperCase( A )
+          return ValueDataUtil.upperCase( metaA, dataA );
+        case CalculatorMetaFunction.CALC_LOWER_CASE: // UpperCase( A )
+          return ValueDataUtil.lowerCase( metaA, dataA );
+        case CalculatorMetaFunction.CALC_MASK_XML: // escapeXML( A )
+          return ValueDataUtil.escapeXML( metaA, dataA );
+        case CalculatorMetaFunction.CALC_USE_CDATA: // CDATA( A )
+          return ValueDataUtil.useCDATA( metaA, dataA );
+        case CalculatorMetaFunction.CALC_REMOVE_CR: // REMOVE CR FROM A
+          return ValueDataUtil.removeCR( metaA, dataA );
+        case CalculatorMetaFunction.CALC_REMOVE_LF: // REMOVE LF FROM A
+          return ValueDataUtil.removeLF( metaA, dataA );
+        case CalculatorMetaFunction.CALC_REMOVE_CRLF: // REMOVE CRLF FROM A
+          return ValueDataUtil.removeCRLF( metaA, dataA );
+        case CalculatorMetaFunction.CALC_REMOVE_TAB: // REMOVE TAB FROM A
+          return ValueDataUtil.removeTAB( metaA, dataA );
+        case CalculatorMetaFunction.CALC_GET_ONLY_DIGITS: // GET ONLY DIGITS FROM A
+          return ValueDataUtil.getDigits( metaA, dataA );
+        case CalculatorMetaFunction.CALC_REMOVE_DIGITS: // REMOVE DIGITS FROM A
+          return ValueDataUtil.removeDigits( metaA, dataA );
+        case CalculatorMetaFunction.CALC_STRING_LEN: // RETURN THE LENGTH OF A
+          return ValueDataUtil.stringLen( metaA, dataA );
+        case CalculatorMetaFunction.CALC_LOAD_FILE_CONTENT_BINARY: // LOAD CONTENT OF A FILE A IN A BLOB
+          return ValueDataUtil.loadFileContentInBinary( metaA, dataA );
+        case CalculatorMetaFunction.CALC_ADD_TIME_TO_DATE: // Add time B to a date A
+          return ValueDataUtil.addTimeToDate( metaA, dataA, metaB, dataB, metaC, dataC );
+        case CalculatorMetaFunction.CALC_QUARTER_OF_DATE: // What is the quarter (Integer) of a date?
+          return ValueDataUtil.quarterOfDate( metaA, dataA );
+        case CalculatorMetaFunction.CALC_SUBSTITUTE_VARIABLE: // variable substitution in string
+          return space.environmentSubstitute( dataA.toString() );
+        case CalculatorMetaFunction.CALC_UNESCAPE_XML: // UnescapeXML( A )
+          return ValueDataUtil.unEscapeXML( metaA, dataA );
+        case CalculatorMetaFunction.CALC_ESCAPE_HTML: // EscapeHTML( A )
+          return ValueDataUtil.escapeHTML( metaA, dataA );
+        case CalculatorMetaFunction.CALC_UNESCAPE_HTML: // UnescapeHTML( A )
+          return ValueDataUtil.unEscapeHTML( metaA, dataA );
+        case CalculatorMetaFunction.CALC_ESCAPE_SQL: // EscapeSQL( A )
+          return ValueDataUtil.escapeSQL( metaA, dataA );
+        case CalculatorMetaFunction.CALC_DATE_WORKING_DIFF: // DateWorkingDiff( A , B)
+          return ValueDataUtil.DateWorkingDiff( metaA, dataA, metaB, dataB );
+        case CalculatorMetaFunction.CALC_ADD_MONTHS: // Add B months to date field A
+          return ValueDataUtil.addMonths( metaA, dataA, metaB, dataB );
+        case CalculatorMetaFunction.CALC_CHECK_XML_FILE_WELL_FORMED: // Check if file A is well formed
+          return ValueDataUtil.isXMLFileWellFormed( metaA, dataA );
+        case CalculatorMetaFunction.CALC_CHECK_XML_WELL_FORMED: // Check if xml A is well formed
+          return ValueDataUtil.isXMLWellFormed( metaA, dataA );
+        case CalculatorMetaFunction.CALC_GET_FILE_ENCODING: // Get file encoding from a file A
+          return ValueDataUtil.getFileEncoding( metaA, dataA );
+        case CalculatorMetaFunction.CALC_DAMERAU_LEVENSHTEIN: // DAMERAULEVENSHTEIN DISTANCE
+          return ValueDataUtil.getDamerauLevenshtein_Distance( metaA, dataA, metaB, dataB );
+        case CalculatorMetaFunction.CALC_NEEDLEMAN_WUNSH: // NEEDLEMANWUNSH DISTANCE
+          return ValueDataUtil.getNeedlemanWunsch_Distance( metaA, dataA, metaB, dataB );
+        case CalculatorMetaFunction.CALC_JARO: // Jaro DISTANCE
+          return ValueDataUtil.getJaro_Similitude( metaA, dataA, metaB, dataB );
+        case CalculatorMetaFunction.CALC_JARO_WINKLER: // Jaro DISTANCE
+          return ValueDataUtil.getJaroWinkler_Similitude( metaA, dataA, metaB, dataB );
+        case CalculatorMetaFunction.CALC_SOUNDEX: // SOUNDEX
+          return ValueDataUtil.get_SoundEx( metaA, dataA );
+        case CalculatorMetaFunction.CALC_REFINED_SOUNDEX: // REFINEDSOUNDEX
+          return ValueDataUtil.get_RefinedSoundEx( metaA, dataA );
+        case CalculatorMetaFunction.CALC_DATE_DIFF_MSEC: // DateA - DateB (ms)
+          return ValueDataUtil.DateDiff( metaA, dataA, metaB, dataB, "ms" );
+        case CalculatorMetaFunction.CALC_DATE_DIFF_SEC: // DateA - DateB (s)
+          return ValueDataUtil.DateDiff( metaA, dataA, metaB, dataB, "s" );
+        case CalculatorMetaFunction.CALC_DATE_DIFF_MN: // DateA - DateB (mn)
+          return ValueDataUtil.DateDiff( metaA, dataA, metaB, dataB, "mn" );
+        case CalculatorMetaFunction.CALC_DATE_DIFF_HR: // DateA - DateB (h)
+          return ValueDataUtil.DateDiff( metaA, dataA, metaB, dataB, "h" );
+        case CalculatorMetaFunction.CALC_HOUR_OF_DAY:
+          return ValueDataUtil.hourOfDay( metaA, dataA );
+        case CalculatorMetaFunction.CALC_MINUTE_OF_HOUR:
+          return ValueDataUtil.minuteOfHour( metaA, dataA );
+        case CalculatorMetaFunction.CALC_SECOND_OF_MINUTE:
+          return ValueDataUtil.secondOfMinute( metaA, dataA );
+        default:
+          throw new KettleValueException( BaseMessages.getString( PKG, "Calculator.Log.UnknownCalculationType" )
+            + calcType );
+      }
+    }
+  }
+}
@@ -30,6 +30,7 @@ import java.sql.Timestamp;
 
 import org.pentaho.di.core.CheckResult;
 import org.pentaho.di.core.CheckResultInterface;
+import org.pentaho.di.core.RowBatch;
 import org.pentaho.di.core.RowMetaAndData;
 import org.pentaho.di.core.exception.KettleException;
 import org.pentaho.di.core.row.RowDataUtil;
@@ -43,6 +44,8 @@ import org.pentaho.di.i18n.BaseMessages;
 import org.pentaho.di.trans.Trans;
 import org.pentaho.di.trans.TransMeta;
 import org.pentaho.di.trans.step.BaseStep;
+import org.pentaho.di.trans.step.ReusableStep;
+import org.pentaho.di.trans.step.RowBatchProcessor;
 import org.pentaho.di.trans.step.StepDataInterface;
 import org.pentaho.di.trans.step.StepInterface;
 import org.pentaho.di.trans.step.StepMeta;
@@ -54,7 +57,7 @@ import org.pentaho.di.trans.step.StepMetaInterface;
  * @author Matt
  * @since 4-apr-2003
  */
-public class Constant extends BaseStep implements StepInterface {
+public class Constant extends BaseStep implements StepInterface, RowBatchProcessor, ReusableStep {
   private static Class<?> PKG = ConstantMeta.class; // for i18n purposes, needed by Translator2!!
 
   private ConstantMeta meta;
@@ -230,14 +233,7 @@ public class Constant extends BaseStep implements StepInterface {
     }
 
     if ( data.firstRow ) {
-      // The output meta is the original input meta + the
-      // additional constant fields.
-
-      data.firstRow = false;
-      data.outputMeta = getInputRowMeta().clone();
-
-      RowMetaInterface constants = data.constants.getRowMeta();
-      data.outputMeta.mergeRowMeta( constants );
+      prepareOutputRowMeta();
     }
 
     // Add the constant data to the end of the row.
@@ -259,6 +255,46 @@ public class Constant extends BaseStep implements StepInterface {
     return true;
   }
 
+  public boolean processRows( StepMetaInterface smi, StepDataInterface sdi, RowBatch batch ) throws KettleException {
+    if ( batch == null ) { // no more rows to be expected from the previous step(s)
+      setOutputDone();
+      return false;
+    }
+
+    if ( data.firstRow ) {
+      prepareOutputRowMeta();
+    }
+
+    // Add the constant data to the end of the rows.
+    int inputSize = getInputRowMeta().size();
+    Object[] constants = data.constants.getData();
+    for ( int i = 0; i < batch.size(); i++ ) {
+      batch.set( i, RowDataUtil.addRowData( batch.get( i ), inputSize, constants ) );
+    }
+
+    long linesWritten = getLinesWritten();
+    putRows( data.outputMeta, batch );
+
+    if ( checkFeedback( linesWritten, getLinesWritten() ) ) {
+      if ( log.isBasic() ) {
+        logBasic( BaseMessages.getString( PKG, "Constant.Log.LineNr", Long.toString( getLinesWritten() ) ) );
+      }
+    }
+
+    return true;
+  }
+
+  private void prepareOutputRowMeta() {
+    // The output meta is the original input meta + the
+    // additional constant fields.
+
+    data.firstRow = false;
+    data.outputMeta = getInputRowMeta().clone();
+
+    RowMetaInterface constants = data.constants.getRowMeta();
+    data.outputMeta.mergeRowMeta( constants );
+  }
+
   public boolean init( StepMetaInterface smi, StepDataInterface sdi ) {
     meta = (ConstantMeta) smi;
     data = (ConstantData) sdi;
@@ -281,4 +317,7 @@ public class Constant extends BaseStep implements StepInterface {
     return false;
   }
 
+  public void resetForNextExecution() throws KettleException {
+    // The constant values don't depend on the rows of a group, keep them.
+  }
 }
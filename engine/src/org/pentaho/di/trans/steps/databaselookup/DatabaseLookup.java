@@ -22,16 +22,25 @@
 
 package org.pentaho.di.trans.steps.databaselookup;
 
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.sql.ResultSet;
 import java.util.Arrays;
 import java.util.List;
+import java.util.TreeMap;
+import java.util.UUID;
 
 import com.google.common.annotations.VisibleForTesting;
 import org.pentaho.di.core.Const;
+import org.pentaho.di.core.cache.SharedCacheRegistry;
 import org.pentaho.di.core.database.Database;
 import org.pentaho.di.core.database.DatabaseMeta;
 import org.pentaho.di.core.exception.KettleDatabaseException;
 import org.pentaho.di.core.exception.KettleException;
 import org.pentaho.di.core.exception.KettleStepException;
+import org.pentaho.di.core.hash.OffHeapHashIndex;
+import org.pentaho.di.core.logging.Metrics;
 import org.pentaho.di.core.row.RowDataUtil;
 import org.pentaho.di.core.row.RowMeta;
 import org.pentaho.di.core.row.RowMetaInterface;
@@ -42,6 +51,7 @@ import org.pentaho.di.i18n.BaseMessages;
 import org.pentaho.di.trans.Trans;
 import org.pentaho.di.trans.TransMeta;
 import org.pentaho.di.trans.step.BaseStep;
+import org.pentaho.di.trans.step.ReusableStep;
 import org.pentaho.di.trans.step.StepDataInterface;
 import org.pentaho.di.trans.step.StepInterface;
 import org.pentaho.di.trans.step.StepMeta;
@@ -54,7 +64,7 @@ import org.pentaho.di.trans.steps.databaselookup.readallcache.ReadAllCache;
  * @author Matt
  * @since 26-apr-2003
  */
-public class DatabaseLookup extends BaseStep implements StepInterface {
+public class DatabaseLookup extends BaseStep implements StepInterface, ReusableStep {
   private static Class<?> PKG = DatabaseLookupMeta.class; // for i18n purposes, needed by Translator2!!
 
   private DatabaseLookupMeta meta;
@@ -117,6 +127,9 @@ public class DatabaseLookup extends BaseStep implements StepInterface {
       add = data.cache.getRowFromCache( data.lookupMeta, lookupRow );
       if ( add != null ) {
         cacheHit = true;
+        data.cacheHits++;
+      } else {
+        data.cacheMisses++;
       }
     } else {
       add = null;
@@ -369,10 +382,6 @@ public class DatabaseLookup extends BaseStep implements StepInterface {
         }
       }
 
-      if ( meta.isCached() ) {
-        data.cache = DefaultCache.newCache( data, meta.getCacheSize() );
-      }
-
       determineFieldsTypesQueryingDb();
 
       initNullIf();
@@ -381,10 +390,12 @@ public class DatabaseLookup extends BaseStep implements StepInterface {
 
       initReturnMeta();
 
-      // If the user selected to load all data into the cache at startup, that's what we do now...
-      //
-      if ( meta.isCached() && meta.isLoadingAllDataInCache() ) {
-        loadAllTableDataIntoTheCache();
+      if ( meta.isCached() ) {
+        if ( getTrans() != null && "Y".equalsIgnoreCase( getVariable( Const.KETTLE_LOOKUP_CACHE_SHARED, "N" ) ) ) {
+          acquireSharedCache();
+        } else {
+          createCache( data );
+        }
       }
 
     }
@@ -426,7 +437,84 @@ public class DatabaseLookup extends BaseStep implements StepInterface {
     return true;
   }
 
-  private void loadAllTableDataIntoTheCache() throws KettleException {
+  /**
+   * @param cacheData
+   *          the lookup conditions the cache evaluates
+   */
+  private void createCache( DatabaseLookupData cacheData ) throws KettleException {
+    // If the user selected to load all data into the cache at startup, that's what we do now...
+    //
+    if ( meta.isLoadingAllDataInCache() ) {
+      data.cache = DefaultCache.newCache( cacheData, meta.getCacheSize() );
+      loadAllTableDataIntoTheCache( cacheData );
+    } else {
+      long timeToLive = Const.toLong( getVariable( Const.KETTLE_LOOKUP_CACHE_TIME_TO_LIVE ), 0L ) * 1000L;
+      data.cache = DefaultCache.newCache( cacheData, meta.getCacheSize(), meta.getCacheSize(), timeToLive );
+    }
+  }
+
+  /**
+   * @return a copy of the lookup conditions for a cache that outlives this copy of the step
+   */
+  private DatabaseLookupData copyLookupConditions() {
+    DatabaseLookupData conditions = new DatabaseLookupData();
+    conditions.allEquals = data.allEquals;
+    conditions.hasDBCondition = data.hasDBCondition;
+    conditions.conditions = data.conditions == null ? null : data.conditions.clone();
+    return conditions;
+  }
+
+  /**
+   * Use the cache of another copy of this step, or of a step doing the same lookup in another transformation of the
+   * job. The first one to get here loads the cache.
+   */
+  private void acquireSharedCache() throws KettleException {
+    SharedCacheRegistry registry = getTrans().getSharedCacheRegistry();
+    String name = getSharedCacheName();
+    data.cache = registry.acquire( name, new SharedCacheRegistry.Loader<DatabaseLookupData.Cache>() {
+      @Override
+      public DatabaseLookupData.Cache load() throws KettleException {
+        // The cache is used by other steps after this one is disposed, don't let it see our step data
+        createCache( copyLookupConditions() );
+        if ( meta.isLoadingAllDataInCache() ) {
+          return data.cache; // read-only from now on
+        }
+        return new SynchronizedCache( data.cache );
+      }
+    } );
+    data.sharedCacheRegistry = registry;
+    data.sharedCacheName = name;
+
+    if ( log.isDetailed() ) {
+      logDetailed( BaseMessages.getString( PKG, "DatabaseLookup.Log.UsingSharedCache", name,
+        registry.getReferenceCount( name ) ) );
+    }
+  }
+
+  /**
+   * @return a name describing everything that determines the content of the cache: the database, the lookup and the
+   *         data types
+   */
+  private String getSharedCacheName() throws KettleDatabaseException {
+    StringBuilder name = new StringBuilder( "DatabaseLookup" );
+    name.append( '|' ).append( getDatabaseIdentity( meta.getDatabaseMeta() ) );
+    name.append( '|' ).append( environmentSubstitute( meta.getSchemaName() ) );
+    name.append( '|' ).append( environmentSubstitute( meta.getTablename() ) );
+    for ( int i = 0; i < meta.getTableKeyField().length; i++ ) {
+      name.append( '|' ).append( meta.getTableKeyField()[ i ] ).append( ' ' ).append( meta.getKeyCondition()[ i ] );
+      name.append( ' ' ).append( data.keytypes[ i ] );
+    }
+    for ( int i = 0; i < meta.getReturnValueField().length; i++ ) {
+      name.append( '|' ).append( meta.getReturnValueField()[ i ] ).append( ' ' )
+        .append( meta.getReturnValueDefaultType()[ i ] );
+    }
+    name.append( '|' ).append( meta.getOrderByClause() );
+    name.append( '|' ).append( meta.isLoadingAllDataInCache() ).append( ' ' ).append( meta.getCacheSize() );
+    name.append( ' ' ).append( meta.isFailingOnMultipleResults() );
+    return name.toString();
+  }
+
+  private void loadAllTableDataIntoTheCache( DatabaseLookupData cacheData ) throws KettleException {
     DatabaseMeta dbMeta = meta.getDatabaseMeta();
 
     Database db = getDatabase( dbMeta );
@@ -461,6 +549,13 @@ public class DatabaseLookup extends BaseStep implements StepInterface {
         sql += " ORDER BY " + meta.getOrderByClause();
       }
 
+      // Large tables can be kept outside of the heap, possibly in a snapshot file shared between runs
+      //
+      if ( data.allEquals && "Y".equalsIgnoreCase( getVariable( Const.KETTLE_LOOKUP_CACHE_OFF_HEAP, "N" ) )
+        && loadIntoOffHeapCache( db, dbMeta, sql ) ) {
+        return;
+      }
+
       // Now that we have the SQL constructed, let's store the rows...
       //
       List<Object[]> rows = db.getRows( sql, 0 );
@@ -468,7 +563,7 @@ public class DatabaseLookup extends BaseStep implements StepInterface {
         if ( data.allEquals ) {
           putToDefaultCache( db, rows );
         } else {
-          putToReadOnlyCache( db, rows );
+          putToReadOnlyCache( db, rows, cacheData );
         }
       }
     } catch ( Exception e ) {
@@ -488,9 +583,8 @@ public class DatabaseLookup extends BaseStep implements StepInterface {
     //
     for ( Object[] row : rows ) {
       int index = 0;
-      // not sure it is efficient to re-create the same on every row,
-      // but this was done earlier, so I'm keeping this behaviour
-      RowMetaInterface keyMeta = prototype.clone();
+      // the cache only reads the key metadata, all rows can share it
+      RowMetaInterface keyMeta = prototype;
       Object[] keyData = new Object[ keysAmount ];
       for ( int i = 0; i < keysAmount; i++ ) {
         keyData[ i ] = row[ index++ ];
@@ -508,6 +602,131 @@ public class DatabaseLookup extends BaseStep implements StepInterface {
     }
   }
 
+  /**
+   * Load the table into an off-heap cache. When a snapshot directory is configured a recent enough snapshot of the same
+   * query is reused, otherwise the rows are written to a new snapshot for the next runs.
+   *
+   * @return false if the keys or values can't be stored off-heap and the table wasn't loaded
+   */
+  private boolean loadIntoOffHeapCache( Database db, DatabaseMeta dbMeta, String sql ) throws KettleException {
+    RowMetaInterface keyMeta = data.lookupMeta.clone();
+    for ( ValueMetaInterface valueMeta : keyMeta.getValueMetaList() ) {
+      valueMeta.setStorageType( ValueMetaInterface.STORAGE_TYPE_NORMAL );
+    }
+    RowMetaInterface valueMeta = data.returnMeta.clone();
+    if ( !OffHeapHashIndex.isSupported( keyMeta, valueMeta ) ) {
+      return false;
+    }
+
+    File snapshotFile = null;
+    String snapshotDir = environmentSubstitute( getVariable( Const.KETTLE_LOOKUP_CACHE_SNAPSHOT_DIR ) );
+    if ( !Const.isEmpty( snapshotDir ) ) {
+      String identity = getDatabaseIdentity( dbMeta ) + "|" + sql;
+      snapshotFile = new File( snapshotDir, "lookup-"
+        + UUID.nameUUIDFromBytes( identity.getBytes( Charset.forName( "UTF-8" ) ) ) + ".snapshot" );
+
+      long maxAge = Const.toLong( getVariable( Const.KETTLE_LOOKUP_CACHE_SNAPSHOT_MAX_AGE ), 60L ) * 60000L;
+      if ( snapshotFile.lastModified() > System.currentTimeMillis() - maxAge ) {
+        OffHeapHashIndex index = OffHeapHashIndex.open( keyMeta, valueMeta, snapshotFile );
+        if ( index != null ) {
+          data.cache = new OffHeapCache( index );
+          if ( log.isDetailed() ) {
+            logDetailed( BaseMessages.getString( PKG, "DatabaseLookup.Log.UsingCacheSnapshot", snapshotFile,
+              index.getSize() ) );
+          }
+          return true;
+        }
+      }
+    }
+
+    final int keysAmount = meta.getStreamKeyField1().length;
+    ResultSet resultSet = db.openQuery( sql );
+    OffHeapHashIndex index = null;
+    File tempFile = null;
+    try {
+      // The rows are serialized with the lookup metadata, so the database has to deliver the same key types.
+      // Return values of another type are converted to the configured type.
+      //
+      RowMetaInterface returnRowMeta = db.getReturnRowMeta();
+      for ( int i = 0; i < keysAmount; i++ ) {
+        if ( returnRowMeta.getValueMeta( i ).getType() != keyMeta.getValueMeta( i ).getType() ) {
+          return false;
+        }
+      }
+      ValueMetaInterface[] convertFrom = new ValueMetaInterface[ valueMeta.size() ];
+      for ( int i = 0; i < convertFrom.length; i++ ) {
+        ValueMetaInterface dbValueMeta = returnRowMeta.getValueMeta( keysAmount + i );
+        if ( dbValueMeta.getType() != valueMeta.getValueMeta( i ).getType() ) {
+          convertFrom[ i ] = dbValueMeta;
+        }
+      }
+
+      if ( snapshotFile != null ) {
+        snapshotFile.getParentFile().mkdirs();
+        tempFile = File.createTempFile( snapshotFile.getName(), ".tmp", snapshotFile.getParentFile() );
+        index = OffHeapHashIndex.create( keyMeta, valueMeta, tempFile );
+      } else {
+        index = new OffHeapHashIndex( keyMeta, valueMeta );
+      }
+
+      Object[] row = db.getRow( resultSet );
+      while ( row != null ) {
+        Object[] keyData = new Object[ keysAmount ];
+        System.arraycopy( row, 0, keyData, 0, keysAmount );
+        Object[] valueData = new Object[ valueMeta.size() ];
+        for ( int i = 0; i < valueData.length; i++ ) {
+          Object value = row[ keysAmount + i ];
+          if ( convertFrom[ i ] != null ) {
+            value = valueMeta.getValueMeta( i ).convertData( convertFrom[ i ], value );
+          }
+          valueData[ i ] = value;
+        }
+        index.put( keyData, valueData );
+        incrementLinesInput();
+        row = db.getRow( resultSet );
+      }
+
+      if ( tempFile != null ) {
+        // Publish the snapshot in one go, the mapping stays valid after the rename.
+        // If the rename fails (another copy published it first) the file stays private to this run.
+        //
+        index.finish();
+        if ( snapshotFile.delete() || !snapshotFile.exists() ) {
+          if ( tempFile.renameTo( snapshotFile ) ) {
+            tempFile = null;
+          }
+        }
+      }
+      data.cache = new OffHeapCache( index );
+      index = null;
+      return true;
+    } catch ( IOException e ) {
+      throw new KettleException( e );
+    } finally {
+      if ( index != null ) {
+        index.close();
+      }
+      if ( tempFile != null && !tempFile.delete() ) {
+        tempFile.deleteOnExit();
+      }
+      db.closeQuery( resultSet );
+    }
+  }
+
+  /**
+   * @return a description of the database the step reads from: the URL with host, port and database, the user, the
+   *         access type and the connection options
+   */
+  private String getDatabaseIdentity( DatabaseMeta dbMeta ) throws KettleDatabaseException {
+    StringBuilder identity = new StringBuilder( dbMeta.getName() );
+    identity.append( '|' ).append( environmentSubstitute( dbMeta.getURL() ) );
+    identity.append( '|' ).append( environmentSubstitute( dbMeta.getUsername() ) );
+    identity.append( '|' ).append( dbMeta.getAccessTypeDesc() );
+    identity.append( '|' ).append( environmentSubstitute( new TreeMap<String, String>( dbMeta.getExtraOptions() )
+      .toString() ) );
+    return identity.toString();
+  }
+
   private RowMetaInterface copyValueMetasFrom( RowMetaInterface source, int n ) {
     RowMeta result = new RowMeta();
     for ( int i = 0; i < n; i++ ) {
@@ -518,8 +737,8 @@ public class DatabaseLookup extends BaseStep implements StepInterface {
     return result;
   }
 
-  private void putToReadOnlyCache( Database db, List<Object[]> rows ) {
-    ReadAllCache.Builder cacheBuilder = new ReadAllCache.Builder( data, rows.size() );
+  private void putToReadOnlyCache( Database db, List<Object[]> rows, DatabaseLookupData cacheData ) {
+    ReadAllCache.Builder cacheBuilder = new ReadAllCache.Builder( cacheData, rows.size() );
 
     // all keys have the same row meta,
     // it is useless to re-create it each time
@@ -608,13 +827,42 @@ public class DatabaseLookup extends BaseStep implements StepInterface {
       data.db.disconnect();
     }
 
+    if ( meta.isCached() ) {
+      logCacheStatistics();
+    }
+
     // Recover memory immediately, allow in-memory data to be garbage collected
     //
+    if ( data.sharedCacheRegistry != null ) {
+      data.sharedCacheRegistry.release( data.sharedCacheName );
+      data.sharedCacheRegistry = null;
+    } else if ( data.cache instanceof OffHeapCache ) {
+      ( (OffHeapCache) data.cache ).close();
+    }
     data.cache = null;
 
     super.dispose( smi, sdi );
   }
 
+  private void logCacheStatistics() {
+    // Evictions are counted per cache, only report them for a cache this copy doesn't share
+    //
+    long evictions = 0L;
+    if ( data.sharedCacheRegistry == null && data.cache instanceof DefaultCache ) {
+      DefaultCache cache = (DefaultCache) data.cache;
+      evictions = cache.getEvictionCount() + cache.getExpirationCount();
+    }
+    if ( log.isDetailed() ) {
+      logDetailed( BaseMessages.getString( PKG, "DatabaseLookup.Log.CacheStatistics", data.cacheHits,
+        data.cacheMisses, evictions ) );
+    }
+    if ( log.isGatheringMetrics() ) {
+      log.snap( Metrics.METRIC_LOOKUP_CACHE_HIT_COUNT, getStepname(), data.cacheHits );
+      log.snap( Metrics.METRIC_LOOKUP_CACHE_MISS_COUNT, getStepname(), data.cacheMisses );
+      log.snap( Metrics.METRIC_LOOKUP_CACHE_EVICTION_COUNT, getStepname(), evictions );
+    }
+  }
+
   /*
    * this method is required in order to
    * provide ability for unit tests to
@@ -641,4 +889,8 @@ public class DatabaseLookup extends BaseStep implements StepInterface {
       logDetailed( BaseMessages.getString( PKG, "DatabaseLookup.Log.ConnectedToDatabase" ) );
     }
   }
+
+  public void resetForNextExecution() throws KettleException {
+    // Keep the connection, the prepared statement and the lookup cache for the next group.
+  }
 }
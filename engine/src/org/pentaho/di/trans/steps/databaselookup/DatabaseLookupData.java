@@ -22,6 +22,7 @@
 
 package org.pentaho.di.trans.steps.databaselookup;
 
+import org.pentaho.di.core.cache.SharedCacheRegistry;
 import org.pentaho.di.core.database.Database;
 import org.pentaho.di.core.exception.KettleException;
 import org.pentaho.di.core.row.RowMetaInterface;
@@ -49,6 +50,14 @@ public class DatabaseLookupData extends BaseStepData implements StepDataInterfac
   public int[] conditions;
   public boolean hasDBCondition;
 
+  /** The registry the cache was acquired from when it is shared with other step copies, null otherwise */
+  public SharedCacheRegistry sharedCacheRegistry;
+  public String sharedCacheName;
+
+  /** Cache statistics of this step copy */
+  public long cacheHits;
+  public long cacheMisses;
+
   public DatabaseLookupData() {
     super();
 
@@ -2,7 +2,7 @@
  *
  * Pentaho Data Integration
  *
- * Copyright (C) 2002-2015 by Pentaho : http://www.pentaho.com
+ * Copyright (C) 2002-2016 by Pentaho : http://www.pentaho.com
  *
  *******************************************************************************
  *
@@ -22,50 +22,121 @@
 
 package org.pentaho.di.trans.steps.databaselookup;
 
-import org.pentaho.di.core.RowMetaAndData;
-import org.pentaho.di.core.TimedRow;
 import org.pentaho.di.core.exception.KettleException;
+import org.pentaho.di.core.exception.KettleValueException;
 import org.pentaho.di.core.row.RowMetaInterface;
 import org.pentaho.di.core.row.ValueMetaInterface;
 
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Date;
-import java.util.LinkedHashMap;
-import java.util.List;
-
 /**
- * Old code, copied from {@linkplain DatabaseLookup}
+ * The cache of looked up rows, used when all rows are loaded in memory or when a maximum cache size is set.<br>
+ * <br>
+ * The entries are kept in a hash table that is probed with the lookup row directly, no wrapper is created for it.
+ * A bounded cache evicts entries in constant time following a segmented LRU policy: new entries start in a probation
+ * segment and are promoted to a protected segment when they are hit again, so that a burst of keys which are looked up
+ * only once can't push out the keys that are used all the time. Entries can also expire after a time to live. An
+ * unbounded cache without time to live isn't modified by lookups, so it can be read by several threads once loaded.
  *
  * @author Andrey Khayrutdinov
  */
 public class DefaultCache implements DatabaseLookupData.Cache {
 
   public static DefaultCache newCache( DatabaseLookupData data, int cacheSize ) {
+    return newCache( data, cacheSize, 0, 0L );
+  }
+
+  /**
+   * @param data
+   *          the step data
+   * @param cacheSize
+   *          the expected number of entries
+   * @param maxSize
+   *          the maximum number of entries or 0 to keep all entries
+   * @param timeToLive
+   *          the time in milliseconds after which an entry expires or 0 to keep entries forever
+   */
+  public static DefaultCache newCache( DatabaseLookupData data, int cacheSize, int maxSize, long timeToLive ) {
     if ( cacheSize > 0 ) {
       cacheSize = (int) ( cacheSize * 1.5 );
     } else {
       cacheSize = 16;
     }
-    return new DefaultCache( data, cacheSize );
+    return new DefaultCache( data, cacheSize, maxSize, timeToLive );
   }
 
+  /** The share of a bounded cache for the entries that were hit after they were stored */
+  private static final float PROTECTED_SHARE = 0.8f;
+
+  private static final class Entry {
+    private final RowMetaInterface keyMeta;
+    private final Object[] key;
+    private final int hashCode;
+    private Object[] row;
+    private long created;
+
+    /** the next entry in the same bucket */
+    private Entry nextInBucket;
+
+    /** the neighbours in the order in which the entries were stored */
+    private Entry before;
+    private Entry after;
+
+    /** the neighbours in the recency list of the segment, from most to least recently used */
+    private Entry newer;
+    private Entry older;
+    private boolean isProtected;
+
+    private Entry( RowMetaInterface keyMeta, Object[] key, int hashCode ) {
+      this.keyMeta = keyMeta;
+      this.key = key;
+      this.hashCode = hashCode;
+    }
+  }
 
   private final DatabaseLookupData data;
-  private final LinkedHashMap<RowMetaAndData, TimedRow> map;
+  private final int maxSize;
+  private final int maxProtectedSize;
+  private final long timeToLive;
+
+  private Entry[] buckets;
+  private int size;
+
+  private Entry first;
+  private Entry last;
+
+  private Entry newestProbation;
+  private Entry oldestProbation;
+  private Entry newestProtected;
+  private Entry oldestProtected;
+  private int protectedSize;
+
+  private long evictionCount;
+  private long expirationCount;
 
   DefaultCache( DatabaseLookupData data, int capacity ) {
+    this( data, capacity, 0, 0L );
+  }
+
+  DefaultCache( DatabaseLookupData data, int capacity, int maxSize, long timeToLive ) {
     this.data = data;
-    map = new LinkedHashMap<>( capacity );
+    this.maxSize = Math.max( 0, maxSize );
+    this.maxProtectedSize = Math.max( 1, (int) ( this.maxSize * PROTECTED_SHARE ) );
+    this.timeToLive = Math.max( 0L, timeToLive );
+
+    int nrBuckets = 16;
+    while ( nrBuckets < capacity * 4 / 3 && nrBuckets < ( 1 << 30 ) ) {
+      nrBuckets <<= 1;
+    }
+    buckets = new Entry[ nrBuckets ];
   }
 
   @Override
   public Object[] getRowFromCache( RowMetaInterface lookupMeta, Object[] lookupRow ) throws KettleException {
     if ( data.allEquals ) {
       // only do the map lookup when all equals otherwise conditions >, <, <> will give wrong results
-      TimedRow timedRow = map.get( new RowMetaAndData( data.lookupMeta, lookupRow ) );
-      if ( timedRow != null ) {
-        return timedRow.getRow();
+      Entry entry = find( lookupMeta, lookupRow, hash( lookupMeta, lookupRow ) );
+      if ( entry != null && !expire( entry ) ) {
+        recordAccess( entry );
+        return entry.row;
       }
     } else { // special handling of conditions <,>, <> etc.
       if ( !data.hasDBCondition ) { // e.g. LIKE not handled by this routine, yet
@@ -73,7 +144,13 @@ public class DefaultCache implements DatabaseLookupData.Cache {
         // Not all conditions are "=" so we are going to have to evaluate row by row
         // A sorted list or index might be a good solution here...
         //
-        for ( RowMetaAndData key : map.keySet() ) {
+        Entry entry = first;
+        while ( entry != null ) {
+          Entry next = entry.after;
+          if ( expire( entry ) ) {
+            entry = next;
+            continue;
+          }
           // Now verify that the key is matching our conditions...
           //
           boolean match = true;
@@ -81,8 +158,8 @@ public class DefaultCache implements DatabaseLookupData.Cache {
           for ( int i = 0; i < data.conditions.length && match; i++ ) {
             ValueMetaInterface cmpMeta = lookupMeta.getValueMeta( lookupIndex );
             Object cmpData = lookupRow[ lookupIndex ];
-            ValueMetaInterface keyMeta = key.getValueMeta( i );
-            Object keyData = key.getData()[ i ];
+            ValueMetaInterface keyMeta = entry.keyMeta.getValueMeta( i );
+            Object keyData = entry.key[ i ];
 
             switch ( data.conditions[ i ] ) {
               case DatabaseLookupMeta.CONDITION_EQ:
@@ -130,11 +207,10 @@ public class DefaultCache implements DatabaseLookupData.Cache {
             lookupIndex++;
           }
           if ( match ) {
-            TimedRow timedRow = map.get( key );
-            if ( timedRow != null ) {
-              return timedRow.getRow();
-            }
+            recordAccess( entry );
+            return entry.row;
           }
+          entry = next;
         }
       }
     }
@@ -144,54 +220,201 @@ public class DefaultCache implements DatabaseLookupData.Cache {
   @Override
   public void storeRowInCache( DatabaseLookupMeta meta, RowMetaInterface lookupMeta, Object[] lookupRow,
                                Object[] add ) {
-    RowMetaAndData rowMetaAndData = new RowMetaAndData( lookupMeta, lookupRow );
-    // DEinspanjer 2009-02-01 XXX: I want to write a test case to prove this point before checking in.
-    // /* Don't insert a row with a duplicate key into the cache. It doesn't seem
-    // * to serve a useful purpose and can potentially cause the step to return
-    // * different values over the life of the transformation (if the source DB rows change)
-    // * Additionally, if using the load all data feature, re-inserting would reverse the order
-    // * specified in the step.
-    // */
-    // if (!data.look.containsKey(rowMetaAndData)) {
-    // data.look.put(rowMetaAndData, new TimedRow(add));
-    // }
-    map.put( rowMetaAndData, new TimedRow( add ) );
-
-    // See if we have to limit the cache_size.
-    // Sample 10% of the rows in the cache.
-    // Remove everything below the second lowest date.
-    // That should on average remove more than 10% of the entries
-    // It's not exact science, but it will be faster than the old algorithm
-
-    // DEinspanjer 2009-02-01: If you had previously set a cache size and then turned on load all, this
-    // method would throw out entries if the previous cache size wasn't big enough.
-    if ( !meta.isLoadingAllDataInCache() && meta.getCacheSize() > 0 && map.size() > meta.getCacheSize() ) {
-      List<RowMetaAndData> keys = new ArrayList<RowMetaAndData>( map.keySet() );
-      List<Date> samples = new ArrayList<Date>();
-      int incr = keys.size() / 10;
-      if ( incr == 0 ) {
-        incr = 1;
-      }
-      for ( int k = 0; k < keys.size(); k += incr ) {
-        RowMetaAndData key = keys.get( k );
-        TimedRow timedRow = map.get( key );
-        samples.add( timedRow.getLogDate() );
+    int hashCode;
+    Entry entry;
+    try {
+      hashCode = hash( lookupMeta, lookupRow );
+      entry = find( lookupMeta, lookupRow, hashCode );
+    } catch ( KettleValueException e ) {
+      throw new RuntimeException( "Database lookup cache: unable to compare rows because of a data conversion problem",
+        e );
+    }
+
+    if ( entry != null ) {
+      // Replace the row, the entry keeps its place in the order the rows were stored
+      //
+      entry.row = add;
+      entry.created = timeToLive > 0 ? System.currentTimeMillis() : 0L;
+      recordAccess( entry );
+      return;
+    }
+
+    entry = new Entry( lookupMeta, lookupRow, hashCode );
+    entry.row = add;
+    entry.created = timeToLive > 0 ? System.currentTimeMillis() : 0L;
+
+    int bucket = hashCode & ( buckets.length - 1 );
+    entry.nextInBucket = buckets[ bucket ];
+    buckets[ bucket ] = entry;
+
+    entry.before = last;
+    if ( last == null ) {
+      first = entry;
+    } else {
+      last.after = entry;
+    }
+    last = entry;
+
+    if ( maxSize > 0 ) {
+      addNewest( entry, false );
+    }
+
+    size++;
+    if ( size > buckets.length * 3 / 4 && buckets.length < ( 1 << 30 ) ) {
+      resize();
+    }
+
+    // Evict the least recently used entries of the probation segment first
+    //
+    while ( maxSize > 0 && size > maxSize ) {
+      Entry victim = oldestProbation != null ? oldestProbation : oldestProtected;
+      remove( victim );
+      evictionCount++;
+    }
+  }
+
+  public int getSize() {
+    return size;
+  }
+
+  /**
+   * @return the number of entries removed to stay below the maximum size
+   */
+  public long getEvictionCount() {
+    return evictionCount;
+  }
+
+  /**
+   * @return the number of entries removed because they were older than the time to live
+   */
+  public long getExpirationCount() {
+    return expirationCount;
+  }
+
+  private int hash( RowMetaInterface lookupMeta, Object[] lookupRow ) throws KettleValueException {
+    int hashCode = lookupMeta.hashCode( lookupRow );
+    return hashCode ^ ( hashCode >>> 16 );
+  }
+
+  private Entry find( RowMetaInterface lookupMeta, Object[] lookupRow, int hashCode ) throws KettleValueException {
+    Entry entry = buckets[ hashCode & ( buckets.length - 1 ) ];
+    while ( entry != null ) {
+      if ( entry.hashCode == hashCode && lookupMeta.compare( lookupRow, entry.key ) == 0 ) {
+        return entry;
       }
+      entry = entry.nextInBucket;
+    }
+    return null;
+  }
 
-      Collections.sort( samples );
+  /**
+   * Remove the entry if it lived longer than the time to live.
+   *
+   * @return true if the entry expired
+   */
+  private boolean expire( Entry entry ) {
+    if ( timeToLive > 0 && System.currentTimeMillis() - entry.created > timeToLive ) {
+      remove( entry );
+      expirationCount++;
+      return true;
+    }
+    return false;
+  }
 
-      if ( samples.size() > 1 ) {
-        Date smallest = samples.get( 1 );
+  private void recordAccess( Entry entry ) {
+    if ( maxSize <= 0 ) {
+      return;
+    }
+    unlinkRecency( entry );
+    addNewest( entry, true );
+    if ( protectedSize > maxProtectedSize ) {
+      // Give the least recently used protected entry another chance in the probation segment
+      //
+      Entry demoted = oldestProtected;
+      unlinkRecency( demoted );
+      addNewest( demoted, false );
+    }
+  }
 
-        // Everything below the smallest date goes away...
-        for ( RowMetaAndData key : keys ) {
-          TimedRow timedRow = map.get( key );
+  private void addNewest( Entry entry, boolean isProtected ) {
+    entry.isProtected = isProtected;
+    entry.older = isProtected ? newestProtected : newestProbation;
+    entry.newer = null;
+    if ( entry.older != null ) {
+      entry.older.newer = entry;
+    }
+    if ( isProtected ) {
+      newestProtected = entry;
+      if ( oldestProtected == null ) {
+        oldestProtected = entry;
+      }
+      protectedSize++;
+    } else {
+      newestProbation = entry;
+      if ( oldestProbation == null ) {
+        oldestProbation = entry;
+      }
+    }
+  }
 
-          if ( timedRow.getLogDate().compareTo( smallest ) < 0 ) {
-            map.remove( key );
-          }
-        }
+  private void unlinkRecency( Entry entry ) {
+    if ( entry.newer != null ) {
+      entry.newer.older = entry.older;
+    } else if ( entry.isProtected ) {
+      newestProtected = entry.older;
+    } else {
+      newestProbation = entry.older;
+    }
+    if ( entry.older != null ) {
+      entry.older.newer = entry.newer;
+    } else if ( entry.isProtected ) {
+      oldestProtected = entry.newer;
+    } else {
+      oldestProbation = entry.newer;
+    }
+    if ( entry.isProtected ) {
+      protectedSize--;
+    }
+    entry.newer = null;
+    entry.older = null;
+  }
+
+  private void remove( Entry entry ) {
+    int bucket = entry.hashCode & ( buckets.length - 1 );
+    if ( buckets[ bucket ] == entry ) {
+      buckets[ bucket ] = entry.nextInBucket;
+    } else {
+      Entry previous = buckets[ bucket ];
+      while ( previous.nextInBucket != entry ) {
+        previous = previous.nextInBucket;
       }
+      previous.nextInBucket = entry.nextInBucket;
+    }
+
+    if ( entry.before == null ) {
+      first = entry.after;
+    } else {
+      entry.before.after = entry.after;
+    }
+    if ( entry.after == null ) {
+      last = entry.before;
+    } else {
+      entry.after.before = entry.before;
+    }
+
+    if ( maxSize > 0 ) {
+      unlinkRecency( entry );
+    }
+    size--;
+  }
+
+  private void resize() {
+    Entry[] newBuckets = new Entry[ buckets.length * 2 ];
+    for ( Entry entry = first; entry != null; entry = entry.after ) {
+      int bucket = entry.hashCode & ( newBuckets.length - 1 );
+      entry.nextInBucket = newBuckets[ bucket ];
+      newBuckets[ bucket ] = entry;
     }
+    buckets = newBuckets;
   }
 }
@@ -0,0 +1,73 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2016 by Pentaho : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+package org.pentaho.di.trans.steps.databaselookup;
+
+import java.io.Closeable;
+
+import org.pentaho.di.core.exception.KettleException;
+import org.pentaho.di.core.hash.OffHeapHashIndex;
+import org.pentaho.di.core.row.RowMetaInterface;
+
+/**
+ * A cache for the "load all data" mode with equality conditions only. The rows are kept in an
+ * {@linkplain OffHeapHashIndex} so that large lookup tables don't fill up the Java heap. The cache can be shared by
+ * step copies.
+ *
+ * @since 17-10-2016
+ */
+public class OffHeapCache implements DatabaseLookupData.Cache, Closeable {
+
+  private final OffHeapHashIndex index;
+
+  OffHeapCache( OffHeapHashIndex index ) {
+    this.index = index;
+  }
+
+  @Override
+  public synchronized Object[] getRowFromCache( RowMetaInterface lookupMeta, Object[] lookupRow )
+    throws KettleException {
+    return index.get( lookupRow );
+  }
+
+  @Override
+  public synchronized void storeRowInCache( DatabaseLookupMeta meta, RowMetaInterface lookupMeta, Object[] lookupRow,
+                                            Object[] add ) {
+    try {
+      index.put( lookupRow, add );
+    } catch ( KettleException e ) {
+      throw new RuntimeException( "Unable to store a row in the off-heap lookup cache", e );
+    }
+  }
+
+  public synchronized int getSize() {
+    return index.getSize();
+  }
+
+  /**
+   * Release the memory or the snapshot file mapping of the cache.
+   */
+  @Override
+  public synchronized void close() {
+    index.close();
+  }
+}
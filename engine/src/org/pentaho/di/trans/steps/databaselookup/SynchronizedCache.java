@@ -0,0 +1,53 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2016 by Pentaho : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+
+package org.pentaho.di.trans.steps.databaselookup;
+
+import org.pentaho.di.core.exception.KettleException;
+import org.pentaho.di.core.row.RowMetaInterface;
+
+/**
+ * Makes a cache that is filled while looking up rows safe to share between step copies.
+ *
+ * @since 17-10-2016
+ */
+class SynchronizedCache implements DatabaseLookupData.Cache {
+
+  private final DatabaseLookupData.Cache cache;
+
+  SynchronizedCache( DatabaseLookupData.Cache cache ) {
+    this.cache = cache;
+  }
+
+  @Override
+  public synchronized Object[] getRowFromCache( RowMetaInterface lookupMeta, Object[] lookupRow )
+    throws KettleException {
+    return cache.getRowFromCache( lookupMeta, lookupRow );
+  }
+
+  @Override
+  public synchronized void storeRowInCache( DatabaseLookupMeta meta, RowMetaInterface lookupMeta, Object[] lookupRow,
+                                            Object[] add ) {
+    cache.storeRowInCache( meta, lookupMeta, lookupRow, add );
+  }
+}
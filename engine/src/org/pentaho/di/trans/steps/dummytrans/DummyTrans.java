@@ -22,11 +22,14 @@
 
 package org.pentaho.di.trans.steps.dummytrans;
 
+import org.pentaho.di.core.RowBatch;
 import org.pentaho.di.core.exception.KettleException;
 import org.pentaho.di.i18n.BaseMessages;
 import org.pentaho.di.trans.Trans;
 import org.pentaho.di.trans.TransMeta;
 import org.pentaho.di.trans.step.BaseStep;
+import org.pentaho.di.trans.step.ReusableStep;
+import org.pentaho.di.trans.step.RowBatchProcessor;
 import org.pentaho.di.trans.step.StepDataInterface;
 import org.pentaho.di.trans.step.StepInterface;
 import org.pentaho.di.trans.step.StepMeta;
@@ -38,7 +41,7 @@ import org.pentaho.di.trans.step.StepMetaInterface;
  * @author Matt
  * @since 2-jun-2003
  */
-public class DummyTrans extends BaseStep implements StepInterface {
+public class DummyTrans extends BaseStep implements StepInterface, RowBatchProcessor, ReusableStep {
   private static Class<?> PKG = DummyTransMeta.class; // for i18n purposes, needed by Translator2!!
 
   public DummyTrans( StepMeta stepMeta, StepDataInterface stepDataInterface, int copyNr, TransMeta transMeta,
@@ -64,4 +67,27 @@ public class DummyTrans extends BaseStep implements StepInterface {
 
     return true;
   }
+
+  public boolean processRows( StepMetaInterface smi, StepDataInterface sdi, RowBatch batch ) throws KettleException {
+    // no more input to be expected...
+    if ( batch == null ) {
+      setOutputDone();
+      return false;
+    }
+
+    putRows( getInputRowMeta(), batch ); // copy rows to possible alternate rowset(s).
+
+    long linesRead = getLinesRead();
+    if ( checkFeedback( linesRead - batch.size(), linesRead ) ) {
+      if ( log.isBasic() ) {
+        logBasic( BaseMessages.getString( PKG, "DummyTrans.Log.LineNumber" ) + linesRead );
+      }
+    }
+
+    return true;
+  }
+
+  public void resetForNextExecution() throws KettleException {
+    // Rows are passed on as they are, there is no state to reset.
+  }
 }
@@ -25,12 +25,16 @@ package org.pentaho.di.trans.steps.filterrows;
 import java.util.List;
 
 import org.pentaho.di.core.Const;
+import org.pentaho.di.core.RowBatch;
+import org.pentaho.di.core.RowSet;
 import org.pentaho.di.core.exception.KettleException;
 import org.pentaho.di.core.row.RowMetaInterface;
 import org.pentaho.di.i18n.BaseMessages;
 import org.pentaho.di.trans.Trans;
 import org.pentaho.di.trans.TransMeta;
 import org.pentaho.di.trans.step.BaseStep;
+import org.pentaho.di.trans.step.ReusableStep;
+import org.pentaho.di.trans.step.RowBatchProcessor;
 import org.pentaho.di.trans.step.StepDataInterface;
 import org.pentaho.di.trans.step.StepInterface;
 import org.pentaho.di.trans.step.StepMeta;
@@ -43,7 +47,7 @@ import org.pentaho.di.trans.step.errorhandling.StreamInterface;
  * @author Matt
  * @since 16-apr-2003, 07-nov-2004 (rewrite)
  */
-public class FilterRows extends BaseStep implements StepInterface {
+public class FilterRows extends BaseStep implements StepInterface, RowBatchProcessor, ReusableStep {
   private static Class<?> PKG = FilterRowsMeta.class; // for i18n purposes, needed by Translator2!!
 
   private FilterRowsMeta meta;
@@ -82,37 +86,7 @@ public class FilterRows extends BaseStep implements StepInterface {
 
     if ( first ) {
       first = false;
-
-      data.outputRowMeta = getInputRowMeta().clone();
-      meta.getFields( getInputRowMeta(), getStepname(), null, null, this, repository, metaStore );
-
-      // if filter refers to non-existing fields, throw exception
-      checkNonExistingFields();
-
-      // Cache the position of the RowSet for the output.
-      //
-      if ( data.chosesTargetSteps ) {
-        List<StreamInterface> targetStreams = meta.getStepIOMeta().getTargetStreams();
-        if ( !Const.isEmpty( targetStreams.get( 0 ).getStepname() ) ) {
-          data.trueRowSet = findOutputRowSet( getStepname(), getCopy(), targetStreams.get( 0 ).getStepname(), 0 );
-          if ( data.trueRowSet == null ) {
-            throw new KettleException( BaseMessages.getString(
-              PKG, "FilterRows.Log.TargetStepInvalid", targetStreams.get( 0 ).getStepname() ) );
-          }
-        } else {
-          data.trueRowSet = null;
-        }
-
-        if ( !Const.isEmpty( targetStreams.get( 1 ).getStepname() ) ) {
-          data.falseRowSet = findOutputRowSet( getStepname(), getCopy(), targetStreams.get( 1 ).getStepname(), 0 );
-          if ( data.falseRowSet == null ) {
-            throw new KettleException( BaseMessages.getString(
-              PKG, "FilterRows.Log.TargetStepInvalid", targetStreams.get( 1 ).getStepname() ) );
-          }
-        } else {
-          data.falseRowSet = null;
-        }
-      }
+      prepareOutput();
     }
 
     keep = keepRow( getInputRowMeta(), r ); // Keep this row?
@@ -147,6 +121,88 @@ public class FilterRows extends BaseStep implements StepInterface {
     return true;
   }
 
+  public boolean processRows( StepMetaInterface smi, StepDataInterface sdi, RowBatch batch ) throws KettleException {
+    meta = (FilterRowsMeta) smi;
+    data = (FilterRowsData) sdi;
+
+    if ( batch == null ) { // no more input to be expected...
+
+      setOutputDone();
+      return false;
+    }
+
+    if ( first ) {
+      first = false;
+      prepareOutput();
+    }
+
+    RowMetaInterface inputRowMeta = getInputRowMeta();
+    int nrRows = batch.size();
+    if ( !data.chosesTargetSteps ) {
+      // Compact the batch in place, only keeping the rows that pass the condition
+      //
+      int kept = 0;
+      for ( int i = 0; i < nrRows; i++ ) {
+        Object[] r = batch.get( i );
+        if ( keepRow( inputRowMeta, r ) ) {
+          batch.set( kept++, r );
+        }
+      }
+      batch.truncate( kept );
+      putRows( data.outputRowMeta, batch ); // copy rows to output rowset(s);
+    } else {
+      for ( int i = 0; i < nrRows; i++ ) {
+        Object[] r = batch.get( i );
+        RowSet rowSet = keepRow( inputRowMeta, r ) ? data.trueRowSet : data.falseRowSet;
+        if ( rowSet != null ) {
+          putRowTo( data.outputRowMeta, r, rowSet );
+        }
+      }
+    }
+
+    long linesRead = getLinesRead();
+    if ( checkFeedback( linesRead - nrRows, linesRead ) ) {
+      if ( log.isBasic() ) {
+        logBasic( BaseMessages.getString( PKG, "FilterRows.Log.LineNumber" ) + linesRead );
+      }
+    }
+
+    return true;
+  }
+
+  private void prepareOutput() throws KettleException {
+    data.outputRowMeta = getInputRowMeta().clone();
+    meta.getFields( getInputRowMeta(), getStepname(), null, null, this, repository, metaStore );
+
+    // if filter refers to non-existing fields, throw exception
+    checkNonExistingFields();
+
+    // Cache the position of the RowSet for the output.
+    //
+    if ( data.chosesTargetSteps ) {
+      List<StreamInterface> targetStreams = meta.getStepIOMeta().getTargetStreams();
+      if ( !Const.isEmpty( targetStreams.get( 0 ).getStepname() ) ) {
+        data.trueRowSet = findOutputRowSet( getStepname(), getCopy(), targetStreams.get( 0 ).getStepname(), 0 );
+        if ( data.trueRowSet == null ) {
+          throw new KettleException( BaseMessages.getString(
+            PKG, "FilterRows.Log.TargetStepInvalid", targetStreams.get( 0 ).getStepname() ) );
+        }
+      } else {
+        data.trueRowSet = null;
+      }
+
+      if ( !Const.isEmpty( targetStreams.get( 1 ).getStepname() ) ) {
+        data.falseRowSet = findOutputRowSet( getStepname(), getCopy(), targetStreams.get( 1 ).getStepname(), 0 );
+        if ( data.falseRowSet == null ) {
+          throw new KettleException( BaseMessages.getString(
+            PKG, "FilterRows.Log.TargetStepInvalid", targetStreams.get( 1 ).getStepname() ) );
+        }
+      } else {
+        data.falseRowSet = null;
+      }
+    }
+  }
+
   /**
    * @see StepInterface#init(org.pentaho.di.trans.step.StepMetaInterface , org.pentaho.di.trans.step.StepDataInterface)
    */
@@ -187,4 +243,8 @@ public class FilterRows extends BaseStep implements StepInterface {
       throw new KettleException( errorMsg );
     }
   }
+
+  public void resetForNextExecution() throws KettleException {
+    // The prepared condition and the target rowsets are kept.
+  }
 }
@@ -0,0 +1,357 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2016 by Pentaho : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+
+package org.pentaho.di.trans.steps.formula;
+
+import java.lang.reflect.InvocationTargetException;
+import java.math.BigDecimal;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+import org.codehaus.janino.ExpressionEvaluator;
+import org.pentaho.di.core.exception.KettleException;
+import org.pentaho.di.core.row.RowMetaInterface;
+import org.pentaho.di.core.row.ValueMetaInterface;
+import org.pentaho.reporting.libraries.formula.Formula;
+import org.pentaho.reporting.libraries.formula.lvalues.ContextLookup;
+import org.pentaho.reporting.libraries.formula.lvalues.FormulaFunction;
+import org.pentaho.reporting.libraries.formula.lvalues.LValue;
+import org.pentaho.reporting.libraries.formula.lvalues.PostfixTerm;
+import org.pentaho.reporting.libraries.formula.lvalues.PrefixTerm;
+import org.pentaho.reporting.libraries.formula.lvalues.StaticValue;
+import org.pentaho.reporting.libraries.formula.lvalues.Term;
+import org.pentaho.reporting.libraries.formula.operators.AddOperator;
+import org.pentaho.reporting.libraries.formula.operators.ConcatOperator;
+import org.pentaho.reporting.libraries.formula.operators.EqualOperator;
+import org.pentaho.reporting.libraries.formula.operators.GreaterEqualOperator;
+import org.pentaho.reporting.libraries.formula.operators.GreaterOperator;
+import org.pentaho.reporting.libraries.formula.operators.InfixOperator;
+import org.pentaho.reporting.libraries.formula.operators.LesserEqualOperator;
+import org.pentaho.reporting.libraries.formula.operators.LesserOperator;
+import org.pentaho.reporting.libraries.formula.operators.MinusSignOperator;
+import org.pentaho.reporting.libraries.formula.operators.MultiplyOperator;
+import org.pentaho.reporting.libraries.formula.operators.NotEqualOperator;
+import org.pentaho.reporting.libraries.formula.operators.PlusSignOperator;
+import org.pentaho.reporting.libraries.formula.operators.PowerOperator;
+import org.pentaho.reporting.libraries.formula.operators.SubtractOperator;
+
+/**
+ * A formula compiled to a Java class. The parsed formula is translated to a Java expression that calls the operators
+ * and functions of {@link FormulaRuntime}, with the field references bound to their index in the row, and compiled
+ * with Janino.<br>
+ * Addition, subtraction, multiplication, powers, comparisons and text concatenation are supported, as well as the
+ * functions IF, AND, OR, NOT, TRUE, FALSE, ISBLANK, LEN, UPPER, LOWER, TRIM, LEFT, RIGHT, MID, CONCATENATE, ABS, TODAY,
+ * NOW, DATE, YEAR, MONTH, DAY, HOUR, MINUTE and SECOND. Formulas using anything else are not compiled and are left to
+ * the interpreter. The rows on which a compiled formula can't reproduce the result of the interpreter, because of null
+ * values, mixed types or errors, are evaluated by the interpreter.
+ *
+ * @since 17-10-2016
+ */
+public class CompiledFormula {
+  private static final String RUNTIME = FormulaRuntime.class.getName() + ".";
+
+  private final Formula formula;
+  private final ExpressionEvaluator evaluator;
+  private final Object[] parameters;
+
+  private CompiledFormula( Formula formula, ExpressionEvaluator evaluator, ValueMetaInterface[] valueMetas,
+    Object[] constants ) {
+    this.formula = formula;
+    this.evaluator = evaluator;
+    this.parameters = new Object[] { null, valueMetas, constants };
+  }
+
+  /**
+   * Compiles a formula.
+   *
+   * @param formula
+   *          the parsed and initialized formula
+   * @param rowMeta
+   *          the metadata of the rows the formula will be evaluated on
+   * @return the compiled formula or null if the formula uses operators or functions that can't be compiled
+   * @throws KettleException
+   *           in case the generated expression doesn't compile
+   */
+  public static CompiledFormula compile( Formula formula, RowMetaInterface rowMeta ) throws KettleException {
+    Translator translator = new Translator( rowMeta );
+    String expression;
+    try {
+      expression = translator.translate( formula.getRootReference() );
+    } catch ( UnsupportedExpressionException e ) {
+      return null;
+    }
+
+    try {
+      ExpressionEvaluator evaluator = new ExpressionEvaluator();
+      evaluator.setParameters( new String[] { "row", "meta", "constants" }, new Class<?>[] {
+        Object[].class, ValueMetaInterface[].class, Object[].class } );
+      evaluator.setReturnType( Object.class );
+      evaluator.setThrownExceptions( new Class<?>[] { Exception.class } );
+      evaluator.cook( expression );
+
+      ValueMetaInterface[] valueMetas = rowMeta.getValueMetaList().toArray( new ValueMetaInterface[rowMeta.size()] );
+      return new CompiledFormula( formula, evaluator, valueMetas, translator.constants.toArray() );
+    } catch ( Exception e ) {
+      throw new KettleException( "Unable to compile formula expression [" + expression + "]", e );
+    }
+  }
+
+  /**
+   * Evaluates the formula. When the compiled formula can't calculate the row, the interpreted formula is evaluated, so
+   * the context of the formula must hold the same row.
+   *
+   * @param rowData
+   *          the row to evaluate the formula on
+   * @return the result, or the error value of the interpreter
+   */
+  public Object evaluate( Object[] rowData ) {
+    parameters[0] = rowData;
+    try {
+      return evaluator.evaluate( parameters );
+    } catch ( InvocationTargetException e ) {
+      // FormulaRuntime.Fallback or an unexpected failure, the interpreter knows what to return
+      return formula.evaluate();
+    } finally {
+      parameters[0] = null;
+    }
+  }
+
+  private static class UnsupportedExpressionException extends Exception {
+    private static final long serialVersionUID = -6587253119207339641L;
+  }
+
+  /**
+   * Translates the parsed formula to Java.
+   */
+  private static class Translator {
+    private final RowMetaInterface rowMeta;
+    private final List<Object> constants = new ArrayList<Object>();
+
+    Translator( RowMetaInterface rowMeta ) {
+      this.rowMeta = rowMeta;
+    }
+
+    String translate( LValue value ) throws UnsupportedExpressionException {
+      if ( value instanceof StaticValue ) {
+        return constant( ( (StaticValue) value ).getValue() );
+      }
+      if ( value instanceof ContextLookup ) {
+        int index = rowMeta.indexOfValue( ( (ContextLookup) value ).getName() );
+        if ( index < 0 ) {
+          throw new UnsupportedExpressionException(); // let the interpreter report it
+        }
+        return RUNTIME + "field(meta[" + index + "], row[" + index + "])";
+      }
+      if ( value instanceof Term ) {
+        return term( (Term) value );
+      }
+      if ( value instanceof PrefixTerm ) {
+        PrefixTerm prefixTerm = (PrefixTerm) value;
+        if ( prefixTerm.getOperator() instanceof MinusSignOperator ) {
+          return call( "negate", translate( prefixTerm.getValue() ) );
+        }
+        if ( prefixTerm.getOperator() instanceof PlusSignOperator ) {
+          return call( "plus", translate( prefixTerm.getValue() ) );
+        }
+        throw new UnsupportedExpressionException();
+      }
+      if ( value instanceof PostfixTerm ) {
+        // Percentages are divisions, which are left to the interpreter
+        throw new UnsupportedExpressionException();
+      }
+      if ( value instanceof FormulaFunction ) {
+        return function( (FormulaFunction) value );
+      }
+      throw new UnsupportedExpressionException();
+    }
+
+    private String constant( Object value ) throws UnsupportedExpressionException {
+      if ( value == null ) {
+        return "null";
+      }
+      if ( !( value instanceof String || value instanceof BigDecimal || value instanceof Boolean ) ) {
+        if ( !( value instanceof Number ) ) {
+          throw new UnsupportedExpressionException();
+        }
+        value = new BigDecimal( value.toString() );
+      }
+      constants.add( value );
+      return "constants[" + ( constants.size() - 1 ) + "]";
+    }
+
+    /**
+     * A term is a head value followed by a list of operators and operands, all on the same level. The operators are
+     * applied by precedence, operators of the same precedence from left to right.
+     */
+    private String term( Term term ) throws UnsupportedExpressionException {
+      InfixOperator[] operators = term.getOperators();
+      LValue[] operands = term.getOperands();
+
+      Deque<String> values = new ArrayDeque<String>();
+      Deque<InfixOperator> pending = new ArrayDeque<InfixOperator>();
+      values.push( translate( term.getHeadValue() ) );
+      for ( int i = 0; i < operators.length; i++ ) {
+        int precedence = precedence( operators[i] );
+        while ( !pending.isEmpty() && precedence( pending.peek() ) >= precedence ) {
+          reduce( values, pending );
+        }
+        pending.push( operators[i] );
+        values.push( translate( operands[i] ) );
+      }
+      while ( !pending.isEmpty() ) {
+        reduce( values, pending );
+      }
+      return values.pop();
+    }
+
+    private void reduce( Deque<String> values, Deque<InfixOperator> pending ) throws UnsupportedExpressionException {
+      String b = values.pop();
+      String a = values.pop();
+      values.push( call( operatorMethod( pending.pop() ), a, b ) );
+    }
+
+    private static int precedence( InfixOperator operator ) throws UnsupportedExpressionException {
+      if ( operator instanceof PowerOperator ) {
+        return 4;
+      }
+      if ( operator instanceof MultiplyOperator ) {
+        return 3;
+      }
+      if ( operator instanceof AddOperator || operator instanceof SubtractOperator ) {
+        return 2;
+      }
+      if ( operator instanceof ConcatOperator ) {
+        return 1;
+      }
+      if ( operator instanceof EqualOperator || operator instanceof NotEqualOperator
+        || operator instanceof LesserOperator || operator instanceof LesserEqualOperator
+        || operator instanceof GreaterOperator || operator instanceof GreaterEqualOperator ) {
+        return 0;
+      }
+      throw new UnsupportedExpressionException();
+    }
+
+    private static String operatorMethod( InfixOperator operator ) throws UnsupportedExpressionException {
+      if ( operator instanceof PowerOperator ) {
+        return "power";
+      } else if ( operator instanceof MultiplyOperator ) {
+        return "multiply";
+      } else if ( operator instanceof AddOperator ) {
+        return "add";
+      } else if ( operator instanceof SubtractOperator ) {
+        return "subtract";
+      } else if ( operator instanceof ConcatOperator ) {
+        return "concat";
+      } else if ( operator instanceof EqualOperator ) {
+        return "equal";
+      } else if ( operator instanceof NotEqualOperator ) {
+        return "notEqual";
+      } else if ( operator instanceof LesserOperator ) {
+        return "less";
+      } else if ( operator instanceof LesserEqualOperator ) {
+        return "lessOrEqual";
+      } else if ( operator instanceof GreaterOperator ) {
+        return "greater";
+      } else if ( operator instanceof GreaterEqualOperator ) {
+        return "greaterOrEqual";
+      }
+      throw new UnsupportedExpressionException();
+    }
+
+    private String function( FormulaFunction function ) throws UnsupportedExpressionException {
+      String name = function.getFunctionName().toUpperCase();
+      LValue[] children = function.getChildValues();
+      String[] args = new String[children.length];
+      for ( int i = 0; i < children.length; i++ ) {
+        args[i] = translate( children[i] );
+      }
+
+      if ( "IF".equals( name ) && ( args.length == 2 || args.length == 3 ) ) {
+        return "(" + condition( args[0] ) + " ? (Object) " + args[1] + " : (Object) "
+          + ( args.length == 3 ? args[2] : "Boolean.FALSE" ) + ")";
+      }
+      if ( ( "AND".equals( name ) || "OR".equals( name ) ) && args.length > 0 ) {
+        StringBuilder condition = new StringBuilder( "Boolean.valueOf(" );
+        for ( int i = 0; i < args.length; i++ ) {
+          if ( i > 0 ) {
+            condition.append( "AND".equals( name ) ? " && " : " || " );
+          }
+          condition.append( condition( args[i] ) );
+        }
+        return condition.append( ")" ).toString();
+      }
+      if ( "TRUE".equals( name ) && args.length == 0 ) {
+        return "Boolean.TRUE";
+      }
+      if ( "FALSE".equals( name ) && args.length == 0 ) {
+        return "Boolean.FALSE";
+      }
+      if ( "CONCATENATE".equals( name ) && args.length > 0 ) {
+        String result = call( "concat", args[0], "\"\"" );
+        for ( int i = 1; i < args.length; i++ ) {
+          result = call( "concat", result, args[i] );
+        }
+        return result;
+      }
+      if ( ( "LEFT".equals( name ) || "RIGHT".equals( name ) ) && args.length == 1 ) {
+        return call( name.toLowerCase(), args[0], constant( BigDecimal.ONE ) );
+      }
+      if ( "ISBLANK".equals( name ) && args.length == 1 ) {
+        return call( "isBlank", args[0] );
+      }
+      if ( ( "NOT".equals( name ) || "LEN".equals( name ) || "UPPER".equals( name ) || "LOWER".equals( name )
+        || "TRIM".equals( name ) || "ABS".equals( name ) || "YEAR".equals( name ) || "MONTH".equals( name )
+        || "DAY".equals( name ) || "HOUR".equals( name ) || "MINUTE".equals( name ) || "SECOND".equals( name ) )
+        && args.length == 1 ) {
+        return call( name.toLowerCase(), args );
+      }
+      if ( ( "LEFT".equals( name ) || "RIGHT".equals( name ) ) && args.length == 2 ) {
+        return call( name.toLowerCase(), args );
+      }
+      if ( ( "MID".equals( name ) || "DATE".equals( name ) ) && args.length == 3 ) {
+        return call( name.toLowerCase(), args );
+      }
+      if ( ( "TODAY".equals( name ) || "NOW".equals( name ) ) && args.length == 0 ) {
+        return call( name.toLowerCase(), args );
+      }
+      throw new UnsupportedExpressionException();
+    }
+
+    private static String condition( String expression ) {
+      return RUNTIME + "isTrue(" + expression + ")";
+    }
+
+    private static String call( String method, String... args ) {
+      StringBuilder call = new StringBuilder( RUNTIME ).append( method ).append( '(' );
+      for ( int i = 0; i < args.length; i++ ) {
+        if ( i > 0 ) {
+          call.append( ", " );
+        }
+        call.append( args[i] );
+      }
+      return call.append( ')' ).toString();
+    }
+  }
+}
@@ -135,6 +135,18 @@ public class Formula extends BaseStep implements StepInterface {
               + Const.NVL( fn.getFormula(), "" ) + "]" );
           }
         }
+
+        // Compile what we can, the other formulas are interpreted.
+        //
+        if ( "Y".equalsIgnoreCase( getVariable( Const.KETTLE_COMPILE_FORMULAS, "N" ) ) ) {
+          data.compiledFormulas = new CompiledFormula[data.formulas.length];
+          for ( int i = 0; i < data.formulas.length; i++ ) {
+            data.compiledFormulas[i] = CompiledFormula.compile( data.formulas[i], data.outputRowMeta );
+            if ( data.compiledFormulas[i] == null && log.isDetailed() ) {
+              logDetailed( "Formula [" + meta.getFormula()[i].getFormula() + "] can't be compiled, it is interpreted" );
+            }
+          }
+        }
       }
 
       for ( int i = 0; i < meta.getFormula().length; i++ ) {
@@ -145,7 +157,12 @@ public class Formula extends BaseStep implements StepInterface {
           }
 
           // this is main part of all this step: calculate formula
-          Object formulaResult = data.formulas[i].evaluate();
+          Object formulaResult;
+          if ( data.compiledFormulas != null && data.compiledFormulas[i] != null ) {
+            formulaResult = data.compiledFormulas[i].evaluate( outputRowData );
+          } else {
+            formulaResult = data.formulas[i].evaluate();
+          }
           if ( formulaResult instanceof LibFormulaErrorValue ) {
             // inspect why it is happens to get clear error message.
             throw new KettleException( "Error calculate formula. Formula "
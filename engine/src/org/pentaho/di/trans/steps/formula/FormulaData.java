@@ -46,6 +46,8 @@ public class FormulaData extends BaseStepData implements StepDataInterface {
   public static final int RETURN_TYPE_BOOLEAN = 7;
   public RowForumulaContext context;
   public Formula[] formulas;
+  /** The compiled formulas, null if formulas are not compiled or for formulas left to the interpreter */
+  public CompiledFormula[] compiledFormulas;
   public FormulaParser parser;
   public RowMetaInterface outputRowMeta;
   public int[] returnType;
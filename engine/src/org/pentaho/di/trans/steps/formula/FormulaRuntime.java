@@ -0,0 +1,304 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2016 by Pentaho : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+package org.pentaho.di.trans.steps.formula;
+
+import java.math.BigDecimal;
+import java.util.Calendar;
+import java.util.Date;
+
+import org.pentaho.di.core.exception.KettleValueException;
+import org.pentaho.di.core.row.ValueMetaInterface;
+
+/**
+ * The operators and functions called by formulas compiled by {@link CompiledFormula}. Numbers are calculated as
+ * BigDecimal like the formula interpreter does. Null arguments, arguments of another type than expected, mixed-type
+ * comparisons and errors are not handled here: they throw {@link Fallback} and the row is evaluated by the interpreter
+ * so that the results and error values are exactly the ones of the interpreter.
+ *
+ * @since 17-10-2016
+ */
+public final class FormulaRuntime {
+  /**
+   * Thrown when a value can't be calculated exactly like the interpreter does. It carries no stack trace as it is
+   * thrown for every row on which it happens.
+   */
+  static final class Fallback extends RuntimeException {
+    private static final long serialVersionUID = 4410259733018251366L;
+
+    static final Fallback INSTANCE = new Fallback();
+
+    private Fallback() {
+      super( null, null, false, false );
+    }
+  }
+
+  private FormulaRuntime() {
+  }
+
+  public static Object field( ValueMetaInterface valueMeta, Object valueData ) {
+    try {
+      return RowForumulaContext.getPrimitive( valueMeta, valueData );
+    } catch ( KettleValueException e ) {
+      throw Fallback.INSTANCE;
+    }
+  }
+
+  public static BigDecimal toNumber( Object value ) {
+    if ( value instanceof BigDecimal ) {
+      return (BigDecimal) value;
+    }
+    if ( value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte ) {
+      return BigDecimal.valueOf( ( (Number) value ).longValue() );
+    }
+    if ( value instanceof Double || value instanceof Float ) {
+      return new BigDecimal( value.toString() );
+    }
+    throw Fallback.INSTANCE;
+  }
+
+  public static String toText( Object value ) {
+    if ( value instanceof String ) {
+      return (String) value;
+    }
+    throw Fallback.INSTANCE;
+  }
+
+  public static boolean isTrue( Object value ) {
+    if ( value instanceof Boolean ) {
+      return ( (Boolean) value ).booleanValue();
+    }
+    throw Fallback.INSTANCE;
+  }
+
+  // Operators. Division and percentages are not compiled as the interpreter rounds their results its own way.
+  //
+
+  public static Object add( Object a, Object b ) {
+    return toNumber( a ).add( toNumber( b ) );
+  }
+
+  public static Object subtract( Object a, Object b ) {
+    return toNumber( a ).subtract( toNumber( b ) );
+  }
+
+  public static Object multiply( Object a, Object b ) {
+    return toNumber( a ).multiply( toNumber( b ) );
+  }
+
+  public static Object power( Object a, Object b ) {
+    BigDecimal x = toNumber( a );
+    BigDecimal y = toNumber( b );
+    if ( y.signum() < 0 || y.stripTrailingZeros().scale() > 0 || y.compareTo( BigDecimal.valueOf( 999 ) ) > 0 ) {
+      throw Fallback.INSTANCE;
+    }
+    return x.pow( y.intValue() );
+  }
+
+  public static Object negate( Object a ) {
+    return toNumber( a ).negate();
+  }
+
+  public static Object plus( Object a ) {
+    return toNumber( a );
+  }
+
+  public static Object concat( Object a, Object b ) {
+    return toText( a ).concat( toText( b ) );
+  }
+
+  /**
+   * Compares two numbers or two dates.
+   */
+  private static int compare( Object a, Object b ) {
+    if ( a instanceof Date && b instanceof Date ) {
+      return ( (Date) a ).compareTo( (Date) b );
+    }
+    return toNumber( a ).compareTo( toNumber( b ) );
+  }
+
+  public static Object equal( Object a, Object b ) {
+    return Boolean.valueOf( compare( a, b ) == 0 );
+  }
+
+  public static Object notEqual( Object a, Object b ) {
+    return Boolean.valueOf( compare( a, b ) != 0 );
+  }
+
+  public static Object less( Object a, Object b ) {
+    return Boolean.valueOf( compare( a, b ) < 0 );
+  }
+
+  public static Object lessOrEqual( Object a, Object b ) {
+    return Boolean.valueOf( compare( a, b ) <= 0 );
+  }
+
+  public static Object greater( Object a, Object b ) {
+    return Boolean.valueOf( compare( a, b ) > 0 );
+  }
+
+  public static Object greaterOrEqual( Object a, Object b ) {
+    return Boolean.valueOf( compare( a, b ) >= 0 );
+  }
+
+  // Logical functions: IF, AND and OR are compiled to Java conditions using isTrue()
+  //
+
+  public static Object not( Object a ) {
+    return Boolean.valueOf( !isTrue( a ) );
+  }
+
+  public static Object isBlank( Object a ) {
+    return Boolean.valueOf( a == null );
+  }
+
+  // Text functions
+  //
+
+  public static Object len( Object a ) {
+    return BigDecimal.valueOf( toText( a ).length() );
+  }
+
+  public static Object upper( Object a ) {
+    return toText( a ).toUpperCase();
+  }
+
+  public static Object lower( Object a ) {
+    return toText( a ).toLowerCase();
+  }
+
+  /**
+   * Removes the leading and trailing spaces and replaces sequences of spaces by a single space.
+   */
+  public static Object trim( Object a ) {
+    String text = toText( a );
+    StringBuilder trimmed = new StringBuilder( text.length() );
+    boolean space = false;
+    for ( int i = 0; i < text.length(); i++ ) {
+      char c = text.charAt( i );
+      if ( c == ' ' ) {
+        space = trimmed.length() > 0;
+      } else {
+        if ( space ) {
+          trimmed.append( ' ' );
+          space = false;
+        }
+        trimmed.append( c );
+      }
+    }
+    return trimmed.toString();
+  }
+
+  public static Object left( Object a, Object length ) {
+    String text = toText( a );
+    return text.substring( 0, Math.min( text.length(), toLength( length ) ) );
+  }
+
+  public static Object right( Object a, Object length ) {
+    String text = toText( a );
+    return text.substring( Math.max( 0, text.length() - toLength( length ) ) );
+  }
+
+  public static Object mid( Object a, Object start, Object length ) {
+    String text = toText( a );
+    int begin = toLength( start ) - 1;
+    int count = toLength( length );
+    if ( begin < 0 ) {
+      throw Fallback.INSTANCE;
+    }
+    if ( begin >= text.length() ) {
+      return "";
+    }
+    return text.substring( begin, Math.min( text.length(), begin + count ) );
+  }
+
+  private static int toLength( Object value ) {
+    BigDecimal length = toNumber( value );
+    if ( length.signum() < 0 ) {
+      throw Fallback.INSTANCE;
+    }
+    return length.min( BigDecimal.valueOf( Integer.MAX_VALUE ) ).intValue();
+  }
+
+  // Numeric functions
+  //
+
+  public static Object abs( Object a ) {
+    return toNumber( a ).abs();
+  }
+
+  // Date functions
+  //
+
+  public static Object today() {
+    Calendar calendar = Calendar.getInstance();
+    calendar.set( Calendar.HOUR_OF_DAY, 0 );
+    calendar.set( Calendar.MINUTE, 0 );
+    calendar.set( Calendar.SECOND, 0 );
+    calendar.set( Calendar.MILLISECOND, 0 );
+    return calendar.getTime();
+  }
+
+  public static Object now() {
+    return new Date();
+  }
+
+  public static Object date( Object year, Object month, Object day ) {
+    Calendar calendar = Calendar.getInstance();
+    calendar.clear();
+    calendar.set( toNumber( year ).intValue(), toNumber( month ).intValue() - 1, toNumber( day ).intValue() );
+    return calendar.getTime();
+  }
+
+  public static Object year( Object a ) {
+    return datePart( a, Calendar.YEAR, 0 );
+  }
+
+  public static Object month( Object a ) {
+    return datePart( a, Calendar.MONTH, 1 );
+  }
+
+  public static Object day( Object a ) {
+    return datePart( a, Calendar.DAY_OF_MONTH, 0 );
+  }
+
+  public static Object hour( Object a ) {
+    return datePart( a, Calendar.HOUR_OF_DAY, 0 );
+  }
+
+  public static Object minute( Object a ) {
+    return datePart( a, Calendar.MINUTE, 0 );
+  }
+
+  public static Object second( Object a ) {
+    return datePart( a, Calendar.SECOND, 0 );
+  }
+
+  private static Object datePart( Object a, int field, int offset ) {
+    if ( !( a instanceof Date ) ) {
+      throw Fallback.INSTANCE;
+    }
+    Calendar calendar = Calendar.getInstance();
+    calendar.setTime( (Date) a );
+    return BigDecimal.valueOf( calendar.get( field ) + offset );
+  }
+}
@@ -46,8 +46,12 @@ import org.pentaho.di.core.row.ValueDataUtil;
 import org.pentaho.di.core.row.ValueMeta;
 import org.pentaho.di.core.row.ValueMetaInterface;
 import org.pentaho.di.core.row.value.ValueMetaBase;
+import org.pentaho.di.core.row.value.ValueMetaBigNumber;
+import org.pentaho.di.core.row.value.ValueMetaBinary;
 import org.pentaho.di.core.row.value.ValueMetaInteger;
 import org.pentaho.di.core.row.value.ValueMetaNumber;
+import org.pentaho.di.core.sketch.HyperLogLog;
+import org.pentaho.di.core.sketch.QuantileDigest;
 import org.pentaho.di.i18n.BaseMessages;
 import org.pentaho.di.trans.Trans;
 import org.pentaho.di.trans.TransMeta;
@@ -72,6 +76,8 @@ public class GroupBy extends BaseStep implements StepInterface {
 
   private boolean allNullsAreZero = false;
   private boolean minNullIsValued = false;
+  private int distinctPrecision = HyperLogLog.DEFAULT_PRECISION;
+  private double quantileCompression = QuantileDigest.DEFAULT_COMPRESSION;
 
   public GroupBy( StepMeta stepMeta, StepDataInterface stepDataInterface, int copyNr, TransMeta transMeta,
                   Trans trans ) {
@@ -92,6 +98,10 @@ public class GroupBy extends BaseStep implements StepInterface {
       allNullsAreZero = ValueMetaBase.convertStringToBoolean( val );
       val = getVariable( Const.KETTLE_AGGREGATION_MIN_NULL_IS_VALUED, "N" );
       minNullIsValued = ValueMetaBase.convertStringToBoolean( val );
+      distinctPrecision = Math.max( HyperLogLog.MIN_PRECISION, Math.min( HyperLogLog.MAX_PRECISION, Const.toInt(
+        getVariable( Const.KETTLE_AGGREGATION_DISTINCT_PRECISION ), HyperLogLog.DEFAULT_PRECISION ) ) );
+      quantileCompression = Math.max( 10.0, Const.toDouble(
+        getVariable( Const.KETTLE_AGGREGATION_QUANTILE_COMPRESSION ), QuantileDigest.DEFAULT_COMPRESSION ) );
 
       // What is the output looking like?
       //
@@ -122,14 +132,16 @@ public class GroupBy extends BaseStep implements StepInterface {
       data.cumulativeAvgTargetIndexes = new ArrayList<Integer>();
 
       for ( int i = 0; i < meta.getSubjectField().length; i++ ) {
-        if ( meta.getAggregateType()[ i ] == GroupByMeta.TYPE_GROUP_COUNT_ANY ) {
+        // In final mode the intermediate state has the name of the aggregate
+        //
+        String subjectField = isFinalMode() ? meta.getAggregateField()[ i ] : meta.getSubjectField()[ i ];
+        if ( meta.getAggregateType()[ i ] == GroupByMeta.TYPE_GROUP_COUNT_ANY && !isFinalMode() ) {
           data.subjectnrs[ i ] = 0;
         } else {
-          data.subjectnrs[ i ] = data.inputRowMeta.indexOfValue( meta.getSubjectField()[ i ] );
+          data.subjectnrs[ i ] = data.inputRowMeta.indexOfValue( subjectField );
         }
         if ( ( r != null ) && ( data.subjectnrs[ i ] < 0 ) ) {
-          logError( BaseMessages.getString( PKG, "GroupBy.Log.AggregateSubjectFieldCouldNotFound",
-              meta.getSubjectField()[ i ] ) );
+          logError( BaseMessages.getString( PKG, "GroupBy.Log.AggregateSubjectFieldCouldNotFound", subjectField ) );
           setErrors( 1 );
           stopAll();
           return false;
@@ -172,6 +184,7 @@ public class GroupBy extends BaseStep implements StepInterface {
       //
       data.valueMetaInteger = new ValueMetaInteger( "count" );
       data.valueMetaNumber = new ValueMetaNumber( "sum" );
+      data.valueMetaBigNumber = new ValueMetaBigNumber( "sum" );
 
       // Initialize the group metadata
       //
@@ -190,6 +203,17 @@ public class GroupBy extends BaseStep implements StepInterface {
       data.groupAggMeta = new RowMeta();
       data.groupAggMeta.addRowMeta( data.groupMeta );
       data.groupAggMeta.addRowMeta( data.aggMeta );
+
+      // In partial mode some aggregates are passed on as binary intermediate state
+      //
+      if ( meta.getAggregationMode() == GroupByMeta.AGGREGATION_MODE_PARTIAL ) {
+        for ( int i = 0; i < data.subjectnrs.length; i++ ) {
+          if ( GroupByMeta.isBinaryPartialState( meta.getAggregateType()[ i ] ) ) {
+            data.groupAggMeta.setValueMeta( data.groupMeta.size() + i, new ValueMetaBinary( meta
+              .getAggregateField()[ i ] ) );
+          }
+        }
+      }
     }
 
     if ( r == null ) // no more input to be expected... (or none received in the first place)
@@ -431,6 +455,10 @@ public class GroupBy extends BaseStep implements StepInterface {
       Object value = data.agg[ i ];
       ValueMetaInterface valueMeta = data.aggMeta.getValueMeta( i );
 
+      if ( isFinalMode() && mergePartialAggregate( i, subjMeta, subj ) ) {
+        continue;
+      }
+
       switch ( meta.getAggregateType()[ i ] ) {
         case GroupByMeta.TYPE_GROUP_SUM:
           data.agg[ i ] = ValueDataUtil.sum( valueMeta, value, subjMeta, subj );
@@ -447,6 +475,17 @@ public class GroupBy extends BaseStep implements StepInterface {
             ( (List<Double>) data.agg[ i ] ).add( subjMeta.getNumber( subj ) );
           }
           break;
+        case GroupByMeta.TYPE_GROUP_APPROX_MEDIAN:
+        case GroupByMeta.TYPE_GROUP_APPROX_PERCENTILE:
+          if ( !subjMeta.isNull( subj ) ) {
+            ( (QuantileDigest) data.agg[ i ] ).add( subjMeta.getNumber( subj ) );
+          }
+          break;
+        case GroupByMeta.TYPE_GROUP_APPROX_COUNT_DISTINCT:
+          if ( !subjMeta.isNull( subj ) ) {
+            ( (HyperLogLog) data.agg[ i ] ).add( subjMeta.convertToNormalStorageType( subj ) );
+          }
+          break;
         case GroupByMeta.TYPE_GROUP_STANDARD_DEVIATION:
           if ( !subjMeta.isNull( subj ) ) {
             data.counts[ i ]++;
@@ -567,6 +606,97 @@ public class GroupBy extends BaseStep implements StepInterface {
     }
   }
 
+  private boolean isFinalMode() {
+    return meta.getAggregationMode() == GroupByMeta.AGGREGATION_MODE_FINAL;
+  }
+
+  /**
+   * Merges the intermediate state a step copy in partial mode calculated into the group. The aggregates that are passed
+   * on as plain values (sum, minimum, first value, ...) are aggregated the normal way.
+   *
+   * @return true if the state was merged, false if the subject needs to be aggregated the normal way
+   */
+  private boolean mergePartialAggregate( int i, ValueMetaInterface subjMeta, Object subj )
+    throws KettleValueException {
+    switch ( meta.getAggregateType()[ i ] ) {
+      case GroupByMeta.TYPE_GROUP_COUNT_ALL:
+      case GroupByMeta.TYPE_GROUP_COUNT_ANY:
+        if ( !subjMeta.isNull( subj ) ) {
+          data.counts[ i ] += subjMeta.getInteger( subj );
+        }
+        return true;
+      case GroupByMeta.TYPE_GROUP_AVERAGE:
+        if ( !subjMeta.isNull( subj ) ) {
+          byte[] state = subjMeta.getBinary( subj );
+          data.agg[ i ] = ValueDataUtil.sum( data.aggMeta.getValueMeta( i ), data.agg[ i ],
+            data.valueMetaBigNumber, PartialAggregates.getAverageSum( state ) );
+          data.counts[ i ] += PartialAggregates.getAverageCount( state );
+        }
+        return true;
+      case GroupByMeta.TYPE_GROUP_STANDARD_DEVIATION:
+        if ( !subjMeta.isNull( subj ) ) {
+          byte[] state = subjMeta.getBinary( subj );
+          long count = PartialAggregates.getMomentsCount( state );
+          double[] merged = PartialAggregates.mergeMoments( data.counts[ i ], data.mean[ i ],
+            data.agg[ i ] == null ? 0.0 : (Double) data.agg[ i ], count,
+            PartialAggregates.getMomentsMean( state ), PartialAggregates.getMomentsM2( state ) );
+          data.counts[ i ] += count;
+          data.mean[ i ] = merged[ 0 ];
+          data.agg[ i ] = merged[ 1 ];
+        }
+        return true;
+      case GroupByMeta.TYPE_GROUP_CONCAT_COMMA:
+      case GroupByMeta.TYPE_GROUP_CONCAT_STRING:
+        // a copy without values for the group passes an empty string
+        return subjMeta.isNull( subj ) || subjMeta.getString( subj ).length() == 0;
+      case GroupByMeta.TYPE_GROUP_APPROX_MEDIAN:
+      case GroupByMeta.TYPE_GROUP_APPROX_PERCENTILE:
+        if ( !subjMeta.isNull( subj ) ) {
+          ( (QuantileDigest) data.agg[ i ] ).merge( QuantileDigest.fromBytes( subjMeta.getBinary( subj ) ) );
+        }
+        return true;
+      case GroupByMeta.TYPE_GROUP_APPROX_COUNT_DISTINCT:
+        if ( !subjMeta.isNull( subj ) ) {
+          ( (HyperLogLog) data.agg[ i ] ).merge( HyperLogLog.fromBytes( subjMeta.getBinary( subj ) ) );
+        }
+        return true;
+      default:
+        return false;
+    }
+  }
+
+  /**
+   * Gives back the intermediate state of an aggregate for a step in final mode to merge.
+   */
+  private Object getPartialAggregateResult( int i ) throws KettleValueException {
+    Object ag = data.agg[ i ];
+    switch ( meta.getAggregateType()[ i ] ) {
+      case GroupByMeta.TYPE_GROUP_AVERAGE:
+        if ( ag == null || data.counts[ i ] == 0 ) {
+          return null;
+        }
+        return PartialAggregates.encodeAverage( data.counts[ i ], data.aggMeta.getValueMeta( i ).getBigNumber( ag ) );
+      case GroupByMeta.TYPE_GROUP_STANDARD_DEVIATION:
+        if ( ag == null || data.counts[ i ] == 0 ) {
+          return null;
+        }
+        return PartialAggregates.encodeMoments( data.counts[ i ], data.mean[ i ], (Double) ag );
+      case GroupByMeta.TYPE_GROUP_APPROX_MEDIAN:
+      case GroupByMeta.TYPE_GROUP_APPROX_PERCENTILE:
+        return ( (QuantileDigest) ag ).toBytes();
+      case GroupByMeta.TYPE_GROUP_APPROX_COUNT_DISTINCT:
+        return ( (HyperLogLog) ag ).toBytes();
+      case GroupByMeta.TYPE_GROUP_COUNT_ANY:
+      case GroupByMeta.TYPE_GROUP_COUNT_ALL:
+        return Long.valueOf( data.counts[ i ] );
+      case GroupByMeta.TYPE_GROUP_CONCAT_COMMA:
+      case GroupByMeta.TYPE_GROUP_CONCAT_STRING:
+        return ( (StringBuilder) ag ).toString();
+      default:
+        return ag;
+    }
+  }
+
   /**
    * used for junits in GroupByAggregationNullsTest
    *
@@ -601,6 +731,15 @@ public class GroupBy extends BaseStep implements StepInterface {
           vMeta = new ValueMeta( meta.getAggregateField()[ i ], ValueMetaInterface.TYPE_NUMBER );
           v = new ArrayList<Double>();
           break;
+        case GroupByMeta.TYPE_GROUP_APPROX_MEDIAN:
+        case GroupByMeta.TYPE_GROUP_APPROX_PERCENTILE:
+          vMeta = new ValueMeta( meta.getAggregateField()[ i ], ValueMetaInterface.TYPE_NUMBER );
+          v = new QuantileDigest( quantileCompression );
+          break;
+        case GroupByMeta.TYPE_GROUP_APPROX_COUNT_DISTINCT:
+          vMeta = new ValueMeta( meta.getAggregateField()[ i ], ValueMetaInterface.TYPE_INTEGER );
+          v = new HyperLogLog( distinctPrecision );
+          break;
         case GroupByMeta.TYPE_GROUP_STANDARD_DEVIATION:
           vMeta = new ValueMeta( meta.getAggregateField()[ i ], ValueMetaInterface.TYPE_NUMBER );
           break;
@@ -635,7 +774,8 @@ public class GroupBy extends BaseStep implements StepInterface {
       if ( ( subjMeta != null )
           && ( aggType != GroupByMeta.TYPE_GROUP_COUNT_ALL
           && aggType != GroupByMeta.TYPE_GROUP_COUNT_DISTINCT
-          && aggType != GroupByMeta.TYPE_GROUP_COUNT_ANY ) ) {
+          && aggType != GroupByMeta.TYPE_GROUP_COUNT_ANY
+          && aggType != GroupByMeta.TYPE_GROUP_APPROX_COUNT_DISTINCT ) ) {
         vMeta.setLength( subjMeta.getLength(), subjMeta.getPrecision() );
       }
       data.agg[ i ] = v;
@@ -655,7 +795,8 @@ public class GroupBy extends BaseStep implements StepInterface {
 
   private Object[] buildResult( Object[] r ) throws KettleValueException {
     Object[] result = null;
-    if ( r != null || meta.isAlwaysGivingBackOneRow() ) {
+    if ( r != null
+      || ( meta.isAlwaysGivingBackOneRow() && meta.getAggregationMode() != GroupByMeta.AGGREGATION_MODE_PARTIAL ) ) {
       result = RowDataUtil.allocateRowData( data.groupnrs.length );
       if ( r != null ) {
         for ( int i = 0; i < data.groupnrs.length; i++ ) {
@@ -689,6 +830,10 @@ public class GroupBy extends BaseStep implements StepInterface {
 
     if ( data.subjectnrs != null ) {
       for ( int i = 0; i < data.subjectnrs.length; i++ ) {
+        if ( meta.getAggregationMode() == GroupByMeta.AGGREGATION_MODE_PARTIAL ) {
+          result[ i ] = getPartialAggregateResult( i );
+          continue;
+        }
         Object ag = data.agg[ i ];
         switch ( meta.getAggregateType()[ i ] ) {
           case GroupByMeta.TYPE_GROUP_SUM:
@@ -712,6 +857,18 @@ public class GroupBy extends BaseStep implements StepInterface {
             }
             ag = new Percentile().evaluate( values, percentile );
             break;
+          case GroupByMeta.TYPE_GROUP_APPROX_MEDIAN:
+          case GroupByMeta.TYPE_GROUP_APPROX_PERCENTILE:
+            double quantile = 0.5;
+            if ( meta.getAggregateType()[ i ] == GroupByMeta.TYPE_GROUP_APPROX_PERCENTILE ) {
+              quantile = Double.parseDouble( meta.getValueField()[ i ] ) / 100.0;
+            }
+            ag = ( (QuantileDigest) ag ).quantile( quantile );
+            break;
+          case GroupByMeta.TYPE_GROUP_APPROX_COUNT_DISTINCT:
+            long cardinality = ( (HyperLogLog) ag ).cardinality();
+            ag = cardinality == 0 ? null : Long.valueOf( cardinality );
+            break;
           case GroupByMeta.TYPE_GROUP_COUNT_ANY:
           case GroupByMeta.TYPE_GROUP_COUNT_ALL:
             ag = new Long( data.counts[ i ] );
@@ -843,6 +1000,11 @@ public class GroupBy extends BaseStep implements StepInterface {
     data = (GroupByData) sdi;
 
     if ( super.init( smi, sdi ) ) {
+      if ( meta.getAggregationMode() != GroupByMeta.AGGREGATION_MODE_NORMAL
+        && !meta.isPartialAggregationSupported() ) {
+        logError( BaseMessages.getString( PKG, "GroupByMeta.CheckResult.PartialAggregationNotSupported" ) );
+        return false;
+      }
       data.bufferList = new ArrayList<Object[]>();
 
       data.rowsOnFile = 0;
@@ -98,6 +98,7 @@ public class GroupByData extends BaseStepData implements StepDataInterface {
 
   public ValueMetaInterface valueMetaInteger;
   public ValueMetaInterface valueMetaNumber;
+  public ValueMetaInterface valueMetaBigNumber;
 
   public double[] mean;
 
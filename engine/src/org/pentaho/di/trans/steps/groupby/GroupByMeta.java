@@ -95,11 +95,20 @@ public class GroupByMeta extends BaseStepMeta implements StepMetaInterface {
 
   public static final int TYPE_GROUP_COUNT_ANY = 18;
 
+  /** Estimated median of the subject, kept in a t-digest */
+  public static final int TYPE_GROUP_APPROX_MEDIAN = 19;
+
+  /** Estimated percentile of the subject, kept in a t-digest */
+  public static final int TYPE_GROUP_APPROX_PERCENTILE = 20;
+
+  /** Estimated number of distinct values of the subject, kept in a HyperLogLog sketch */
+  public static final int TYPE_GROUP_APPROX_COUNT_DISTINCT = 21;
+
   public static final String[] typeGroupCode = /* WARNING: DO NOT TRANSLATE THIS. WE ARE SERIOUS, DON'T TRANSLATE! */
   {
     "-", "SUM", "AVERAGE", "MEDIAN", "PERCENTILE", "MIN", "MAX", "COUNT_ALL", "CONCAT_COMMA", "FIRST", "LAST",
     "FIRST_INCL_NULL", "LAST_INCL_NULL", "CUM_SUM", "CUM_AVG", "STD_DEV", "CONCAT_STRING", "COUNT_DISTINCT",
-    "COUNT_ANY", };
+    "COUNT_ANY", "APPROX_MEDIAN", "APPROX_PERCENTILE", "APPROX_COUNT_DISTINCT", };
 
   public static final String[] typeGroupLongDesc = {
     "-", BaseMessages.getString( PKG, "GroupByMeta.TypeGroupLongDesc.SUM" ),
@@ -119,7 +128,32 @@ public class GroupByMeta extends BaseStepMeta implements StepMetaInterface {
     BaseMessages.getString( PKG, "GroupByMeta.TypeGroupLongDesc.STANDARD_DEVIATION" ),
     BaseMessages.getString( PKG, "GroupByMeta.TypeGroupLongDesc.CONCAT_STRING" ),
     BaseMessages.getString( PKG, "GroupByMeta.TypeGroupLongDesc.COUNT_DISTINCT" ),
-    BaseMessages.getString( PKG, "GroupByMeta.TypeGroupLongDesc.COUNT_ANY" ), };
+    BaseMessages.getString( PKG, "GroupByMeta.TypeGroupLongDesc.COUNT_ANY" ),
+    BaseMessages.getString( PKG, "GroupByMeta.TypeGroupLongDesc.APPROX_MEDIAN" ),
+    BaseMessages.getString( PKG, "GroupByMeta.TypeGroupLongDesc.APPROX_PERCENTILE" ),
+    BaseMessages.getString( PKG, "GroupByMeta.TypeGroupLongDesc.APPROX_COUNT_DISTINCT" ), };
+
+  /**
+   * Aggregates the input rows
+   */
+  public static final int AGGREGATION_MODE_NORMAL = 0;
+
+  /**
+   * Aggregates the input rows of this step copy into intermediate state, to be merged by a step in final mode
+   */
+  public static final int AGGREGATION_MODE_PARTIAL = 1;
+
+  /**
+   * Merges the intermediate state of steps in partial mode, the aggregate fields are read from the input
+   */
+  public static final int AGGREGATION_MODE_FINAL = 2;
+
+  public static final String[] aggregationModeCode = { "NORMAL", "PARTIAL", "FINAL", };
+
+  public static final String[] aggregationModeDesc = {
+    BaseMessages.getString( PKG, "GroupByMeta.AggregationMode.NORMAL" ),
+    BaseMessages.getString( PKG, "GroupByMeta.AggregationMode.PARTIAL" ),
+    BaseMessages.getString( PKG, "GroupByMeta.AggregationMode.FINAL" ), };
 
   /**
    * All rows need to pass, adding an extra row at the end of each group/block.
@@ -186,6 +220,11 @@ public class GroupByMeta extends BaseStepMeta implements StepMetaInterface {
    */
   private boolean alwaysGivingBackOneRow;
 
+  /**
+   * One of the AGGREGATION_MODE_ constants
+   */
+  private int aggregationMode;
+
   public GroupByMeta() {
     super(); // allocate BaseStepMeta
   }
@@ -352,7 +391,8 @@ public class GroupByMeta extends BaseStepMeta implements StepMetaInterface {
         aggregateType[ i ] = getType( XMLHandler.getTagValue( fnode, "type" ) );
 
         if ( aggregateType[ i ] == TYPE_GROUP_COUNT_ALL
-            || aggregateType[ i ] == TYPE_GROUP_COUNT_DISTINCT || aggregateType[ i ] == TYPE_GROUP_COUNT_ANY ) {
+            || aggregateType[ i ] == TYPE_GROUP_COUNT_DISTINCT || aggregateType[ i ] == TYPE_GROUP_COUNT_ANY
+            || aggregateType[ i ] == TYPE_GROUP_APPROX_COUNT_DISTINCT ) {
           hasNumberOfValues = true;
         }
 
@@ -365,6 +405,7 @@ public class GroupByMeta extends BaseStepMeta implements StepMetaInterface {
       } else {
         alwaysGivingBackOneRow = "Y".equalsIgnoreCase( giveBackRow );
       }
+      aggregationMode = getAggregationMode( XMLHandler.getTagValue( stepnode, "aggregation_mode" ) );
     } catch ( Exception e ) {
       throw new KettleXMLException( BaseMessages.getString(
         PKG, "GroupByMeta.Exception.UnableToLoadStepInfoFromXML" ), e );
@@ -399,6 +440,54 @@ public class GroupByMeta extends BaseStepMeta implements StepMetaInterface {
     return typeGroupLongDesc[ i ];
   }
 
+  public static final int getAggregationMode( String code ) {
+    for ( int i = 0; i < aggregationModeCode.length; i++ ) {
+      if ( aggregationModeCode[ i ].equalsIgnoreCase( code ) || aggregationModeDesc[ i ].equalsIgnoreCase( code ) ) {
+        return i;
+      }
+    }
+    return AGGREGATION_MODE_NORMAL;
+  }
+
+  public static final String getAggregationModeCode( int i ) {
+    if ( i < 0 || i >= aggregationModeCode.length ) {
+      return aggregationModeCode[ AGGREGATION_MODE_NORMAL ];
+    }
+    return aggregationModeCode[ i ];
+  }
+
+  /**
+   * @return true if all the aggregates can be calculated from the intermediate state of several step copies. The exact
+   * median, percentile and distinct count need all the values, the cumulative aggregates and passing all rows need the
+   * rows themselves.
+   */
+  public boolean isPartialAggregationSupported() {
+    if ( passAllRows ) {
+      return false;
+    }
+    for ( int type : aggregateType ) {
+      switch ( type ) {
+        case TYPE_GROUP_MEDIAN:
+        case TYPE_GROUP_PERCENTILE:
+        case TYPE_GROUP_COUNT_DISTINCT:
+        case TYPE_GROUP_CUMULATIVE_SUM:
+        case TYPE_GROUP_CUMULATIVE_AVERAGE:
+          return false;
+        default:
+          break;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * @return true if the intermediate state of the aggregate type is passed on as a binary field
+   */
+  public static final boolean isBinaryPartialState( int type ) {
+    return type == TYPE_GROUP_AVERAGE || type == TYPE_GROUP_STANDARD_DEVIATION || type == TYPE_GROUP_APPROX_MEDIAN
+      || type == TYPE_GROUP_APPROX_PERCENTILE || type == TYPE_GROUP_APPROX_COUNT_DISTINCT;
+  }
+
   public void setDefault() {
     directory = "%%java.io.tmpdir%%";
     prefix = "grp";
@@ -406,6 +495,7 @@ public class GroupByMeta extends BaseStepMeta implements StepMetaInterface {
     passAllRows = false;
     aggregateIgnored = false;
     aggregateIgnoredField = null;
+    aggregationMode = AGGREGATION_MODE_NORMAL;
 
     int sizegroup = 0;
     int nrfields = 0;
@@ -437,7 +527,10 @@ public class GroupByMeta extends BaseStepMeta implements StepMetaInterface {
     // Re-add aggregates
     //
     for ( int i = 0; i < subjectField.length; i++ ) {
-      ValueMetaInterface subj = r.searchValueMeta( subjectField[ i ] );
+      // In final mode the intermediate state has the name of the aggregate
+      //
+      ValueMetaInterface subj =
+        r.searchValueMeta( aggregationMode == AGGREGATION_MODE_FINAL ? aggregateField[ i ] : subjectField[ i ] );
       if ( subj != null || aggregateType[ i ] == TYPE_GROUP_COUNT_ANY ) {
         String value_name = aggregateField[ i ];
         int value_type = ValueMetaInterface.TYPE_NONE;
@@ -460,6 +553,7 @@ public class GroupByMeta extends BaseStepMeta implements StepMetaInterface {
           case TYPE_GROUP_COUNT_DISTINCT:
           case TYPE_GROUP_COUNT_ANY:
           case TYPE_GROUP_COUNT_ALL:
+          case TYPE_GROUP_APPROX_COUNT_DISTINCT:
             value_type = ValueMetaInterface.TYPE_INTEGER;
             break;
           case TYPE_GROUP_CONCAT_COMMA:
@@ -468,6 +562,8 @@ public class GroupByMeta extends BaseStepMeta implements StepMetaInterface {
           case TYPE_GROUP_STANDARD_DEVIATION:
           case TYPE_GROUP_MEDIAN:
           case TYPE_GROUP_PERCENTILE:
+          case TYPE_GROUP_APPROX_MEDIAN:
+          case TYPE_GROUP_APPROX_PERCENTILE:
             value_type = ValueMetaInterface.TYPE_NUMBER;
             break;
           case TYPE_GROUP_CONCAT_STRING:
@@ -484,7 +580,8 @@ public class GroupByMeta extends BaseStepMeta implements StepMetaInterface {
           precision = -1;
           length = -1;
         } else if ( aggregateType[ i ] == TYPE_GROUP_COUNT_ALL
-            || aggregateType[ i ] == TYPE_GROUP_COUNT_DISTINCT || aggregateType[ i ] == TYPE_GROUP_COUNT_ANY ) {
+            || aggregateType[ i ] == TYPE_GROUP_COUNT_DISTINCT || aggregateType[ i ] == TYPE_GROUP_COUNT_ANY
+            || aggregateType[ i ] == TYPE_GROUP_APPROX_COUNT_DISTINCT ) {
           length = ValueMetaInterface.DEFAULT_INTEGER_LENGTH;
           precision = 0;
         } else if ( aggregateType[ i ] == TYPE_GROUP_SUM
@@ -496,6 +593,17 @@ public class GroupByMeta extends BaseStepMeta implements StepMetaInterface {
           precision = -1;
           length = -1;
         }
+        if ( aggregationMode == AGGREGATION_MODE_PARTIAL && isBinaryPartialState( aggregateType[ i ] ) ) {
+          value_type = ValueMetaInterface.TYPE_BINARY;
+          precision = -1;
+          length = -1;
+        } else if ( aggregationMode == AGGREGATION_MODE_FINAL && aggregateType[ i ] == TYPE_GROUP_AVERAGE ) {
+          // The sum of the averages isn't in the input, the average is calculated as a number
+          //
+          value_type = ValueMetaInterface.TYPE_NUMBER;
+          precision = -1;
+          length = -1;
+        }
 
         if ( value_type != ValueMetaInterface.TYPE_NONE ) {
           ValueMetaInterface v = new ValueMeta( value_name, value_type );
@@ -534,6 +642,8 @@ public class GroupByMeta extends BaseStepMeta implements StepMetaInterface {
     retval.append( "      " ).append( XMLHandler.addTagValue( "add_linenr", addingLineNrInGroup ) );
     retval.append( "      " ).append( XMLHandler.addTagValue( "linenr_fieldname", lineNrInGroupField ) );
     retval.append( "      " ).append( XMLHandler.addTagValue( "give_back_row", alwaysGivingBackOneRow ) );
+    retval.append( "      " ).append(
+      XMLHandler.addTagValue( "aggregation_mode", getAggregationModeCode( aggregationMode ) ) );
 
     retval.append( "      <group>" ).append( Const.CR );
     for ( int i = 0; i < groupField.length; i++ ) {
@@ -584,13 +694,15 @@ public class GroupByMeta extends BaseStepMeta implements StepMetaInterface {
         aggregateType[ i ] = getType( rep.getStepAttributeString( id_step, i, "aggregate_type" ) );
 
         if ( aggregateType[ i ] == TYPE_GROUP_COUNT_ALL
-            || aggregateType[ i ] == TYPE_GROUP_COUNT_DISTINCT || aggregateType[ i ] == TYPE_GROUP_COUNT_ANY ) {
+            || aggregateType[ i ] == TYPE_GROUP_COUNT_DISTINCT || aggregateType[ i ] == TYPE_GROUP_COUNT_ANY
+            || aggregateType[ i ] == TYPE_GROUP_APPROX_COUNT_DISTINCT ) {
           hasNumberOfValues = true;
         }
         valueField[ i ] = rep.getStepAttributeString( id_step, i, "aggregate_value_field" );
       }
 
       alwaysGivingBackOneRow = rep.getStepAttributeBoolean( id_step, 0, "give_back_row", hasNumberOfValues );
+      aggregationMode = getAggregationMode( rep.getStepAttributeString( id_step, "aggregation_mode" ) );
     } catch ( Exception e ) {
       throw new KettleException( BaseMessages.getString(
         PKG, "GroupByMeta.Exception.UnexpectedErrorInReadingStepInfoFromRepository" ), e );
@@ -608,6 +720,8 @@ public class GroupByMeta extends BaseStepMeta implements StepMetaInterface {
       rep.saveStepAttribute( id_transformation, id_step, "add_linenr", addingLineNrInGroup );
       rep.saveStepAttribute( id_transformation, id_step, "linenr_fieldname", lineNrInGroupField );
       rep.saveStepAttribute( id_transformation, id_step, "give_back_row", alwaysGivingBackOneRow );
+      rep.saveStepAttribute(
+        id_transformation, id_step, "aggregation_mode", getAggregationModeCode( aggregationMode ) );
 
       for ( int i = 0; i < groupField.length; i++ ) {
         rep.saveStepAttribute( id_transformation, id_step, i, "group_name", groupField[ i ] );
@@ -642,6 +756,13 @@ public class GroupByMeta extends BaseStepMeta implements StepMetaInterface {
           PKG, "GroupByMeta.CheckResult.NoInputError" ), stepMeta );
       remarks.add( cr );
     }
+
+    if ( aggregationMode != AGGREGATION_MODE_NORMAL && !isPartialAggregationSupported() ) {
+      cr =
+        new CheckResult( CheckResultInterface.TYPE_RESULT_ERROR, BaseMessages.getString(
+          PKG, "GroupByMeta.CheckResult.PartialAggregationNotSupported" ), stepMeta );
+      remarks.add( cr );
+    }
   }
 
   public StepInterface getStep( StepMeta stepMeta, StepDataInterface stepDataInterface, int cnr,
@@ -723,6 +844,20 @@ public class GroupByMeta extends BaseStepMeta implements StepMetaInterface {
     this.alwaysGivingBackOneRow = alwaysGivingBackOneRow;
   }
 
+  /**
+   * @return the aggregation mode, one of the AGGREGATION_MODE_ constants
+   */
+  public int getAggregationMode() {
+    return aggregationMode;
+  }
+
+  /**
+   * @param aggregationMode the aggregation mode to set, one of the AGGREGATION_MODE_ constants
+   */
+  public void setAggregationMode( int aggregationMode ) {
+    this.aggregationMode = aggregationMode;
+  }
+
   @Override
   public StepMetaInjectionInterface getStepMetaInjectionInterface() {
     return new GroupByMetaInjection( this );
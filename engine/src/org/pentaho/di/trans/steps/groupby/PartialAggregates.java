@@ -0,0 +1,94 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2016 by Pentaho : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+
+package org.pentaho.di.trans.steps.groupby;
+
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+/**
+ * Encodes the intermediate state of the aggregates that can't be passed on as a plain value between a Group By or
+ * Memory Group By in partial aggregation mode and one in final mode. The state is passed as a binary field:
+ * <ul>
+ * <li>average: the number of values and their sum</li>
+ * <li>standard deviation: the number of values, their mean and the sum of squared differences from the mean</li>
+ * </ul>
+ * The approximate aggregates pass their sketches, serialized by the sketches themselves.
+ *
+ * @since 17-10-2016
+ *
+ */
+public class PartialAggregates {
+
+  private static final Charset UTF8 = Charset.forName( "UTF-8" );
+
+  private PartialAggregates() {
+  }
+
+  public static byte[] encodeAverage( long count, BigDecimal sum ) {
+    byte[] digits = sum.toString().getBytes( UTF8 );
+    return ByteBuffer.allocate( 8 + digits.length ).putLong( count ).put( digits ).array();
+  }
+
+  public static long getAverageCount( byte[] state ) {
+    return ByteBuffer.wrap( state ).getLong();
+  }
+
+  public static BigDecimal getAverageSum( byte[] state ) {
+    return new BigDecimal( new String( state, 8, state.length - 8, UTF8 ) );
+  }
+
+  public static byte[] encodeMoments( long count, double mean, double m2 ) {
+    return ByteBuffer.allocate( 24 ).putLong( count ).putDouble( mean ).putDouble( m2 ).array();
+  }
+
+  public static long getMomentsCount( byte[] state ) {
+    return ByteBuffer.wrap( state ).getLong( 0 );
+  }
+
+  public static double getMomentsMean( byte[] state ) {
+    return ByteBuffer.wrap( state ).getDouble( 8 );
+  }
+
+  public static double getMomentsM2( byte[] state ) {
+    return ByteBuffer.wrap( state ).getDouble( 16 );
+  }
+
+  /**
+   * Combines the mean and the sum of squared differences of two sets of values (Chan et al.).
+   *
+   * @return the mean and the sum of squared differences of the union
+   */
+  public static double[] mergeMoments( long countA, double meanA, double m2A, long countB, double meanB,
+    double m2B ) {
+    long count = countA + countB;
+    if ( count == 0 ) {
+      return new double[] { 0.0, 0.0 };
+    }
+    double delta = meanB - meanA;
+    double mean = meanA + delta * countB / count;
+    double m2 = m2A + m2B + delta * delta * ( (double) countA * countB / count );
+    return new double[] { mean, m2 };
+  }
+}
@@ -29,9 +29,11 @@ import java.util.Set;
 import java.util.TreeSet;
 
 import org.apache.commons.math.stat.descriptive.rank.Percentile;
+import org.apache.commons.vfs2.FileObject;
 import org.pentaho.di.core.Const;
 import org.pentaho.di.core.exception.KettleException;
 import org.pentaho.di.core.exception.KettleValueException;
+import org.pentaho.di.core.memory.RowSizeEstimator;
 import org.pentaho.di.core.row.RowDataUtil;
 import org.pentaho.di.core.row.RowMeta;
 import org.pentaho.di.core.row.RowMetaInterface;
@@ -39,8 +41,12 @@ import org.pentaho.di.core.row.ValueDataUtil;
 import org.pentaho.di.core.row.ValueMeta;
 import org.pentaho.di.core.row.ValueMetaInterface;
 import org.pentaho.di.core.row.value.ValueMetaBase;
+import org.pentaho.di.core.row.value.ValueMetaBigNumber;
 import org.pentaho.di.core.row.value.ValueMetaInteger;
 import org.pentaho.di.core.row.value.ValueMetaNumber;
+import org.pentaho.di.core.sketch.HyperLogLog;
+import org.pentaho.di.core.sketch.QuantileDigest;
+import org.pentaho.di.core.vfs.KettleVFS;
 import org.pentaho.di.i18n.BaseMessages;
 import org.pentaho.di.trans.Trans;
 import org.pentaho.di.trans.TransMeta;
@@ -49,6 +55,7 @@ import org.pentaho.di.trans.step.StepDataInterface;
 import org.pentaho.di.trans.step.StepInterface;
 import org.pentaho.di.trans.step.StepMeta;
 import org.pentaho.di.trans.step.StepMetaInterface;
+import org.pentaho.di.trans.steps.groupby.PartialAggregates;
 import org.pentaho.di.trans.steps.memgroupby.MemoryGroupByData.HashEntry;
 
 /**
@@ -66,6 +73,8 @@ public class MemoryGroupBy extends BaseStep implements StepInterface {
 
   private boolean allNullsAreZero = false;
   private boolean minNullIsValued = false;
+  private int distinctPrecision = HyperLogLog.DEFAULT_PRECISION;
+  private double quantileCompression = QuantileDigest.DEFAULT_COMPRESSION;
 
   public MemoryGroupBy( StepMeta stepMeta, StepDataInterface stepDataInterface, int copyNr, TransMeta transMeta,
     Trans trans ) {
@@ -89,6 +98,10 @@ public class MemoryGroupBy extends BaseStep implements StepInterface {
       allNullsAreZero = ValueMetaBase.convertStringToBoolean( val );
       val = getVariable( Const.KETTLE_AGGREGATION_MIN_NULL_IS_VALUED, "N" );
       minNullIsValued = ValueMetaBase.convertStringToBoolean( val );
+      distinctPrecision = Math.max( HyperLogLog.MIN_PRECISION, Math.min( HyperLogLog.MAX_PRECISION, Const.toInt(
+        getVariable( Const.KETTLE_AGGREGATION_DISTINCT_PRECISION ), HyperLogLog.DEFAULT_PRECISION ) ) );
+      quantileCompression = Math.max( 10.0, Const.toDouble(
+        getVariable( Const.KETTLE_AGGREGATION_QUANTILE_COMPRESSION ), QuantileDigest.DEFAULT_COMPRESSION ) );
 
       // What is the output looking like?
       //
@@ -112,14 +125,17 @@ public class MemoryGroupBy extends BaseStep implements StepInterface {
       data.subjectnrs = new int[meta.getSubjectField().length];
 
       for ( int i = 0; i < meta.getSubjectField().length; i++ ) {
-        if ( meta.getAggregateType()[i] == MemoryGroupByMeta.TYPE_GROUP_COUNT_ANY ) {
+        // In final mode the intermediate state has the name of the aggregate
+        //
+        String subjectField = isFinalMode() ? meta.getAggregateField()[i] : meta.getSubjectField()[i];
+        if ( meta.getAggregateType()[i] == MemoryGroupByMeta.TYPE_GROUP_COUNT_ANY && !isFinalMode() ) {
           data.subjectnrs[i] = 0;
         } else {
-          data.subjectnrs[i] = data.inputRowMeta.indexOfValue( meta.getSubjectField()[i] );
+          data.subjectnrs[i] = data.inputRowMeta.indexOfValue( subjectField );
         }
         if ( data.subjectnrs[i] < 0 ) {
-          logError( BaseMessages.getString( PKG, "MemoryGroupBy.Log.AggregateSubjectFieldCouldNotFound", meta
-            .getSubjectField()[i] ) );
+          logError( BaseMessages.getString(
+            PKG, "MemoryGroupBy.Log.AggregateSubjectFieldCouldNotFound", subjectField ) );
           setErrors( 1 );
           stopAll();
           return false;
@@ -142,11 +158,28 @@ public class MemoryGroupBy extends BaseStep implements StepInterface {
       //
       data.valueMetaInteger = new ValueMetaInteger( "count" );
       data.valueMetaNumber = new ValueMetaNumber( "sum" );
+      data.valueMetaBigNumber = new ValueMetaBigNumber( "sum" );
 
       // Initialize the group metadata
       //
       initGroupMeta( data.inputRowMeta );
 
+      // Only the grouping and subject fields are needed to aggregate the rows of spilled groups later on
+      //
+      TreeSet<Integer> spillnrs = new TreeSet<Integer>();
+      for ( int nr : data.groupnrs ) {
+        spillnrs.add( nr );
+      }
+      for ( int nr : data.subjectnrs ) {
+        spillnrs.add( nr );
+      }
+      data.spillnrs = new int[spillnrs.size()];
+      data.spillRowMeta = new RowMeta();
+      int spillIndex = 0;
+      for ( int nr : spillnrs ) {
+        data.spillnrs[spillIndex++] = nr;
+        data.spillRowMeta.addValueMeta( data.inputRowMeta.getValueMeta( nr ) );
+      }
     }
 
     if ( first ) {
@@ -187,27 +220,17 @@ public class MemoryGroupBy extends BaseStep implements StepInterface {
   }
 
   private void handleLastOfGroup() throws KettleException {
+    boolean hasGroups = !data.map.isEmpty() || data.spillPartitions != null;
+
     // Dump the content of the map...
     //
-    for ( HashEntry entry : data.map.keySet() ) {
-      Aggregate aggregate = data.map.get( entry );
-      Object[] aggregateResult = getAggregateResult( aggregate );
-
-      Object[] outputRowData = RowDataUtil.allocateRowData( data.outputRowMeta.size() );
-      int index = 0;
-      for ( int i = 0; i < data.groupMeta.size(); i++ ) {
-        outputRowData[index++] = data.groupMeta.getValueMeta( i ).convertToNormalStorageType( entry.getGroupData()[i] );
-      }
-      for ( int i = 0; i < data.aggMeta.size(); i++ ) {
-        outputRowData[index++] = data.aggMeta.getValueMeta( i ).convertToNormalStorageType( aggregateResult[i] );
-      }
-      putRow( data.outputRowMeta, outputRowData );
-    }
+    writeGroups();
 
     // What if we always need to give back one row?
     // This means we give back 0 for count all, count distinct, null for everything else
     //
-    if ( data.map.isEmpty() && meta.isAlwaysGivingBackOneRow() ) {
+    if ( !hasGroups && meta.isAlwaysGivingBackOneRow()
+      && meta.getAggregationMode() != MemoryGroupByMeta.AGGREGATION_MODE_PARTIAL ) {
       Object[] outputRowData = RowDataUtil.allocateRowData( data.outputRowMeta.size() );
       int index = 0;
       for ( int i = 0; i < data.groupMeta.size(); i++ ) {
@@ -216,7 +239,8 @@ public class MemoryGroupBy extends BaseStep implements StepInterface {
       for ( int i = 0; i < data.aggMeta.size(); i++ ) {
         if ( meta.getAggregateType()[i] == MemoryGroupByMeta.TYPE_GROUP_COUNT_ALL
           || meta.getAggregateType()[i] == MemoryGroupByMeta.TYPE_GROUP_COUNT_ANY
-          || meta.getAggregateType()[i] == MemoryGroupByMeta.TYPE_GROUP_COUNT_DISTINCT ) {
+          || meta.getAggregateType()[i] == MemoryGroupByMeta.TYPE_GROUP_COUNT_DISTINCT
+          || meta.getAggregateType()[i] == MemoryGroupByMeta.TYPE_GROUP_APPROX_COUNT_DISTINCT ) {
           outputRowData[index++] = Long.valueOf( 0L );
         } else {
           outputRowData[index++] = null;
@@ -224,6 +248,77 @@ public class MemoryGroupBy extends BaseStep implements StepInterface {
       }
       putRow( data.outputRowMeta, outputRowData );
     }
+
+    aggregateSpilledGroups();
+  }
+
+  /**
+   * Aggregates the groups that didn't fit in memory, one partition at a time. A partition that still doesn't fit is
+   * split further, its sub-partitions are handled first to keep the number of files down.
+   */
+  private void aggregateSpilledGroups() throws KettleException {
+    queueSpillPartitions();
+
+    while ( !data.pendingPartitions.isEmpty() && !isStopped() ) {
+      data.map.clear();
+      releaseMemory();
+
+      SpillPartition partition = data.pendingPartitions.removeFirst();
+      if ( log.isDetailed() ) {
+        logDetailed( BaseMessages.getString( PKG, "MemoryGroupBy.Log.AggregatingSpilledPartition", partition
+          .getNrRows(), partition.getLevel() ) );
+      }
+      data.spillLevel = partition.getLevel();
+      try {
+        partition.startReading();
+        Object[] spillRow = partition.read( data.spillRowMeta );
+        while ( spillRow != null && !isStopped() ) {
+          Object[] r = new Object[data.inputRowMeta.size()];
+          for ( int i = 0; i < data.spillnrs.length; i++ ) {
+            r[data.spillnrs[i]] = spillRow[i];
+          }
+          addToAggregate( r );
+          spillRow = partition.read( data.spillRowMeta );
+        }
+      } finally {
+        partition.delete();
+      }
+
+      writeGroups();
+      queueSpillPartitions();
+    }
+
+    data.spillLevel = 0;
+    data.map.clear();
+    releaseMemory();
+  }
+
+  private void queueSpillPartitions() {
+    if ( data.spillPartitions != null ) {
+      for ( int i = data.spillPartitions.length - 1; i >= 0; i-- ) {
+        if ( data.spillPartitions[i] != null ) {
+          data.pendingPartitions.addFirst( data.spillPartitions[i] );
+        }
+      }
+      data.spillPartitions = null;
+    }
+  }
+
+  private void writeGroups() throws KettleException {
+    for ( HashEntry entry : data.map.keySet() ) {
+      Aggregate aggregate = data.map.get( entry );
+      Object[] aggregateResult = getAggregateResult( aggregate );
+
+      Object[] outputRowData = RowDataUtil.allocateRowData( data.outputRowMeta.size() );
+      int index = 0;
+      for ( int i = 0; i < data.groupMeta.size(); i++ ) {
+        outputRowData[index++] = data.groupMeta.getValueMeta( i ).convertToNormalStorageType( entry.getGroupData()[i] );
+      }
+      for ( int i = 0; i < data.aggMeta.size(); i++ ) {
+        outputRowData[index++] = data.aggMeta.getValueMeta( i ).convertToNormalStorageType( aggregateResult[i] );
+      }
+      putRow( data.outputRowMeta, outputRowData );
+    }
   }
 
   /**
@@ -242,6 +337,14 @@ public class MemoryGroupBy extends BaseStep implements StepInterface {
 
     Aggregate aggregate = data.map.get( entry );
     if ( aggregate == null ) {
+      // Once the memory budget is exhausted the rows of new groups go to disk, they're aggregated later on
+      //
+      if ( data.memoryBudget != null && data.spillLevel < MemoryGroupByData.MAX_SPILL_LEVEL
+        && ( data.spillPartitions != null || !reserveMemory( estimateGroupSize( groupData ) ) ) ) {
+        spillRow( entry, r );
+        return;
+      }
+
       // Create a new value...
       //
       aggregate = new Aggregate();
@@ -258,6 +361,10 @@ public class MemoryGroupBy extends BaseStep implements StepInterface {
       Object value = aggregate.agg[i];
       ValueMetaInterface valueMeta = data.aggMeta.getValueMeta( i );
 
+      if ( isFinalMode() && mergePartialAggregate( aggregate, i, subjMeta, subj ) ) {
+        continue;
+      }
+
       switch ( meta.getAggregateType()[i] ) {
         case MemoryGroupByMeta.TYPE_GROUP_SUM:
           aggregate.agg[i] = ValueDataUtil.sum( valueMeta, value, subjMeta, subj );
@@ -272,6 +379,18 @@ public class MemoryGroupBy extends BaseStep implements StepInterface {
         case MemoryGroupByMeta.TYPE_GROUP_PERCENTILE:
           if ( !subjMeta.isNull( subj ) ) {
             ( (List<Double>) aggregate.agg[i] ).add( subjMeta.getNumber( subj ) );
+            trackMemory( 24L );
+          }
+          break;
+        case MemoryGroupByMeta.TYPE_GROUP_APPROX_MEDIAN:
+        case MemoryGroupByMeta.TYPE_GROUP_APPROX_PERCENTILE:
+          if ( !subjMeta.isNull( subj ) ) {
+            ( (QuantileDigest) aggregate.agg[i] ).add( subjMeta.getNumber( subj ) );
+          }
+          break;
+        case MemoryGroupByMeta.TYPE_GROUP_APPROX_COUNT_DISTINCT:
+          if ( !subjMeta.isNull( subj ) ) {
+            ( (HyperLogLog) aggregate.agg[i] ).add( subjMeta.convertToNormalStorageType( subj ) );
           }
           break;
         case MemoryGroupByMeta.TYPE_GROUP_STANDARD_DEVIATION:
@@ -303,6 +422,7 @@ public class MemoryGroupBy extends BaseStep implements StepInterface {
             Object obj = subjMeta.convertToNormalStorageType( subj );
             if ( !aggregate.distinctObjs[i].contains( obj ) ) {
               aggregate.distinctObjs[i].add( obj );
+              trackMemory( RowSizeEstimator.estimateValueSize( obj ) + 40L );
               // null is exact 0, or we will not be able to ++.
               value = value == null ? new Long( 0 ) : value;
               aggregate.agg[i] = (Long) value + 1;
@@ -353,10 +473,12 @@ public class MemoryGroupBy extends BaseStep implements StepInterface {
         case MemoryGroupByMeta.TYPE_GROUP_CONCAT_COMMA:
           if ( !( subj == null ) ) {
             StringBuilder sb = (StringBuilder) value;
-            if ( sb.length() > 0 ) {
+            int length = sb.length();
+            if ( length > 0 ) {
               sb.append( ", " );
             }
             sb.append( subjMeta.getString( subj ) );
+            trackMemory( 2L * ( sb.length() - length ) );
           }
           break;
         case MemoryGroupByMeta.TYPE_GROUP_CONCAT_STRING:
@@ -366,16 +488,229 @@ public class MemoryGroupBy extends BaseStep implements StepInterface {
               separator = environmentSubstitute( meta.getValueField()[i] );
             }
             StringBuilder sb = (StringBuilder) value;
-            if ( sb.length() > 0 ) {
+            int length = sb.length();
+            if ( length > 0 ) {
               sb.append( separator );
             }
             sb.append( subjMeta.getString( subj ) );
+            trackMemory( 2L * ( sb.length() - length ) );
+          }
+          break;
+        default:
+          break;
+      }
+    }
+  }
+
+  private boolean isFinalMode() {
+    return meta.getAggregationMode() == MemoryGroupByMeta.AGGREGATION_MODE_FINAL;
+  }
+
+  /**
+   * Merges the intermediate state a step copy in partial mode calculated into a group. The aggregates that are passed
+   * on as plain values (sum, minimum, first value, ...) are aggregated the normal way.
+   *
+   * @return true if the state was merged, false if the subject needs to be aggregated the normal way
+   */
+  private boolean mergePartialAggregate( Aggregate aggregate, int i, ValueMetaInterface subjMeta, Object subj )
+    throws KettleException {
+    switch ( meta.getAggregateType()[i] ) {
+      case MemoryGroupByMeta.TYPE_GROUP_COUNT_ALL:
+      case MemoryGroupByMeta.TYPE_GROUP_COUNT_ANY:
+        if ( !subjMeta.isNull( subj ) ) {
+          aggregate.counts[i] += subjMeta.getInteger( subj );
+        }
+        return true;
+      case MemoryGroupByMeta.TYPE_GROUP_AVERAGE:
+        if ( !subjMeta.isNull( subj ) ) {
+          byte[] state = subjMeta.getBinary( subj );
+          aggregate.agg[i] = ValueDataUtil.sum( data.aggMeta.getValueMeta( i ), aggregate.agg[i],
+            data.valueMetaBigNumber, PartialAggregates.getAverageSum( state ) );
+          aggregate.counts[i] += PartialAggregates.getAverageCount( state );
+        }
+        return true;
+      case MemoryGroupByMeta.TYPE_GROUP_STANDARD_DEVIATION:
+        if ( !subjMeta.isNull( subj ) ) {
+          if ( aggregate.mean == null ) {
+            aggregate.mean = new double[meta.getSubjectField().length];
           }
+          byte[] state = subjMeta.getBinary( subj );
+          long count = PartialAggregates.getMomentsCount( state );
+          double[] merged = PartialAggregates.mergeMoments( aggregate.counts[i], aggregate.mean[i],
+            aggregate.agg[i] == null ? 0.0 : (Double) aggregate.agg[i], count,
+            PartialAggregates.getMomentsMean( state ), PartialAggregates.getMomentsM2( state ) );
+          aggregate.counts[i] += count;
+          aggregate.mean[i] = merged[0];
+          aggregate.agg[i] = merged[1];
+        }
+        return true;
+      case MemoryGroupByMeta.TYPE_GROUP_CONCAT_COMMA:
+      case MemoryGroupByMeta.TYPE_GROUP_CONCAT_STRING:
+        // a copy without values for the group passes an empty string
+        return subjMeta.isNull( subj ) || subjMeta.getString( subj ).length() == 0;
+      case MemoryGroupByMeta.TYPE_GROUP_APPROX_MEDIAN:
+      case MemoryGroupByMeta.TYPE_GROUP_APPROX_PERCENTILE:
+        if ( !subjMeta.isNull( subj ) ) {
+          QuantileDigest digest = QuantileDigest.fromBytes( subjMeta.getBinary( subj ) );
+          ( (QuantileDigest) aggregate.agg[i] ).merge( digest );
+          trackMemory( digest.toBytes().length );
+        }
+        return true;
+      case MemoryGroupByMeta.TYPE_GROUP_APPROX_COUNT_DISTINCT:
+        if ( !subjMeta.isNull( subj ) ) {
+          ( (HyperLogLog) aggregate.agg[i] ).merge( HyperLogLog.fromBytes( subjMeta.getBinary( subj ) ) );
+        }
+        return true;
+      default:
+        return false;
+    }
+  }
+
+  /**
+   * Gives back the intermediate state of an aggregate for a step in final mode to merge.
+   */
+  private Object getPartialAggregateResult( Aggregate aggregate, int i ) throws KettleValueException {
+    Object ag = aggregate.agg[i];
+    switch ( meta.getAggregateType()[i] ) {
+      case MemoryGroupByMeta.TYPE_GROUP_AVERAGE:
+        if ( ag == null || aggregate.counts[i] == 0 ) {
+          return null;
+        }
+        return PartialAggregates.encodeAverage( aggregate.counts[i], data.aggMeta.getValueMeta( i ).getBigNumber(
+          ag ) );
+      case MemoryGroupByMeta.TYPE_GROUP_STANDARD_DEVIATION:
+        if ( ag == null || aggregate.counts[i] == 0 ) {
+          return null;
+        }
+        return PartialAggregates.encodeMoments( aggregate.counts[i], aggregate.mean[i], (Double) ag );
+      case MemoryGroupByMeta.TYPE_GROUP_APPROX_MEDIAN:
+      case MemoryGroupByMeta.TYPE_GROUP_APPROX_PERCENTILE:
+        return ( (QuantileDigest) ag ).toBytes();
+      case MemoryGroupByMeta.TYPE_GROUP_APPROX_COUNT_DISTINCT:
+        return ( (HyperLogLog) ag ).toBytes();
+      case MemoryGroupByMeta.TYPE_GROUP_COUNT_ANY:
+      case MemoryGroupByMeta.TYPE_GROUP_COUNT_ALL:
+        return Long.valueOf( aggregate.counts[i] );
+      case MemoryGroupByMeta.TYPE_GROUP_CONCAT_COMMA:
+      case MemoryGroupByMeta.TYPE_GROUP_CONCAT_STRING:
+        return ( (StringBuilder) ag ).toString();
+      default:
+        return ag;
+    }
+  }
+
+  /**
+   * A rough estimate of the memory taken by a new group in the map: the grouping values, the hash entry, the aggregate
+   * and its arrays.
+   */
+  private long estimateGroupSize( Object[] groupData ) {
+    long size = RowSizeEstimator.estimateRowSize( groupData ) + 128L + 40L * data.subjectnrs.length;
+    for ( int i = 0; i < data.subjectnrs.length; i++ ) {
+      switch ( meta.getAggregateType()[i] ) {
+        case MemoryGroupByMeta.TYPE_GROUP_APPROX_MEDIAN:
+        case MemoryGroupByMeta.TYPE_GROUP_APPROX_PERCENTILE:
+          // the buffer plus the centroids
+          size += (long) ( quantileCompression * 72 );
+          break;
+        case MemoryGroupByMeta.TYPE_GROUP_APPROX_COUNT_DISTINCT:
+          size += 1L << distinctPrecision;
           break;
         default:
           break;
       }
     }
+    return size;
+  }
+
+  /**
+   * Reserves memory for a new group.
+   *
+   * @return false if the memory budget is exhausted and the group should be spilled to disk instead
+   */
+  private boolean reserveMemory( long size ) {
+    data.memoryUsed += size;
+    if ( data.memoryUsed > data.memoryGranted ) {
+      long grant = Math.max( MemoryGroupByData.MEMORY_GRANT_SIZE, data.memoryUsed - data.memoryGranted );
+      if ( data.memoryBudget.reserve( grant ) ) {
+        data.memoryGranted += grant;
+      } else if ( data.memoryGranted == 0 ) {
+        // Always keep some groups in memory, otherwise a partition would never get smaller
+        //
+        data.memoryBudget.forceReserve( grant );
+        data.memoryGranted += grant;
+      } else {
+        data.memoryUsed -= size;
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Accounts for an existing group that grew. The group stays in memory no matter what, if the budget is exhausted
+   * the next new group is spilled.
+   */
+  private void trackMemory( long size ) {
+    if ( data.memoryBudget == null ) {
+      return;
+    }
+    data.memoryUsed += size;
+    if ( data.memoryUsed > data.memoryGranted ) {
+      long grant = Math.max( MemoryGroupByData.MEMORY_GRANT_SIZE, data.memoryUsed - data.memoryGranted );
+      if ( data.memoryBudget.reserve( grant ) ) {
+        data.memoryGranted += grant;
+      }
+    }
+  }
+
+  /**
+   * Gives the memory held by the groups back to the memory budget.
+   */
+  private void releaseMemory() {
+    if ( data.memoryBudget != null && data.memoryGranted > 0 ) {
+      data.memoryBudget.release( data.memoryGranted );
+    }
+    data.memoryGranted = 0L;
+    data.memoryUsed = 0L;
+  }
+
+  /**
+   * Writes the grouping and subject fields of a row of a group that doesn't fit in memory to the partition file
+   * selected by the hash code of the group.
+   */
+  private void spillRow( HashEntry entry, Object[] r ) throws KettleException {
+    if ( data.spillPartitions == null ) {
+      if ( log.isDetailed() ) {
+        logDetailed( BaseMessages.getString( PKG, "MemoryGroupBy.Log.MemoryBudgetExhausted", data.map.size(),
+          data.memoryUsed, data.memoryBudget ) );
+      }
+      data.spillPartitions = new SpillPartition[MemoryGroupByData.NR_OF_SPILL_PARTITIONS];
+    }
+
+    int hash = entry.hashCode();
+    hash ^= hash >>> 16;
+    hash *= 0x85ebca6b;
+    hash ^= hash >>> 13;
+    int index = ( hash >>> ( data.spillLevel * 4 ) ) & ( MemoryGroupByData.NR_OF_SPILL_PARTITIONS - 1 );
+
+    SpillPartition partition = data.spillPartitions[index];
+    if ( partition == null ) {
+      try {
+        FileObject fileObject = KettleVFS.createTempFile( "memgroupby", ".tmp",
+          environmentSubstitute( "%%java.io.tmpdir%%" ), getTransMeta() );
+        partition = new SpillPartition( fileObject, data.spillLevel + 1 );
+      } catch ( KettleException e ) {
+        throw new KettleException( BaseMessages.getString(
+          PKG, "MemoryGroupBy.Exception.UnableToCreateTemporaryFile" ), e );
+      }
+      data.spillPartitions[index] = partition;
+    }
+
+    Object[] spillRow = new Object[data.spillnrs.length];
+    for ( int i = 0; i < data.spillnrs.length; i++ ) {
+      spillRow[i] = r[data.spillnrs[i]];
+    }
+    partition.write( data.spillRowMeta, spillRow );
   }
 
   /**
@@ -409,6 +744,15 @@ public class MemoryGroupBy extends BaseStep implements StepInterface {
           vMeta = new ValueMeta( meta.getAggregateField()[i], ValueMetaInterface.TYPE_NUMBER );
           v = new ArrayList<Double>();
           break;
+        case MemoryGroupByMeta.TYPE_GROUP_APPROX_MEDIAN:
+        case MemoryGroupByMeta.TYPE_GROUP_APPROX_PERCENTILE:
+          vMeta = new ValueMeta( meta.getAggregateField()[i], ValueMetaInterface.TYPE_NUMBER );
+          v = new QuantileDigest( quantileCompression );
+          break;
+        case MemoryGroupByMeta.TYPE_GROUP_APPROX_COUNT_DISTINCT:
+          vMeta = new ValueMeta( meta.getAggregateField()[i], ValueMetaInterface.TYPE_INTEGER );
+          v = new HyperLogLog( distinctPrecision );
+          break;
         case MemoryGroupByMeta.TYPE_GROUP_SUM:
         case MemoryGroupByMeta.TYPE_GROUP_AVERAGE:
         case MemoryGroupByMeta.TYPE_GROUP_STANDARD_DEVIATION:
@@ -443,7 +787,8 @@ public class MemoryGroupBy extends BaseStep implements StepInterface {
 
       if ( meta.getAggregateType()[i] != MemoryGroupByMeta.TYPE_GROUP_COUNT_ALL
         && meta.getAggregateType()[i] != MemoryGroupByMeta.TYPE_GROUP_COUNT_DISTINCT
-        && meta.getAggregateType()[i] != MemoryGroupByMeta.TYPE_GROUP_COUNT_ANY ) {
+        && meta.getAggregateType()[i] != MemoryGroupByMeta.TYPE_GROUP_COUNT_ANY
+        && meta.getAggregateType()[i] != MemoryGroupByMeta.TYPE_GROUP_APPROX_COUNT_DISTINCT ) {
         vMeta.setLength( subjMeta.getLength(), subjMeta.getPrecision() );
       }
       if ( aggregate == null ) {
@@ -480,6 +825,10 @@ public class MemoryGroupBy extends BaseStep implements StepInterface {
 
     if ( data.subjectnrs != null ) {
       for ( int i = 0; i < data.subjectnrs.length; i++ ) {
+        if ( meta.getAggregationMode() == MemoryGroupByMeta.AGGREGATION_MODE_PARTIAL ) {
+          result[i] = getPartialAggregateResult( aggregate, i );
+          continue;
+        }
         Object ag = aggregate.agg[i];
         switch ( meta.getAggregateType()[i] ) {
           case MemoryGroupByMeta.TYPE_GROUP_SUM:
@@ -503,6 +852,18 @@ public class MemoryGroupBy extends BaseStep implements StepInterface {
             }
             ag = new Percentile().evaluate( values, percentile );
             break;
+          case MemoryGroupByMeta.TYPE_GROUP_APPROX_MEDIAN:
+          case MemoryGroupByMeta.TYPE_GROUP_APPROX_PERCENTILE:
+            double quantile = 0.5;
+            if ( meta.getAggregateType()[i] == MemoryGroupByMeta.TYPE_GROUP_APPROX_PERCENTILE ) {
+              quantile = Double.parseDouble( meta.getValueField()[i] ) / 100.0;
+            }
+            ag = ( (QuantileDigest) ag ).quantile( quantile );
+            break;
+          case MemoryGroupByMeta.TYPE_GROUP_APPROX_COUNT_DISTINCT:
+            long cardinality = ( (HyperLogLog) ag ).cardinality();
+            ag = cardinality == 0 ? null : Long.valueOf( cardinality );
+            break;
           case MemoryGroupByMeta.TYPE_GROUP_COUNT_ANY:
           case MemoryGroupByMeta.TYPE_GROUP_COUNT_ALL:
             ag = new Long( aggregate.counts[i] );
@@ -542,7 +903,13 @@ public class MemoryGroupBy extends BaseStep implements StepInterface {
     data = (MemoryGroupByData) sdi;
 
     if ( super.init( smi, sdi ) ) {
+      if ( meta.getAggregationMode() != MemoryGroupByMeta.AGGREGATION_MODE_NORMAL
+        && !meta.isPartialAggregationSupported() ) {
+        logError( BaseMessages.getString( PKG, "MemoryGroupByMeta.CheckResult.PartialAggregationNotSupported" ) );
+        return false;
+      }
       data.map = new HashMap<HashEntry, Aggregate>( 5000 );
+      data.memoryBudget = getTrans() == null ? null : getTrans().getMemoryBudget();
 
       return true;
     }
@@ -552,6 +919,7 @@ public class MemoryGroupBy extends BaseStep implements StepInterface {
   @Override
   public void dispose( StepMetaInterface smi, StepDataInterface sdi ) {
     super.dispose( smi, sdi );
+    releaseMemory();
     ( (MemoryGroupByData) sdi ).clear();
   }
 
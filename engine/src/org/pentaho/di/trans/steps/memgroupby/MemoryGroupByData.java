@@ -23,8 +23,10 @@
 package org.pentaho.di.trans.steps.memgroupby;
 
 import java.util.HashMap;
+import java.util.LinkedList;
 
 import org.pentaho.di.core.exception.KettleValueException;
+import org.pentaho.di.core.memory.MemoryBudget;
 import org.pentaho.di.core.row.RowMetaInterface;
 import org.pentaho.di.core.row.ValueMetaInterface;
 import org.pentaho.di.trans.step.BaseStepData;
@@ -96,9 +98,37 @@ public class MemoryGroupByData extends BaseStepData implements StepDataInterface
 
   public ValueMetaInterface valueMetaInteger;
   public ValueMetaInterface valueMetaNumber;
+  public ValueMetaInterface valueMetaBigNumber;
 
   public boolean newBatch;
 
+  /** The memory is reserved from the budget in chunks of this size */
+  public static final long MEMORY_GRANT_SIZE = 1024L * 1024L;
+
+  /** The number of partitions the groups that don't fit in memory are spread over, 4 bits of the hash code */
+  public static final int NR_OF_SPILL_PARTITIONS = 16;
+
+  /** Partitions of this level aren't split anymore, all the bits of the hash code are used */
+  public static final int MAX_SPILL_LEVEL = 8;
+
+  /** The memory budget the groups are counted against, null if the number of groups isn't limited */
+  public MemoryBudget memoryBudget;
+  public long memoryUsed;
+  public long memoryGranted;
+
+  /** The indexes of the grouping and subject fields, the only ones written to the spill files */
+  public int[] spillnrs;
+  public RowMetaInterface spillRowMeta;
+
+  /** The partitions the rows of new groups go to while the memory budget is exhausted, null otherwise */
+  public SpillPartition[] spillPartitions;
+
+  /** The level of the partition being aggregated, 0 while reading the input rows */
+  public int spillLevel;
+
+  /** The partitions waiting to be aggregated */
+  public LinkedList<SpillPartition> pendingPartitions = new LinkedList<SpillPartition>();
+
   public MemoryGroupByData() {
     super();
 
@@ -113,5 +143,18 @@ public class MemoryGroupByData extends BaseStepData implements StepDataInterface
    */
   public void clear() {
     map = new HashMap<MemoryGroupByData.HashEntry, Aggregate>();
+
+    if ( spillPartitions != null ) {
+      for ( SpillPartition partition : spillPartitions ) {
+        if ( partition != null ) {
+          partition.delete();
+        }
+      }
+      spillPartitions = null;
+    }
+    for ( SpillPartition partition : pendingPartitions ) {
+      partition.delete();
+    }
+    pendingPartitions.clear();
   }
 }
@@ -91,10 +91,20 @@ public class MemoryGroupByMeta extends BaseStepMeta implements StepMetaInterface
 
   public static final int TYPE_GROUP_COUNT_ANY = 16;
 
+  /** Estimated median of the subject, kept in a t-digest */
+  public static final int TYPE_GROUP_APPROX_MEDIAN = 17;
+
+  /** Estimated percentile of the subject, kept in a t-digest */
+  public static final int TYPE_GROUP_APPROX_PERCENTILE = 18;
+
+  /** Estimated number of distinct values of the subject, kept in a HyperLogLog sketch */
+  public static final int TYPE_GROUP_APPROX_COUNT_DISTINCT = 19;
+
   public static final String[] typeGroupCode = /* WARNING: DO NOT TRANSLATE THIS. WE ARE SERIOUS, DON'T TRANSLATE! */
   {
     "-", "SUM", "AVERAGE", "MEDIAN", "PERCENTILE", "MIN", "MAX", "COUNT_ALL", "CONCAT_COMMA", "FIRST", "LAST",
-    "FIRST_INCL_NULL", "LAST_INCL_NULL", "STD_DEV", "CONCAT_STRING", "COUNT_DISTINCT", "COUNT_ANY", };
+    "FIRST_INCL_NULL", "LAST_INCL_NULL", "STD_DEV", "CONCAT_STRING", "COUNT_DISTINCT", "COUNT_ANY",
+    "APPROX_MEDIAN", "APPROX_PERCENTILE", "APPROX_COUNT_DISTINCT", };
 
   public static final String[] typeGroupLongDesc = {
     "-", BaseMessages.getString( PKG, "MemoryGroupByMeta.TypeGroupLongDesc.SUM" ),
@@ -112,7 +122,26 @@ public class MemoryGroupByMeta extends BaseStepMeta implements StepMetaInterface
     BaseMessages.getString( PKG, "MemoryGroupByMeta.TypeGroupLongDesc.STANDARD_DEVIATION" ),
     BaseMessages.getString( PKG, "MemoryGroupByMeta.TypeGroupLongDesc.CONCAT_STRING" ),
     BaseMessages.getString( PKG, "MemoryGroupByMeta.TypeGroupLongDesc.COUNT_DISTINCT" ),
-    BaseMessages.getString( PKG, "MemoryGroupByMeta.TypeGroupLongDesc.COUNT_ANY" ), };
+    BaseMessages.getString( PKG, "MemoryGroupByMeta.TypeGroupLongDesc.COUNT_ANY" ),
+    BaseMessages.getString( PKG, "MemoryGroupByMeta.TypeGroupLongDesc.APPROX_MEDIAN" ),
+    BaseMessages.getString( PKG, "MemoryGroupByMeta.TypeGroupLongDesc.APPROX_PERCENTILE" ),
+    BaseMessages.getString( PKG, "MemoryGroupByMeta.TypeGroupLongDesc.APPROX_COUNT_DISTINCT" ), };
+
+  /** Aggregates the input rows */
+  public static final int AGGREGATION_MODE_NORMAL = 0;
+
+  /** Aggregates the input rows of this step copy into intermediate state, to be merged by a step in final mode */
+  public static final int AGGREGATION_MODE_PARTIAL = 1;
+
+  /** Merges the intermediate state of steps in partial mode, the aggregate fields are read from the input */
+  public static final int AGGREGATION_MODE_FINAL = 2;
+
+  public static final String[] aggregationModeCode = { "NORMAL", "PARTIAL", "FINAL", };
+
+  public static final String[] aggregationModeDesc = {
+    BaseMessages.getString( PKG, "MemoryGroupByMeta.AggregationMode.NORMAL" ),
+    BaseMessages.getString( PKG, "MemoryGroupByMeta.AggregationMode.PARTIAL" ),
+    BaseMessages.getString( PKG, "MemoryGroupByMeta.AggregationMode.FINAL" ), };
 
   /** Fields to group over */
   private String[] groupField;
@@ -132,6 +161,9 @@ public class MemoryGroupByMeta extends BaseStepMeta implements StepMetaInterface
   /** Flag to indicate that we always give back one row. Defaults to true for existing transformations. */
   private boolean alwaysGivingBackOneRow;
 
+  /** One of the AGGREGATION_MODE_ constants */
+  private int aggregationMode;
+
   public MemoryGroupByMeta() {
     super(); // allocate BaseStepMeta
   }
@@ -260,7 +292,8 @@ public class MemoryGroupByMeta extends BaseStepMeta implements StepMetaInterface
         aggregateType[i] = getType( XMLHandler.getTagValue( fnode, "type" ) );
 
         if ( aggregateType[i] == TYPE_GROUP_COUNT_ALL
-          || aggregateType[i] == TYPE_GROUP_COUNT_DISTINCT || aggregateType[i] == TYPE_GROUP_COUNT_ANY ) {
+          || aggregateType[i] == TYPE_GROUP_COUNT_DISTINCT || aggregateType[i] == TYPE_GROUP_COUNT_ANY
+          || aggregateType[i] == TYPE_GROUP_APPROX_COUNT_DISTINCT ) {
           hasNumberOfValues = true;
         }
 
@@ -273,6 +306,7 @@ public class MemoryGroupByMeta extends BaseStepMeta implements StepMetaInterface
       } else {
         alwaysGivingBackOneRow = "Y".equalsIgnoreCase( giveBackRow );
       }
+      aggregationMode = getAggregationMode( XMLHandler.getTagValue( stepnode, "aggregation_mode" ) );
     } catch ( Exception e ) {
       throw new KettleXMLException( BaseMessages.getString(
         PKG, "MemoryGroupByMeta.Exception.UnableToLoadStepInfoFromXML" ), e );
@@ -307,11 +341,49 @@ public class MemoryGroupByMeta extends BaseStepMeta implements StepMetaInterface
     return typeGroupLongDesc[i];
   }
 
+  public static final int getAggregationMode( String code ) {
+    for ( int i = 0; i < aggregationModeCode.length; i++ ) {
+      if ( aggregationModeCode[i].equalsIgnoreCase( code ) || aggregationModeDesc[i].equalsIgnoreCase( code ) ) {
+        return i;
+      }
+    }
+    return AGGREGATION_MODE_NORMAL;
+  }
+
+  public static final String getAggregationModeCode( int i ) {
+    if ( i < 0 || i >= aggregationModeCode.length ) {
+      return aggregationModeCode[AGGREGATION_MODE_NORMAL];
+    }
+    return aggregationModeCode[i];
+  }
+
+  /**
+   * @return true if all the aggregates can be calculated from the intermediate state of several step copies, the
+   *         exact median, percentile and distinct count need all the values
+   */
+  public boolean isPartialAggregationSupported() {
+    for ( int type : aggregateType ) {
+      if ( type == TYPE_GROUP_MEDIAN || type == TYPE_GROUP_PERCENTILE || type == TYPE_GROUP_COUNT_DISTINCT ) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * @return true if the intermediate state of the aggregate type is passed on as a binary field
+   */
+  public static final boolean isBinaryPartialState( int type ) {
+    return type == TYPE_GROUP_AVERAGE || type == TYPE_GROUP_STANDARD_DEVIATION || type == TYPE_GROUP_APPROX_MEDIAN
+      || type == TYPE_GROUP_APPROX_PERCENTILE || type == TYPE_GROUP_APPROX_COUNT_DISTINCT;
+  }
+
   public void setDefault() {
     int sizegroup = 0;
     int nrfields = 0;
 
     allocate( sizegroup, nrfields );
+    aggregationMode = AGGREGATION_MODE_NORMAL;
   }
 
   public void getFields( RowMetaInterface r, String origin, RowMetaInterface[] info, StepMeta nextStep,
@@ -333,7 +405,10 @@ public class MemoryGroupByMeta extends BaseStepMeta implements StepMetaInterface
     // Re-add aggregates
     //
     for ( int i = 0; i < subjectField.length; i++ ) {
-      ValueMetaInterface subj = r.searchValueMeta( subjectField[i] );
+      // In final mode the intermediate state has the name of the aggregate
+      //
+      ValueMetaInterface subj =
+        r.searchValueMeta( aggregationMode == AGGREGATION_MODE_FINAL ? aggregateField[i] : subjectField[i] );
       if ( subj != null || aggregateType[i] == TYPE_GROUP_COUNT_ANY ) {
         String value_name = aggregateField[i];
         int value_type = ValueMetaInterface.TYPE_NONE;
@@ -352,6 +427,7 @@ public class MemoryGroupByMeta extends BaseStepMeta implements StepMetaInterface
           case TYPE_GROUP_COUNT_DISTINCT:
           case TYPE_GROUP_COUNT_ALL:
           case TYPE_GROUP_COUNT_ANY:
+          case TYPE_GROUP_APPROX_COUNT_DISTINCT:
             value_type = ValueMetaInterface.TYPE_INTEGER;
             break;
           case TYPE_GROUP_CONCAT_COMMA:
@@ -361,6 +437,8 @@ public class MemoryGroupByMeta extends BaseStepMeta implements StepMetaInterface
           case TYPE_GROUP_AVERAGE:
           case TYPE_GROUP_MEDIAN:
           case TYPE_GROUP_PERCENTILE:
+          case TYPE_GROUP_APPROX_MEDIAN:
+          case TYPE_GROUP_APPROX_PERCENTILE:
           case TYPE_GROUP_STANDARD_DEVIATION:
             value_type = ValueMetaInterface.TYPE_NUMBER;
             break;
@@ -372,7 +450,8 @@ public class MemoryGroupByMeta extends BaseStepMeta implements StepMetaInterface
         }
 
         if ( aggregateType[i] == TYPE_GROUP_COUNT_ALL
-          || aggregateType[i] == TYPE_GROUP_COUNT_DISTINCT || aggregateType[i] == TYPE_GROUP_COUNT_ANY ) {
+          || aggregateType[i] == TYPE_GROUP_COUNT_DISTINCT || aggregateType[i] == TYPE_GROUP_COUNT_ANY
+          || aggregateType[i] == TYPE_GROUP_APPROX_COUNT_DISTINCT ) {
           length = ValueMetaInterface.DEFAULT_INTEGER_LENGTH;
           precision = 0;
         } else if ( aggregateType[i] == TYPE_GROUP_SUM
@@ -384,6 +463,11 @@ public class MemoryGroupByMeta extends BaseStepMeta implements StepMetaInterface
           precision = -1;
           length = -1;
         }
+        if ( aggregationMode == AGGREGATION_MODE_PARTIAL && isBinaryPartialState( aggregateType[i] ) ) {
+          value_type = ValueMetaInterface.TYPE_BINARY;
+          precision = -1;
+          length = -1;
+        }
 
         if ( value_type != ValueMetaInterface.TYPE_NONE ) {
           ValueMetaInterface v = new ValueMeta( value_name, value_type );
@@ -404,6 +488,8 @@ public class MemoryGroupByMeta extends BaseStepMeta implements StepMetaInterface
     StringBuffer retval = new StringBuffer( 500 );
 
     retval.append( "      " ).append( XMLHandler.addTagValue( "give_back_row", alwaysGivingBackOneRow ) );
+    retval.append( "      " ).append(
+      XMLHandler.addTagValue( "aggregation_mode", getAggregationModeCode( aggregationMode ) ) );
 
     retval.append( "      <group>" ).append( Const.CR );
     for ( int i = 0; i < groupField.length; i++ ) {
@@ -445,13 +531,15 @@ public class MemoryGroupByMeta extends BaseStepMeta implements StepMetaInterface
         aggregateType[i] = getType( rep.getStepAttributeString( id_step, i, "aggregate_type" ) );
 
         if ( aggregateType[i] == TYPE_GROUP_COUNT_ALL
-          || aggregateType[i] == TYPE_GROUP_COUNT_DISTINCT || aggregateType[i] == TYPE_GROUP_COUNT_ANY ) {
+          || aggregateType[i] == TYPE_GROUP_COUNT_DISTINCT || aggregateType[i] == TYPE_GROUP_COUNT_ANY
+          || aggregateType[i] == TYPE_GROUP_APPROX_COUNT_DISTINCT ) {
           hasNumberOfValues = true;
         }
         valueField[i] = rep.getStepAttributeString( id_step, i, "aggregate_value_field" );
       }
 
       alwaysGivingBackOneRow = rep.getStepAttributeBoolean( id_step, 0, "give_back_row", hasNumberOfValues );
+      aggregationMode = getAggregationMode( rep.getStepAttributeString( id_step, "aggregation_mode" ) );
     } catch ( Exception e ) {
       throw new KettleException( BaseMessages.getString(
         PKG, "MemoryGroupByMeta.Exception.UnexpectedErrorInReadingStepInfoFromRepository" ), e );
@@ -461,6 +549,8 @@ public class MemoryGroupByMeta extends BaseStepMeta implements StepMetaInterface
   public void saveRep( Repository rep, IMetaStore metaStore, ObjectId id_transformation, ObjectId id_step ) throws KettleException {
     try {
       rep.saveStepAttribute( id_transformation, id_step, "give_back_row", alwaysGivingBackOneRow );
+      rep.saveStepAttribute(
+        id_transformation, id_step, "aggregation_mode", getAggregationModeCode( aggregationMode ) );
 
       for ( int i = 0; i < groupField.length; i++ ) {
         rep.saveStepAttribute( id_transformation, id_step, i, "group_name", groupField[i] );
@@ -495,6 +585,13 @@ public class MemoryGroupByMeta extends BaseStepMeta implements StepMetaInterface
           PKG, "MemoryGroupByMeta.CheckResult.NoInputError" ), stepMeta );
       remarks.add( cr );
     }
+
+    if ( aggregationMode != AGGREGATION_MODE_NORMAL && !isPartialAggregationSupported() ) {
+      cr =
+        new CheckResult( CheckResultInterface.TYPE_RESULT_ERROR, BaseMessages.getString(
+          PKG, "MemoryGroupByMeta.CheckResult.PartialAggregationNotSupported" ), stepMeta );
+      remarks.add( cr );
+    }
   }
 
   public StepInterface getStep( StepMeta stepMeta, StepDataInterface stepDataInterface, int cnr,
@@ -520,4 +617,19 @@ public class MemoryGroupByMeta extends BaseStepMeta implements StepMetaInterface
   public void setAlwaysGivingBackOneRow( boolean alwaysGivingBackOneRow ) {
     this.alwaysGivingBackOneRow = alwaysGivingBackOneRow;
   }
+
+  /**
+   * @return the aggregation mode, one of the AGGREGATION_MODE_ constants
+   */
+  public int getAggregationMode() {
+    return aggregationMode;
+  }
+
+  /**
+   * @param aggregationMode
+   *          the aggregation mode to set, one of the AGGREGATION_MODE_ constants
+   */
+  public void setAggregationMode( int aggregationMode ) {
+    this.aggregationMode = aggregationMode;
+  }
 }
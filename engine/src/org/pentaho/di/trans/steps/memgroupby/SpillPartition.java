@@ -0,0 +1,130 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2016 by Pentaho : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+
+package org.pentaho.di.trans.steps.memgroupby;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+
+import org.apache.commons.vfs2.FileObject;
+import org.pentaho.di.core.exception.KettleFileException;
+import org.pentaho.di.core.row.RowMetaInterface;
+import org.pentaho.di.core.vfs.KettleVFS;
+import org.pentaho.di.trans.step.BaseStep;
+
+/**
+ * The input rows of the groups of one hash partition that didn't fit in memory, kept in a temporary file until the
+ * groups in memory are written out. The rows are written in the binary format of
+ * {@link RowMetaInterface#writeData(DataOutputStream, Object[])}, only the grouping and subject fields are kept.
+ *
+ * @since 17-10-2016
+ *
+ */
+public class SpillPartition {
+  private final FileObject fileObject;
+  private final int level;
+  private DataOutputStream outputStream;
+  private DataInputStream inputStream;
+  private long nrRows;
+
+  /**
+   * @param fileObject
+   *          the temporary file to write the rows to
+   * @param level
+   *          the number of times the rows were partitioned, which tells which bits of the hash code to use when the
+   *          partition needs to be split again
+   * @throws KettleFileException
+   *           in case the file can't be created
+   */
+  public SpillPartition( FileObject fileObject, int level ) throws KettleFileException {
+    this.fileObject = fileObject;
+    this.level = level;
+    try {
+      outputStream = new DataOutputStream( new BufferedOutputStream( KettleVFS.getOutputStream( fileObject, false ),
+        50000 ) );
+    } catch ( IOException e ) {
+      throw new KettleFileException( "Unable to open spill file " + fileObject.getName(), e );
+    }
+  }
+
+  public void write( RowMetaInterface rowMeta, Object[] row ) throws KettleFileException {
+    rowMeta.writeData( outputStream, row );
+    nrRows++;
+  }
+
+  /**
+   * Closes the file for writing and opens it for reading.
+   */
+  public void startReading() throws KettleFileException {
+    try {
+      outputStream.close();
+      outputStream = null;
+      inputStream = new DataInputStream( new BufferedInputStream( KettleVFS.getInputStream( fileObject ), 50000 ) );
+    } catch ( IOException e ) {
+      throw new KettleFileException( "Unable to read spill file " + fileObject.getName(), e );
+    }
+  }
+
+  /**
+   * @return the next row or null if all rows were read
+   */
+  public Object[] read( RowMetaInterface rowMeta ) throws KettleFileException {
+    if ( nrRows <= 0 ) {
+      return null;
+    }
+    try {
+      Object[] row = rowMeta.readData( inputStream );
+      nrRows--;
+      return row;
+    } catch ( SocketTimeoutException e ) {
+      throw new KettleFileException( e ); // never on local files
+    }
+  }
+
+  public int getLevel() {
+    return level;
+  }
+
+  public long getNrRows() {
+    return nrRows;
+  }
+
+  /**
+   * Closes and removes the temporary file.
+   */
+  public void delete() {
+    BaseStep.closeQuietly( outputStream );
+    BaseStep.closeQuietly( inputStream );
+    outputStream = null;
+    inputStream = null;
+    try {
+      fileObject.delete();
+    } catch ( IOException e ) {
+      // Nothing to do about it, the temporary directory will be cleaned up eventually
+    }
+  }
+}
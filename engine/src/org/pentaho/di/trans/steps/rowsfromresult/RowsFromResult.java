@@ -29,6 +29,7 @@ import org.pentaho.di.i18n.BaseMessages;
 import org.pentaho.di.trans.Trans;
 import org.pentaho.di.trans.TransMeta;
 import org.pentaho.di.trans.step.BaseStep;
+import org.pentaho.di.trans.step.ReusableStep;
 import org.pentaho.di.trans.step.StepDataInterface;
 import org.pentaho.di.trans.step.StepInterface;
 import org.pentaho.di.trans.step.StepMeta;
@@ -40,7 +41,7 @@ import org.pentaho.di.trans.step.StepMetaInterface;
  * @author Matt
  * @since 2-jun-2003
  */
-public class RowsFromResult extends BaseStep implements StepInterface {
+public class RowsFromResult extends BaseStep implements StepInterface, ReusableStep {
   private static Class<?> PKG = RowsFromResult.class; // for i18n purposes, needed by Translator2!!
 
   private RowsFromResultData data;
@@ -53,6 +54,12 @@ public class RowsFromResult extends BaseStep implements StepInterface {
   }
 
   public boolean processRow( StepMetaInterface smi, StepDataInterface sdi ) throws KettleException {
+    // A re-used transformation (see TransExecutor) passes the rows of every group through a row producer
+    //
+    if ( !getInputRowSets().isEmpty() ) {
+      return processInjectedRow( sdi );
+    }
+
     Result previousResult = getTrans().getPreviousResult();
     if ( previousResult == null || getLinesRead() >= previousResult.getRows().size() ) {
       setOutputDone();
@@ -79,4 +86,23 @@ public class RowsFromResult extends BaseStep implements StepInterface {
 
     return true;
   }
+
+  private boolean processInjectedRow( StepDataInterface sdi ) throws KettleException {
+    Object[] row = getRow();
+    if ( row == null ) {
+      setOutputDone();
+      return false;
+    }
+
+    data = (RowsFromResultData) sdi;
+    data.outputRowMeta = getInputRowMeta();
+
+    putRow( data.outputRowMeta, row );
+
+    return true;
+  }
+
+  public void resetForNextExecution() throws KettleException {
+    // Nothing to reset, the rows of the next group are injected.
+  }
 }
@@ -28,6 +28,7 @@ import org.pentaho.di.i18n.BaseMessages;
 import org.pentaho.di.trans.Trans;
 import org.pentaho.di.trans.TransMeta;
 import org.pentaho.di.trans.step.BaseStep;
+import org.pentaho.di.trans.step.ReusableStep;
 import org.pentaho.di.trans.step.StepDataInterface;
 import org.pentaho.di.trans.step.StepInterface;
 import org.pentaho.di.trans.step.StepMeta;
@@ -39,7 +40,7 @@ import org.pentaho.di.trans.step.StepMetaInterface;
  * @author Matt
  * @since 2-jun-2003
  */
-public class RowsToResult extends BaseStep implements StepInterface {
+public class RowsToResult extends BaseStep implements StepInterface, ReusableStep {
   private static Class<?> PKG = RowsToResult.class; // for i18n purposes, needed by Translator2!!
 
   private RowsToResultMeta meta;
@@ -89,4 +90,21 @@ public class RowsToResult extends BaseStep implements StepInterface {
     return false;
   }
 
+  /**
+   * The single threaded engine signals the end of a batch of rows: pass the buffered rows to the result.
+   */
+  @Override
+  public void batchComplete() throws KettleException {
+    if ( data != null && !data.rows.isEmpty() ) {
+      getTrans().getResultRows().addAll( data.rows );
+      data.rows.clear();
+    }
+  }
+
+  public void resetForNextExecution() throws KettleException {
+    if ( data != null ) {
+      data.rows.clear();
+    }
+  }
+
 }
@@ -24,6 +24,7 @@ package org.pentaho.di.trans.steps.scriptvalues_mod;
 
 import java.util.Hashtable;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 import org.mozilla.javascript.Context;
 import org.mozilla.javascript.ContextFactory;
@@ -35,6 +36,7 @@ import org.pentaho.di.compatibility.Row;
 import org.pentaho.di.compatibility.Value;
 import org.pentaho.di.compatibility.ValueUsedListener;
 import org.pentaho.di.core.Const;
+import org.pentaho.di.core.RowBatch;
 import org.pentaho.di.core.exception.KettleException;
 import org.pentaho.di.core.exception.KettleStepException;
 import org.pentaho.di.core.exception.KettleValueException;
@@ -46,10 +48,12 @@ import org.pentaho.di.i18n.BaseMessages;
 import org.pentaho.di.trans.Trans;
 import org.pentaho.di.trans.TransMeta;
 import org.pentaho.di.trans.step.BaseStep;
+import org.pentaho.di.trans.step.RowBatchProcessor;
 import org.pentaho.di.trans.step.StepDataInterface;
 import org.pentaho.di.trans.step.StepInterface;
 import org.pentaho.di.trans.step.StepMeta;
 import org.pentaho.di.trans.step.StepMetaInterface;
+import org.pentaho.di.trans.step.ThreadBoundStep;
 import org.pentaho.di.core.util.JavaScriptUtils;
 
 /**
@@ -59,7 +63,7 @@ import org.pentaho.di.core.util.JavaScriptUtils;
  * @author Matt
  * @since 5-April-2003
  */
-public class ScriptValuesMod extends BaseStep implements StepInterface {
+public class ScriptValuesMod extends BaseStep implements StepInterface, RowBatchProcessor, ThreadBoundStep {
   private static Class<?> PKG = ScriptValuesMetaMod.class; // for i18n purposes, needed by Translator2!!
 
   private ScriptValuesMetaMod meta;
@@ -198,6 +202,9 @@ public class ScriptValuesMod extends BaseStep implements StepInterface {
 
       data.scope = data.cx.initStandardObjects( null, false );
 
+      data.valueSlots =
+        !meta.isCompatible() && "Y".equalsIgnoreCase( getVariable( Const.KETTLE_JAVASCRIPT_VALUE_SLOTS, "N" ) );
+
       bFirstRun = true;
 
       Scriptable jsvalue = Context.toObject( this, data.scope );
@@ -298,8 +305,7 @@ public class ScriptValuesMod extends BaseStep implements StepInterface {
         try {
           // Checking for StartScript
           if ( strStartScript != null && strStartScript.length() > 0 ) {
-            Script startScript = data.cx.compileString( strStartScript, "trans_Start", 1, null );
-            startScript.exec( data.cx, data.scope );
+            ScriptValuesScriptCache.getScript( data.cx, strStartScript, "trans_Start" ).exec( data.cx, data.scope );
             if ( log.isDetailed() ) {
               logDetailed( ( "Start Script found!" ) );
             }
@@ -314,8 +320,10 @@ public class ScriptValuesMod extends BaseStep implements StepInterface {
             PKG, "ScriptValuesMod.Log.ErrorProcessingStartScript" ), es );
 
         }
-        // Now Compile our Script
-        data.script = data.cx.compileString( strTransformScript, "script", 1, null );
+        // Now Compile our Script, unless another step copy or an earlier run already did
+        data.compiledScript = ScriptValuesScriptCache.getScript( data.cx, strTransformScript, "script" );
+        data.script = data.compiledScript.getScript();
+        data.timeScript = log.isDetailed();
       } catch ( Exception e ) {
         throw new KettleValueException( BaseMessages.getString(
           PKG, "ScriptValuesMod.Log.CouldNotCompileJavascript" ), e );
@@ -366,25 +374,39 @@ public class ScriptValuesMod extends BaseStep implements StepInterface {
             data.scope.put( valueMeta.getName(), data.scope, jsarg );
           } else {
             Object normalStorageValueData = valueMeta.convertToNormalStorageType( valueData );
-            Scriptable jsarg;
-            if ( normalStorageValueData != null ) {
-              jsarg = Context.toObject( normalStorageValueData, data.scope );
-            } else {
+            Object jsarg;
+            if ( normalStorageValueData == null ) {
               jsarg = null;
+            } else if ( data.valueSlots ) {
+              // Store the plain value in the property of the field, no wrapper object is created for strings,
+              // numbers and booleans
+              jsarg = Context.javaToJS( normalStorageValueData, data.scope );
+            } else {
+              jsarg = Context.toObject( normalStorageValueData, data.scope );
             }
             data.scope.put( valueMeta.getName(), data.scope, jsarg );
           }
         }
 
-        // also add the meta information for the hole row
-        Scriptable jsrowMeta = Context.toObject( rowMeta, data.scope );
-        data.scope.put( "rowMeta", data.scope, jsrowMeta );
+        // also add the meta information for the hole row, only once if it doesn't change
+        if ( !data.valueSlots || rowMeta != data.boundRowMeta ) {
+          Scriptable jsrowMeta = Context.toObject( rowMeta, data.scope );
+          data.scope.put( "rowMeta", data.scope, jsrowMeta );
+          data.boundRowMeta = rowMeta;
+        }
       } catch ( Exception e ) {
         throw new KettleValueException( BaseMessages.getString( PKG, "ScriptValuesMod.Log.UnexpectedeError" ), e );
       }
 
       // Executing our Script
-      data.script.exec( data.cx, data.scope );
+      if ( data.timeScript ) {
+        long start = System.nanoTime();
+        data.compiledScript.exec( data.cx, data.scope );
+        data.scriptNanos += System.nanoTime() - start;
+      } else {
+        data.compiledScript.exec( data.cx, data.scope );
+      }
+      data.scriptExecutions++;
 
       if ( bFirstRun ) {
         bFirstRun = false;
@@ -440,7 +462,11 @@ public class ScriptValuesMod extends BaseStep implements StepInterface {
           }
 
         }
-        putRow( data.outputRowMeta, outputRow );
+        if ( data.outputBatch != null ) {
+          data.outputBatch.set( data.outputBatchSize++, outputRow );
+        } else {
+          putRow( data.outputRowMeta, outputRow );
+        }
       } else {
         switch( iTranStat ) {
           case SKIP_TRANSFORMATION:
@@ -451,6 +477,7 @@ public class ScriptValuesMod extends BaseStep implements StepInterface {
             if ( data.cx != null ) {
               Context.exit();
             }
+            putBatchRows(); // the rows calculated before this one
             stopAll();
             setOutputDone();
             bRC = false;
@@ -459,6 +486,7 @@ public class ScriptValuesMod extends BaseStep implements StepInterface {
             if ( data.cx != null ) {
               Context.exit();
             }
+            putBatchRows(); // the rows calculated before this one
             setErrors( 1 );
             stopAll();
             bRC = false;
@@ -504,37 +532,63 @@ public class ScriptValuesMod extends BaseStep implements StepInterface {
 
     Object[] r = getRow(); // Get row from input rowset & set row busy!
     if ( r == null ) {
-      // Modification for Additional End Function
-      try {
-        if ( data.cx != null ) {
-          // Checking for EndScript
-          if ( strEndScript != null && strEndScript.length() > 0 ) {
-            Script endScript = data.cx.compileString( strEndScript, "trans_End", 1, null );
-            endScript.exec( data.cx, data.scope );
-            if ( log.isDetailed() ) {
-              logDetailed( ( "End Script found!" ) );
-            }
-          } else {
-            if ( log.isDetailed() ) {
-              logDetailed( ( "No end Script found!" ) );
-            }
-          }
-        }
-      } catch ( Exception e ) {
-        logError( BaseMessages.getString( PKG, "ScriptValuesMod.Log.UnexpectedeError" ) + " : " + e.toString() );
-        logError( BaseMessages.getString( PKG, "ScriptValuesMod.Log.ErrorStackTrace" )
-          + Const.CR + Const.getStackTracker( e ) );
-        setErrors( 1 );
-        stopAll();
-      }
+      return finishProcessing();
+    }
 
-      if ( data.cx != null ) {
-        Context.exit();
+    processInputRow( r );
+
+    if ( checkFeedback( getLinesRead() ) ) {
+      logBasic( BaseMessages.getString( PKG, "ScriptValuesMod.Log.LineNumber" ) + getLinesRead() );
+    }
+    return bRC;
+  }
+
+  /**
+   * Runs the script for a batch of rows. The calculated rows are written back into the batch, which is passed on as a
+   * whole.
+   */
+  public boolean processRows( StepMetaInterface smi, StepDataInterface sdi, RowBatch batch ) throws KettleException {
+    meta = (ScriptValuesMetaMod) smi;
+    data = (ScriptValuesModData) sdi;
+
+    if ( batch == null ) {
+      return finishProcessing();
+    }
+
+    int nrRows = batch.size();
+    data.outputBatch = batch;
+    data.outputBatchSize = 0;
+    try {
+      bRC = true;
+      for ( int i = 0; i < nrRows && bRC; i++ ) {
+        processInputRow( batch.get( i ) );
+      }
+      if ( bRC ) {
+        putBatchRows();
       }
-      setOutputDone();
-      return false;
+    } finally {
+      data.outputBatch = null;
     }
 
+    long linesRead = getLinesRead();
+    if ( checkFeedback( linesRead - nrRows, linesRead ) ) {
+      logBasic( BaseMessages.getString( PKG, "ScriptValuesMod.Log.LineNumber" ) + linesRead );
+    }
+    return bRC;
+  }
+
+  /**
+   * Passes on the rows calculated so far in the current batch, if any.
+   */
+  private void putBatchRows() throws KettleStepException {
+    if ( data.outputBatch != null ) {
+      data.outputBatch.truncate( data.outputBatchSize );
+      putRows( data.outputRowMeta, data.outputBatch );
+      data.outputBatch = null;
+    }
+  }
+
+  private void processInputRow( Object[] r ) throws KettleException {
     // Getting the Row, with the Transformation Status
     try {
       addValues( getInputRowMeta(), r );
@@ -552,11 +606,53 @@ public class ScriptValuesMod extends BaseStep implements StepInterface {
         throw ( e );
       }
     }
+  }
 
-    if ( checkFeedback( getLinesRead() ) ) {
-      logBasic( BaseMessages.getString( PKG, "ScriptValuesMod.Log.LineNumber" ) + getLinesRead() );
+  /**
+   * Runs the end script once all rows are processed.
+   *
+   * @return false, there are no more rows to process
+   */
+  private boolean finishProcessing() {
+    // Modification for Additional End Function
+    try {
+      if ( data.cx != null ) {
+        // Checking for EndScript
+        if ( strEndScript != null && strEndScript.length() > 0 ) {
+          ScriptValuesScriptCache.getScript( data.cx, strEndScript, "trans_End" ).exec( data.cx, data.scope );
+          if ( log.isDetailed() ) {
+            logDetailed( ( "End Script found!" ) );
+          }
+        } else {
+          if ( log.isDetailed() ) {
+            logDetailed( ( "No end Script found!" ) );
+          }
+        }
+      }
+    } catch ( Exception e ) {
+      logError( BaseMessages.getString( PKG, "ScriptValuesMod.Log.UnexpectedeError" ) + " : " + e.toString() );
+      logError( BaseMessages.getString( PKG, "ScriptValuesMod.Log.ErrorStackTrace" )
+        + Const.CR + Const.getStackTracker( e ) );
+      setErrors( 1 );
+      stopAll();
     }
-    return bRC;
+
+    if ( data.compiledScript != null ) {
+      data.compiledScript.addExecutions( data.scriptExecutions, data.scriptNanos );
+    }
+    if ( data.compiledScript != null && data.timeScript ) {
+      logDetailed( "Script executed " + data.scriptExecutions + " times in "
+        + TimeUnit.NANOSECONDS.toMillis( data.scriptNanos ) + " ms, "
+        + ( data.scriptExecutions > 0 ? data.scriptNanos / data.scriptExecutions / 1000 : 0 ) + " us per row. "
+        + "All steps running this script: " + data.compiledScript.getExecutions() + " times in "
+        + TimeUnit.NANOSECONDS.toMillis( data.compiledScript.getExecutionNanos() ) + " ms" );
+    }
+
+    if ( data.cx != null ) {
+      Context.exit();
+    }
+    setOutputDone();
+    return false;
   }
 
   public boolean init( StepMetaInterface smi, StepDataInterface sdi ) {
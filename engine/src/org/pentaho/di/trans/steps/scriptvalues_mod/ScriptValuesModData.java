@@ -26,6 +26,7 @@ import org.mozilla.javascript.Context;
 import org.mozilla.javascript.Script;
 import org.mozilla.javascript.Scriptable;
 import org.pentaho.di.compatibility.Value;
+import org.pentaho.di.core.RowBatch;
 import org.pentaho.di.core.row.RowMetaInterface;
 import org.pentaho.di.trans.step.BaseStepData;
 import org.pentaho.di.trans.step.StepDataInterface;
@@ -40,6 +41,22 @@ public class ScriptValuesModData extends BaseStepData implements StepDataInterfa
   public Scriptable scope;
   public Script script;
 
+  /** The transform script as it is shared with other step copies, with its execution statistics */
+  public ScriptValuesScriptCache.CachedScript compiledScript;
+  /** The number of times this step ran the transform script and how long it took in total, if it's measured */
+  public long scriptExecutions;
+  public long scriptNanos;
+  public boolean timeScript;
+
+  /** Bind the used field values to the scope as plain values rather than new wrapper objects for every row */
+  public boolean valueSlots;
+  /** The row metadata the "rowMeta" variable was last bound to */
+  public RowMetaInterface boundRowMeta;
+
+  /** The batch of rows being processed and the number of output rows written back into it */
+  public RowBatch outputBatch;
+  public int outputBatchSize;
+
   public int[] fields_used;
   public Value[] values_used;
 
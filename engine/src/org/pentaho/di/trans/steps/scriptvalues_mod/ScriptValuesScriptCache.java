@@ -0,0 +1,169 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2016 by Pentaho : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+
+package org.pentaho.di.trans.steps.scriptvalues_mod;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.Script;
+import org.mozilla.javascript.Scriptable;
+
+/**
+ * Keeps the scripts compiled by the Modified JavaScript Value step, so that step copies and later executions of the
+ * same script in this JVM don't compile it again. Scripts are identified by their source, their name and the
+ * optimization level they were compiled with. A compiled script doesn't hold on to a scope and can be executed by
+ * several threads at once, each in its own context and scope.<br>
+ * <br>
+ * Every script keeps track of how many times it ran and for how long, over all the steps that use it. The steps count
+ * their own executions and add them once they are done, the time is only measured with detailed logging.
+ *
+ * @since 17-10-2016
+ */
+public class ScriptValuesScriptCache {
+
+  /** The maximum number of compiled scripts kept, the least recently used ones are dropped first */
+  public static final int MAX_SCRIPTS = 256;
+
+  private static final Map<String, CachedScript> scripts = new LinkedHashMap<String, CachedScript>( 16, 0.75f, true ) {
+    private static final long serialVersionUID = 2419283451137462918L;
+
+    @Override
+    protected boolean removeEldestEntry( Map.Entry<String, CachedScript> eldest ) {
+      return size() > MAX_SCRIPTS;
+    }
+  };
+
+  private ScriptValuesScriptCache() {
+  }
+
+  /**
+   * Returns the compiled script, compiling it in the given context if it isn't cached yet.
+   *
+   * @param cx
+   *          the context, its optimization level is used to compile the script
+   * @param source
+   *          the script source
+   * @param name
+   *          the name of the script, used in error messages
+   * @return the compiled script
+   */
+  public static CachedScript getScript( Context cx, String source, String name ) {
+    String key = cx.getOptimizationLevel() + "|" + name + "|" + source;
+    synchronized ( scripts ) {
+      CachedScript script = scripts.get( key );
+      if ( script != null ) {
+        return script;
+      }
+    }
+
+    // Compile outside of the lock, it can take a while. If two copies compile the same script at the same time the
+    // first one to finish wins.
+    //
+    CachedScript compiled = new CachedScript( name, cx.compileString( source, name, 1, null ) );
+    synchronized ( scripts ) {
+      CachedScript script = scripts.get( key );
+      if ( script == null ) {
+        scripts.put( key, compiled );
+        script = compiled;
+      }
+      return script;
+    }
+  }
+
+  /**
+   * @return the scripts currently cached, most recently used last
+   */
+  public static List<CachedScript> getScripts() {
+    synchronized ( scripts ) {
+      return new ArrayList<CachedScript>( scripts.values() );
+    }
+  }
+
+  public static void clear() {
+    synchronized ( scripts ) {
+      scripts.clear();
+    }
+  }
+
+  /**
+   * A compiled script with its execution statistics.
+   */
+  public static class CachedScript {
+    private final String name;
+    private final Script script;
+    private final AtomicLong executions = new AtomicLong();
+    private final AtomicLong executionNanos = new AtomicLong();
+
+    CachedScript( String name, Script script ) {
+      this.name = name;
+      this.script = script;
+    }
+
+    /**
+     * Executes the script in the given context and scope.
+     */
+    public Object exec( Context cx, Scriptable scope ) {
+      return script.exec( cx, scope );
+    }
+
+    /**
+     * Adds the executions of a step to the statistics of the script.
+     *
+     * @param stepExecutions
+     *          the number of times the step ran the script
+     * @param stepNanos
+     *          the time in nanoseconds the step spent running the script, 0 if it wasn't measured
+     */
+    public void addExecutions( long stepExecutions, long stepNanos ) {
+      executions.addAndGet( stepExecutions );
+      executionNanos.addAndGet( stepNanos );
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    public Script getScript() {
+      return script;
+    }
+
+    /**
+     * @return the number of times the script ran, in all steps
+     */
+    public long getExecutions() {
+      return executions.get();
+    }
+
+    /**
+     * @return the total time the script ran in nanoseconds, in all steps that measured it
+     */
+    public long getExecutionNanos() {
+      return executionNanos.get();
+    }
+  }
+}
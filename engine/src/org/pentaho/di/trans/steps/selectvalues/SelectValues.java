@@ -29,6 +29,7 @@ import java.util.List;
 
 import com.google.common.annotations.VisibleForTesting;
 import org.pentaho.di.core.Const;
+import org.pentaho.di.core.RowBatch;
 import org.pentaho.di.core.exception.KettleConversionException;
 import org.pentaho.di.core.exception.KettleException;
 import org.pentaho.di.core.exception.KettleValueException;
@@ -40,6 +41,8 @@ import org.pentaho.di.i18n.BaseMessages;
 import org.pentaho.di.trans.Trans;
 import org.pentaho.di.trans.TransMeta;
 import org.pentaho.di.trans.step.BaseStep;
+import org.pentaho.di.trans.step.ReusableStep;
+import org.pentaho.di.trans.step.RowBatchProcessor;
 import org.pentaho.di.trans.step.StepDataInterface;
 import org.pentaho.di.trans.step.StepInterface;
 import org.pentaho.di.trans.step.StepMeta;
@@ -51,7 +54,7 @@ import org.pentaho.di.trans.step.StepMetaInterface;
  * @author Matt
  * @since 5-apr-2003
  */
-public class SelectValues extends BaseStep implements StepInterface {
+public class SelectValues extends BaseStep implements StepInterface, RowBatchProcessor, ReusableStep {
   private static Class<?> PKG = SelectValuesMeta.class; // for i18n purposes, needed by Translator2!!
 
   private SelectValuesMeta meta;
@@ -357,27 +360,11 @@ public class SelectValues extends BaseStep implements StepInterface {
 
     if ( first ) {
       first = false;
-
-      data.selectRowMeta = getInputRowMeta().clone();
-      meta.getSelectFields( data.selectRowMeta, getStepname() );
-      data.deselectRowMeta = data.selectRowMeta.clone();
-      meta.getDeleteFields( data.deselectRowMeta );
-      data.metadataRowMeta = data.deselectRowMeta.clone();
-      meta.getMetadataFields( data.metadataRowMeta, getStepname() );
+      prepareOutputRowMeta();
     }
 
     try {
-      Object[] outputData = rowData;
-
-      if ( data.select ) {
-        outputData = selectValues( getInputRowMeta(), outputData );
-      }
-      if ( data.deselect ) {
-        outputData = removeValues( data.selectRowMeta, outputData );
-      }
-      if ( data.metadata ) {
-        outputData = metadataValues( data.deselectRowMeta, outputData );
-      }
+      Object[] outputData = processValues( rowData );
 
       if ( outputData == null ) {
         setOutputDone(); // signal end to receiver(s)
@@ -393,18 +380,7 @@ public class SelectValues extends BaseStep implements StepInterface {
       }
 
     } catch ( KettleException e ) {
-      if ( getStepMeta().isDoingErrorHandling() ) {
-        String field;
-        if ( e instanceof KettleConversionException ) {
-          List<ValueMetaInterface> fields = ( (KettleConversionException) e ).getFields();
-          field = fields.isEmpty() ? null : fields.get( 0 ).getName();
-        } else {
-          field = null;
-        }
-        putError( getInputRowMeta(), rowCopy, 1, e.getMessage(), field, "SELECT001" );
-      } else {
-        throw e;
-      }
+      handleError( e, rowCopy );
     }
 
     if ( checkFeedback( getLinesRead() ) ) {
@@ -414,6 +390,98 @@ public class SelectValues extends BaseStep implements StepInterface {
     return true;
   }
 
+  public boolean processRows( StepMetaInterface smi, StepDataInterface sdi, RowBatch batch ) throws KettleException {
+    meta = (SelectValuesMeta) smi;
+    data = (SelectValuesData) sdi;
+
+    if ( batch == null ) { // no more input to be expected...
+
+      setOutputDone();
+      return false;
+    }
+
+    if ( first ) {
+      first = false;
+      prepareOutputRowMeta();
+    }
+
+    boolean errorHandling = getStepMeta().isDoingErrorHandling();
+    int nrRows = batch.size();
+    int kept = 0;
+    for ( int i = 0; i < nrRows; i++ ) {
+      Object[] rowData = batch.get( i );
+      Object[] rowCopy = null;
+      if ( errorHandling ) {
+        rowCopy = getInputRowMeta().cloneRow( rowData );
+      }
+
+      try {
+        Object[] outputData = processValues( rowData );
+
+        if ( outputData == null ) {
+          batch.truncate( kept );
+          putRows( data.metadataRowMeta, batch );
+          setOutputDone(); // signal end to receiver(s)
+          return false;
+        }
+        batch.set( kept++, outputData );
+      } catch ( KettleException e ) {
+        handleError( e, rowCopy );
+      }
+    }
+
+    // Send the rows on their way
+    //
+    batch.truncate( kept );
+    putRows( data.metadataRowMeta, batch );
+
+    long linesRead = getLinesRead();
+    if ( checkFeedback( linesRead - nrRows, linesRead ) ) {
+      logBasic( BaseMessages.getString( PKG, "SelectValues.Log.LineNumber" ) + linesRead );
+    }
+
+    return true;
+  }
+
+  private void prepareOutputRowMeta() throws KettleException {
+    data.selectRowMeta = getInputRowMeta().clone();
+    meta.getSelectFields( data.selectRowMeta, getStepname() );
+    data.deselectRowMeta = data.selectRowMeta.clone();
+    meta.getDeleteFields( data.deselectRowMeta );
+    data.metadataRowMeta = data.deselectRowMeta.clone();
+    meta.getMetadataFields( data.metadataRowMeta, getStepname() );
+  }
+
+  private Object[] processValues( Object[] rowData ) throws KettleException {
+    Object[] outputData = rowData;
+
+    if ( data.select ) {
+      outputData = selectValues( getInputRowMeta(), outputData );
+    }
+    if ( data.deselect ) {
+      outputData = removeValues( data.selectRowMeta, outputData );
+    }
+    if ( data.metadata ) {
+      outputData = metadataValues( data.deselectRowMeta, outputData );
+    }
+    return outputData;
+  }
+
+  private void handleError( KettleException e, Object[] rowCopy ) throws KettleException {
+    if ( getStepMeta().isDoingErrorHandling() ) {
+      String field;
+      if ( e instanceof KettleConversionException ) {
+        List<ValueMetaInterface> fields = ( (KettleConversionException) e ).getFields();
+        field = fields.isEmpty() ? null : fields.get( 0 ).getName();
+      } else {
+        field = null;
+      }
+      putError( getInputRowMeta(), rowCopy, 1, e.getMessage(), field, "SELECT001" );
+    } else {
+      throw e;
+    }
+  }
+
   public boolean init( StepMetaInterface smi, StepDataInterface sdi ) {
     meta = (SelectValuesMeta) smi;
     data = (SelectValuesData) sdi;
@@ -449,4 +517,7 @@ public class SelectValues extends BaseStep implements StepInterface {
     }
   }
 
+  public void resetForNextExecution() throws KettleException {
+    // Every group has the same row layout: keep the field indexes looked up on the first row.
+  }
 }
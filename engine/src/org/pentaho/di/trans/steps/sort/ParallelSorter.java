@@ -0,0 +1,128 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2016 by Pentaho : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+
+package org.pentaho.di.trans.steps.sort;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * A stable merge sort that sorts the halves of large arrays in parallel on a fork/join pool shared by all the sort
+ * steps. Small arrays, and the pieces of large ones, are sorted by {@link Arrays#sort(Object[], int, int, Comparator)}.
+ * The comparator must be safe to use from several threads at once.
+ *
+ * @since 17-10-2016
+ *
+ */
+public class ParallelSorter {
+
+  /** Below this number of elements a piece is sorted in the current thread */
+  static final int SEQUENTIAL_THRESHOLD = 8192;
+
+  private static ForkJoinPool pool;
+
+  private ParallelSorter() {
+  }
+
+  private static synchronized ForkJoinPool getPool() {
+    if ( pool == null ) {
+      pool = new ForkJoinPool( Runtime.getRuntime().availableProcessors() );
+    }
+    return pool;
+  }
+
+  /**
+   * Sorts the first elements of an array.
+   *
+   * @param elements
+   *          the array to sort
+   * @param size
+   *          the number of elements to sort, starting at the first one
+   * @param comparator
+   *          the comparator that defines the order
+   */
+  public static <T> void sort( T[] elements, int size, Comparator<? super T> comparator ) {
+    if ( size < 2 * SEQUENTIAL_THRESHOLD || Runtime.getRuntime().availableProcessors() < 2 ) {
+      Arrays.sort( elements, 0, size, comparator );
+    } else {
+      T[] work = Arrays.copyOf( elements, size );
+      getPool().invoke( new SortTask<T>( elements, work, 0, size, comparator ) );
+    }
+  }
+
+  private static class SortTask<T> extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+
+    private final T[] elements;
+    private final T[] work;
+    private final int from;
+    private final int to;
+    private final Comparator<? super T> comparator;
+
+    SortTask( T[] elements, T[] work, int from, int to, Comparator<? super T> comparator ) {
+      this.elements = elements;
+      this.work = work;
+      this.from = from;
+      this.to = to;
+      this.comparator = comparator;
+    }
+
+    @Override
+    protected void compute() {
+      if ( to - from <= SEQUENTIAL_THRESHOLD ) {
+        Arrays.sort( elements, from, to, comparator );
+        return;
+      }
+      int middle = ( from + to ) >>> 1;
+      invokeAll( new SortTask<T>( elements, work, from, middle, comparator ), new SortTask<T>(
+        elements, work, middle, to, comparator ) );
+
+      // Already in order: nothing to merge
+      if ( comparator.compare( elements[middle - 1], elements[middle] ) <= 0 ) {
+        return;
+      }
+
+      // Merge both sorted halves, taking from the left one first on equal elements to keep the sort stable
+      //
+      System.arraycopy( elements, from, work, from, to - from );
+      int left = from;
+      int right = middle;
+      int target = from;
+      while ( left < middle && right < to ) {
+        if ( comparator.compare( work[right], work[left] ) < 0 ) {
+          elements[target++] = work[right++];
+        } else {
+          elements[target++] = work[left++];
+        }
+      }
+      while ( left < middle ) {
+        elements[target++] = work[left++];
+      }
+      while ( right < to ) {
+        elements[target++] = work[right++];
+      }
+    }
+  }
+}
@@ -0,0 +1,216 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2016 by Pentaho : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+
+package org.pentaho.di.trans.steps.sort;
+
+import java.util.Arrays;
+import java.util.Date;
+
+import org.pentaho.di.core.exception.KettleValueException;
+import org.pentaho.di.core.row.RowMetaInterface;
+import org.pentaho.di.core.row.ValueMetaInterface;
+
+/**
+ * Builds normalized binary sort keys: byte arrays that compare (unsigned, byte by byte) exactly like
+ * {@link RowMetaInterface#compare(Object[], Object[], int[])} compares the rows they were built from. The key of a row
+ * is built once, after which sorting and merging no longer need to go through the value metadata for every
+ * comparison.<br>
+ * <br>
+ * Every key field starts with a null marker byte followed by a fixed size encoding for numbers, dates and booleans
+ * or by a terminated sequence of characters for strings. The bytes of descending fields are inverted. Only
+ * types that have a simple natural order are supported, see {@link #getInstance(RowMetaInterface, int[])}.
+ *
+ * @since 17-10-2016
+ *
+ */
+public class SortKeyEncoder {
+
+  private static final byte NULL_VALUE = 0x00;
+  private static final byte NOT_NULL_VALUE = 0x01;
+  private static final byte END_OF_STRING = 0x00;
+  private static final byte LOW_CHARACTER = 0x01;
+  private static final byte HIGH_CHARACTER = (byte) 0xFF;
+
+  private final ValueMetaInterface[] valueMetas;
+  private final int[] fieldNrs;
+
+  private byte[] buffer;
+  private int length;
+
+  private SortKeyEncoder( ValueMetaInterface[] valueMetas, int[] fieldNrs ) {
+    this.valueMetas = valueMetas;
+    this.fieldNrs = fieldNrs;
+    this.buffer = new byte[64];
+  }
+
+  /**
+   * Gets an encoder for the given key fields.
+   *
+   * @param rowMeta
+   *          the metadata of the rows to sort
+   * @param fieldNrs
+   *          the indexes of the key fields
+   * @return the encoder or null if one of the key fields has a type for which no key can be built (big number, binary,
+   *         timestamp, ...) or isn't stored in its native form.
+   */
+  public static SortKeyEncoder getInstance( RowMetaInterface rowMeta, int[] fieldNrs ) {
+    ValueMetaInterface[] valueMetas = new ValueMetaInterface[fieldNrs.length];
+    for ( int i = 0; i < fieldNrs.length; i++ ) {
+      ValueMetaInterface valueMeta = rowMeta.getValueMeta( fieldNrs[i] );
+      if ( valueMeta.getStorageType() != ValueMetaInterface.STORAGE_TYPE_NORMAL ) {
+        return null;
+      }
+      switch ( valueMeta.getType() ) {
+        case ValueMetaInterface.TYPE_STRING:
+        case ValueMetaInterface.TYPE_INTEGER:
+        case ValueMetaInterface.TYPE_NUMBER:
+        case ValueMetaInterface.TYPE_DATE:
+        case ValueMetaInterface.TYPE_BOOLEAN:
+          break;
+        default:
+          return null;
+      }
+      valueMetas[i] = valueMeta;
+    }
+    return new SortKeyEncoder( valueMetas, fieldNrs );
+  }
+
+  /**
+   * Builds the sort key of a row.
+   *
+   * @param row
+   *          the row to build the key for
+   * @return the normalized sort key
+   * @throws KettleValueException
+   *           in case a key value can't be converted to its type
+   */
+  public byte[] encode( Object[] row ) throws KettleValueException {
+    length = 0;
+    for ( int i = 0; i < valueMetas.length; i++ ) {
+      ValueMetaInterface valueMeta = valueMetas[i];
+      Object data = row[fieldNrs[i]];
+      int start = length;
+
+      if ( valueMeta.isNull( data ) ) {
+        // null is always smaller
+        put( NULL_VALUE );
+      } else {
+        put( NOT_NULL_VALUE );
+        switch ( valueMeta.getType() ) {
+          case ValueMetaInterface.TYPE_STRING:
+            putString( valueMeta.getString( data ), valueMeta.isCaseInsensitive() );
+            break;
+          case ValueMetaInterface.TYPE_INTEGER:
+            putLong( valueMeta.getInteger( data ).longValue() ^ Long.MIN_VALUE );
+            break;
+          case ValueMetaInterface.TYPE_NUMBER:
+            // Same order as Double.compare(): -0.0 before 0.0 and NaN last
+            long bits = Double.doubleToLongBits( valueMeta.getNumber( data ).doubleValue() );
+            putLong( bits < 0 ? ~bits : bits ^ Long.MIN_VALUE );
+            break;
+          case ValueMetaInterface.TYPE_DATE:
+            Date date = valueMeta.getDate( data );
+            putLong( date.getTime() ^ Long.MIN_VALUE );
+            break;
+          case ValueMetaInterface.TYPE_BOOLEAN:
+            put( valueMeta.getBoolean( data ).booleanValue() ? (byte) 1 : (byte) 0 );
+            break;
+          default:
+            throw new KettleValueException( valueMeta.toStringMeta() + " : unable to build a sort key for this type" );
+        }
+      }
+
+      // Like ValueMetaBase.compare(), null stays the smallest value in descending order: only the value is inverted
+      //
+      if ( valueMeta.isSortedDescending() ) {
+        for ( int b = start + 1; b < length; b++ ) {
+          buffer[b] = (byte) ~buffer[b];
+        }
+      }
+    }
+    return Arrays.copyOf( buffer, length );
+  }
+
+  /**
+   * Compares two sort keys, byte by byte as unsigned values.
+   *
+   * @param key1
+   *          the first key
+   * @param key2
+   *          the second key
+   * @return a negative number, zero or a positive number as the first key is smaller than, equal to or larger than the
+   *         second
+   */
+  public static int compare( byte[] key1, byte[] key2 ) {
+    int length = Math.min( key1.length, key2.length );
+    for ( int i = 0; i < length; i++ ) {
+      int cmp = ( key1[i] & 0xff ) - ( key2[i] & 0xff );
+      if ( cmp != 0 ) {
+        return cmp;
+      }
+    }
+    return key1.length - key2.length;
+  }
+
+  /**
+   * Characters 0x02 to 0x7F take a single byte, the others take 3 bytes starting with 0x01 (for 0x00 and 0x01) or 0xFF
+   * (from 0x80 on) so that the order of the characters is kept. The string ends with 0x00 which sorts before any
+   * character: a string sorts before all the strings that start with it.
+   */
+  private void putString( String string, boolean caseInsensitive ) {
+    ensureCapacity( string.length() * 3 + 1 );
+    for ( int i = 0; i < string.length(); i++ ) {
+      char c = string.charAt( i );
+      if ( caseInsensitive ) {
+        // This is how String.compareToIgnoreCase() compares characters
+        c = Character.toLowerCase( Character.toUpperCase( c ) );
+      }
+      if ( c > LOW_CHARACTER && c < 0x80 ) {
+        buffer[length++] = (byte) c;
+      } else {
+        buffer[length++] = c <= LOW_CHARACTER ? LOW_CHARACTER : HIGH_CHARACTER;
+        buffer[length++] = (byte) ( c >>> 8 );
+        buffer[length++] = (byte) c;
+      }
+    }
+    buffer[length++] = END_OF_STRING;
+  }
+
+  private void putLong( long value ) {
+    ensureCapacity( 8 );
+    for ( int shift = 56; shift >= 0; shift -= 8 ) {
+      buffer[length++] = (byte) ( value >>> shift );
+    }
+  }
+
+  private void put( byte value ) {
+    ensureCapacity( 1 );
+    buffer[length++] = value;
+  }
+
+  private void ensureCapacity( int extra ) {
+    if ( length + extra > buffer.length ) {
+      buffer = Arrays.copyOf( buffer, Math.max( buffer.length * 2, length + extra ) );
+    }
+  }
+}
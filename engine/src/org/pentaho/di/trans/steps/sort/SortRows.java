@@ -29,20 +29,20 @@ import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.net.SocketTimeoutException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
-import java.util.zip.GZIPInputStream;
-import java.util.zip.GZIPOutputStream;
 
 import org.apache.commons.vfs2.FileObject;
 import org.apache.commons.vfs2.FileSystemException;
 import org.pentaho.di.core.Const;
+import org.pentaho.di.core.compress.CompressionProviderFactory;
 import org.pentaho.di.core.exception.KettleException;
 import org.pentaho.di.core.exception.KettleFileException;
 import org.pentaho.di.core.exception.KettleValueException;
+import org.pentaho.di.core.memory.RowSizeEstimator;
 import org.pentaho.di.core.row.RowMetaInterface;
 import org.pentaho.di.core.row.ValueMetaInterface;
 import org.pentaho.di.core.vfs.KettleVFS;
@@ -84,8 +84,23 @@ public class SortRows extends BaseStep implements StepInterface {
       }
     }
 
-    // Save row
+    // Save row and its sort key
     data.buffer.add( r );
+    byte[] key = null;
+    if ( data.keys != null ) {
+      key = data.keyEncoder.encode( r );
+      data.keys.add( key );
+    }
+
+    // With a memory budget we spill when the buffer no longer fits in the memory we're granted
+    //
+    if ( data.memoryBudget != null ) {
+      long size = RowSizeEstimator.estimateRowSize( r ) + ( key == null ? 0L : 16L + key.length + 8L );
+      if ( !reserveMemory( size ) ) {
+        sortExternalRows();
+      }
+      return;
+    }
 
     // Check the free memory every 1000 rows...
     //
@@ -120,6 +135,44 @@ public class SortRows extends BaseStep implements StepInterface {
     }
   }
 
+  /**
+   * Accounts for a row added to the buffer, asking the memory budget for more memory when needed. We can always hold on
+   * to a single grant, even if the budget is taken by other steps, so that we keep making progress.
+   *
+   * @return false if the buffer should be spilled to disk because we can't get more memory or the maximum number of
+   *         rows is reached
+   */
+  private boolean reserveMemory( long size ) {
+    data.memoryUsed += size;
+    if ( data.memoryUsed > data.memoryGranted ) {
+      long grant = Math.max( SortRowsData.MEMORY_GRANT_SIZE, data.memoryUsed - data.memoryGranted );
+      if ( data.memoryBudget.reserve( grant ) ) {
+        data.memoryGranted += grant;
+      } else if ( data.memoryGranted == 0 ) {
+        data.memoryBudget.forceReserve( grant );
+        data.memoryGranted += grant;
+      } else {
+        if ( log.isDebug() ) {
+          logDebug( BaseMessages.getString( PKG, "SortRows.Debug.MemoryBudgetExhausted", data.memoryUsed, data.buffer
+              .size(), data.memoryBudget ) );
+        }
+        return false;
+      }
+    }
+    return data.sortSize <= 0 || data.buffer.size() < data.sortSize;
+  }
+
+  /**
+   * Gives the memory held by the buffer back to the memory budget.
+   */
+  private void releaseMemory() {
+    if ( data.memoryBudget != null && data.memoryGranted > 0 ) {
+      data.memoryBudget.release( data.memoryGranted );
+    }
+    data.memoryGranted = 0L;
+    data.memoryUsed = 0L;
+  }
+
   // dump sorted rows from in-memory buffer to fs file
   // clean current buffer
   void sortExternalRows() throws KettleException {
@@ -129,66 +182,44 @@ public class SortRows extends BaseStep implements StepInterface {
     }
 
     // First sort the rows in buffer[]
-    quickSort( data.buffer );
+    sortBuffer();
 
     // Then write them to disk...
-    DataOutputStream dos;
-    GZIPOutputStream gzos;
-    int p;
-
     try {
       FileObject fileObject =
           KettleVFS.createTempFile( meta.getPrefix(), ".tmp", environmentSubstitute( meta.getDirectory() ),
               getTransMeta() );
 
       data.files.add( fileObject ); // Remember the files!
-      OutputStream outputStream = KettleVFS.getOutputStream( fileObject, false );
-      if ( data.compressFiles ) {
-        gzos = new GZIPOutputStream( new BufferedOutputStream( outputStream ) );
-        dos = new DataOutputStream( gzos );
-      } else {
-        dos = new DataOutputStream( new BufferedOutputStream( outputStream, 500000 ) );
-        gzos = null;
-      }
+      DataOutputStream dos = createRunOutputStream( fileObject );
 
-      // Just write the data, nothing else
-      List<Integer> duplicates = new ArrayList<Integer>();
-      Object[] previousRow = null;
-      if ( meta.isOnlyPassingUniqueRows() ) {
-        int index = 0;
-        while ( index < data.buffer.size() ) {
-          Object[] row = data.buffer.get( index );
-          if ( previousRow != null ) {
-            int result = data.outputRowMeta.compare( row, previousRow, data.fieldnrs );
-            if ( result == 0 ) {
-              duplicates.add( index );
-              if ( log.isRowLevel() ) {
-                logRowlevel( BaseMessages.getString( PKG, "SortRows.RowLevel.DuplicateRowRemoved", data.outputRowMeta
-                    .getString( row ) ) );
-              }
+      // Just write the data, leaving out the duplicates if needed
+      int nrRows = 0;
+      try {
+        Object[] previousRow = null;
+        byte[] previousKey = null;
+        for ( int p = 0; p < data.buffer.size(); p++ ) {
+          Object[] row = data.buffer.get( p );
+          byte[] key = data.keys == null ? null : data.keys.get( p );
+          if ( meta.isOnlyPassingUniqueRows() && previousRow != null
+              && sameKey( previousRow, previousKey, row, key ) ) {
+            if ( log.isRowLevel() ) {
+              logRowlevel( BaseMessages.getString( PKG, "SortRows.RowLevel.DuplicateRowRemoved", data.outputRowMeta
+                  .getString( row ) ) );
             }
+          } else {
+            writeRow( dos, key, row );
+            nrRows++;
           }
-          index++;
           previousRow = row;
+          previousKey = key;
         }
+      } finally {
+        dos.close(); // close data stream, the compression and file streams with it
       }
 
-      // How many records do we have left?
-      data.bufferSizes.add( data.buffer.size() - duplicates.size() );
-
-      int duplicatesIndex = 0;
-      for ( p = 0; p < data.buffer.size(); p++ ) {
-        boolean skip = false;
-        if ( duplicatesIndex < duplicates.size() ) {
-          if ( p == duplicates.get( duplicatesIndex ) ) {
-            skip = true;
-            duplicatesIndex++;
-          }
-        }
-        if ( !skip ) {
-          data.outputRowMeta.writeData( dos, data.buffer.get( p ) );
-        }
-      }
+      // How many records do we have?
+      data.bufferSizes.add( nrRows );
 
       if ( data.sortSize < 0 ) {
         if ( data.buffer.size() > data.minSortSize ) {
@@ -205,13 +236,10 @@ public class SortRows extends BaseStep implements StepInterface {
 
       // Clear the list
       data.buffer.clear();
-
-      // Close temp-file
-      dos.close(); // close data stream
-      if ( gzos != null ) {
-        gzos.close(); // close gzip stream
+      if ( data.keys != null ) {
+        data.keys.clear();
       }
-      outputStream.close(); // close file stream
+      releaseMemory();
 
       // How much memory do we have left?
       //
@@ -230,146 +258,198 @@ public class SortRows extends BaseStep implements StepInterface {
     data.getBufferIndex = 0;
   }
 
-  private DataInputStream getDataInputStream( GZIPInputStream gzipInputStream ) {
-    DataInputStream result = new DataInputStream( gzipInputStream );
-    data.gzis.add( gzipInputStream );
-    return result;
+  /**
+   * Opens a temporary file to write a sorted run to, compressed if needed.
+   */
+  private DataOutputStream createRunOutputStream( FileObject fileObject ) throws IOException, KettleFileException {
+    OutputStream outputStream = KettleVFS.getOutputStream( fileObject, false );
+    if ( data.compressionProvider != null ) {
+      try {
+        outputStream =
+            new BufferedOutputStream( data.compressionProvider.createOutputStream( new BufferedOutputStream(
+                outputStream ) ), 50000 );
+      } catch ( IOException e ) {
+        BaseStep.closeQuietly( outputStream );
+        throw e;
+      }
+    } else {
+      outputStream = new BufferedOutputStream( outputStream, 500000 );
+    }
+    return new DataOutputStream( outputStream );
   }
 
-  // get sorted rows from available files in iterative manner.
-  // that means call to this method will continue to return rows
-  // till all temp files will not be read to the end.
-  Object[] getBuffer() throws KettleValueException {
-    Object[] retval;
+  /**
+   * Writes a row to a run file, preceded by its sort key if we have one.
+   */
+  private void writeRow( DataOutputStream dos, byte[] key, Object[] row ) throws KettleException {
+    if ( key != null ) {
+      try {
+        dos.writeInt( key.length );
+        dos.write( key );
+      } catch ( IOException e ) {
+        throw new KettleFileException( "Unable to write a sort key to a temporary file", e );
+      }
+    }
+    data.outputRowMeta.writeData( dos, row );
+  }
 
-    // Open all files at once and read one row from each file...
-    if ( data.files.size() > 0 && ( data.dis.size() == 0 || data.fis.size() == 0 ) ) {
-      if ( log.isBasic() ) {
-        logBasic( BaseMessages.getString( PKG, "SortRows.Basic.OpeningTempFiles", data.files.size() ) );
+  /**
+   * Opens the run files in the given range for reading and reads the first row of each.
+   */
+  private SortRunMerger openRuns( int from, int to ) throws KettleException {
+    List<SortRunReader> readers = new ArrayList<SortRunReader>();
+    try {
+      for ( int f = from; f < to && !isStopped(); f++ ) {
+        FileObject fileObject = data.files.get( f );
+        String filename = KettleVFS.getFilename( fileObject );
+        if ( log.isDetailed() ) {
+          logDetailed( BaseMessages.getString( PKG, "SortRows.Detailed.OpeningTempFile", filename ) );
+        }
+        InputStream inputStream = KettleVFS.getInputStream( fileObject );
+        try {
+          if ( data.compressionProvider != null ) {
+            inputStream =
+                new BufferedInputStream( data.compressionProvider.createInputStream( new BufferedInputStream(
+                    inputStream ) ), 50000 );
+          } else {
+            inputStream = new BufferedInputStream( inputStream, 50000 );
+          }
+        } catch ( IOException e ) {
+          BaseStep.closeQuietly( inputStream );
+          throw e;
+        }
+
+        // How long is the buffer?
+        int buffersize = data.bufferSizes.get( f );
+        if ( log.isDetailed() ) {
+          logDetailed( BaseMessages.getString( PKG, "SortRows.Detailed.FromFileExpectingRows", filename, buffersize ) );
+        }
+        readers.add( new SortRunReader( data.outputRowMeta, new DataInputStream( inputStream ), buffersize,
+            data.keys != null, f ) );
+      }
+      return new SortRunMerger( readers, data.outputRowMeta, data.fieldnrs, data.keys != null );
+    } catch ( Exception e ) {
+      for ( SortRunReader reader : readers ) {
+        reader.close();
       }
+      throw new KettleException( BaseMessages.getString( PKG, "SortRows.Error.ErrorReadingBackTempFiles" ), e );
+    }
+  }
 
+  /**
+   * As long as there are more run files than we want to read at once, merge groups of them into longer runs.
+   */
+  void mergeRuns() throws KettleException {
+    while ( data.files.size() > data.mergeFanIn && !isStopped() ) {
+      if ( log.isDetailed() ) {
+        logDetailed( BaseMessages.getString( PKG, "SortRows.Detailed.MergingTempFiles", data.files.size(),
+            data.mergeFanIn ) );
+      }
+      List<FileObject> files = new ArrayList<FileObject>();
+      List<Integer> bufferSizes = new ArrayList<Integer>();
       try {
-        for ( int f = 0; f < data.files.size() && !isStopped(); f++ ) {
-          FileObject fileObject = data.files.get( f );
-          String filename = KettleVFS.getFilename( fileObject );
-          if ( log.isDetailed() ) {
-            logDetailed( BaseMessages.getString( PKG, "SortRows.Detailed.OpeningTempFile", filename ) );
-          }
-          InputStream fi = KettleVFS.getInputStream( fileObject );
-          DataInputStream di;
-          data.fis.add( fi );
-          if ( data.compressFiles ) {
-            di = getDataInputStream( new GZIPInputStream( new BufferedInputStream( fi ) ) );
-          } else {
-            di = new DataInputStream( new BufferedInputStream( fi, 50000 ) );
+        for ( int from = 0; from < data.files.size(); from += data.mergeFanIn ) {
+          int to = Math.min( from + data.mergeFanIn, data.files.size() );
+          if ( to - from == 1 ) {
+            files.add( data.files.get( from ) );
+            bufferSizes.add( data.bufferSizes.get( from ) );
+            continue;
           }
-          data.dis.add( di );
 
-          // How long is the buffer?
-          int buffersize = data.bufferSizes.get( f );
+          // The merged run replaces the runs it is made of so the order of the runs is kept
+          //
+          FileObject fileObject =
+              KettleVFS.createTempFile( meta.getPrefix(), ".tmp", environmentSubstitute( meta.getDirectory() ),
+                  getTransMeta() );
+          files.add( fileObject );
 
-          if ( log.isDetailed() ) {
-            logDetailed( BaseMessages.getString( PKG, "SortRows.Detailed.FromFileExpectingRows",
-                filename, buffersize ) );
+          SortRunMerger merger = openRuns( from, to );
+          int nrRows = 0;
+          try {
+            DataOutputStream dos = createRunOutputStream( fileObject );
+            try {
+              Object[] row = merger.next();
+              while ( row != null && !isStopped() ) {
+                writeRow( dos, merger.getLastKey(), row );
+                nrRows++;
+                row = merger.next();
+              }
+            } finally {
+              dos.close();
+            }
+          } finally {
+            merger.close();
           }
+          bufferSizes.add( nrRows );
 
-          if ( buffersize > 0 ) {
-            Object[] row = data.outputRowMeta.readData( di );
-            data.rowbuffer.add( row ); // new row from input stream
-            data.tempRows.add( new RowTempFile( row, f ) );
+          for ( int f = from; f < to; f++ ) {
+            data.files.get( f ).delete();
           }
         }
-
-        // Sort the data row buffer
-        Collections.sort( data.tempRows, data.comparator );
       } catch ( Exception e ) {
-        logError( BaseMessages.getString( PKG, "SortRows.Error.ErrorReadingBackTempFiles" ), e );
+        deleteNewRunFiles( files );
+        throw new KettleException( "Error merging temp-files!", e );
+      }
+      if ( isStopped() ) {
+        deleteNewRunFiles( files );
+        return;
+      }
+      data.files = files;
+      data.bufferSizes = bufferSizes;
+    }
+  }
+
+  /**
+   * Removes the run files of an interrupted merge pass, the old ones are cleaned up with the rest of the buffers.
+   */
+  private void deleteNewRunFiles( List<FileObject> files ) {
+    for ( FileObject fileObject : files ) {
+      if ( !data.files.contains( fileObject ) ) {
+        deleteQuietly( fileObject );
       }
     }
+  }
 
-    if ( data.files.size() == 0 ) {
+  // get sorted rows from available files in iterative manner.
+  // that means call to this method will continue to return rows
+  // till all temp files will not be read to the end.
+  Object[] getBuffer() throws KettleException {
+    if ( data.files.isEmpty() ) {
       // read from in-memory processing
 
       if ( data.getBufferIndex < data.buffer.size() ) {
-        retval = data.buffer.get( data.getBufferIndex );
-        data.getBufferIndex++;
-      } else {
-        retval = null;
+        data.bufferKey = data.keys == null ? null : data.keys.get( data.getBufferIndex );
+        return data.buffer.get( data.getBufferIndex++ );
       }
-    } else {
-      // read from disk processing
-
-      if ( data.rowbuffer.size() == 0 ) {
-        retval = null;
-      } else {
-        // We now have "filenr" rows waiting: which one is the smallest?
-        //
-        if ( log.isRowLevel() ) {
-          for ( int i = 0; i < data.rowbuffer.size() && !isStopped(); i++ ) {
-            Object[] b = data.rowbuffer.get( i );
-            logRowlevel( BaseMessages
-                .getString( PKG, "SortRows.RowLevel.PrintRow", i, data.outputRowMeta.getString( b ) ) );
-          }
-        }
-
-        RowTempFile rowTempFile = data.tempRows.remove( 0 );
-        retval = rowTempFile.row;
-        int smallest = rowTempFile.fileNumber;
-
-        // now get another Row for position smallest
-
-        FileObject file = data.files.get( smallest );
-        DataInputStream di = data.dis.get( smallest );
-        InputStream fi = data.fis.get( smallest );
-
-        try {
-          Object[] row2 = data.outputRowMeta.readData( di );
-          RowTempFile extra = new RowTempFile( row2, smallest );
-
-          int index = Collections.binarySearch( data.tempRows, extra, data.comparator );
-          if ( index < 0 ) {
-            data.tempRows.add( index * ( -1 ) - 1, extra );
-          } else {
-            data.tempRows.add( index, extra );
-          }
-        } catch ( KettleFileException fe ) { // empty file or EOF mostly
-          GZIPInputStream gzfi = ( data.compressFiles ) ? data.gzis.get( smallest ) : null;
-          try {
-            di.close();
-            fi.close();
-            if ( gzfi != null ) {
-              gzfi.close();
-            }
-            file.delete();
-          } catch ( IOException e ) {
-            logError( BaseMessages.getString( PKG, "SortRows.Error.UnableToCloseFile", smallest, file.toString() ) );
-            setErrors( 1 );
-            stopAll();
-            return null;
-          }
+      data.bufferKey = null;
+      return null;
+    }
 
-          data.files.remove( smallest );
-          data.dis.remove( smallest );
-          data.fis.remove( smallest );
+    // read from disk processing
+    // Open all files at once and read one row from each file...
+    if ( data.merger == null ) {
+      mergeRuns();
+      if ( log.isBasic() ) {
+        logBasic( BaseMessages.getString( PKG, "SortRows.Basic.OpeningTempFiles", data.files.size() ) );
+      }
+      data.merger = openRuns( 0, data.files.size() );
+    }
 
-          if ( gzfi != null ) {
-            data.gzis.remove( smallest );
-          }
+    // The merger hands out the smallest of the rows waiting in the files
+    //
+    Object[] row = data.merger.next();
+    data.bufferKey = data.merger.getLastKey();
+    return row;
+  }
 
-          // Also update all file numbers in in data.tempRows if they are larger
-          // than smallest.
-          //
-          for ( RowTempFile rtf : data.tempRows ) {
-            if ( rtf.fileNumber > smallest ) {
-              rtf.fileNumber--;
-            }
-          }
-        } catch ( SocketTimeoutException e ) {
-          throw new KettleValueException( e ); // should never happen on local files
-        }
-      }
+  /**
+   * Checks whether two rows have the same sort key, using their normalized keys if we have them.
+   */
+  private boolean sameKey( Object[] row1, byte[] key1, Object[] row2, byte[] key2 ) throws KettleValueException {
+    if ( key1 != null && key2 != null ) {
+      return Arrays.equals( key1, key2 );
     }
-    return retval;
+    return data.outputRowMeta.compare( row1, row2, data.fieldnrs ) == 0;
   }
 
   @Override
@@ -418,7 +498,6 @@ public class SortRows extends BaseStep implements StepInterface {
       // Metadata
       data.outputRowMeta = inputRowMeta.clone();
       meta.getFields( data.outputRowMeta, getStepname(), null, null, this, repository, metaStore );
-      data.comparator = new RowTemapFileComparator( data.outputRowMeta, data.fieldnrs );
 
       for ( int i = 0; i < fieldNames.length; i++ ) {
         data.fieldnrs[i] = inputRowMeta.indexOfValue( fieldNames[i] );
@@ -438,6 +517,11 @@ public class SortRows extends BaseStep implements StepInterface {
         i++;
       }
       data.rowComparator = new RowObjectArrayComparator( data.outputRowMeta, data.fieldnrs );
+
+      // Build binary sort keys if the key fields allow it, otherwise compare the rows through their metadata
+      //
+      data.keyEncoder = SortKeyEncoder.getInstance( data.outputRowMeta, data.fieldnrs );
+      data.keys = data.keyEncoder == null ? null : new ArrayList<byte[]>( 5000 );
     } // end if first
 
     // it is not first row and it is null
@@ -499,6 +583,7 @@ public class SortRows extends BaseStep implements StepInterface {
     //
     Object[] r = getBuffer();
     Object[] previousRow = null;
+    byte[] previousKey = null;
 
     // log time spent for external merge (expected time consuming operation)
     if ( log.isDebug() && !data.files.isEmpty() ) {
@@ -517,8 +602,7 @@ public class SortRows extends BaseStep implements StepInterface {
           // See if this row is the same as the previous one as far as the keys
           // are concerned.
           // If so, we don't put forward this row.
-          int result = data.outputRowMeta.compare( r, previousRow, data.fieldnrs );
-          if ( result != 0 ) {
+          if ( !sameKey( previousRow, previousKey, r, data.bufferKey ) ) {
             putRow( data.outputRowMeta, r ); // copy row to possible alternate
                                              // rowset(s).
           }
@@ -526,6 +610,7 @@ public class SortRows extends BaseStep implements StepInterface {
           putRow( data.outputRowMeta, r ); // copy row to next steps
         }
         previousRow = r;
+        previousKey = data.bufferKey;
       } else {
         putRow( data.outputRowMeta, r ); // copy row to possible alternate
                                          // rowset(s).
@@ -554,7 +639,15 @@ public class SortRows extends BaseStep implements StepInterface {
 
     data.sortSize = Const.toInt( environmentSubstitute( meta.getSortSize() ), -1 );
     data.freeMemoryPctLimit = Const.toInt( meta.getFreeMemoryLimit(), -1 );
-    if ( data.sortSize <= 0 && data.freeMemoryPctLimit <= 0 ) {
+
+    // A memory budget replaces the free memory check, the sort size in rows still limits the buffer if it's set
+    //
+    data.memoryBudget = getTrans() == null ? null : getTrans().getMemoryBudget();
+    if ( data.memoryBudget != null ) {
+      if ( log.isDetailed() ) {
+        logDetailed( BaseMessages.getString( PKG, "SortRows.Detailed.UsingMemoryBudget", data.memoryBudget ) );
+      }
+    } else if ( data.sortSize <= 0 && data.freeMemoryPctLimit <= 0 ) {
       // Prefer the memory limit as it should never fail
       //
       data.freeMemoryPctLimit = 25;
@@ -564,13 +657,17 @@ public class SortRows extends BaseStep implements StepInterface {
     //
     data.buffer = new ArrayList<Object[]>( 5000 );
 
-    // Buffer for reading from disk
-    //
-    data.rowbuffer = new ArrayList<Object[]>( 5000 );
-
     data.compressFiles = getBooleanValueOfVariable( meta.getCompressFilesVariable(), meta.getCompressFiles() );
-
-    data.tempRows = new ArrayList<RowTempFile>();
+    if ( data.compressFiles ) {
+      String compressionType =
+          Const.NVL( environmentSubstitute( meta.getCompressionType() ), SortRowsMeta.DEFAULT_COMPRESSION_TYPE );
+      data.compressionProvider =
+          CompressionProviderFactory.getInstance().createCompressionProviderInstance( compressionType );
+      if ( data.compressionProvider == null ) {
+        logError( BaseMessages.getString( PKG, "SortRows.Error.UnknownCompressionType", compressionType ) );
+        return false;
+      }
+    }
 
     data.minSortSize = 5000;
 
@@ -587,40 +684,56 @@ public class SortRows extends BaseStep implements StepInterface {
 
     // Clean out the sort buffer
     data.buffer.clear();
+    if ( data.keys != null ) {
+      data.keys.clear();
+    }
     data.getBufferIndex = 0;
-    data.rowbuffer.clear();
+    data.bufferKey = null;
+    releaseMemory();
 
-    // close any open DataInputStream objects
-    if ( ( data.dis != null ) && ( data.dis.size() > 0 ) ) {
-      for ( DataInputStream dis : data.dis ) {
-        BaseStep.closeQuietly( dis );
-      }
-    }
-    // close any open InputStream objects
-    if ( ( data.fis != null ) && ( data.fis.size() > 0 ) ) {
-      for ( InputStream is : data.fis ) {
-        BaseStep.closeQuietly( is );
-      }
+    // close the files we're still reading from
+    if ( data.merger != null ) {
+      data.merger.close();
+      data.merger = null;
     }
+
     // remove temp files
-    for ( int f = 0; f < data.files.size(); f++ ) {
-      FileObject fileToDelete = data.files.get( f );
-      try {
-        if ( fileToDelete != null && fileToDelete.exists() ) {
-          fileToDelete.delete();
-        }
-      } catch ( FileSystemException e ) {
-        logError( e.getLocalizedMessage(), e );
+    for ( FileObject fileToDelete : data.files ) {
+      deleteQuietly( fileToDelete );
+    }
+    data.files.clear();
+    data.bufferSizes.clear();
+  }
+
+  private void deleteQuietly( FileObject fileToDelete ) {
+    try {
+      if ( fileToDelete != null && fileToDelete.exists() ) {
+        fileToDelete.delete();
       }
+    } catch ( FileSystemException e ) {
+      logError( e.getLocalizedMessage(), e );
     }
   }
 
   /**
-   * Sort the entire vector, if it is not empty.
+   * Sort the rows in the buffer, if it is not empty. With sort keys, large buffers are sorted in parallel.
    */
-  void quickSort( List<Object[]> elements ) throws KettleException {
-    if ( elements.size() > 0 ) {
-      Collections.sort( elements, data.rowComparator );
+  void sortBuffer() throws KettleException {
+    int size = data.buffer.size();
+    if ( size > 0 ) {
+      if ( data.keys != null ) {
+        KeyedRow[] keyedRows = new KeyedRow[size];
+        for ( int i = 0; i < size; i++ ) {
+          keyedRows[i] = new KeyedRow( data.keys.get( i ), data.buffer.get( i ) );
+        }
+        ParallelSorter.sort( keyedRows, size, KeyedRow.COMPARATOR );
+        for ( int i = 0; i < size; i++ ) {
+          data.keys.set( i, keyedRows[i].key );
+          data.buffer.set( i, keyedRows[i].row );
+        }
+      } else {
+        Collections.sort( data.buffer, data.rowComparator );
+      }
 
       long nrConversions = 0L;
       for ( ValueMetaInterface valueMeta : data.outputRowMeta.getValueMetaList() ) {
@@ -650,7 +763,7 @@ public class SortRows extends BaseStep implements StepInterface {
       sortExternalRows();
     } else {
       // sort in memory
-      quickSort( data.buffer );
+      sortBuffer();
     }
   }
 
@@ -681,22 +794,6 @@ public class SortRows extends BaseStep implements StepInterface {
     }
   }
 
-  private class RowTemapFileComparator extends SortRowsComparator implements Comparator<RowTempFile> {
-    RowTemapFileComparator( RowMetaInterface rowMeta, int[] fieldNrs ) {
-      super( rowMeta, fieldNrs );
-    }
-
-    @Override
-    public int compare( RowTempFile o1, RowTempFile o2 ) {
-      try {
-        return rowMeta.compare( o1.row, o2.row, fieldNrs );
-      } catch ( KettleValueException e ) {
-        logError( "Error comparing rows: " + e.toString() );
-        return 0;
-      }
-    }
-  }
-
   private class RowObjectArrayComparator extends SortRowsComparator implements Comparator<Object[]> {
     RowObjectArrayComparator( RowMetaInterface rowMeta, int[] fieldNrs ) {
       super( rowMeta, fieldNrs );
@@ -712,4 +809,24 @@ public class SortRows extends BaseStep implements StepInterface {
       }
     }
   }
+
+  /**
+   * A row with its sort key, the keys are compared without looking at the rows.
+   */
+  private static class KeyedRow {
+    static final Comparator<KeyedRow> COMPARATOR = new Comparator<KeyedRow>() {
+      @Override
+      public int compare( KeyedRow o1, KeyedRow o2 ) {
+        return SortKeyEncoder.compare( o1.key, o2.key );
+      }
+    };
+
+    final byte[] key;
+    final Object[] row;
+
+    KeyedRow( byte[] key, Object[] row ) {
+      this.key = key;
+      this.row = row;
+    }
+  }
 }
@@ -22,14 +22,13 @@
 
 package org.pentaho.di.trans.steps.sort;
 
-import java.io.DataInputStream;
-import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.List;
-import java.util.zip.GZIPInputStream;
 
 import org.apache.commons.vfs2.FileObject;
+import org.pentaho.di.core.compress.CompressionProvider;
+import org.pentaho.di.core.memory.MemoryBudget;
 import org.pentaho.di.core.row.RowMetaInterface;
 import org.pentaho.di.trans.step.BaseStepData;
 import org.pentaho.di.trans.step.StepDataInterface;
@@ -39,18 +38,27 @@ import org.pentaho.di.trans.step.StepDataInterface;
  * @since 24-jan-2005
  */
 public class SortRowsData extends BaseStepData implements StepDataInterface {
+  /** The maximum number of temporary files that are merged at once */
+  public static final int DEFAULT_MERGE_FAN_IN = 64;
+
+  /** The number of bytes reserved at once from the memory budget */
+  public static final long MEMORY_GRANT_SIZE = 1024L * 1024L;
+
   public List<FileObject> files;
   public List<Object[]> buffer;
   public int getBufferIndex;
 
-  public List<InputStream> fis;
-  public List<GZIPInputStream> gzis;
-  public List<DataInputStream> dis;
-  public List<Object[]> rowbuffer;
   public List<Integer> bufferSizes;
 
-  // To store rows and file references
-  public List<RowTempFile> tempRows;
+  // The normalized sort keys of the rows in the buffer, null if the key fields don't allow them
+  public SortKeyEncoder keyEncoder;
+  public List<byte[]> keys;
+  public byte[] bufferKey;
+
+  // Merges the sorted temporary files
+  public SortRunMerger merger;
+  public int mergeFanIn;
+  public CompressionProvider compressionProvider;
 
   public int[] fieldnrs; // the corresponding field numbers;
   public FileObject fil;
@@ -60,7 +68,6 @@ public class SortRowsData extends BaseStepData implements StepDataInterface {
   public int[] convertKeysToNative;
   public boolean convertAnyKeysToNative;
 
-  Comparator<RowTempFile> comparator;
   Comparator<Object[]> rowComparator;
 
   public int freeCounter;
@@ -69,6 +76,11 @@ public class SortRowsData extends BaseStepData implements StepDataInterface {
   public int freeMemoryPctLimit;
   public int memoryReporting;
 
+  // The memory budget of the transformation and the part of it held by the buffer, null if there is no budget
+  public MemoryBudget memoryBudget;
+  public long memoryGranted;
+  public long memoryUsed;
+
   /*
    * Group Fields Implementation heroic
    */
@@ -80,10 +92,8 @@ public class SortRowsData extends BaseStepData implements StepDataInterface {
     super();
 
     files = new ArrayList<FileObject>();
-    fis = new ArrayList<InputStream>();
-    gzis = new ArrayList<GZIPInputStream>();
-    dis = new ArrayList<DataInputStream>();
     bufferSizes = new ArrayList<Integer>();
+    mergeFanIn = DEFAULT_MERGE_FAN_IN;
 
     previous = null; // Heroic
   }
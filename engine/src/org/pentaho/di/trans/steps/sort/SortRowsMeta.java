@@ -59,6 +59,9 @@ import org.w3c.dom.Node;
 public class SortRowsMeta extends BaseStepMeta implements StepMetaInterface {
   private static Class<?> PKG = SortRowsMeta.class; // for i18n purposes, needed by Translator2!!
 
+  /** The compression used for the temporary files of transformations saved without a compression type */
+  public static final String DEFAULT_COMPRESSION_TYPE = "GZip";
+
   /** order by which fields? */
   @Injection( name = "NAME", group = "FIELDS" )
   private String[] fieldName;
@@ -106,6 +109,10 @@ public class SortRowsMeta extends BaseStepMeta implements StepMetaInterface {
   /** The variable to use to set the compressFiles option boolean */
   private String compressFilesVariable;
 
+  /** The name of the compression provider used for the temporary files, GZip if not specified */
+  @Injection( name = "COMPRESSION_TYPE" )
+  private String compressionType;
+
   public SortRowsMeta() {
     super(); // allocate BaseStepMeta
   }
@@ -204,6 +211,7 @@ public class SortRowsMeta extends BaseStepMeta implements StepMetaInterface {
       freeMemoryLimit = XMLHandler.getTagValue( stepnode, "free_memory" );
       compressFiles = "Y".equalsIgnoreCase( XMLHandler.getTagValue( stepnode, "compress" ) );
       compressFilesVariable = XMLHandler.getTagValue( stepnode, "compress_variable" );
+      compressionType = XMLHandler.getTagValue( stepnode, "compression_type" );
       onlyPassingUniqueRows = "Y".equalsIgnoreCase( XMLHandler.getTagValue( stepnode, "unique_rows" ) );
 
       Node fields = XMLHandler.getSubNode( stepnode, "fields" );
@@ -234,6 +242,7 @@ public class SortRowsMeta extends BaseStepMeta implements StepMetaInterface {
     freeMemoryLimit = null;
     compressFiles = false;
     compressFilesVariable = null;
+    compressionType = DEFAULT_COMPRESSION_TYPE;
     onlyPassingUniqueRows = false;
 
     int nrfields = 0;
@@ -256,6 +265,7 @@ public class SortRowsMeta extends BaseStepMeta implements StepMetaInterface {
     retval.append( "      " ).append( XMLHandler.addTagValue( "free_memory", freeMemoryLimit ) );
     retval.append( "      " ).append( XMLHandler.addTagValue( "compress", compressFiles ) );
     retval.append( "      " ).append( XMLHandler.addTagValue( "compress_variable", compressFilesVariable ) );
+    retval.append( "      " ).append( XMLHandler.addTagValue( "compression_type", compressionType ) );
     retval.append( "      " ).append( XMLHandler.addTagValue( "unique_rows", onlyPassingUniqueRows ) );
 
     retval.append( "    <fields>" ).append( Const.CR );
@@ -281,6 +291,7 @@ public class SortRowsMeta extends BaseStepMeta implements StepMetaInterface {
 
       compressFiles = rep.getStepAttributeBoolean( id_step, "compress" );
       compressFilesVariable = rep.getStepAttributeString( id_step, "compress_variable" );
+      compressionType = rep.getStepAttributeString( id_step, "compression_type" );
 
       onlyPassingUniqueRows = rep.getStepAttributeBoolean( id_step, "unique_rows" );
 
@@ -307,6 +318,7 @@ public class SortRowsMeta extends BaseStepMeta implements StepMetaInterface {
       rep.saveStepAttribute( id_transformation, id_step, "free_memory", freeMemoryLimit );
       rep.saveStepAttribute( id_transformation, id_step, "compress", compressFiles );
       rep.saveStepAttribute( id_transformation, id_step, "compress_variable", compressFilesVariable );
+      rep.saveStepAttribute( id_transformation, id_step, "compression_type", compressionType );
       rep.saveStepAttribute( id_transformation, id_step, "unique_rows", onlyPassingUniqueRows );
 
       for ( int i = 0; i < fieldName.length; i++ ) {
@@ -495,6 +507,21 @@ public class SortRowsMeta extends BaseStepMeta implements StepMetaInterface {
     this.compressFilesVariable = compressFilesVariable;
   }
 
+  /**
+   * @return the name of the compression provider used for the temporary files
+   */
+  public String getCompressionType() {
+    return compressionType;
+  }
+
+  /**
+   * @param compressionType
+   *          the name of the compression provider to use for the temporary files: None, GZip, Snappy...
+   */
+  public void setCompressionType( String compressionType ) {
+    this.compressionType = compressionType;
+  }
+
   /**
    * @return the caseSensitive
    */
@@ -0,0 +1,158 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2016 by Pentaho : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+
+package org.pentaho.di.trans.steps.sort;
+
+import java.util.List;
+
+import org.pentaho.di.core.exception.KettleException;
+import org.pentaho.di.core.row.RowMetaInterface;
+
+/**
+ * Merges sorted runs with a binary min-heap: every row that is passed costs a single sift down of the heap of runs,
+ * that is about log2(k) comparisons for k runs. When the sort keys are equal, the row of the lowest run comes first
+ * which keeps the sort stable.
+ *
+ * @since 17-10-2016
+ *
+ */
+public class SortRunMerger {
+  private final RowMetaInterface rowMeta;
+  private final int[] fieldNrs;
+  private final boolean keyed;
+
+  private final SortRunReader[] heap;
+  private int size;
+
+  private byte[] lastKey;
+
+  /**
+   * Reads the first row of every run and builds the heap.
+   *
+   * @param readers
+   *          the runs to merge
+   * @param rowMeta
+   *          the row metadata, used to compare the rows if the runs contain no sort keys
+   * @param fieldNrs
+   *          the indexes of the key fields
+   * @param keyed
+   *          true if the runs contain sort keys
+   * @throws KettleException
+   *           in case a run can't be read
+   */
+  public SortRunMerger( List<SortRunReader> readers, RowMetaInterface rowMeta, int[] fieldNrs, boolean keyed )
+    throws KettleException {
+    this.rowMeta = rowMeta;
+    this.fieldNrs = fieldNrs;
+    this.keyed = keyed;
+    this.heap = new SortRunReader[readers.size()];
+
+    for ( SortRunReader reader : readers ) {
+      if ( reader.next() ) {
+        heap[size++] = reader;
+      } else {
+        reader.close();
+      }
+    }
+    for ( int i = size / 2 - 1; i >= 0; i-- ) {
+      siftDown( i );
+    }
+  }
+
+  /**
+   * Gets the next row in sort order.
+   *
+   * @return the smallest row left in the runs or null if all runs are exhausted.
+   * @throws KettleException
+   *           in case a run can't be read or rows can't be compared
+   */
+  public Object[] next() throws KettleException {
+    if ( size == 0 ) {
+      lastKey = null;
+      return null;
+    }
+    SortRunReader top = heap[0];
+    Object[] row = top.getRow();
+    lastKey = top.getKey();
+
+    if ( !top.next() ) {
+      top.close();
+      size--;
+      heap[0] = heap[size];
+      heap[size] = null;
+    }
+    if ( size > 1 ) {
+      siftDown( 0 );
+    }
+    return row;
+  }
+
+  /**
+   * @return the sort key of the row last returned by {@link #next()}, null if the runs contain no keys
+   */
+  public byte[] getLastKey() {
+    return lastKey;
+  }
+
+  /**
+   * Closes the runs that were not read completely.
+   */
+  public void close() {
+    for ( int i = 0; i < size; i++ ) {
+      heap[i].close();
+      heap[i] = null;
+    }
+    size = 0;
+  }
+
+  private void siftDown( int index ) throws KettleException {
+    SortRunReader reader = heap[index];
+    int half = size >>> 1;
+    while ( index < half ) {
+      int child = 2 * index + 1;
+      int right = child + 1;
+      if ( right < size && compare( heap[right], heap[child] ) < 0 ) {
+        child = right;
+      }
+      if ( compare( reader, heap[child] ) <= 0 ) {
+        break;
+      }
+      heap[index] = heap[child];
+      index = child;
+    }
+    heap[index] = reader;
+  }
+
+  private int compare( SortRunReader one, SortRunReader two ) throws KettleException {
+    int cmp;
+    if ( keyed ) {
+      cmp = SortKeyEncoder.compare( one.getKey(), two.getKey() );
+    } else {
+      cmp = rowMeta.compare( one.getRow(), two.getRow(), fieldNrs );
+    }
+    if ( cmp == 0 ) {
+      cmp = one.getRunNr() - two.getRunNr();
+    }
+    return cmp;
+  }
+}
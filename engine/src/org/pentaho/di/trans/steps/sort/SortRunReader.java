@@ -0,0 +1,115 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2016 by Pentaho : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+
+package org.pentaho.di.trans.steps.sort;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+
+import org.pentaho.di.core.exception.KettleException;
+import org.pentaho.di.core.exception.KettleFileException;
+import org.pentaho.di.core.row.RowMetaInterface;
+import org.pentaho.di.trans.step.BaseStep;
+
+/**
+ * Reads the rows of a sorted run back from a temporary file, one at a time. Each row is optionally preceded by its
+ * normalized sort key, see {@link SortKeyEncoder}.
+ *
+ * @since 17-10-2016
+ *
+ */
+public class SortRunReader {
+  private final RowMetaInterface rowMeta;
+  private final DataInputStream inputStream;
+  private final boolean keyed;
+  private final int runNr;
+  private int remaining;
+
+  private Object[] row;
+  private byte[] key;
+
+  /**
+   * @param rowMeta
+   *          the metadata of the rows in the run
+   * @param inputStream
+   *          the stream to read the run from
+   * @param nrRows
+   *          the number of rows in the run
+   * @param keyed
+   *          true if every row is preceded by its sort key
+   * @param runNr
+   *          the number of the run, the rows of lower runs are passed first when their keys are equal
+   */
+  public SortRunReader( RowMetaInterface rowMeta, DataInputStream inputStream, int nrRows, boolean keyed, int runNr ) {
+    this.rowMeta = rowMeta;
+    this.inputStream = inputStream;
+    this.remaining = nrRows;
+    this.keyed = keyed;
+    this.runNr = runNr;
+  }
+
+  /**
+   * Reads the next row of the run.
+   *
+   * @return true if a row was read, false if the end of the run was reached.
+   * @throws KettleException
+   *           in case the run file can't be read
+   */
+  public boolean next() throws KettleException {
+    if ( remaining <= 0 ) {
+      row = null;
+      key = null;
+      return false;
+    }
+    try {
+      if ( keyed ) {
+        key = new byte[inputStream.readInt()];
+        inputStream.readFully( key );
+      }
+      row = rowMeta.readData( inputStream );
+    } catch ( IOException e ) {
+      throw new KettleFileException( "Unable to read a row back from a sort run file", e );
+    } catch ( SocketTimeoutException e ) {
+      throw new KettleFileException( "Unable to read a row back from a sort run file", e ); // never on local files
+    }
+    remaining--;
+    return true;
+  }
+
+  public Object[] getRow() {
+    return row;
+  }
+
+  public byte[] getKey() {
+    return key;
+  }
+
+  public int getRunNr() {
+    return runNr;
+  }
+
+  public void close() {
+    BaseStep.closeQuietly( inputStream );
+  }
+}
@@ -33,6 +33,8 @@ import org.pentaho.di.core.exception.KettleException;
 import org.pentaho.di.core.exception.KettleStepException;
 import org.pentaho.di.core.exception.KettleValueException;
 import org.pentaho.di.core.hash.ByteArrayHashIndex;
+import org.pentaho.di.core.hash.ColumnarHashIndex;
+import org.pentaho.di.core.hash.OffHeapHashIndex;
 import org.pentaho.di.core.row.RowDataUtil;
 import org.pentaho.di.core.row.RowMeta;
 import org.pentaho.di.core.row.RowMetaInterface;
@@ -198,6 +200,18 @@ public class StreamLookup extends BaseStep implements StepInterface {
 
         data.cacheKeyMeta = cacheKeyMeta;
         data.cacheValueMeta = cacheValueMeta;
+
+        // Keys of simple types are kept in columns of primitives: less memory per entry and no garbage when probing.
+        // The sorted list and the integer pair algorithms are kept when they were chosen explicitly.
+        //
+        boolean hashed =
+          !meta.isMemoryPreservationActive() || ( !meta.isUsingSortedList() && !meta.isUsingIntegerPair() );
+        boolean offHeap = "Y".equalsIgnoreCase( getVariable( Const.KETTLE_LOOKUP_CACHE_OFF_HEAP, "N" ) );
+        if ( hashed && offHeap && OffHeapHashIndex.isSupported( cacheKeyMeta, cacheValueMeta ) ) {
+          data.offHeapIndex = new OffHeapHashIndex( cacheKeyMeta, cacheValueMeta );
+        } else if ( hashed && ColumnarHashIndex.isSupported( cacheKeyMeta ) ) {
+          data.columnarIndex = new ColumnarHashIndex( cacheKeyMeta, cacheValueMeta );
+        }
       }
 
       Object[] keyData = new Object[keyNrs.length];
@@ -294,8 +308,12 @@ public class StreamLookup extends BaseStep implements StepInterface {
   }
 
   private void addToCache( RowMetaInterface keyMeta, Object[] keyData, RowMetaInterface valueMeta,
-    Object[] valueData ) throws KettleValueException {
-    if ( meta.isMemoryPreservationActive() ) {
+    Object[] valueData ) throws KettleException {
+    if ( data.offHeapIndex != null ) {
+      data.offHeapIndex.put( keyData, valueData );
+    } else if ( data.columnarIndex != null ) {
+      data.columnarIndex.put( keyData, valueData );
+    } else if ( meta.isMemoryPreservationActive() ) {
       if ( meta.isUsingSortedList() ) {
         KeyValue keyValue = new KeyValue( keyData, valueData );
         int idx = Collections.binarySearch( data.list, keyValue, data.comparator );
@@ -336,8 +354,12 @@ public class StreamLookup extends BaseStep implements StepInterface {
     }
   }
 
-  private Object[] getFromCache( RowMetaInterface keyMeta, Object[] keyData ) throws KettleValueException {
-    if ( meta.isMemoryPreservationActive() ) {
+  private Object[] getFromCache( RowMetaInterface keyMeta, Object[] keyData ) throws KettleException {
+    if ( data.offHeapIndex != null ) {
+      return data.offHeapIndex.get( keyData );
+    } else if ( data.columnarIndex != null ) {
+      return data.columnarIndex.get( keyData );
+    } else if ( meta.isMemoryPreservationActive() ) {
       if ( meta.isUsingSortedList() ) {
         KeyValue keyValue = new KeyValue( keyData, null );
         int idx = Collections.binarySearch( data.list, keyValue, data.comparator );
@@ -481,6 +503,11 @@ public class StreamLookup extends BaseStep implements StepInterface {
     data.list = null;
     data.hashIndex = null;
     data.longIndex = null;
+    data.columnarIndex = null;
+    if ( data.offHeapIndex != null ) {
+      data.offHeapIndex.close();
+      data.offHeapIndex = null;
+    }
 
     super.dispose( smi, sdi );
   }
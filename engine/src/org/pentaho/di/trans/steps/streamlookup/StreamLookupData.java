@@ -31,7 +31,9 @@ import java.util.Map;
 import org.pentaho.di.core.RowMetaAndData;
 import org.pentaho.di.core.exception.KettleValueException;
 import org.pentaho.di.core.hash.ByteArrayHashIndex;
+import org.pentaho.di.core.hash.ColumnarHashIndex;
 import org.pentaho.di.core.hash.LongHashIndex;
+import org.pentaho.di.core.hash.OffHeapHashIndex;
 import org.pentaho.di.core.row.RowMetaInterface;
 import org.pentaho.di.trans.step.BaseStepData;
 import org.pentaho.di.trans.step.StepDataInterface;
@@ -74,6 +76,12 @@ public class StreamLookupData extends BaseStepData implements StepDataInterface
   public ByteArrayHashIndex hashIndex;
   public LongHashIndex longIndex;
 
+  /** Stores keys of simple types in columns of primitives, null if the keys or the chosen algorithm don't allow it */
+  public ColumnarHashIndex columnarIndex;
+
+  /** Stores the rows outside of the heap when KETTLE_LOOKUP_CACHE_OFF_HEAP is set, null otherwise */
+  public OffHeapHashIndex offHeapIndex;
+
   public RowMetaInterface lookupMeta;
 
   public RowMetaInterface infoMeta;
@@ -23,12 +23,15 @@
 package org.pentaho.di.trans.steps.transexecutor;
 
 import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Map;
 
 import com.google.common.annotations.VisibleForTesting;
 import org.pentaho.di.core.Const;
 import org.pentaho.di.core.Result;
 import org.pentaho.di.core.ResultFile;
 import org.pentaho.di.core.RowMetaAndData;
+import org.pentaho.di.core.RowProducer;
 import org.pentaho.di.core.RowSet;
 import org.pentaho.di.core.exception.KettleException;
 import org.pentaho.di.core.logging.KettleLogStore;
@@ -37,15 +40,20 @@ import org.pentaho.di.core.row.RowDataUtil;
 import org.pentaho.di.core.row.RowMeta;
 import org.pentaho.di.i18n.BaseMessages;
 import org.pentaho.di.job.DelegationListener;
+import org.pentaho.di.trans.SingleThreadedTransExecutor;
 import org.pentaho.di.trans.Trans;
 import org.pentaho.di.trans.TransExecutionConfiguration;
 import org.pentaho.di.trans.TransMeta;
+import org.pentaho.di.trans.TransMeta.TransformationType;
 import org.pentaho.di.trans.step.BaseStep;
+import org.pentaho.di.trans.step.ReusableStep;
 import org.pentaho.di.trans.step.StepDataInterface;
 import org.pentaho.di.trans.step.StepInterface;
 import org.pentaho.di.trans.step.StepMeta;
+import org.pentaho.di.trans.step.StepMetaDataCombi;
 import org.pentaho.di.trans.step.StepMetaInterface;
 import org.pentaho.di.trans.steps.TransStepUtil;
+import org.pentaho.di.trans.steps.rowsfromresult.RowsFromResult;
 
 /**
  * Execute a transformation for every input row, set parameters.
@@ -187,6 +195,13 @@ public class TransExecutor extends BaseStep implements StepInterface {
     }
     transExecutorData.groupTimeStart = System.currentTimeMillis();
 
+    // Execute the group with the prepared transformation if it can be re-used
+    //
+    if ( prepareReusedTransformation() ) {
+      executeReusedTransformation();
+      return;
+    }
+
     discardLogLines( transExecutorData );
 
     Trans executorTrans = createInternalTrans();
@@ -232,6 +247,198 @@ public class TransExecutor extends BaseStep implements StepInterface {
     transExecutorData.groupBuffer.clear();
   }
 
+  /**
+   * Prepare the transformation once to execute every group of rows with the single threaded engine. This is only done
+   * when variable KETTLE_TRANS_EXECUTOR_REUSE is set to Y, when no parameter takes its value from the rows of a group
+   * and when all steps of the transformation can be reset with {@link ReusableStep}.
+   *
+   * @return true if the prepared transformation is ready to execute the current group
+   */
+  private boolean prepareReusedTransformation() throws KettleException {
+    TransExecutorData transExecutorData = getData();
+    if ( transExecutorData.reusedExecutor != null ) {
+      return true;
+    }
+    if ( transExecutorData.reuseDisabled ) {
+      return false;
+    }
+    if ( !isReusableTransformation() ) {
+      transExecutorData.reuseDisabled = true;
+      return false;
+    }
+
+    discardLogLines( transExecutorData );
+
+    TransMeta reusedTransMeta = (TransMeta) transExecutorData.getExecutorTransMeta().clone();
+    reusedTransMeta.setTransformationType( TransformationType.SingleThreaded );
+    reusedTransMeta.setUsingThreadPriorityManagment( false );
+
+    Trans executorTrans = createInternalTrans( reusedTransMeta );
+    transExecutorData.setExecutorTrans( executorTrans );
+    passParametersToTrans();
+    getTrans().getActiveSubtransformations().put( getStepname(), executorTrans );
+
+    executorTrans.prepareExecution( getTrans().getArguments() );
+
+    // See if all the steps can be reset, otherwise we execute a new transformation for every group
+    //
+    transExecutorData.reusedRowProducers = new ArrayList<RowProducer>();
+    for ( StepMetaDataCombi combi : executorTrans.getSteps() ) {
+      if ( !( combi.step instanceof ReusableStep ) ) {
+        if ( log.isDetailed() ) {
+          logDetailed( "Step '" + combi.stepname
+            + "' can't be re-used, executing a new transformation for every group" );
+        }
+        for ( StepMetaDataCombi sid : executorTrans.getSteps() ) {
+          sid.step.dispose( sid.meta, sid.data );
+          sid.step.markStop();
+        }
+        getTrans().getActiveSubtransformations().remove( getStepname() );
+        transExecutorData.setExecutorTrans( null );
+        transExecutorData.reusedRowProducers = null;
+        transExecutorData.reuseDisabled = true;
+        return false;
+      }
+      if ( combi.step instanceof RowsFromResult ) {
+        transExecutorData.reusedRowProducers.add( executorTrans.addRowProducer( combi.stepname, combi.copy ) );
+      }
+    }
+
+    executorTrans.startThreads();
+
+    for ( DelegationListener delegationListener : getTrans().getDelegationListeners() ) {
+      delegationListener.transformationDelegationStarted( executorTrans, new TransExecutionConfiguration() );
+    }
+
+    // The steps were initialized by prepareExecution(), keep their connections
+    //
+    transExecutorData.reusedExecutor = new SingleThreadedTransExecutor( executorTrans );
+    transExecutorData.reusedTotals = new Result();
+    transExecutorData.reusedResultFiles = new HashSet<String>();
+
+    return true;
+  }
+
+  private boolean isReusableTransformation() {
+    if ( !"Y".equalsIgnoreCase( getVariable( Const.KETTLE_TRANS_EXECUTOR_REUSE, "N" ) ) ) {
+      return false;
+    }
+
+    // Parameters are only set once, they can't change for every group of rows
+    //
+    for ( String fieldName : meta.getParameters().getField() ) {
+      if ( !Const.isEmpty( fieldName ) ) {
+        return false;
+      }
+    }
+
+    // The single threaded engine executes the groups, every step copy would read all the rows of a group
+    //
+    for ( StepMeta stepMeta : getData().getExecutorTransMeta().getSteps() ) {
+      if ( stepMeta.getCopies() != 1 || !supportsSingleThreaded( stepMeta ) ) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private boolean supportsSingleThreaded( StepMeta stepMeta ) {
+    for ( TransformationType type : stepMeta.getStepMetaInterface().getSupportedTransformationTypes() ) {
+      if ( type == TransformationType.SingleThreaded ) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private void executeReusedTransformation() throws KettleException {
+    TransExecutorData transExecutorData = getData();
+    Trans executorTrans = transExecutorData.getExecutorTrans();
+    transExecutorData.groupLogLineNr = KettleLogStore.getLastBufferLineNr();
+
+    Result result;
+    try {
+      // Re-arm the steps and give the group its own result rows
+      //
+      executorTrans.setResultRows( new ArrayList<RowMetaAndData>() );
+      for ( StepMetaDataCombi combi : executorTrans.getSteps() ) {
+        ( (ReusableStep) combi.step ).resetForNextExecution();
+      }
+
+      for ( RowMetaAndData row : transExecutorData.groupBuffer ) {
+        for ( RowProducer rowProducer : transExecutorData.reusedRowProducers ) {
+          rowProducer.putRow( row.getRowMeta(), row.getData() );
+        }
+      }
+
+      // All the rows of the group pass all steps in a single iteration
+      //
+      transExecutorData.reusedExecutor.oneIteration();
+
+      result = getReusedTransResult( executorTrans.getResult() );
+    } catch ( KettleException e ) {
+      log.logError( "An error occurred executing the transformation: ", e );
+      result = new Result();
+      result.setResult( false );
+      result.setNrErrors( 1 );
+    }
+
+    collectTransResults( result );
+    collectExecutionResults( result );
+    collectExecutionResultFiles( result );
+
+    // Don't re-use a transformation that failed, the next group is executed with a freshly prepared one
+    //
+    if ( result.getNrErrors() > 0 ) {
+      disposeReusedTransformation();
+    }
+
+    transExecutorData.groupBuffer.clear();
+  }
+
+  /**
+   * The counters of the steps keep on adding up when the transformation is re-used, only report what changed during
+   * the execution of the current group.
+   */
+  private Result getReusedTransResult( Result totals ) {
+    TransExecutorData transExecutorData = getData();
+    Result previous = transExecutorData.reusedTotals;
+
+    Result result = new Result();
+    result.setNrErrors( totals.getNrErrors() );
+    result.setResult( totals.getNrErrors() == 0 );
+    result.setStopped( totals.isStopped() );
+    result.setLogChannelId( totals.getLogChannelId() );
+    result.setRows( totals.getRows() );
+    result.setNrLinesRead( totals.getNrLinesRead() - previous.getNrLinesRead() );
+    result.setNrLinesWritten( totals.getNrLinesWritten() - previous.getNrLinesWritten() );
+    result.setNrLinesInput( totals.getNrLinesInput() - previous.getNrLinesInput() );
+    result.setNrLinesOutput( totals.getNrLinesOutput() - previous.getNrLinesOutput() );
+    result.setNrLinesUpdated( totals.getNrLinesUpdated() - previous.getNrLinesUpdated() );
+    result.setNrLinesRejected( totals.getNrLinesRejected() - previous.getNrLinesRejected() );
+    for ( Map.Entry<String, ResultFile> entry : totals.getResultFiles().entrySet() ) {
+      if ( transExecutorData.reusedResultFiles.add( entry.getKey() ) ) {
+        result.getResultFiles().put( entry.getKey(), entry.getValue() );
+      }
+    }
+
+    transExecutorData.reusedTotals = totals;
+    return result;
+  }
+
+  private void disposeReusedTransformation() {
+    TransExecutorData transExecutorData = getData();
+    if ( transExecutorData.reusedExecutor != null ) {
+      try {
+        transExecutorData.reusedExecutor.dispose();
+      } catch ( KettleException e ) {
+        log.logError( "Unable to dispose of the re-used transformation", e );
+      }
+      transExecutorData.reusedExecutor = null;
+      transExecutorData.reusedRowProducers = null;
+    }
+  }
+
   @VisibleForTesting
   void discardLogLines( TransExecutorData transExecutorData ) {
     // Keep the strain on the logging back-end conservative.
@@ -245,7 +452,12 @@ public class TransExecutor extends BaseStep implements StepInterface {
 
   @VisibleForTesting
   Trans createInternalTrans() throws KettleException {
-    Trans executorTrans = new Trans( getData().getExecutorTransMeta(), this );
+    return createInternalTrans( getData().getExecutorTransMeta() );
+  }
+
+  @VisibleForTesting
+  Trans createInternalTrans( TransMeta executorTransMeta ) throws KettleException {
+    Trans executorTrans = new Trans( executorTransMeta, this );
 
     executorTrans.setParentTrans( getTrans() );
     executorTrans.setLogLevel( getLogLevel() );
@@ -355,7 +567,14 @@ public class TransExecutor extends BaseStep implements StepInterface {
       }
       if ( !Const.isEmpty( meta.getExecutionLogTextField() ) ) {
         String channelId = getData().getExecutorTrans().getLogChannelId();
-        String logText = KettleLogStore.getAppender().getBuffer( channelId, false ).toString();
+        String logText;
+        if ( getData().reusedExecutor != null ) {
+          // Only the lines logged for this group
+          logText =
+            KettleLogStore.getAppender().getBuffer( channelId, false, getData().groupLogLineNr ).toString();
+        } else {
+          logText = KettleLogStore.getAppender().getBuffer( channelId, false ).toString();
+        }
         outputRow[ idx++ ] = logText;
       }
       if ( !Const.isEmpty( meta.getExecutionLogChannelIdField() ) ) {
@@ -436,6 +655,7 @@ public class TransExecutor extends BaseStep implements StepInterface {
 
   public void dispose( StepMetaInterface smi, StepDataInterface sdi ) {
     TransExecutorData transExecutorData = getData();
+    disposeReusedTransformation();
     transExecutorData.groupBuffer = null;
     super.dispose( smi, sdi );
   }
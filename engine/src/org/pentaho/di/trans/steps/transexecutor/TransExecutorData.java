@@ -23,11 +23,15 @@
 package org.pentaho.di.trans.steps.transexecutor;
 
 import java.util.List;
+import java.util.Set;
 
+import org.pentaho.di.core.Result;
 import org.pentaho.di.core.RowMetaAndData;
+import org.pentaho.di.core.RowProducer;
 import org.pentaho.di.core.RowSet;
 import org.pentaho.di.core.row.RowMetaInterface;
 import org.pentaho.di.core.row.ValueMetaInterface;
+import org.pentaho.di.trans.SingleThreadedTransExecutor;
 import org.pentaho.di.trans.Trans;
 import org.pentaho.di.trans.TransMeta;
 import org.pentaho.di.trans.step.BaseStepData;
@@ -59,6 +63,14 @@ public class TransExecutorData extends BaseStepData implements StepDataInterface
 
   public Object prevGroupFieldData;
 
+  /** The engine executing the prepared transformation for every group, null if it isn't re-used */
+  public SingleThreadedTransExecutor reusedExecutor;
+  public List<RowProducer> reusedRowProducers;
+  public boolean reuseDisabled;
+  public Result reusedTotals;
+  public Set<String> reusedResultFiles;
+  public int groupLogLineNr;
+
   private RowSet executorStepOutputRowSet;
   private RowSet resultRowsRowSet;
   private RowSet resultFilesRowSet;
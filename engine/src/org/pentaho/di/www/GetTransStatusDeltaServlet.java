@@ -0,0 +1,327 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2016 by Pentaho : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+
+package org.pentaho.di.www;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.Semaphore;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.pentaho.di.core.Const;
+import org.pentaho.di.core.logging.KettleLogStore;
+import org.pentaho.di.core.util.EnvUtil;
+import org.pentaho.di.i18n.BaseMessages;
+import org.pentaho.di.trans.Trans;
+import org.pentaho.di.trans.step.StepInterface;
+import org.pentaho.di.trans.step.StepStatus;
+
+/**
+ * Incremental variant of the transformation status service. The client passes the log line number and the status
+ * version it has last seen and receives a small JSON document with only the steps whose counters changed and the new
+ * log lines. With the <code>wait</code> parameter the request is held until something changes (long polling) so that a
+ * monitoring client doesn't have to poll at a fixed rate. Every held request takes a thread of Carte, so only
+ * {@link Const#KETTLE_CARTE_MAX_STATUS_WAITERS} requests are held at the same time, the others are answered right away.
+ *
+ * @since 17-10-2016
+ */
+public class GetTransStatusDeltaServlet extends BaseHttpServlet implements CartePluginInterface {
+  private static Class<?> PKG = GetTransStatusServlet.class; // for i18n purposes, needed by Translator2!!
+
+  private static final long serialVersionUID = -5311524237652378241L;
+  public static final String CONTEXT_PATH = "/kettle/transStatusDelta";
+
+  /** The maximum time in ms a long polling request is held, regardless of the requested wait time. */
+  public static final long MAX_WAIT_MS = 30000L;
+
+  /** The interval in ms at which a held request checks for changes. */
+  public static final long WAIT_INTERVAL_MS = 100L;
+
+  /** The default maximum number of requests that are held at the same time. */
+  public static final int DEFAULT_MAX_WAITERS = 10;
+
+  private static final Semaphore waiters = new Semaphore( Math.max( 0, Const.toInt( EnvUtil.getSystemProperty(
+    Const.KETTLE_CARTE_MAX_STATUS_WAITERS ), DEFAULT_MAX_WAITERS ) ) );
+
+  private final Map<Trans, TransStatusTracker> trackers = new WeakHashMap<Trans, TransStatusTracker>();
+
+  public GetTransStatusDeltaServlet() {
+  }
+
+  public GetTransStatusDeltaServlet( TransformationMap transformationMap ) {
+    super( transformationMap );
+  }
+
+  /**
+  <div id="mindtouch">
+      <h1>/kettle/transStatusDelta</h1>
+      <a name="GET"></a>
+      <h2>GET</h2>
+      <p>Retrieves the changes in the status of the specified transformation since the last request, as JSON.</p>
+
+      <p><b>Example Request:</b><br />
+      <pre function="syntax.xml">
+      GET /kettle/transStatusDelta/?name=dummy-trans&id=c56961b2-c848-49b8-abde-76c8015e29b0&version=12&from=37&wait=5000
+      </pre>
+
+      </p>
+      <h3>Parameters</h3>
+      <table class="pentaho-table">
+      <tbody>
+      <tr>
+        <th>name</th>
+        <th>description</th>
+        <th>type</th>
+      </tr>
+      <tr>
+      <td>name</td>
+      <td>Name of the transformation.</td>
+      <td>query</td>
+      </tr>
+      <tr>
+      <td>id</td>
+      <td>Carte transformation ID of the transformation. Versions are only meaningful for the same ID.</td>
+      <td>query, optional</td>
+      </tr>
+      <tr>
+      <td>version</td>
+      <td>The <code>version</code> of the last response, 0 or omitted to get all steps.</td>
+      <td>query, optional</td>
+      </tr>
+      <tr>
+      <td>from</td>
+      <td>The <code>last_log_line_nr</code> of the last response, 0 or omitted to get the complete log.</td>
+      <td>query, optional</td>
+      </tr>
+      <tr>
+      <td>wait</td>
+      <td>The time in ms to hold the request until something changes, at most 30000. When Carte already holds the
+      maximum number of requests (KETTLE_CARTE_MAX_STATUS_WAITERS) the request is answered right away.</td>
+      <td>query, optional</td>
+      </tr>
+      </tbody>
+      </table>
+
+    <h3>Response Body</h3>
+    <p>A JSON object with the fields <code>name</code>, <code>id</code>, <code>version</code>,
+    <code>status_desc</code>, <code>paused</code>, <code>finished</code>, <code>errors</code>,
+    <code>first_log_line_nr</code>, <code>last_log_line_nr</code>, <code>log</code> and <code>steps</code>.
+    The <code>steps</code> array only contains the steps that changed since the passed version; a step is an object
+    with the same fields as the <code>stepstatus</code> element of <code>/kettle/transStatus</code>.
+    The transformation level fields are only present when they changed, or when all steps are sent.</p>
+
+      <p><b>Example Response:</b></p>
+      <pre function="syntax.js">
+      {"name":"dummy-trans","id":"c56961b2-c848-49b8-abde-76c8015e29b0","version":13,"full":false,
+      "first_log_line_nr":37,"last_log_line_nr":39,"log":"...",
+      "steps":[{"stepname":"Dummy (do nothing)","copy":0,"linesRead":1200,"linesWritten":1200,
+      "linesInput":0,"linesOutput":0,"linesUpdated":0,"linesRejected":0,"errors":0,
+      "statusDescription":"Running","seconds":1.2,"speed":" 1,000","priority":"   10/0",
+      "stopped":false,"paused":false}]}
+      </pre>
+
+      <h3>Status Codes</h3>
+      <table class="pentaho-table">
+    <tbody>
+      <tr>
+        <th>code</th>
+        <th>description</th>
+      </tr>
+      <tr>
+        <td>200</td>
+        <td>Request was processed.</td>
+      </tr>
+      <tr>
+        <td>404</td>
+        <td>The transformation could not be found.</td>
+      </tr>
+    </tbody>
+  </table>
+  </div>
+    */
+  public void doGet( HttpServletRequest request, HttpServletResponse response ) throws ServletException,
+    IOException {
+    if ( isJettyMode() && !request.getContextPath().startsWith( CONTEXT_PATH ) ) {
+      return;
+    }
+
+    if ( log.isDebug() ) {
+      logDebug( BaseMessages.getString( PKG, "TransStatusServlet.Log.TransStatusRequested" ) );
+    }
+
+    String transName = request.getParameter( "name" );
+    String id = request.getParameter( "id" );
+    long clientVersion = Const.toLong( request.getParameter( "version" ), 0L );
+    int startLineNr = Const.toInt( request.getParameter( "from" ), 0 );
+    long waitMs = Math.min( Math.max( Const.toLong( request.getParameter( "wait" ), 0L ), 0L ), MAX_WAIT_MS );
+
+    response.setCharacterEncoding( Const.XML_ENCODING );
+    response.setContentType( "application/json" );
+
+    // ID is optional...
+    //
+    Trans trans;
+    CarteObjectEntry entry;
+    if ( Const.isEmpty( id ) ) {
+      entry = getTransformationMap().getFirstCarteObjectEntry( transName );
+      trans = entry == null ? null : getTransformationMap().getTransformation( entry );
+    } else {
+      entry = new CarteObjectEntry( transName, id );
+      trans = getTransformationMap().getTransformation( entry );
+    }
+
+    PrintWriter out = response.getWriter();
+    if ( trans == null ) {
+      response.setStatus( HttpServletResponse.SC_NOT_FOUND );
+      JSONObject error = new JSONObject();
+      error.put( "result", WebResult.STRING_ERROR );
+      error.put( "message", BaseMessages.getString(
+        PKG, "TransStatusServlet.Log.CoundNotFindSpecTrans", transName ) );
+      out.print( error.toJSONString() );
+      return;
+    }
+    response.setStatus( HttpServletResponse.SC_OK );
+
+    TransStatusTracker tracker = getTracker( trans );
+    String logChannelId = trans.getLogChannel().getLogChannelId();
+
+    long deadline = System.currentTimeMillis() + waitMs;
+    long version = tracker.update( trans );
+    int lastLineNr = KettleLogStore.getLastBufferLineNr();
+    String logText = getLogText( logChannelId, startLineNr, lastLineNr );
+
+    // Long polling: hold the request until a step or the log changes, the transformation ends or we run out of time.
+    // Only the global buffer line number is checked while waiting, the log of the transformation is only scanned again
+    // once new lines were written somewhere. A request that isn't allowed to wait is answered right away.
+    //
+    if ( version == clientVersion && logText.length() == 0 && !trans.isFinishedOrStopped() && waitMs > 0
+      && waiters.tryAcquire() ) {
+      try {
+        while ( version == clientVersion && logText.length() == 0 && !trans.isFinishedOrStopped()
+          && System.currentTimeMillis() < deadline ) {
+          Thread.sleep( Math.min( WAIT_INTERVAL_MS, Math.max( 1L, deadline - System.currentTimeMillis() ) ) );
+          version = tracker.update( trans );
+          int newLastLineNr = KettleLogStore.getLastBufferLineNr();
+          if ( newLastLineNr != lastLineNr ) {
+            lastLineNr = newLastLineNr;
+            logText = getLogText( logChannelId, startLineNr, lastLineNr );
+          }
+        }
+      } catch ( InterruptedException e ) {
+        Thread.currentThread().interrupt();
+      } finally {
+        waiters.release();
+      }
+    }
+
+    out.print( getStatusDelta( trans, entry.getId(), tracker, clientVersion, startLineNr, lastLineNr, logText )
+      .toJSONString() );
+  }
+
+  @SuppressWarnings( "unchecked" )
+  JSONObject getStatusDelta( Trans trans, String id, TransStatusTracker tracker, long clientVersion,
+    int startLineNr, int lastLineNr, String logText ) {
+    JSONObject delta = new JSONObject();
+    delta.put( "name", trans.getName() );
+    delta.put( "id", id );
+    delta.put( "version", tracker.getVersion() );
+    delta.put( "full", tracker.isFullRefresh( clientVersion ) );
+
+    if ( tracker.isTransChangedSince( clientVersion ) ) {
+      delta.put( "status_desc", trans.getStatus() );
+      delta.put( "paused", trans.isPaused() );
+    }
+    delta.put( "finished", trans.isFinishedOrStopped() );
+    delta.put( "errors", trans.getErrors() );
+
+    delta.put( "first_log_line_nr", startLineNr );
+    delta.put( "last_log_line_nr", lastLineNr );
+    delta.put( "log", logText );
+
+    JSONArray steps = new JSONArray();
+    for ( StepInterface step : tracker.getStepsChangedSince( trans, clientVersion ) ) {
+      steps.add( getStepStatus( new StepStatus( step ) ) );
+    }
+    delta.put( "steps", steps );
+    return delta;
+  }
+
+  @SuppressWarnings( "unchecked" )
+  private static JSONObject getStepStatus( StepStatus stepStatus ) {
+    JSONObject step = new JSONObject();
+    step.put( "stepname", stepStatus.getStepname() );
+    step.put( "copy", stepStatus.getCopy() );
+    step.put( "linesRead", stepStatus.getLinesRead() );
+    step.put( "linesWritten", stepStatus.getLinesWritten() );
+    step.put( "linesInput", stepStatus.getLinesInput() );
+    step.put( "linesOutput", stepStatus.getLinesOutput() );
+    step.put( "linesUpdated", stepStatus.getLinesUpdated() );
+    step.put( "linesRejected", stepStatus.getLinesRejected() );
+    step.put( "errors", stepStatus.getErrors() );
+    step.put( "statusDescription", stepStatus.getStatusDescription() );
+    step.put( "seconds", stepStatus.getSeconds() );
+    step.put( "speed", stepStatus.getSpeed() );
+    step.put( "priority", stepStatus.getPriority() );
+    step.put( "stopped", stepStatus.isStopped() );
+    step.put( "paused", stepStatus.isPaused() );
+    return step;
+  }
+
+  private static String getLogText( String logChannelId, int startLineNr, int lastLineNr ) {
+    if ( lastLineNr <= startLineNr ) {
+      return "";
+    }
+    return KettleLogStore.getAppender().getBuffer( logChannelId, false, startLineNr, lastLineNr ).toString();
+  }
+
+  TransStatusTracker getTracker( Trans trans ) {
+    synchronized ( trackers ) {
+      TransStatusTracker tracker = trackers.get( trans );
+      if ( tracker == null ) {
+        tracker = new TransStatusTracker();
+        trackers.put( trans, tracker );
+      }
+      return tracker;
+    }
+  }
+
+  public String toString() {
+    return "Trans Status Delta Handler";
+  }
+
+  public String getService() {
+    return CONTEXT_PATH + " (" + toString() + ")";
+  }
+
+  public String getContextPath() {
+    return CONTEXT_PATH;
+  }
+
+}
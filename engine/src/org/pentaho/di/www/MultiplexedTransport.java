@@ -0,0 +1,762 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2016 by Pentaho : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+
+package org.pentaho.di.www;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import org.pentaho.di.core.logging.LogChannelInterface;
+
+/**
+ * Carries the rows of many remote steps over a single connection per pair of slave servers instead of a server socket
+ * per remote step. Every remote step is a logical stream, identified by a stream id, on the port that the slave server
+ * with the writing steps listens on. A single thread multiplexes all the connections with a selector.<br>
+ * <br>
+ * The reader opens a stream and gives the writer a window of bytes it is willing to buffer. The writer blocks once it
+ * used up the window and the reader gives credit back as the rows are read. This way a slow step only holds back its
+ * own stream, never the others sharing the connection.<br>
+ * <br>
+ * Frames have a 9 byte header: the frame type, the stream id and the length of the payload.
+ * <ul>
+ * <li>OPEN: reader to writer, the window size and the flags of the reader</li>
+ * <li>DATA: writer to reader, a chunk of the stream</li>
+ * <li>CREDIT: reader to writer, the number of bytes read since the last credit</li>
+ * <li>CLOSE: the end of the stream from the writer, or a reader that stopped reading</li>
+ * </ul>
+ *
+ * @since 17-10-2016
+ *
+ */
+public class MultiplexedTransport implements Runnable {
+
+  /** Set by a reader that understands rows in blocks */
+  public static final int FLAG_ROW_BLOCKS = 1;
+
+  public static final int DEFAULT_WINDOW_SIZE = 256 * 1024;
+
+  static final byte FRAME_OPEN = 1;
+  static final byte FRAME_DATA = 2;
+  static final byte FRAME_CREDIT = 3;
+  static final byte FRAME_CLOSE = 4;
+
+  static final int HEADER_SIZE = 9;
+  static final int MAX_FRAME_SIZE = 64 * 1024;
+
+  private static final int CONNECT_TIMEOUT_MS = 5000;
+
+  private final LogChannelInterface log;
+  private final Selector selector;
+  private final Queue<Runnable> pendingTasks;
+
+  /** The channels listening for readers and the number of writers using them, by port */
+  private final Map<Integer, ServerSocketChannel> serverChannels;
+  private final Map<Integer, Integer> serverChannelUsers;
+
+  /** The writers, by port and stream id */
+  private final Map<String, StreamWriter> writers;
+
+  /** Streams opened by a reader before the writer was there */
+  private final Map<String, Open> pendingOpens;
+
+  /** The connections to the slave servers we read from, by host name and port */
+  private final Map<String, Connection> connections;
+
+  private volatile boolean running;
+  private final Thread thread;
+
+  public MultiplexedTransport( LogChannelInterface log ) throws IOException {
+    this.log = log;
+    this.selector = Selector.open();
+    this.pendingTasks = new ConcurrentLinkedQueue<Runnable>();
+    this.serverChannels = new HashMap<Integer, ServerSocketChannel>();
+    this.serverChannelUsers = new HashMap<Integer, Integer>();
+    this.writers = new HashMap<String, StreamWriter>();
+    this.pendingOpens = new HashMap<String, Open>();
+    this.connections = new HashMap<String, Connection>();
+
+    running = true;
+    thread = new Thread( this, "Multiplexed cluster transport" );
+    thread.setDaemon( true );
+    thread.start();
+  }
+
+  /**
+   * Registers the writing side of a stream, listening on the given port if that isn't done yet.
+   *
+   * @return the stream to write to, the writes block until a reader opened the stream and gave credit
+   */
+  public synchronized StreamWriter openWriter( int port, int streamId ) throws IOException {
+    listen( port );
+
+    String key = getStreamKey( port, streamId );
+    if ( writers.containsKey( key ) ) {
+      throw new IOException( "Stream " + streamId + " on port " + port + " is already in use" );
+    }
+    StreamWriter writer = new StreamWriter( port, streamId );
+    writers.put( key, writer );
+    Open open = pendingOpens.remove( key );
+    if ( open != null ) {
+      open.connection.addWriter( writer );
+      writer.open( open.connection, open.windowSize, open.flags );
+    }
+    return writer;
+  }
+
+  /**
+   * Opens the reading side of a stream, connecting to the slave server if there is no connection to it yet.
+   *
+   * @return the stream to read from
+   */
+  public StreamReader openReader( String hostname, int port, int streamId, int flags, int windowSize )
+    throws IOException {
+    Connection connection;
+    StreamReader reader;
+    synchronized ( this ) {
+      String key = hostname + ":" + port;
+      connection = connections.get( key );
+      if ( connection == null || connection.closing ) {
+        SocketChannel channel = SocketChannel.open();
+        try {
+          channel.socket().setTcpNoDelay( true );
+          channel.socket().connect( new InetSocketAddress( hostname, port ), CONNECT_TIMEOUT_MS );
+          channel.configureBlocking( false );
+        } catch ( IOException e ) {
+          channel.close();
+          throw e;
+        }
+        connection = new Connection( channel, key );
+        connections.put( key, connection );
+        register( connection );
+      }
+      reader = new StreamReader( connection, streamId, windowSize );
+      connection.readers.put( streamId, reader );
+    }
+    ByteBuffer open = ByteBuffer.allocate( 8 ).putInt( windowSize ).putInt( flags );
+    connection.send( FRAME_OPEN, streamId, open.array(), 0, 8 );
+    return reader;
+  }
+
+  /**
+   * Stops the transport and closes all connections.
+   */
+  public void shutdown() {
+    running = false;
+    selector.wakeup();
+    try {
+      thread.join( 5000 );
+    } catch ( InterruptedException e ) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private static String getStreamKey( int port, int streamId ) {
+    return port + "/" + streamId;
+  }
+
+  private void listen( int port ) throws IOException {
+    ServerSocketChannel serverChannel = serverChannels.get( port );
+    if ( serverChannel == null ) {
+      serverChannel = ServerSocketChannel.open();
+      try {
+        serverChannel.socket().setReuseAddress( true );
+        serverChannel.socket().bind( new InetSocketAddress( port ) );
+        serverChannel.configureBlocking( false );
+      } catch ( IOException e ) {
+        serverChannel.close();
+        throw e;
+      }
+      serverChannels.put( port, serverChannel );
+      final ServerSocketChannel channel = serverChannel;
+      runOnSelector( new Runnable() {
+        public void run() {
+          try {
+            channel.register( selector, SelectionKey.OP_ACCEPT );
+          } catch ( IOException e ) {
+            log.logError( "Unable to listen for cluster streams on port " + channel.socket().getLocalPort(), e );
+          }
+        }
+      } );
+      log.logDetailed( "Listening for multiplexed cluster streams on port " + port );
+    }
+    Integer users = serverChannelUsers.get( port );
+    serverChannelUsers.put( port, users == null ? 1 : users + 1 );
+  }
+
+  private synchronized void releaseWriter( StreamWriter writer ) {
+    if ( writers.remove( getStreamKey( writer.port, writer.streamId ) ) != writer ) {
+      return;
+    }
+    int users = serverChannelUsers.get( writer.port ) - 1;
+    if ( users > 0 ) {
+      serverChannelUsers.put( writer.port, users );
+      return;
+    }
+    serverChannelUsers.remove( writer.port );
+    final ServerSocketChannel serverChannel = serverChannels.remove( writer.port );
+    for ( Iterator<String> keys = pendingOpens.keySet().iterator(); keys.hasNext(); ) {
+      if ( keys.next().startsWith( writer.port + "/" ) ) {
+        keys.remove();
+      }
+    }
+    runOnSelector( new Runnable() {
+      public void run() {
+        try {
+          serverChannel.close();
+        } catch ( IOException e ) {
+          log.logError( "Unable to close the listener for cluster streams", e );
+        }
+      }
+    } );
+  }
+
+  private synchronized void releaseReader( StreamReader reader ) {
+    final Connection connection = reader.connection;
+    connection.readers.remove( reader.streamId );
+    if ( connection.readers.isEmpty() && !connection.closing ) {
+      // Close the connection once the frames still queued are sent
+      //
+      connection.closing = true;
+      if ( connections.get( connection.key ) == connection ) {
+        connections.remove( connection.key );
+      }
+      runOnSelector( new Runnable() {
+        public void run() {
+          enableWrites( connection );
+        }
+      } );
+    }
+  }
+
+  private void register( final Connection connection ) {
+    runOnSelector( new Runnable() {
+      public void run() {
+        try {
+          connection.selectionKey = connection.channel.register( selector, SelectionKey.OP_READ, connection );
+          enableWrites( connection );
+        } catch ( IOException e ) {
+          close( connection, e );
+        }
+      }
+    } );
+  }
+
+  private void runOnSelector( Runnable task ) {
+    pendingTasks.add( task );
+    selector.wakeup();
+  }
+
+  public void run() {
+    while ( running ) {
+      try {
+        selector.select();
+
+        Runnable task;
+        while ( ( task = pendingTasks.poll() ) != null ) {
+          task.run();
+        }
+
+        Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+        while ( keys.hasNext() ) {
+          SelectionKey key = keys.next();
+          keys.remove();
+          if ( !key.isValid() ) {
+            continue;
+          }
+          if ( key.isAcceptable() ) {
+            accept( (ServerSocketChannel) key.channel() );
+            continue;
+          }
+          Connection connection = (Connection) key.attachment();
+          try {
+            if ( key.isReadable() ) {
+              readFrames( connection );
+            }
+            if ( key.isValid() && key.isWritable() ) {
+              writeFrames( connection );
+            }
+          } catch ( IOException e ) {
+            close( connection, e );
+          }
+        }
+      } catch ( Exception e ) {
+        log.logError( "Unexpected error in the multiplexed cluster transport", e );
+      }
+    }
+
+    // Shut down: close everything that is left
+    //
+    for ( SelectionKey key : selector.keys() ) {
+      if ( key.attachment() instanceof Connection ) {
+        close( (Connection) key.attachment(), new IOException( "The cluster transport was shut down" ) );
+      } else {
+        try {
+          key.channel().close();
+        } catch ( IOException e ) {
+          // Ignore errors
+        }
+      }
+    }
+    try {
+      selector.close();
+    } catch ( IOException e ) {
+      // Ignore errors
+    }
+  }
+
+  private void accept( ServerSocketChannel serverChannel ) {
+    try {
+      SocketChannel channel = serverChannel.accept();
+      if ( channel == null ) {
+        return;
+      }
+      channel.configureBlocking( false );
+      channel.socket().setTcpNoDelay( true );
+      Connection connection = new Connection( channel, null );
+      connection.selectionKey = channel.register( selector, SelectionKey.OP_READ, connection );
+    } catch ( IOException e ) {
+      log.logError( "Unable to accept a connection for cluster streams", e );
+    }
+  }
+
+  private void readFrames( Connection connection ) throws IOException {
+    while ( true ) {
+      ByteBuffer buffer = connection.payload != null ? connection.payload : connection.header;
+      int read = connection.channel.read( buffer );
+      if ( read < 0 ) {
+        close( connection, connection.readers.isEmpty() && connection.writers.isEmpty() ? null : new EOFException(
+          "Connection closed by " + connection.channel.socket().getRemoteSocketAddress() ) );
+        return;
+      }
+      if ( buffer.hasRemaining() ) {
+        return;
+      }
+      if ( connection.payload == null ) {
+        connection.header.flip();
+        connection.frameType = connection.header.get();
+        connection.frameStreamId = connection.header.getInt();
+        int length = connection.header.getInt();
+        connection.header.clear();
+        if ( length < 0 || length > MAX_FRAME_SIZE ) {
+          throw new IOException( "Invalid frame length " + length + " received" );
+        }
+        connection.payload = ByteBuffer.allocate( length );
+        if ( length > 0 ) {
+          continue;
+        }
+      }
+      byte[] payload = connection.payload.array();
+      connection.payload = null;
+      handleFrame( connection, connection.frameType, connection.frameStreamId, payload );
+    }
+  }
+
+  private void handleFrame( Connection connection, byte type, int streamId, byte[] payload ) throws IOException {
+    switch ( type ) {
+      case FRAME_OPEN:
+        ByteBuffer open = ByteBuffer.wrap( payload );
+        openStream( connection, streamId, open.getInt(), open.getInt() );
+        break;
+      case FRAME_DATA:
+        StreamReader reader = getReader( connection, streamId );
+        if ( reader != null ) {
+          reader.receive( payload );
+        }
+        break;
+      case FRAME_CREDIT:
+        StreamWriter writer = getWriter( connection, streamId );
+        if ( writer != null ) {
+          writer.addCredit( ByteBuffer.wrap( payload ).getInt() );
+        }
+        break;
+      case FRAME_CLOSE:
+        if ( connection.key == null ) {
+          writer = getWriter( connection, streamId );
+          if ( writer != null ) {
+            writer.fail( new IOException( "The reader of stream " + streamId + " stopped reading" ) );
+          }
+        } else {
+          reader = getReader( connection, streamId );
+          if ( reader != null ) {
+            reader.finish();
+          }
+        }
+        break;
+      default:
+        throw new IOException( "Unknown frame type " + type + " received" );
+    }
+  }
+
+  private synchronized void openStream( Connection connection, int streamId, int windowSize, int flags ) {
+    int port = connection.channel.socket().getLocalPort();
+    StreamWriter writer = writers.get( getStreamKey( port, streamId ) );
+    if ( writer == null ) {
+      pendingOpens.put( getStreamKey( port, streamId ), new Open( connection, windowSize, flags ) );
+    } else {
+      connection.addWriter( writer );
+      writer.open( connection, windowSize, flags );
+    }
+  }
+
+  private synchronized StreamReader getReader( Connection connection, int streamId ) {
+    return connection.readers.get( streamId );
+  }
+
+  private synchronized StreamWriter getWriter( Connection connection, int streamId ) {
+    return writers.get( getStreamKey( connection.channel.socket().getLocalPort(), streamId ) );
+  }
+
+  private void writeFrames( Connection connection ) throws IOException {
+    ByteBuffer frame;
+    while ( ( frame = connection.outgoing.peek() ) != null ) {
+      connection.channel.write( frame );
+      if ( frame.hasRemaining() ) {
+        return; // the socket buffer is full, wait until it is writable again
+      }
+      connection.outgoing.poll();
+    }
+    connection.selectionKey.interestOps( SelectionKey.OP_READ );
+    if ( connection.closing ) {
+      close( connection, null );
+    }
+  }
+
+  private void enableWrites( Connection connection ) {
+    if ( connection.selectionKey != null && connection.selectionKey.isValid() ) {
+      connection.selectionKey.interestOps( SelectionKey.OP_READ | SelectionKey.OP_WRITE );
+    }
+  }
+
+  private void close( Connection connection, IOException cause ) {
+    if ( connection.selectionKey != null ) {
+      connection.selectionKey.cancel();
+    }
+    try {
+      connection.channel.close();
+    } catch ( IOException e ) {
+      // Ignore errors
+    }
+
+    List<StreamReader> readers;
+    List<StreamWriter> openWriters;
+    synchronized ( this ) {
+      if ( connection.key != null && connections.get( connection.key ) == connection ) {
+        connections.remove( connection.key );
+      }
+      for ( Iterator<Open> opens = pendingOpens.values().iterator(); opens.hasNext(); ) {
+        if ( opens.next().connection == connection ) {
+          opens.remove();
+        }
+      }
+      readers = new ArrayList<StreamReader>( connection.readers.values() );
+      openWriters = new ArrayList<StreamWriter>( connection.writers );
+    }
+    IOException failure = cause != null ? cause : new EOFException( "Connection closed" );
+    for ( StreamReader reader : readers ) {
+      reader.fail( failure );
+    }
+    for ( StreamWriter writer : openWriters ) {
+      writer.fail( failure );
+    }
+  }
+
+  private static class Open {
+    private final Connection connection;
+    private final int windowSize;
+    private final int flags;
+
+    Open( Connection connection, int windowSize, int flags ) {
+      this.connection = connection;
+      this.windowSize = windowSize;
+      this.flags = flags;
+    }
+  }
+
+  private class Connection {
+    private final SocketChannel channel;
+
+    /** The key in the connection map for connections we opened, null for connections we accepted */
+    private final String key;
+
+    private final Queue<ByteBuffer> outgoing = new ConcurrentLinkedQueue<ByteBuffer>();
+    private final Map<Integer, StreamReader> readers = new HashMap<Integer, StreamReader>();
+    private final List<StreamWriter> writers = new ArrayList<StreamWriter>();
+
+    private final ByteBuffer header = ByteBuffer.allocate( HEADER_SIZE );
+    private ByteBuffer payload;
+    private byte frameType;
+    private int frameStreamId;
+
+    private SelectionKey selectionKey;
+    private volatile boolean closing;
+
+    Connection( SocketChannel channel, String key ) {
+      this.channel = channel;
+      this.key = key;
+    }
+
+    void addWriter( StreamWriter writer ) {
+      writers.add( writer );
+    }
+
+    void send( byte type, int streamId, byte[] data, int offset, int length ) {
+      ByteBuffer frame = ByteBuffer.allocate( HEADER_SIZE + length );
+      frame.put( type ).putInt( streamId ).putInt( length );
+      if ( length > 0 ) {
+        frame.put( data, offset, length );
+      }
+      frame.flip();
+      outgoing.add( frame );
+      runOnSelector( new Runnable() {
+        public void run() {
+          enableWrites( Connection.this );
+        }
+      } );
+    }
+  }
+
+  /**
+   * The writing side of a stream.
+   */
+  public class StreamWriter extends OutputStream {
+    private final int port;
+    private final int streamId;
+
+    private Connection connection;
+    private long credit;
+    private int flags;
+    private boolean closed;
+    private IOException failure;
+
+    StreamWriter( int port, int streamId ) {
+      this.port = port;
+      this.streamId = streamId;
+    }
+
+    synchronized void open( Connection connection, int windowSize, int flags ) {
+      this.connection = connection;
+      this.credit = windowSize;
+      this.flags = flags;
+      notifyAll();
+    }
+
+    synchronized void addCredit( int bytes ) {
+      credit += bytes;
+      notifyAll();
+    }
+
+    synchronized void fail( IOException e ) {
+      if ( !closed ) {
+        failure = e;
+        notifyAll();
+      }
+    }
+
+    /**
+     * Blocks until a reader opened the stream, like accepting a connection on a server socket.
+     *
+     * @return the flags of the reader
+     */
+    public synchronized int awaitReader() throws IOException {
+      try {
+        while ( connection == null && failure == null && !closed ) {
+          wait();
+        }
+      } catch ( InterruptedException e ) {
+        throw new InterruptedIOException( "Interrupted while waiting for the reader of stream " + streamId );
+      }
+      if ( failure != null ) {
+        throw failure;
+      }
+      return flags;
+    }
+
+    @Override
+    public void write( int b ) throws IOException {
+      write( new byte[] { (byte) b }, 0, 1 );
+    }
+
+    @Override
+    public void write( byte[] b, int off, int len ) throws IOException {
+      while ( len > 0 ) {
+        int size;
+        Connection target;
+        synchronized ( this ) {
+          try {
+            while ( failure == null && !closed && ( connection == null || credit <= 0 ) ) {
+              wait();
+            }
+          } catch ( InterruptedException e ) {
+            throw new InterruptedIOException( "Interrupted while writing to stream " + streamId );
+          }
+          if ( failure != null ) {
+            throw failure;
+          }
+          if ( closed ) {
+            throw new IOException( "Stream " + streamId + " is closed" );
+          }
+          size = (int) Math.min( Math.min( len, credit ), MAX_FRAME_SIZE );
+          credit -= size;
+          target = connection;
+        }
+        target.send( FRAME_DATA, streamId, b, off, size );
+        off += size;
+        len -= size;
+      }
+    }
+
+    @Override
+    public void close() throws IOException {
+      Connection target;
+      synchronized ( this ) {
+        if ( closed ) {
+          return;
+        }
+        closed = true;
+        target = failure == null ? connection : null;
+        notifyAll();
+      }
+      if ( target != null ) {
+        target.send( FRAME_CLOSE, streamId, null, 0, 0 );
+      }
+      releaseWriter( this );
+    }
+  }
+
+  /**
+   * The reading side of a stream.
+   */
+  public class StreamReader extends InputStream {
+    private final byte[] end = new byte[0];
+
+    private final Connection connection;
+    private final int streamId;
+    private final int windowSize;
+    private final LinkedBlockingQueue<byte[]> chunks = new LinkedBlockingQueue<byte[]>();
+
+    private byte[] chunk;
+    private int position;
+    private int consumed;
+    private boolean finished;
+    private boolean closed;
+    private volatile IOException failure;
+
+    StreamReader( Connection connection, int streamId, int windowSize ) {
+      this.connection = connection;
+      this.streamId = streamId;
+      this.windowSize = windowSize;
+    }
+
+    void receive( byte[] data ) {
+      chunks.add( data );
+    }
+
+    void finish() {
+      chunks.add( end );
+    }
+
+    void fail( IOException e ) {
+      failure = e;
+      chunks.add( end );
+    }
+
+    @Override
+    public int read() throws IOException {
+      byte[] b = new byte[1];
+      return read( b, 0, 1 ) < 0 ? -1 : b[0] & 0xFF;
+    }
+
+    @Override
+    public int read( byte[] b, int off, int len ) throws IOException {
+      if ( len == 0 ) {
+        return 0;
+      }
+      if ( chunk == null || position == chunk.length ) {
+        if ( finished ) {
+          return -1;
+        }
+        try {
+          chunk = chunks.take();
+        } catch ( InterruptedException e ) {
+          throw new InterruptedIOException( "Interrupted while reading from stream " + streamId );
+        }
+        position = 0;
+        if ( chunk == end ) {
+          finished = true;
+          chunk = null;
+          if ( failure != null ) {
+            throw failure;
+          }
+          return -1;
+        }
+      }
+      int size = Math.min( len, chunk.length - position );
+      System.arraycopy( chunk, position, b, off, size );
+      position += size;
+
+      // Give credit back to the writer once half of the window was read
+      //
+      consumed += size;
+      if ( consumed >= windowSize / 2 ) {
+        byte[] credit = ByteBuffer.allocate( 4 ).putInt( consumed ).array();
+        connection.send( FRAME_CREDIT, streamId, credit, 0, 4 );
+        consumed = 0;
+      }
+      return size;
+    }
+
+    @Override
+    public int available() {
+      return chunk == null ? 0 : chunk.length - position;
+    }
+
+    @Override
+    public void close() {
+      if ( closed ) {
+        return;
+      }
+      closed = true;
+      if ( !finished ) {
+        connection.send( FRAME_CLOSE, streamId, null, 0, 0 );
+      }
+      releaseReader( this );
+    }
+  }
+}
@@ -0,0 +1,211 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2016 by Pentaho : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+package org.pentaho.di.www;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+import org.pentaho.di.core.Const;
+import org.pentaho.di.core.exception.KettleException;
+import org.pentaho.di.trans.Trans;
+import org.pentaho.di.trans.step.StepStatus;
+
+/**
+ * The status of a transformation running on a slave server as seen by a client of the incremental status service
+ * {@link GetTransStatusDeltaServlet}. Every response is applied to the status that was built from the previous ones,
+ * so only the steps that changed and the new log lines travel over the network.
+ *
+ * @since 17-10-2016
+ */
+public class SlaveServerTransStatusDelta {
+
+  private String transName;
+
+  private String id;
+
+  private long version;
+
+  private String statusDescription;
+
+  private boolean paused;
+
+  private boolean finished;
+
+  private long errors;
+
+  private int lastLoggingLineNr;
+
+  private String loggingString;
+
+  private Map<String, StepStatus> stepStatusMap;
+
+  /**
+   * @param transName
+   *          the name of the transformation
+   * @param id
+   *          the Carte object id of the transformation
+   */
+  public SlaveServerTransStatusDelta( String transName, String id ) {
+    this.transName = transName;
+    this.id = id;
+    this.statusDescription = "";
+    this.loggingString = "";
+    this.stepStatusMap = new LinkedHashMap<String, StepStatus>();
+  }
+
+  /**
+   * Applies a response of the incremental status service to this status.
+   *
+   * @param json
+   *          the response
+   * @throws KettleException
+   *           in case the response can't be parsed
+   */
+  public synchronized void update( String json ) throws KettleException {
+    JSONObject delta;
+    try {
+      Object parsed = new JSONParser().parse( json );
+      if ( !( parsed instanceof JSONObject ) ) {
+        throw new KettleException( "Unexpected transformation status: " + json );
+      }
+      delta = (JSONObject) parsed;
+    } catch ( ParseException e ) {
+      throw new KettleException( "Unable to parse the transformation status", e );
+    }
+    if ( delta.containsKey( "result" ) ) {
+      throw new KettleException( Const.NVL( (String) delta.get( "message" ), json ) );
+    }
+
+    if ( Boolean.TRUE.equals( delta.get( "full" ) ) ) {
+      stepStatusMap.clear();
+    }
+    version = toLong( delta.get( "version" ) );
+    if ( delta.containsKey( "status_desc" ) ) {
+      statusDescription = Const.NVL( (String) delta.get( "status_desc" ), "" );
+      paused = Boolean.TRUE.equals( delta.get( "paused" ) );
+    }
+    finished = Boolean.TRUE.equals( delta.get( "finished" ) );
+    errors = toLong( delta.get( "errors" ) );
+    lastLoggingLineNr = (int) toLong( delta.get( "last_log_line_nr" ) );
+    loggingString = Const.NVL( (String) delta.get( "log" ), "" );
+
+    JSONArray steps = (JSONArray) delta.get( "steps" );
+    if ( steps != null ) {
+      for ( Object step : steps ) {
+        StepStatus stepStatus = getStepStatus( (JSONObject) step );
+        stepStatusMap.put( stepStatus.getStepname() + "." + stepStatus.getCopy(), stepStatus );
+      }
+    }
+  }
+
+  private static StepStatus getStepStatus( JSONObject step ) {
+    StepStatus stepStatus = new StepStatus();
+    stepStatus.setStepname( (String) step.get( "stepname" ) );
+    stepStatus.setCopy( (int) toLong( step.get( "copy" ) ) );
+    stepStatus.setLinesRead( toLong( step.get( "linesRead" ) ) );
+    stepStatus.setLinesWritten( toLong( step.get( "linesWritten" ) ) );
+    stepStatus.setLinesInput( toLong( step.get( "linesInput" ) ) );
+    stepStatus.setLinesOutput( toLong( step.get( "linesOutput" ) ) );
+    stepStatus.setLinesUpdated( toLong( step.get( "linesUpdated" ) ) );
+    stepStatus.setLinesRejected( toLong( step.get( "linesRejected" ) ) );
+    stepStatus.setErrors( toLong( step.get( "errors" ) ) );
+    stepStatus.setStatusDescription( (String) step.get( "statusDescription" ) );
+    Object seconds = step.get( "seconds" );
+    stepStatus.setSeconds( seconds instanceof Number ? ( (Number) seconds ).doubleValue() : 0.0 );
+    stepStatus.setSpeed( (String) step.get( "speed" ) );
+    stepStatus.setPriority( (String) step.get( "priority" ) );
+    stepStatus.setStopped( Boolean.TRUE.equals( step.get( "stopped" ) ) );
+    stepStatus.setPaused( Boolean.TRUE.equals( step.get( "paused" ) ) );
+    return stepStatus;
+  }
+
+  private static long toLong( Object value ) {
+    return value instanceof Number ? ( (Number) value ).longValue() : 0L;
+  }
+
+  public String getTransName() {
+    return transName;
+  }
+
+  public String getId() {
+    return id;
+  }
+
+  /**
+   * @return the version to pass with the next request, 0 before the first response
+   */
+  public synchronized long getVersion() {
+    return version;
+  }
+
+  /**
+   * @return the log line number to pass with the next request, 0 before the first response
+   */
+  public synchronized int getLastLoggingLineNr() {
+    return lastLoggingLineNr;
+  }
+
+  /**
+   * @return the log lines that were added according to the last response
+   */
+  public synchronized String getLoggingString() {
+    return loggingString;
+  }
+
+  public synchronized String getStatusDescription() {
+    return statusDescription;
+  }
+
+  public synchronized boolean isPaused() {
+    return paused;
+  }
+
+  public synchronized boolean isFinished() {
+    return finished;
+  }
+
+  public synchronized boolean isRunning() {
+    return statusDescription.equalsIgnoreCase( Trans.STRING_RUNNING )
+      || statusDescription.equalsIgnoreCase( Trans.STRING_INITIALIZING );
+  }
+
+  /**
+   * @return the number of errors of the transformation and its steps
+   */
+  public synchronized long getErrors() {
+    return errors;
+  }
+
+  /**
+   * @return the status of all the steps reported so far, in the order they were first reported
+   */
+  public synchronized List<StepStatus> getStepStatusList() {
+    return new ArrayList<StepStatus>( stepStatusMap.values() );
+  }
+}
@@ -47,6 +47,11 @@ public class SocketRepository {
 
   private LogChannelInterface log;
 
+  /**
+   * Carries the streams of remote steps that don't use a server socket of their own
+   */
+  private MultiplexedTransport multiplexedTransport;
+
   public SocketRepository( LogChannelInterface log ) {
     this.log = log;
     socketMap = new HashMap<Integer, SocketRepositoryEntry>();
@@ -141,6 +146,19 @@ public class SocketRepository {
     entry.setInUse( false );
   }
 
+  /**
+   * @return the transport carrying the streams of the remote steps that share a connection per pair of slave servers,
+   *         started the first time it is needed.
+   * @throws IOException
+   *           in case the transport can't be started
+   */
+  public synchronized MultiplexedTransport getMultiplexedTransport() throws IOException {
+    if ( multiplexedTransport == null ) {
+      multiplexedTransport = new MultiplexedTransport( log );
+    }
+    return multiplexedTransport;
+  }
+
   /**
    * @return the socketMap
    */
@@ -177,6 +195,10 @@ public class SocketRepository {
         log.logError( "Carte socket repository : Failed to close socket during shutdown", e );
       }
     }
+    if ( multiplexedTransport != null ) {
+      multiplexedTransport.shutdown();
+      multiplexedTransport = null;
+    }
   }
 
   protected void finalize() throws Throwable {
@@ -0,0 +1,173 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2016 by Pentaho : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+
+package org.pentaho.di.www;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.pentaho.di.core.Const;
+import org.pentaho.di.trans.Trans;
+import org.pentaho.di.trans.step.BaseStepData.StepExecutionStatus;
+import org.pentaho.di.trans.step.StepInterface;
+
+/**
+ * Keeps a versioned snapshot of the step counters of a single transformation so that status requests can be answered
+ * with only the steps that changed since the version a client has last seen. Every observed change bumps the version
+ * by one; a client that passes a version of 0 (or a version this tracker never handed out) gets the full status.
+ *
+ * @since 17-10-2016
+ */
+public class TransStatusTracker {
+
+  private static final int NR_COUNTERS = 9;
+
+  private long version;
+  private long transVersion;
+  private String transStatus;
+  private boolean transPaused;
+
+  private long[][] stepCounters;
+  private long[] stepVersions;
+
+  public TransStatusTracker() {
+    version = 0L;
+  }
+
+  /**
+   * Compares the current counters of the transformation with the last snapshot and bumps the version of every step
+   * (and of the transformation itself) that changed.
+   *
+   * @param trans
+   *          the transformation to look at
+   * @return the current version
+   */
+  public synchronized long update( Trans trans ) {
+    int nrSteps = trans.nrSteps();
+    if ( stepCounters == null || stepCounters.length != nrSteps ) {
+      // The transformation was (re-)prepared: start over with a new snapshot, everything is considered changed
+      //
+      stepCounters = new long[nrSteps][];
+      stepVersions = new long[nrSteps];
+    }
+
+    long next = version + 1;
+    boolean changed = false;
+
+    String status = trans.getStatus();
+    boolean paused = trans.isPaused();
+    if ( transVersion == 0L || paused != transPaused || !Const.NVL( status, "" ).equals( transStatus ) ) {
+      transStatus = Const.NVL( status, "" );
+      transPaused = paused;
+      transVersion = next;
+      changed = true;
+    }
+
+    for ( int i = 0; i < nrSteps; i++ ) {
+      StepInterface step = trans.getRunThread( i );
+      if ( step == null ) {
+        continue;
+      }
+      long[] counters = getCounters( step );
+      if ( stepCounters[i] == null || !Arrays.equals( counters, stepCounters[i] ) ) {
+        stepCounters[i] = counters;
+        stepVersions[i] = next;
+        changed = true;
+      }
+    }
+
+    if ( changed ) {
+      version = next;
+    }
+    return version;
+  }
+
+  /**
+   * @param clientVersion
+   *          the version the client has last seen
+   * @return true if the transformation status itself (status description, paused flag) changed after that version
+   */
+  public synchronized boolean isTransChangedSince( long clientVersion ) {
+    return isFullRefresh( clientVersion ) || transVersion > clientVersion;
+  }
+
+  /**
+   * @param trans
+   *          the transformation that was passed to the last {@link #update(Trans)} call
+   * @param clientVersion
+   *          the version the client has last seen
+   * @return the steps that changed after that version, in step order
+   */
+  public synchronized List<StepInterface> getStepsChangedSince( Trans trans, long clientVersion ) {
+    List<StepInterface> steps = new ArrayList<StepInterface>();
+    if ( stepVersions == null ) {
+      return steps;
+    }
+    boolean full = isFullRefresh( clientVersion );
+    for ( int i = 0; i < stepVersions.length && i < trans.nrSteps(); i++ ) {
+      StepInterface step = trans.getRunThread( i );
+      if ( step == null ) {
+        continue;
+      }
+      if ( full ) {
+        // A full refresh only lists the steps that did something, the same ones as the XML status does
+        //
+        if ( step.isRunning() || step.getStatus() != StepExecutionStatus.STATUS_EMPTY ) {
+          steps.add( step );
+        }
+      } else if ( stepVersions[i] > clientVersion ) {
+        steps.add( step );
+      }
+    }
+    return steps;
+  }
+
+  /**
+   * @param clientVersion
+   *          the version the client has last seen
+   * @return true if the client needs the complete status because it never saw a version of this tracker
+   */
+  public synchronized boolean isFullRefresh( long clientVersion ) {
+    return clientVersion <= 0L || clientVersion > version;
+  }
+
+  public synchronized long getVersion() {
+    return version;
+  }
+
+  private static long[] getCounters( StepInterface step ) {
+    long[] counters = new long[NR_COUNTERS];
+    counters[0] = step.getLinesRead();
+    counters[1] = step.getLinesWritten();
+    counters[2] = step.getLinesInput();
+    counters[3] = step.getLinesOutput();
+    counters[4] = step.getLinesUpdated();
+    counters[5] = step.getLinesRejected();
+    counters[6] = step.getErrors();
+    StepExecutionStatus status = step.getStatus();
+    counters[7] = status == null ? -1 : status.ordinal();
+    counters[8] = ( step.isStopped() ? 1 : 0 ) | ( step.isPaused() ? 2 : 0 );
+    return counters;
+  }
+}
@@ -24,12 +24,15 @@ package org.pentaho.di.cluster;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyBoolean;
 import static org.mockito.Matchers.anyMapOf;
 import static org.mockito.Matchers.anyString;
 import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.spy;
 
@@ -55,6 +58,7 @@ import org.pentaho.di.core.encryption.TwoWayPasswordEncoderPluginType;
 import org.pentaho.di.core.exception.KettleException;
 import org.pentaho.di.core.plugins.PluginRegistry;
 import org.pentaho.di.core.util.EnvUtil;
+import org.pentaho.di.www.SlaveServerTransStatusDelta;
 
 /**
  * Tests for SlaveServer class
@@ -110,6 +114,25 @@ public class SlaveServerTest {
     fail( "Incorrect connection details had been used, but no exception was thrown" );
   }
 
+  @Test
+  public void testTransStatusDeltaOfOlderSlaveServer() throws Exception {
+    SlaveServerTransStatusDelta status = new SlaveServerTransStatusDelta( "trans", "id" );
+
+    doThrow( new KettleException( "HTTP Status 404 - /kettle/transStatusDelta/ - Not Found" ) ).when( slaveServer )
+        .execService( anyString(), anyBoolean() );
+    assertNull( slaveServer.getTransStatusDelta( status, 0L ) );
+
+    doReturn( "<html><body>Not found</body></html>" ).when( slaveServer ).execService( anyString(), anyBoolean() );
+    assertNull( slaveServer.getTransStatusDelta( status, 0L ) );
+  }
+
+  @Test( expected = KettleException.class )
+  public void testTransStatusDeltaError() throws Exception {
+    doThrow( new KettleException( "HTTP Status 500 - /kettle/transStatusDelta/ - Server Error" ) ).when( slaveServer )
+        .execService( anyString(), anyBoolean() );
+    slaveServer.getTransStatusDelta( new SlaveServerTransStatusDelta( "trans", "id" ), 0L );
+  }
+
   @Test
   public void testAddCredentials() {
     slaveServer.setUsername( "test_username" );
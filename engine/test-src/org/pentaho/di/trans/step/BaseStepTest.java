@@ -41,10 +41,12 @@ import org.mockito.invocation.InvocationOnMock;
 import org.mockito.stubbing.Answer;
 import org.pentaho.di.core.BlockingRowSet;
 import org.pentaho.di.core.ResultFile;
+import org.pentaho.di.core.RowBatch;
 import org.pentaho.di.core.RowMetaAndData;
 import org.pentaho.di.core.RowSet;
 import org.pentaho.di.core.SingleRowRowSet;
 import org.pentaho.di.core.exception.KettleException;
+import org.pentaho.di.core.exception.KettleStepException;
 import org.pentaho.di.core.exception.KettleValueException;
 import org.pentaho.di.core.fileinput.NonAccessibleFileObject;
 import org.pentaho.di.core.logging.LogChannelInterface;
@@ -312,4 +314,139 @@ public class BaseStepTest {
     assertEquals( ValueMetaInterface.TYPE_DATE, result.getValueMeta( 8 ).getType() );
     assertEquals( endDate, result.getDate( 8, Calendar.getInstance().getTime() ) );
   }
+
+  @Test
+  public void testPutRowsAndGetRows() throws KettleException {
+    when( mockHelper.logChannelInterfaceFactory.create( any(), any( LoggingObjectInterface.class ) ) ).thenReturn(
+        mockHelper.logChannelInterface );
+    when( mockHelper.trans.isRunning() ).thenReturn( true );
+
+    RowMetaInterface rowMeta = new RowMeta();
+    rowMeta.addValueMeta( new ValueMetaInteger( "id" ) );
+    RowSet rowSet = new BlockingRowSet( 10 );
+
+    BaseStep writer =
+        new BaseStep( mockHelper.stepMeta, mockHelper.stepDataInterface, 0, mockHelper.transMeta, mockHelper.trans );
+    writer.setOutputRowSets( new ArrayList<RowSet>( Arrays.asList( rowSet ) ) );
+
+    RowBatch batch = new RowBatch( 5 );
+    for ( long i = 0; i < 5; i++ ) {
+      batch.add( new Object[] { i } );
+    }
+    writer.putRows( rowMeta, batch );
+    assertEquals( 5, writer.getLinesWritten() );
+    assertEquals( 5, rowSet.size() );
+    rowSet.setDone();
+
+    BaseStep reader =
+        new BaseStep( mockHelper.stepMeta, mockHelper.stepDataInterface, 0, mockHelper.transMeta, mockHelper.trans );
+    reader.setInputRowSets( new ArrayList<RowSet>( Arrays.asList( rowSet ) ) );
+
+    RowBatch input = new RowBatch( 3 );
+    assertSame( input, reader.getRows( input ) );
+    assertEquals( 3, input.size() );
+    assertEquals( 0L, input.get( 0 )[0] );
+    assertEquals( 2L, input.get( 2 )[0] );
+    assertNotNull( input.getRowMeta() );
+
+    assertSame( input, reader.getRows( input ) );
+    assertEquals( 2, input.size() );
+    assertEquals( 4L, input.get( 1 )[0] );
+
+    assertNull( reader.getRows( input ) );
+    assertEquals( 5, reader.getLinesRead() );
+  }
+
+  @Test
+  public void testPutRowsCallsRowListeners() throws KettleException {
+    when( mockHelper.logChannelInterfaceFactory.create( any(), any( LoggingObjectInterface.class ) ) ).thenReturn(
+        mockHelper.logChannelInterface );
+    when( mockHelper.trans.isRunning() ).thenReturn( true );
+
+    BaseStep step =
+        new BaseStep( mockHelper.stepMeta, mockHelper.stepDataInterface, 0, mockHelper.transMeta, mockHelper.trans );
+    RowListener rowListener = mock( RowListener.class );
+    step.addRowListener( rowListener );
+    step.setOutputRowSets( new ArrayList<RowSet>( Arrays.asList( (RowSet) new BlockingRowSet( 10 ) ) ) );
+
+    RowMetaInterface rowMeta = new RowMeta();
+    RowBatch batch = new RowBatch( 2 );
+    batch.add( new Object[] {} );
+    batch.add( new Object[] {} );
+    step.putRows( rowMeta, batch );
+
+    verify( rowListener, times( 2 ) ).rowWrittenEvent( any( RowMetaInterface.class ), any( Object[].class ) );
+    assertEquals( 2, step.getLinesWritten() );
+  }
+
+  @Test
+  public void testRowListenerCanBeRemovedWhileDispatching() throws KettleException {
+    when( mockHelper.logChannelInterfaceFactory.create( any(), any( LoggingObjectInterface.class ) ) ).thenReturn(
+        mockHelper.logChannelInterface );
+    when( mockHelper.trans.isRunning() ).thenReturn( true );
+
+    final BaseStep step =
+        new BaseStep( mockHelper.stepMeta, mockHelper.stepDataInterface, 0, mockHelper.transMeta, mockHelper.trans );
+    final RowListener second = mock( RowListener.class );
+    RowListener first = new RowAdapter() {
+      @Override
+      public void rowWrittenEvent( RowMetaInterface rowMeta, Object[] row ) throws KettleStepException {
+        // The sniffer removes itself from the step once it has seen enough rows
+        step.removeRowListener( this );
+      }
+    };
+    step.addRowListener( first );
+    step.addRowListener( second );
+    assertEquals( 2, step.getRowListeners().size() );
+
+    step.putRow( new RowMeta(), new Object[] {} );
+    step.putRow( new RowMeta(), new Object[] {} );
+
+    assertEquals( 1, step.getRowListeners().size() );
+    verify( second, times( 2 ) ).rowWrittenEvent( any( RowMetaInterface.class ), any( Object[].class ) );
+
+    step.removeRowListener( second );
+    assertTrue( step.getRowListeners().isEmpty() );
+    step.putRow( new RowMeta(), new Object[] {} );
+    assertEquals( 3, step.getLinesWritten() );
+  }
+
+  @Test
+  public void testGetRowWakesUpWhenAnyInputRowSetReceivesARow() throws Exception {
+    when( mockHelper.logChannelInterfaceFactory.create( any(), any( LoggingObjectInterface.class ) ) ).thenReturn(
+        mockHelper.logChannelInterface );
+    when( mockHelper.trans.isRunning() ).thenReturn( true );
+
+    final RowMetaInterface rowMeta = new RowMeta();
+    rowMeta.addValueMeta( new ValueMetaInteger( "id" ) );
+    final RowSet first = new BlockingRowSet( 10 );
+    final RowSet second = new BlockingRowSet( 10 );
+
+    BaseStep reader =
+        new BaseStep( mockHelper.stepMeta, mockHelper.stepDataInterface, 0, mockHelper.transMeta, mockHelper.trans );
+    reader.setInputRowSets( new ArrayList<RowSet>( Arrays.asList( first, second ) ) );
+
+    Thread writer = new Thread() {
+      @Override
+      public void run() {
+        try {
+          Thread.sleep( 100 );
+        } catch ( InterruptedException e ) {
+          // Ignore
+        }
+        second.putRow( rowMeta, new Object[] { 1L } );
+        first.setDone();
+        second.setDone();
+      }
+    };
+    writer.start();
+
+    Object[] row = reader.getRow();
+    assertNotNull( row );
+    assertEquals( 1L, row[0] );
+    assertNull( reader.getRow() );
+    assertEquals( 1, reader.getLinesRead() );
+    assertTrue( reader.getInputRowSets().isEmpty() );
+    writer.join();
+  }
 }
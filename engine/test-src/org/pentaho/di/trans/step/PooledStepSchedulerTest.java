@@ -0,0 +1,233 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2016 by Pentaho : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+
+package org.pentaho.di.trans.step;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.pentaho.di.core.BlockingRowSet;
+import org.pentaho.di.core.RowSet;
+import org.pentaho.di.core.logging.KettleLogStore;
+import org.pentaho.di.core.logging.LogChannelInterface;
+import org.pentaho.di.core.row.RowMeta;
+import org.pentaho.di.trans.Trans;
+import org.pentaho.di.trans.TransMeta;
+
+public class PooledStepSchedulerTest {
+
+  private PooledStepScheduler scheduler;
+  private Trans trans;
+
+  @BeforeClass
+  public static void initLogStore() {
+    KettleLogStore.init();
+  }
+
+  @Before
+  public void setUp() {
+    scheduler = new PooledStepScheduler( 1 );
+    trans = mock( Trans.class );
+    TransMeta transMeta = mock( TransMeta.class );
+    when( transMeta.getSizeRowset() ).thenReturn( 2 );
+    when( trans.getTransMeta() ).thenReturn( transMeta );
+  }
+
+  @After
+  public void tearDown() {
+    scheduler.shutdown();
+  }
+
+  @Test
+  public void testStepSchedulerType() {
+    assertEquals( StepSchedulerType.THREAD, StepSchedulerType.getStepSchedulerType( null ) );
+    assertEquals( StepSchedulerType.THREAD, StepSchedulerType.getStepSchedulerType( "unknown" ) );
+    assertEquals( StepSchedulerType.POOL, StepSchedulerType.getStepSchedulerType( "Pool" ) );
+    assertEquals( StepSchedulerType.VIRTUAL, StepSchedulerType.getStepSchedulerType( "virtual" ) );
+    assertTrue( StepSchedulerType.THREAD.getStepScheduler() instanceof ThreadStepScheduler );
+    assertTrue( StepSchedulerType.VIRTUAL.getStepScheduler() instanceof VirtualThreadStepScheduler );
+  }
+
+  @Test
+  public void testIsReady() {
+    RowSet input = new BlockingRowSet( 2 );
+    RowSet output = new BlockingRowSet( 2 );
+    StepInterface step = mock( StepInterface.class );
+    when( step.getInputRowSets() ).thenReturn( new ArrayList<RowSet>( Arrays.asList( input ) ) );
+    when( step.getOutputRowSets() ).thenReturn( new ArrayList<RowSet>( Arrays.asList( output ) ) );
+
+    // Nothing to read yet
+    assertFalse( PooledStepScheduler.isReady( step, 2 ) );
+
+    input.putRow( new RowMeta(), new Object[] {} );
+    assertTrue( PooledStepScheduler.isReady( step, 2 ) );
+
+    // No room left to write
+    output.putRow( new RowMeta(), new Object[] {} );
+    output.putRow( new RowMeta(), new Object[] {} );
+    assertFalse( PooledStepScheduler.isReady( step, 2 ) );
+
+    output.getRow();
+    input.getRow();
+    input.setDone();
+    assertTrue( PooledStepScheduler.isReady( step, 2 ) );
+  }
+
+  @Test
+  public void testStepRunsOverSeveralTurns() throws Exception {
+    final AtomicInteger calls = new AtomicInteger( 0 );
+    CountDownLatch stopped = new CountDownLatch( 1 );
+    StepInterface step = mockStep( stopped, new Answer<Boolean>() {
+      @Override
+      public Boolean answer( InvocationOnMock invocation ) throws Throwable {
+        return calls.incrementAndGet() < 2500;
+      }
+    } );
+
+    scheduler.startStep( trans, combi( step ) );
+
+    assertTrue( stopped.await( 10, TimeUnit.SECONDS ) );
+    assertEquals( 2500, calls.get() );
+  }
+
+  @Test
+  public void testPoolGrowsWhenAllThreadsAreBlocked() throws Exception {
+    final CountDownLatch secondStepRan = new CountDownLatch( 1 );
+    CountDownLatch stopped = new CountDownLatch( 2 );
+
+    // The first step waits inside processRow() for the second one, like a step reading an info stream
+    StepInterface waiting = mockStep( stopped, new Answer<Boolean>() {
+      @Override
+      public Boolean answer( InvocationOnMock invocation ) throws Throwable {
+        secondStepRan.await( 10, TimeUnit.SECONDS );
+        return false;
+      }
+    } );
+    StepInterface producing = mockStep( stopped, new Answer<Boolean>() {
+      @Override
+      public Boolean answer( InvocationOnMock invocation ) throws Throwable {
+        secondStepRan.countDown();
+        return false;
+      }
+    } );
+
+    scheduler.startStep( trans, combi( waiting ) );
+    scheduler.startStep( trans, combi( producing ) );
+
+    assertTrue( stopped.await( 5, TimeUnit.SECONDS ) );
+    assertEquals( 0, secondStepRan.getCount() );
+  }
+
+  @Test
+  public void testPoolStopsGrowingAtMaximumSize() throws Exception {
+    scheduler.shutdown();
+    scheduler = new PooledStepScheduler( 1, 2 );
+
+    final CountDownLatch release = new CountDownLatch( 1 );
+    CountDownLatch stopped = new CountDownLatch( 3 );
+    Answer<Boolean> blocked = new Answer<Boolean>() {
+      @Override
+      public Boolean answer( InvocationOnMock invocation ) throws Throwable {
+        release.await( 10, TimeUnit.SECONDS );
+        return false;
+      }
+    };
+    for ( int i = 0; i < 3; i++ ) {
+      scheduler.startStep( trans, combi( mockStep( stopped, blocked ) ) );
+    }
+
+    for ( int i = 0; i < 10; i++ ) {
+      scheduler.checkProgress();
+      Thread.sleep( 20 );
+    }
+    assertEquals( 2, scheduler.getPoolSize() );
+
+    release.countDown();
+    assertTrue( stopped.await( 5, TimeUnit.SECONDS ) );
+  }
+
+  @Test
+  public void testThreadBoundStepGetsItsOwnThread() throws Exception {
+    final AtomicReference<String> threadName = new AtomicReference<String>();
+    CountDownLatch stopped = new CountDownLatch( 1 );
+    StepInterface step = mockStep( stopped, new Answer<Boolean>() {
+      @Override
+      public Boolean answer( InvocationOnMock invocation ) throws Throwable {
+        threadName.set( Thread.currentThread().getName() );
+        return false;
+      }
+    }, ThreadBoundStep.class );
+
+    scheduler.startStep( trans, combi( step ) );
+
+    assertTrue( stopped.await( 5, TimeUnit.SECONDS ) );
+    assertFalse( threadName.get().startsWith( "Step scheduler pool thread" ) );
+  }
+
+  private StepInterface mockStep( final CountDownLatch stopped, Answer<Boolean> processRow,
+    Class<?>... extraInterfaces ) throws Exception {
+    StepInterface step = extraInterfaces.length == 0 ? mock( StepInterface.class )
+      : mock( StepInterface.class, withSettings().extraInterfaces( extraInterfaces ) );
+    when( step.getLogChannel() ).thenReturn( mock( LogChannelInterface.class ) );
+    when( step.getInputRowSets() ).thenReturn( Collections.<RowSet>emptyList() );
+    when( step.getOutputRowSets() ).thenReturn( Collections.<RowSet>emptyList() );
+    when( step.processRow( any( StepMetaInterface.class ), any( StepDataInterface.class ) ) ).thenAnswer( processRow );
+    doAnswer( new Answer<Void>() {
+      @Override
+      public Void answer( InvocationOnMock invocation ) throws Throwable {
+        stopped.countDown();
+        return null;
+      }
+    } ).when( step ).markStop();
+    return step;
+  }
+
+  private StepMetaDataCombi combi( StepInterface step ) {
+    StepMetaDataCombi combi = new StepMetaDataCombi();
+    combi.step = step;
+    combi.meta = mock( StepMetaInterface.class );
+    combi.data = mock( StepDataInterface.class );
+    combi.stepname = "step";
+    return combi;
+  }
+}
@@ -154,6 +154,49 @@ public class CalculatorUnitTest {
     verify( data ).clearValuesMetaMapping();
   }
 
+  @Test
+  public void testTemporaryFieldsAreRemoved() throws KettleException {
+    RowMeta inputRowMeta = new RowMeta();
+    inputRowMeta.addValueMeta( new ValueMetaInteger( "A" ) );
+    inputRowMeta.addValueMeta( new ValueMetaInteger( "B" ) );
+
+    RowSet inputRowSet = smh.getMockInputRowSet( new Object[][] { { 3L, 4L }, { 5L, null }, { 6L, 1L } } );
+    inputRowSet.setRowMeta( inputRowMeta );
+
+    Calculator calculator = new Calculator( smh.stepMeta, smh.stepDataInterface, 0, smh.transMeta, smh.trans );
+    calculator.getInputRowSets().add( inputRowSet );
+    calculator.setInputRowMeta( inputRowMeta );
+    calculator.init( smh.initStepMetaInterface, smh.initStepDataInterface );
+
+    CalculatorMeta meta = new CalculatorMeta();
+    meta.setCalculation( new CalculatorMetaFunction[] {
+      new CalculatorMetaFunction( "sum", CalculatorMetaFunction.CALC_ADD, "A", "B", null,
+        ValueMetaInterface.TYPE_INTEGER, 0, 0, true, "", "", "", "" ),
+      new CalculatorMetaFunction( "two", CalculatorMetaFunction.CALC_CONSTANT, "2", null, null,
+        ValueMetaInterface.TYPE_INTEGER, 0, 0, true, "", "", "", "" ),
+      new CalculatorMetaFunction( "twice", CalculatorMetaFunction.CALC_MULTIPLY, "sum", "two", null,
+        ValueMetaInterface.TYPE_STRING, 0, 0, false, "", "", "", "" ) } );
+
+    final List<Object[]> rows = new ArrayList<Object[]>();
+    calculator.addRowListener( new RowAdapter() {
+      @Override public void rowWrittenEvent( RowMetaInterface rowMeta, Object[] row ) throws KettleStepException {
+        Assert.assertEquals( 3, rowMeta.size() );
+        rows.add( row );
+      }
+    } );
+    CalculatorData data = new CalculatorData();
+    while ( calculator.processRow( meta, data ) ) {
+      // keep going
+    }
+
+    Assert.assertEquals( 3, rows.size() );
+    Assert.assertEquals( "14", rows.get( 0 )[ 2 ] );
+    Assert.assertNull( rows.get( 1 )[ 2 ] );
+    Assert.assertEquals( "14", rows.get( 2 )[ 2 ] );
+    Assert.assertEquals( 3L, rows.get( 0 )[ 0 ] );
+    Assert.assertEquals( 6L, rows.get( 2 )[ 0 ] );
+  }
+
   @Test
   public void testRound1() throws KettleException {
     assertRound1( 1.0, 1.2 );
@@ -0,0 +1,147 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2016 by Pentaho : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+
+package org.pentaho.di.trans.steps.databaselookup;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.pentaho.di.core.row.RowMeta;
+import org.pentaho.di.core.row.RowMetaInterface;
+import org.pentaho.di.core.row.value.ValueMetaInteger;
+
+public class DefaultCacheTest {
+
+  private DatabaseLookupData data;
+  private DatabaseLookupMeta meta;
+  private RowMetaInterface keyMeta;
+
+  @Before
+  public void setUp() {
+    data = new DatabaseLookupData();
+    data.allEquals = true;
+    meta = new DatabaseLookupMeta();
+    keyMeta = new RowMeta();
+    keyMeta.addValueMeta( new ValueMetaInteger( "id" ) );
+  }
+
+  private void store( DefaultCache cache, long id ) {
+    cache.storeRowInCache( meta, keyMeta, new Object[] { id }, new Object[] { "value" + id } );
+  }
+
+  private Object[] get( DefaultCache cache, long id ) throws Exception {
+    return cache.getRowFromCache( keyMeta, new Object[] { id } );
+  }
+
+  @Test
+  public void testUnboundedCacheKeepsAllRows() throws Exception {
+    DefaultCache cache = DefaultCache.newCache( data, 0 );
+    for ( long i = 0; i < 1000; i++ ) {
+      store( cache, i );
+    }
+    assertEquals( 1000, cache.getSize() );
+    for ( long i = 0; i < 1000; i++ ) {
+      assertArrayEquals( new Object[] { "value" + i }, get( cache, i ) );
+    }
+    assertNull( get( cache, 1000L ) );
+    assertEquals( 0L, cache.getEvictionCount() );
+  }
+
+  @Test
+  public void testReplaceRow() throws Exception {
+    DefaultCache cache = DefaultCache.newCache( data, 0 );
+    store( cache, 1L );
+    cache.storeRowInCache( meta, keyMeta, new Object[] { 1L }, new Object[] { "other" } );
+    assertEquals( 1, cache.getSize() );
+    assertArrayEquals( new Object[] { "other" }, get( cache, 1L ) );
+  }
+
+  @Test
+  public void testLeastRecentlyUsedRowsAreEvicted() throws Exception {
+    DefaultCache cache = DefaultCache.newCache( data, 10, 10, 0L );
+    for ( long i = 0; i < 10; i++ ) {
+      store( cache, i );
+    }
+    // Row 0 is used again, row 1 is now the oldest
+    assertNotNull( get( cache, 0L ) );
+    store( cache, 10L );
+
+    assertEquals( 10, cache.getSize() );
+    assertEquals( 1L, cache.getEvictionCount() );
+    assertNotNull( get( cache, 0L ) );
+    assertNull( get( cache, 1L ) );
+    assertNotNull( get( cache, 10L ) );
+  }
+
+  @Test
+  public void testFrequentlyUsedRowsSurviveScans() throws Exception {
+    DefaultCache cache = DefaultCache.newCache( data, 10, 10, 0L );
+    for ( long i = 0; i < 5; i++ ) {
+      store( cache, i );
+      get( cache, i );
+    }
+    // A lot of keys that are only looked up once
+    for ( long i = 100; i < 200; i++ ) {
+      store( cache, i );
+    }
+
+    assertEquals( 10, cache.getSize() );
+    for ( long i = 0; i < 5; i++ ) {
+      assertNotNull( get( cache, i ) );
+    }
+    assertNull( get( cache, 100L ) );
+    assertNotNull( get( cache, 199L ) );
+  }
+
+  @Test
+  public void testRowsExpire() throws Exception {
+    DefaultCache cache = DefaultCache.newCache( data, 10, 0, 50L );
+    store( cache, 1L );
+    assertNotNull( get( cache, 1L ) );
+
+    Thread.sleep( 100L );
+    assertNull( get( cache, 1L ) );
+    assertEquals( 0, cache.getSize() );
+    assertEquals( 1L, cache.getExpirationCount() );
+  }
+
+  @Test
+  public void testConditionsUseStoreOrder() throws Exception {
+    data.allEquals = false;
+    data.conditions = new int[] { DatabaseLookupMeta.CONDITION_GE };
+    DefaultCache cache = DefaultCache.newCache( data, 10, 10, 0L );
+    store( cache, 3L );
+    store( cache, 5L );
+    store( cache, 4L );
+    get( cache, 4L );
+
+    // The first stored row which key is greater than or equal to 4 is 5, whatever the recency
+    assertArrayEquals( new Object[] { "value5" }, get( cache, 4L ) );
+    assertArrayEquals( new Object[] { "value3" }, get( cache, 2L ) );
+    assertNull( get( cache, 6L ) );
+  }
+}
@@ -0,0 +1,137 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2016 by Pentaho : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+
+package org.pentaho.di.trans.steps.formula;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.math.BigDecimal;
+
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.pentaho.di.core.KettleEnvironment;
+import org.pentaho.di.core.exception.KettleException;
+import org.pentaho.di.core.row.RowMeta;
+import org.pentaho.di.core.row.RowMetaInterface;
+import org.pentaho.di.core.row.value.ValueMetaInteger;
+import org.pentaho.di.core.row.value.ValueMetaNumber;
+import org.pentaho.di.core.row.value.ValueMetaString;
+import org.pentaho.reporting.libraries.formula.Formula;
+
+public class CompiledFormulaTest {
+  private RowMetaInterface rowMeta;
+  private Object[] row;
+
+  @BeforeClass
+  public static void init() throws KettleException {
+    KettleEnvironment.init( false );
+  }
+
+  @Before
+  public void setUp() {
+    rowMeta = new RowMeta();
+    rowMeta.addValueMeta( new ValueMetaInteger( "A" ) );
+    rowMeta.addValueMeta( new ValueMetaNumber( "B" ) );
+    rowMeta.addValueMeta( new ValueMetaString( "S" ) );
+    rowMeta.addValueMeta( new ValueMetaInteger( "N" ) );
+    row = new Object[] { 3L, 1.5, "abc", null };
+  }
+
+  private Formula parse( String formulaText ) throws Exception {
+    RowForumulaContext context = new RowForumulaContext( rowMeta );
+    context.setRowData( row );
+    Formula formula = new Formula( formulaText );
+    formula.initialize( context );
+    return formula;
+  }
+
+  private void assertSameNumber( String formulaText ) throws Exception {
+    Formula formula = parse( formulaText );
+    CompiledFormula compiled = CompiledFormula.compile( formula, rowMeta );
+    assertNotNull( compiled );
+    BigDecimal expected = new BigDecimal( formula.evaluate().toString() );
+    BigDecimal actual = new BigDecimal( compiled.evaluate( row ).toString() );
+    assertEquals( formulaText, 0, expected.compareTo( actual ) );
+  }
+
+  private void assertSameValue( String formulaText ) throws Exception {
+    Formula formula = parse( formulaText );
+    CompiledFormula compiled = CompiledFormula.compile( formula, rowMeta );
+    assertNotNull( compiled );
+    assertEquals( formulaText, formula.evaluate(), compiled.evaluate( row ) );
+  }
+
+  /**
+   * Compares the text of the values, error values of the interpreter are different objects on each evaluation.
+   */
+  private void assertSameInterpretedValue( String formulaText ) throws Exception {
+    Formula formula = parse( formulaText );
+    CompiledFormula compiled = CompiledFormula.compile( formula, rowMeta );
+    assertNotNull( compiled );
+    assertEquals( formulaText, String.valueOf( formula.evaluate() ), String.valueOf( compiled.evaluate( row ) ) );
+  }
+
+  @Test
+  public void testArithmetic() throws Exception {
+    assertSameNumber( "[A] + [B] * 2 - 1" );
+    assertSameNumber( "([A] + [B]) * 2" );
+    assertSameNumber( "[A] * 0.25" );
+    assertSameNumber( "-[A] + 2 ^ 3" );
+    assertSameNumber( "ABS(1 - [A] * [B])" );
+  }
+
+  @Test
+  public void testConditionsAndText() throws Exception {
+    assertSameValue( "IF([A] > 2; \"big\"; \"small\")" );
+    assertSameValue( "IF(AND([A] >= 3; [B] < 2); \"yes\"; \"no\")" );
+    assertSameValue( "UPPER([S]) & \"-\" & LEFT([S]; 2)" );
+    assertSameValue( "MID([S]; 2; 5)" );
+  }
+
+  @Test
+  public void testFieldReferencesFollowTheRow() throws Exception {
+    CompiledFormula compiled = CompiledFormula.compile( parse( "[A] * 2" ), rowMeta );
+    assertEquals( 0, new BigDecimal( 6 ).compareTo( (BigDecimal) compiled.evaluate( row ) ) );
+    row[0] = 5L;
+    assertEquals( 0, new BigDecimal( 10 ).compareTo( (BigDecimal) compiled.evaluate( row ) ) );
+  }
+
+  @Test
+  public void testNullsAndMixedTypesAreInterpreted() throws Exception {
+    assertSameInterpretedValue( "[A] + [N]" );
+    assertSameInterpretedValue( "[A] = [N]" );
+    assertSameInterpretedValue( "[S] < [A]" );
+    assertSameInterpretedValue( "[S] & [A]" );
+    assertSameInterpretedValue( "MID([S]; 0; 1)" );
+  }
+
+  @Test
+  public void testUnsupportedFunctionsAreInterpreted() throws Exception {
+    assertNull( CompiledFormula.compile( parse( "SUM([A]; [B])" ), rowMeta ) );
+    assertNull( CompiledFormula.compile( parse( "[A] / 4" ), rowMeta ) );
+    assertNull( CompiledFormula.compile( parse( "[A]%" ), rowMeta ) );
+  }
+}
@@ -40,6 +40,8 @@ import org.pentaho.di.core.logging.LoggingObjectInterface;
 import org.pentaho.di.core.row.RowMetaInterface;
 import org.pentaho.di.core.row.ValueMetaInterface;
 import org.pentaho.di.core.row.value.ValueMetaInteger;
+import org.pentaho.di.core.sketch.HyperLogLog;
+import org.pentaho.di.core.sketch.QuantileDigest;
 import org.pentaho.di.trans.steps.mock.StepMockHelper;
 
 public class GroupByNewAggregateTest {
@@ -76,14 +78,14 @@ public class GroupByNewAggregateTest {
   public void setUp() throws Exception {
     data = new GroupByData();
 
-    data.subjectnrs = new int[18];
-    int[] arr = new int[18];
-    String[] arrF = new String[18];
-    data.previousSums = new Object[18];
-    data.previousAvgCount = new long[18];
-    data.previousAvgSum = new Object[18];
+    data.subjectnrs = new int[21];
+    int[] arr = new int[21];
+    String[] arrF = new String[21];
+    data.previousSums = new Object[21];
+    data.previousAvgCount = new long[21];
+    data.previousAvgSum = new Object[21];
     for ( int i = 0; i < arr.length; i++ ) {
-      // set aggregation types (hardcoded integer values from 1 to 18)
+      // set aggregation types (hardcoded integer values from 1 to 21)
       arr[i] = i + 1;
       data.subjectnrs[i] = i;
     }
@@ -116,13 +118,13 @@ public class GroupByNewAggregateTest {
    */
   @Test
   public void newAggregateInitializationTest() {
-    Object[] r = new Object[18];
+    Object[] r = new Object[21];
     Arrays.fill( r, null );
     step.newAggregate( r );
 
     Object[] agg = data.agg;
 
-    Assert.assertEquals( "All possible aggregation cases considered", 18, agg.length );
+    Assert.assertEquals( "All possible aggregation cases considered", 21, agg.length );
 
     // all aggregations types is int values, filled in ascending order in perconditions
     for ( int i = 0; i < agg.length; i++ ) {
@@ -131,6 +133,10 @@ public class GroupByNewAggregateTest {
         Assert.assertTrue( "This is appendable type, type=" + type, agg[i] instanceof Appendable );
       } else if ( statistics.contains( type ) ) {
         Assert.assertTrue( "This is collection, type=" + type, agg[i] instanceof Collection );
+      } else if ( type == GroupByMeta.TYPE_GROUP_APPROX_MEDIAN || type == GroupByMeta.TYPE_GROUP_APPROX_PERCENTILE ) {
+        Assert.assertTrue( "This is a quantile digest, type=" + type, agg[i] instanceof QuantileDigest );
+      } else if ( type == GroupByMeta.TYPE_GROUP_APPROX_COUNT_DISTINCT ) {
+        Assert.assertTrue( "This is a distinct count sketch, type=" + type, agg[i] instanceof HyperLogLog );
       } else {
         Assert.assertNull( "Aggregation initialized with null, type=" + type, agg[i] );
       }
@@ -0,0 +1,88 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2016 by Pentaho : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+
+package org.pentaho.di.trans.steps.groupby;
+
+import static org.junit.Assert.assertEquals;
+
+import java.math.BigDecimal;
+
+import org.junit.Test;
+
+public class PartialAggregatesTest {
+
+  @Test
+  public void testAverageStateRoundTrip() {
+    byte[] state = PartialAggregates.encodeAverage( 3L, new BigDecimal( "12345678901234567890.125" ) );
+    assertEquals( 3L, PartialAggregates.getAverageCount( state ) );
+    assertEquals( new BigDecimal( "12345678901234567890.125" ), PartialAggregates.getAverageSum( state ) );
+  }
+
+  @Test
+  public void testMomentsStateRoundTrip() {
+    byte[] state = PartialAggregates.encodeMoments( 5L, 2.5, 10.25 );
+    assertEquals( 5L, PartialAggregates.getMomentsCount( state ) );
+    assertEquals( 2.5, PartialAggregates.getMomentsMean( state ), 0.0 );
+    assertEquals( 10.25, PartialAggregates.getMomentsM2( state ), 0.0 );
+  }
+
+  @Test
+  public void testMergedMomentsMatchTheWholeSet() {
+    double[] a = { 1.0, 2.0, 4.0 };
+    double[] b = { 7.0, 11.0 };
+    double[] all = { 1.0, 2.0, 4.0, 7.0, 11.0 };
+
+    double[] merged = PartialAggregates.mergeMoments( a.length, mean( a ), m2( a ), b.length, mean( b ), m2( b ) );
+    assertEquals( mean( all ), merged[ 0 ], 1e-9 );
+    assertEquals( m2( all ), merged[ 1 ], 1e-9 );
+  }
+
+  @Test
+  public void testMergeWithEmptySet() {
+    double[] a = { 3.0, 5.0 };
+    double[] merged = PartialAggregates.mergeMoments( 0L, 0.0, 0.0, a.length, mean( a ), m2( a ) );
+    assertEquals( 4.0, merged[ 0 ], 1e-9 );
+    assertEquals( 2.0, merged[ 1 ], 1e-9 );
+
+    merged = PartialAggregates.mergeMoments( 0L, 0.0, 0.0, 0L, 0.0, 0.0 );
+    assertEquals( 0.0, merged[ 0 ], 0.0 );
+    assertEquals( 0.0, merged[ 1 ], 0.0 );
+  }
+
+  private static double mean( double[] values ) {
+    double sum = 0.0;
+    for ( double value : values ) {
+      sum += value;
+    }
+    return sum / values.length;
+  }
+
+  private static double m2( double[] values ) {
+    double mean = mean( values );
+    double m2 = 0.0;
+    for ( double value : values ) {
+      m2 += ( value - mean ) * ( value - mean );
+    }
+    return m2;
+  }
+}
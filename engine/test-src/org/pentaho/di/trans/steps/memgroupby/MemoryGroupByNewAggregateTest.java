@@ -41,6 +41,8 @@ import org.pentaho.di.core.logging.LoggingObjectInterface;
 import org.pentaho.di.core.row.RowMetaInterface;
 import org.pentaho.di.core.row.ValueMetaInterface;
 import org.pentaho.di.core.row.value.ValueMetaInteger;
+import org.pentaho.di.core.sketch.HyperLogLog;
+import org.pentaho.di.core.sketch.QuantileDigest;
 import org.pentaho.di.trans.steps.mock.StepMockHelper;
 
 public class MemoryGroupByNewAggregateTest {
@@ -76,12 +78,12 @@ public class MemoryGroupByNewAggregateTest {
   public void setUp() throws Exception {
     data = new MemoryGroupByData();
 
-    data.subjectnrs = new int[16];
-    int[] arr = new int[16];
-    String[] arrF = new String[16];
+    data.subjectnrs = new int[19];
+    int[] arr = new int[19];
+    String[] arrF = new String[19];
 
     for ( int i = 0; i < arr.length; i++ ) {
-      // set aggregation types (hardcoded integer values from 1 to 18)
+      // set aggregation types (hardcoded integer values from 1 to 19)
       arr[i] = i + 1;
       data.subjectnrs[i] = i;
     }
@@ -103,14 +105,14 @@ public class MemoryGroupByNewAggregateTest {
 
   @Test
   public void testNewAggregate() throws KettleException {
-    Object[] r = new Object[16];
+    Object[] r = new Object[19];
     Arrays.fill( r, null );
 
     Aggregate agg = new Aggregate();
 
     step.newAggregate( r, agg );
 
-    Assert.assertEquals( "All possible aggregation cases considered", 16, agg.agg.length );
+    Assert.assertEquals( "All possible aggregation cases considered", 19, agg.agg.length );
 
     // all aggregations types is int values, filled in ascending order in perconditions
     for ( int i = 0; i < agg.agg.length; i++ ) {
@@ -119,6 +121,10 @@ public class MemoryGroupByNewAggregateTest {
         Assert.assertTrue( "This is appendable type, type=" + type, agg.agg[i] instanceof Appendable );
       } else if ( statistics.contains( type ) ) {
         Assert.assertTrue( "This is collection, type=" + type, agg.agg[i] instanceof Collection );
+      } else if ( type == MemoryGroupByMeta.TYPE_GROUP_APPROX_MEDIAN || type == MemoryGroupByMeta.TYPE_GROUP_APPROX_PERCENTILE ) {
+        Assert.assertTrue( "This is a quantile digest, type=" + type, agg.agg[i] instanceof QuantileDigest );
+      } else if ( type == MemoryGroupByMeta.TYPE_GROUP_APPROX_COUNT_DISTINCT ) {
+        Assert.assertTrue( "This is a distinct count sketch, type=" + type, agg.agg[i] instanceof HyperLogLog );
       } else {
         Assert.assertNull( "Aggregation initialized with null, type=" + type, agg.agg[i] );
       }
@@ -0,0 +1,102 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2016 by Pentaho : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+package org.pentaho.di.trans.steps.memgroupby;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+
+import org.apache.commons.vfs2.FileObject;
+import org.junit.Before;
+import org.junit.Test;
+import org.pentaho.di.core.row.RowMeta;
+import org.pentaho.di.core.row.RowMetaInterface;
+import org.pentaho.di.core.row.value.ValueMetaInteger;
+import org.pentaho.di.core.row.value.ValueMetaString;
+import org.pentaho.di.core.vfs.KettleVFS;
+
+public class SpillPartitionTest {
+
+  private RowMetaInterface rowMeta;
+  private FileObject fileObject;
+
+  @Before
+  public void setUp() throws Exception {
+    rowMeta = new RowMeta();
+    rowMeta.addValueMeta( new ValueMetaString( "group" ) );
+    rowMeta.addValueMeta( new ValueMetaInteger( "subject" ) );
+
+    File file = File.createTempFile( "spillpartition", ".tmp" );
+    file.deleteOnExit();
+    fileObject = KettleVFS.getFileObject( file.getAbsolutePath() );
+  }
+
+  @Test
+  public void testRowsAreReadBackInOrder() throws Exception {
+    SpillPartition partition = new SpillPartition( fileObject, 1 );
+    try {
+      partition.write( rowMeta, new Object[] { "a", 1L } );
+      partition.write( rowMeta, new Object[] { null, 2L } );
+      partition.write( rowMeta, new Object[] { "b", null } );
+      assertEquals( 3, partition.getNrRows() );
+      assertEquals( 1, partition.getLevel() );
+
+      partition.startReading();
+      Object[] row = partition.read( rowMeta );
+      assertEquals( "a", row[0] );
+      assertEquals( 1L, row[1] );
+      row = partition.read( rowMeta );
+      assertNull( row[0] );
+      assertEquals( 2L, row[1] );
+      row = partition.read( rowMeta );
+      assertEquals( "b", row[0] );
+      assertNull( row[1] );
+      assertNull( partition.read( rowMeta ) );
+    } finally {
+      partition.delete();
+    }
+  }
+
+  @Test
+  public void testEmptyPartition() throws Exception {
+    SpillPartition partition = new SpillPartition( fileObject, 2 );
+    try {
+      partition.startReading();
+      assertNull( partition.read( rowMeta ) );
+    } finally {
+      partition.delete();
+    }
+  }
+
+  @Test
+  public void testDeleteRemovesFile() throws Exception {
+    SpillPartition partition = new SpillPartition( fileObject, 1 );
+    partition.write( rowMeta, new Object[] { "a", 1L } );
+    assertTrue( fileObject.exists() );
+    partition.delete();
+    assertFalse( fileObject.exists() );
+  }
+}
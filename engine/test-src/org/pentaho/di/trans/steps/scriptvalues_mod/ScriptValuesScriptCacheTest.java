@@ -0,0 +1,87 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2016 by Pentaho : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+
+package org.pentaho.di.trans.steps.scriptvalues_mod;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.ContextFactory;
+import org.mozilla.javascript.Scriptable;
+
+public class ScriptValuesScriptCacheTest {
+  private Context cx;
+
+  @Before
+  public void setUp() {
+    ScriptValuesScriptCache.clear();
+    cx = ContextFactory.getGlobal().enterContext();
+  }
+
+  @After
+  public void tearDown() {
+    Context.exit();
+    ScriptValuesScriptCache.clear();
+  }
+
+  @Test
+  public void scriptsAreCompiledOncePerOptimizationLevel() {
+    cx.setOptimizationLevel( 9 );
+    ScriptValuesScriptCache.CachedScript script = ScriptValuesScriptCache.getScript( cx, "var a = 1;", "script" );
+    assertSame( script, ScriptValuesScriptCache.getScript( cx, "var a = 1;", "script" ) );
+    assertNotSame( script, ScriptValuesScriptCache.getScript( cx, "var a = 2;", "script" ) );
+
+    cx.setOptimizationLevel( -1 );
+    assertNotSame( script, ScriptValuesScriptCache.getScript( cx, "var a = 1;", "script" ) );
+    assertEquals( 3, ScriptValuesScriptCache.getScripts().size() );
+  }
+
+  @Test
+  public void executionsAreCountedInTheirOwnScope() {
+    ScriptValuesScriptCache.CachedScript script = ScriptValuesScriptCache.getScript( cx, "var b = a * 2;", "script" );
+
+    Scriptable scope1 = cx.initStandardObjects( null, false );
+    scope1.put( "a", scope1, Integer.valueOf( 2 ) );
+    Scriptable scope2 = cx.initStandardObjects( null, false );
+    scope2.put( "a", scope2, Integer.valueOf( 5 ) );
+
+    script.exec( cx, scope1 );
+    script.exec( cx, scope2 );
+
+    assertEquals( 4, Context.toNumber( scope1.get( "b", scope1 ) ), 0 );
+    assertEquals( 10, Context.toNumber( scope2.get( "b", scope2 ) ), 0 );
+
+    // The steps add their executions once they are done
+    //
+    assertEquals( 0, script.getExecutions() );
+    script.addExecutions( 2, 1000L );
+    script.addExecutions( 3, 0L );
+    assertEquals( 5, script.getExecutions() );
+    assertEquals( 1000L, script.getExecutionNanos() );
+  }
+}
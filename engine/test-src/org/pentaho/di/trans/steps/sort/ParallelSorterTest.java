@@ -0,0 +1,74 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2016 by Pentaho : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+package org.pentaho.di.trans.steps.sort;
+
+import static org.junit.Assert.assertTrue;
+
+import java.util.Comparator;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class ParallelSorterTest {
+
+  private static final Comparator<int[]> BY_KEY = new Comparator<int[]>() {
+    @Override
+    public int compare( int[] o1, int[] o2 ) {
+      return o1[0] < o2[0] ? -1 : ( o1[0] == o2[0] ? 0 : 1 );
+    }
+  };
+
+  private void assertSortedAndStable( int size ) {
+    Random random = new Random( size );
+    int[][] elements = new int[size + 10][];
+    for ( int i = 0; i < size; i++ ) {
+      elements[i] = new int[] { random.nextInt( 100 ), i };
+    }
+
+    ParallelSorter.sort( elements, size, BY_KEY );
+
+    for ( int i = 1; i < size; i++ ) {
+      int[] previous = elements[i - 1];
+      int[] current = elements[i];
+      assertTrue( "element " + i + " out of order", previous[0] <= current[0] );
+      if ( previous[0] == current[0] ) {
+        assertTrue( "element " + i + " changed place with an equal element", previous[1] < current[1] );
+      }
+    }
+    for ( int i = size; i < elements.length; i++ ) {
+      assertTrue( elements[i] == null );
+    }
+  }
+
+  @Test
+  public void testSortSmallArray() {
+    assertSortedAndStable( 0 );
+    assertSortedAndStable( 1 );
+    assertSortedAndStable( 1000 );
+  }
+
+  @Test
+  public void testSortLargeArray() {
+    assertSortedAndStable( ParallelSorter.SEQUENTIAL_THRESHOLD * 5 + 17 );
+  }
+}
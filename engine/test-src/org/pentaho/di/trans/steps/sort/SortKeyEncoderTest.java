@@ -0,0 +1,157 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2016 by Pentaho : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+package org.pentaho.di.trans.steps.sort;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.util.Date;
+import java.util.Random;
+
+import org.junit.Test;
+import org.pentaho.di.core.row.RowMeta;
+import org.pentaho.di.core.row.RowMetaInterface;
+import org.pentaho.di.core.row.ValueMetaInterface;
+import org.pentaho.di.core.row.value.ValueMetaBigNumber;
+import org.pentaho.di.core.row.value.ValueMetaBoolean;
+import org.pentaho.di.core.row.value.ValueMetaDate;
+import org.pentaho.di.core.row.value.ValueMetaInteger;
+import org.pentaho.di.core.row.value.ValueMetaNumber;
+import org.pentaho.di.core.row.value.ValueMetaString;
+
+public class SortKeyEncoderTest {
+
+  private static final String[] STRINGS = { null, "a", "A", "ab", "aB", "b", "", "\u0000", "\u0001x", "é",
+    "€", "zÿ", "zz", "Zz" };
+
+  private RowMetaInterface createRowMeta( boolean descending, boolean caseInsensitive ) {
+    RowMetaInterface rowMeta = new RowMeta();
+    rowMeta.addValueMeta( new ValueMetaString( "string" ) );
+    rowMeta.addValueMeta( new ValueMetaInteger( "integer" ) );
+    rowMeta.addValueMeta( new ValueMetaNumber( "number" ) );
+    rowMeta.addValueMeta( new ValueMetaDate( "date" ) );
+    rowMeta.addValueMeta( new ValueMetaBoolean( "boolean" ) );
+    for ( ValueMetaInterface valueMeta : rowMeta.getValueMetaList() ) {
+      valueMeta.setSortedDescending( descending );
+      valueMeta.setCaseInsensitive( caseInsensitive );
+    }
+    return rowMeta;
+  }
+
+  private Object[] createRow( Random random ) {
+    return new Object[] {
+      STRINGS[random.nextInt( STRINGS.length )],
+      random.nextInt( 5 ) == 0 ? null : Long.valueOf( random.nextInt( 7 ) - 3 ),
+      random.nextInt( 5 ) == 0 ? null : Double.valueOf( ( random.nextInt( 7 ) - 3 ) / 2.0 ),
+      random.nextInt( 5 ) == 0 ? null : new Date( random.nextInt( 7 ) - 3 ),
+      random.nextInt( 5 ) == 0 ? null : Boolean.valueOf( random.nextBoolean() ) };
+  }
+
+  private void assertSameOrder( boolean descending, boolean caseInsensitive, int[] fieldNrs ) throws Exception {
+    RowMetaInterface rowMeta = createRowMeta( descending, caseInsensitive );
+    SortKeyEncoder encoder = SortKeyEncoder.getInstance( rowMeta, fieldNrs );
+    assertNotNull( encoder );
+
+    Random random = new Random( 42 );
+    for ( int i = 0; i < 5000; i++ ) {
+      Object[] row1 = createRow( random );
+      Object[] row2 = createRow( random );
+      int expected = Integer.signum( rowMeta.compare( row1, row2, fieldNrs ) );
+      int actual = Integer.signum( SortKeyEncoder.compare( encoder.encode( row1 ), encoder.encode( row2 ) ) );
+      assertEquals( rowMeta.getString( row1 ) + " <> " + rowMeta.getString( row2 ), expected, actual );
+    }
+  }
+
+  @Test
+  public void testKeysSortLikeRowsAscending() throws Exception {
+    assertSameOrder( false, false, new int[] { 0, 1, 2, 3, 4 } );
+  }
+
+  @Test
+  public void testKeysSortLikeRowsDescending() throws Exception {
+    assertSameOrder( true, false, new int[] { 0, 1, 2, 3, 4 } );
+  }
+
+  @Test
+  public void testKeysSortLikeRowsCaseInsensitive() throws Exception {
+    assertSameOrder( false, true, new int[] { 4, 0, 2 } );
+    assertSameOrder( true, true, new int[] { 3, 0, 1 } );
+  }
+
+  @Test
+  public void testNullIsSmallestInDescendingOrder() throws Exception {
+    RowMetaInterface rowMeta = new RowMeta();
+    ValueMetaInterface integer = new ValueMetaInteger( "integer" );
+    integer.setSortedDescending( true );
+    rowMeta.addValueMeta( integer );
+    rowMeta.addValueMeta( new ValueMetaString( "string" ) );
+    int[] fieldNrs = new int[] { 0, 1 };
+    SortKeyEncoder encoder = SortKeyEncoder.getInstance( rowMeta, fieldNrs );
+
+    Object[] nullRow = new Object[] { null, "b" };
+    Object[] highRow = new Object[] { Long.valueOf( Long.MAX_VALUE ), "a" };
+    Object[] lowRow = new Object[] { Long.valueOf( Long.MIN_VALUE ), "a" };
+    byte[] nullKey = encoder.encode( nullRow );
+    byte[] highKey = encoder.encode( highRow );
+    byte[] lowKey = encoder.encode( lowRow );
+
+    // Null comes first, then the values from high to low
+    //
+    assertEquals( -1, Integer.signum( rowMeta.compare( nullRow, highRow, fieldNrs ) ) );
+    assertEquals( -1, Integer.signum( rowMeta.compare( highRow, lowRow, fieldNrs ) ) );
+    assertEquals( -1, Integer.signum( SortKeyEncoder.compare( nullKey, highKey ) ) );
+    assertEquals( -1, Integer.signum( SortKeyEncoder.compare( nullKey, lowKey ) ) );
+    assertEquals( -1, Integer.signum( SortKeyEncoder.compare( highKey, lowKey ) ) );
+  }
+
+  @Test
+  public void testNumbersSortLikeDoubleCompare() throws Exception {
+    RowMetaInterface rowMeta = new RowMeta();
+    rowMeta.addValueMeta( new ValueMetaNumber( "number" ) );
+    SortKeyEncoder encoder = SortKeyEncoder.getInstance( rowMeta, new int[] { 0 } );
+
+    double[] numbers =
+      { Double.NEGATIVE_INFINITY, -Double.MAX_VALUE, -1.5, -Double.MIN_VALUE, -0.0, 0.0, Double.MIN_VALUE, 1.0,
+        Double.MAX_VALUE, Double.POSITIVE_INFINITY, Double.NaN };
+    for ( int i = 1; i < numbers.length; i++ ) {
+      byte[] smaller = encoder.encode( new Object[] { numbers[i - 1] } );
+      byte[] larger = encoder.encode( new Object[] { numbers[i] } );
+      assertEquals( -1, Integer.signum( SortKeyEncoder.compare( smaller, larger ) ) );
+    }
+  }
+
+  @Test
+  public void testNoEncoderForUnsupportedFields() {
+    RowMetaInterface rowMeta = new RowMeta();
+    rowMeta.addValueMeta( new ValueMetaInteger( "integer" ) );
+    rowMeta.addValueMeta( new ValueMetaBigNumber( "bignumber" ) );
+    ValueMetaInterface lazyString = new ValueMetaString( "lazy" );
+    lazyString.setStorageType( ValueMetaInterface.STORAGE_TYPE_BINARY_STRING );
+    rowMeta.addValueMeta( lazyString );
+
+    assertNotNull( SortKeyEncoder.getInstance( rowMeta, new int[] { 0 } ) );
+    assertNull( SortKeyEncoder.getInstance( rowMeta, new int[] { 0, 1 } ) );
+    assertNull( SortKeyEncoder.getInstance( rowMeta, new int[] { 2 } ) );
+  }
+}
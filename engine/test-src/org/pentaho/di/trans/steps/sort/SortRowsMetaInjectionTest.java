@@ -64,6 +64,11 @@ public class SortRowsMetaInjectionTest extends BaseMetadataInjectionTest<SortRow
         return meta.getCompressFiles();
       }
     } );
+    check( "COMPRESSION_TYPE", new StringGetter() {
+      public String get() {
+        return meta.getCompressionType();
+      }
+    } );
     check( "NAME", new StringGetter() {
       public String get() {
         return meta.getFieldName()[0];
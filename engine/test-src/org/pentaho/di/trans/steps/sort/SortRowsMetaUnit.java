@@ -88,13 +88,14 @@ public class SortRowsMetaUnit {
   @Test
   public void testRoundTrips() throws KettleException {
     List<String> attributes = Arrays.asList( "directory", "prefix", "sort_size", "free_memory", "compress",
-      "compress_variable", "unique_rows", "name", "ascending", "case_sensitive", "presorted" );
+      "compress_variable", "compression_type", "unique_rows", "name", "ascending", "case_sensitive", "presorted" );
 
     Map<String, String> getterMap = new HashMap<String, String>();
     getterMap.put( "sort_size", "getSortSize" );
     getterMap.put( "free_memory", "getFreeMemoryLimit" );
     getterMap.put( "compress", "getCompressFiles" );
     getterMap.put( "compress_variable", "getCompressFilesVariable" );
+    getterMap.put( "compression_type", "getCompressionType" );
     getterMap.put( "unique_rows", "isOnlyPassingUniqueRows" );
     getterMap.put( "name", "getFieldName" );
     getterMap.put( "case_sensitive", "getCaseSensitive" );
@@ -105,6 +106,7 @@ public class SortRowsMetaUnit {
     setterMap.put( "free_memory", "setFreeMemoryLimit" );
     setterMap.put( "compress", "setCompressFiles" );
     setterMap.put( "compress_variable", "setCompressFilesVariable" );
+    setterMap.put( "compression_type", "setCompressionType" );
     setterMap.put( "name", "setFieldName" );
     setterMap.put( "case_sensitive", "setCaseSensitive" );
     setterMap.put( "presorted", "setPreSortedField" );
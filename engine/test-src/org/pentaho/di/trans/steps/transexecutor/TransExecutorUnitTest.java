@@ -26,6 +26,7 @@ import org.junit.After;
 import org.junit.Before;
 import org.junit.BeforeClass;
 import org.junit.Test;
+import org.pentaho.di.core.Const;
 import org.pentaho.di.core.KettleEnvironment;
 import org.pentaho.di.core.QueueRowSet;
 import org.pentaho.di.core.Result;
@@ -34,13 +35,18 @@ import org.pentaho.di.core.RowSet;
 import org.pentaho.di.core.exception.KettleException;
 import org.pentaho.di.core.exception.KettleStepException;
 import org.pentaho.di.core.logging.LogChannelInterface;
+import org.pentaho.di.core.logging.TransLogTable;
 import org.pentaho.di.core.row.RowMeta;
 import org.pentaho.di.core.row.RowMetaInterface;
 import org.pentaho.di.core.row.value.ValueMetaString;
 import org.pentaho.di.trans.Trans;
+import org.pentaho.di.trans.TransHopMeta;
 import org.pentaho.di.trans.TransMeta;
 import org.pentaho.di.trans.step.StepMeta;
 import org.pentaho.di.trans.steps.StepMockUtil;
+import org.pentaho.di.trans.steps.dummytrans.DummyTransMeta;
+import org.pentaho.di.trans.steps.rowsfromresult.RowsFromResultMeta;
+import org.pentaho.di.trans.steps.rowstoresult.RowsToResultMeta;
 
 import static org.junit.Assert.*;
 import static org.mockito.Mockito.*;
@@ -274,6 +280,109 @@ public class TransExecutorUnitTest {
     assertEquals( 0, data.groupBuffer.size() );
   }
 
+  /**
+   * Given a transformation executor with re-use of the transformation enabled
+   * and a parameter taking its value from a field.
+   * <br/>
+   * When transformation executor is processing rows of an input data,
+   * then a new transformation should be executed since the parameter can change for every group.
+   */
+  @Test
+  public void shouldNotReuseTransformationWhenParameterComesFromField() throws Exception {
+    prepareOneRowForExecutor();
+
+    executor.setVariable( Const.KETTLE_TRANS_EXECUTOR_REUSE, "Y" );
+    meta.getParameters().setVariable( new String[] { "param" } );
+    meta.getParameters().setField( new String[] { "field" } );
+    meta.getParameters().setInput( new String[] { null } );
+    executor.init( meta, data );
+
+    RowMetaInterface rowMeta = new RowMeta();
+    rowMeta.addValueMeta( new ValueMetaString( "field" ) );
+    executor.setInputRowMeta( rowMeta );
+
+    executor.processRow( meta, data );
+    executor.processRow( meta, data ); // end of file
+
+    verify( executor ).createInternalTrans();
+    assertTrue( data.reuseDisabled );
+    assertNull( data.reusedExecutor );
+    assertEquals( "row", internalTrans.getVariable( "param" ) );
+  }
+
+  /**
+   * Given a transformation executor with re-use of the transformation enabled
+   * and a transformation of which all steps can be re-used.
+   * <br/>
+   * When transformation executor is processing two groups of rows,
+   * then the transformation should be prepared once
+   * and the results and counters of every group should only contain that group.
+   */
+  @Test
+  public void shouldReuseTransformationForEveryGroup() throws Exception {
+    prepareMultipleRowsForExecutor();
+    doReturn( createReusableTransMeta() ).when( executor ).loadExecutorTransMeta();
+
+    RowSet resultRows = new QueueRowSet();
+    meta.setOutputRowsSourceStepMeta( mockStepAndMapItToRowSet( "resultRows", resultRows ) );
+    RowSet executionResults = new QueueRowSet();
+    meta.setExecutionResultTargetStepMeta( mockStepAndMapItToRowSet( "executionResults", executionResults ) );
+    meta.setExecutionLinesReadField( "executionLinesReadField" );
+
+    executor.setVariable( Const.KETTLE_TRANS_EXECUTOR_REUSE, "Y" );
+    meta.setGroupField( "groupField" );
+    executor.init( meta, data );
+
+    RowMetaInterface rowMeta = new RowMeta();
+    rowMeta.addValueMeta( new ValueMetaString( "groupField" ) );
+    executor.setInputRowMeta( rowMeta );
+
+    for ( int i = 0; i < 5; i++ ) {
+      executor.processRow( meta, data ); // the 5th row starts the second group
+    }
+    assertNotNull( data.reusedExecutor );
+    assertEquals( 4, resultRows.size() );
+    assertEquals( 4L, executionResults.getRowImmediate()[ 0 ] );
+
+    executor.processRow( meta, data );
+    executor.processRow( meta, data );
+    executor.processRow( meta, data ); // end of file
+    assertEquals( 7, resultRows.size() );
+    assertEquals( 3L, executionResults.getRowImmediate()[ 0 ] );
+    assertNull( executionResults.getRowImmediate() );
+
+    for ( int i = 0; i < 4; i++ ) {
+      assertEquals( "value1", resultRows.getRowImmediate()[ 0 ] );
+    }
+    for ( int i = 0; i < 3; i++ ) {
+      assertEquals( "value12", resultRows.getRowImmediate()[ 0 ] );
+    }
+
+    verify( executor, never() ).createInternalTrans();
+    verify( executor ).createInternalTrans( any( TransMeta.class ) );
+    executor.dispose( meta, data );
+  }
+
+  // RowsFromResult -> Dummy -> RowsToResult, the lines read are those of the dummy step
+  private TransMeta createReusableTransMeta() {
+    TransMeta transMeta = new TransMeta();
+    transMeta.setName( "reusable" );
+
+    RowsFromResultMeta inputMeta = new RowsFromResultMeta();
+    inputMeta.allocate( 0 );
+    StepMeta input = new StepMeta( "input", inputMeta );
+    StepMeta dummy = new StepMeta( "dummy", new DummyTransMeta() );
+    StepMeta output = new StepMeta( "output", new RowsToResultMeta() );
+    transMeta.addStep( input );
+    transMeta.addStep( dummy );
+    transMeta.addStep( output );
+    transMeta.addTransHop( new TransHopMeta( input, dummy ) );
+    transMeta.addTransHop( new TransHopMeta( dummy, output ) );
+
+    transMeta.getTransLogTable().findField( TransLogTable.ID.LINES_READ ).setSubject( dummy );
+    return transMeta;
+  }
+
   // values to be grouped
   private void prepareMultipleRowsForExecutor() throws KettleException {
     doReturn( new Object[] { "value1" } )
@@ -0,0 +1,153 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2016 by Pentaho : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+
+package org.pentaho.di.www;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.pentaho.di.core.logging.LogChannelInterface;
+
+public class MultiplexedTransportTest {
+
+  private MultiplexedTransport writerTransport;
+  private MultiplexedTransport readerTransport;
+  private ExecutorService executor;
+  private int port;
+
+  @Before
+  public void setUp() throws Exception {
+    writerTransport = new MultiplexedTransport( mock( LogChannelInterface.class ) );
+    readerTransport = new MultiplexedTransport( mock( LogChannelInterface.class ) );
+    executor = Executors.newCachedThreadPool();
+
+    ServerSocket serverSocket = new ServerSocket( 0 );
+    port = serverSocket.getLocalPort();
+    serverSocket.close();
+  }
+
+  @After
+  public void tearDown() {
+    executor.shutdownNow();
+    writerTransport.shutdown();
+    readerTransport.shutdown();
+  }
+
+  @Test
+  public void testStreamsShareTheConnection() throws Exception {
+    final int nrStreams = 10;
+    final int nrValues = 100000; // several times the window size per stream
+
+    List<Future<?>> futures = new ArrayList<Future<?>>();
+    for ( int i = 1; i <= nrStreams; i++ ) {
+      final int streamId = i;
+      final MultiplexedTransport.StreamWriter writer = writerTransport.openWriter( port, streamId );
+      futures.add( executor.submit( new Callable<Void>() {
+        public Void call() throws Exception {
+          assertEquals( MultiplexedTransport.FLAG_ROW_BLOCKS, writer.awaitReader() );
+          DataOutputStream outputStream = new DataOutputStream( new BufferedOutputStream( writer, 8192 ) );
+          Random random = new Random( streamId );
+          for ( int v = 0; v < nrValues; v++ ) {
+            outputStream.writeLong( random.nextLong() );
+          }
+          outputStream.close();
+          return null;
+        }
+      } ) );
+      futures.add( executor.submit( new Callable<Void>() {
+        public Void call() throws Exception {
+          MultiplexedTransport.StreamReader reader =
+            readerTransport.openReader( "localhost", port, streamId, MultiplexedTransport.FLAG_ROW_BLOCKS, 65536 );
+          DataInputStream inputStream = new DataInputStream( new BufferedInputStream( reader ) );
+          Random random = new Random( streamId );
+          for ( int v = 0; v < nrValues; v++ ) {
+            assertEquals( random.nextLong(), inputStream.readLong() );
+          }
+          assertEquals( -1, inputStream.read() );
+          inputStream.close();
+          return null;
+        }
+      } ) );
+    }
+    for ( Future<?> future : futures ) {
+      future.get( 60, TimeUnit.SECONDS );
+    }
+  }
+
+  @Test
+  public void testReaderBeforeWriter() throws Exception {
+    MultiplexedTransport.StreamWriter first = writerTransport.openWriter( port, 1 );
+    MultiplexedTransport.StreamReader reader = readerTransport.openReader( "localhost", port, 2, 0, 1024 );
+
+    MultiplexedTransport.StreamWriter writer = writerTransport.openWriter( port, 2 );
+    assertEquals( 0, writer.awaitReader() );
+    writer.write( new byte[] { 1, 2, 3 } );
+    writer.close();
+
+    assertEquals( 1, reader.read() );
+    assertEquals( 2, reader.read() );
+    assertEquals( 3, reader.read() );
+    assertEquals( -1, reader.read() );
+    reader.close();
+    first.close();
+  }
+
+  @Test
+  public void testWriterFailsWhenReaderStops() throws Exception {
+    MultiplexedTransport.StreamWriter writer = writerTransport.openWriter( port, 1 );
+    MultiplexedTransport.StreamReader reader = readerTransport.openReader( "localhost", port, 1, 0, 1024 );
+    writer.awaitReader();
+    writer.write( new byte[100] );
+    reader.read();
+    reader.close();
+
+    try {
+      for ( int i = 0; i < 1000; i++ ) {
+        writer.write( new byte[1000] );
+      }
+      fail( "The writer should fail once the reader stopped" );
+    } catch ( IOException e ) {
+      // expected
+    }
+    writer.close();
+  }
+}
@@ -0,0 +1,79 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2016 by Pentaho : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+package org.pentaho.di.www;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import org.junit.Test;
+import org.pentaho.di.core.exception.KettleException;
+import org.pentaho.di.trans.step.StepStatus;
+
+public class SlaveServerTransStatusDeltaTest {
+
+  @Test
+  public void deltasAreAppliedToThePreviousStatus() throws Exception {
+    SlaveServerTransStatusDelta status = new SlaveServerTransStatusDelta( "trans", "id" );
+    assertEquals( 0L, status.getVersion() );
+    assertEquals( 0, status.getLastLoggingLineNr() );
+
+    status.update( "{\"name\":\"trans\",\"id\":\"id\",\"version\":3,\"full\":true,"
+      + "\"status_desc\":\"Running\",\"paused\":false,\"finished\":false,\"errors\":0,"
+      + "\"first_log_line_nr\":0,\"last_log_line_nr\":12,\"log\":\"started\","
+      + "\"steps\":[{\"stepname\":\"A\",\"copy\":0,\"linesRead\":10,\"errors\":0},"
+      + "{\"stepname\":\"B\",\"copy\":0,\"linesRead\":5,\"errors\":0}]}" );
+    assertEquals( 3L, status.getVersion() );
+    assertEquals( 12, status.getLastLoggingLineNr() );
+    assertEquals( "started", status.getLoggingString() );
+    assertTrue( status.isRunning() );
+    assertEquals( 2, status.getStepStatusList().size() );
+
+    // Only step B changed, the status description is left out because it didn't change
+    //
+    status.update( "{\"name\":\"trans\",\"id\":\"id\",\"version\":4,\"full\":false,"
+      + "\"finished\":false,\"errors\":1,\"first_log_line_nr\":12,\"last_log_line_nr\":12,\"log\":\"\","
+      + "\"steps\":[{\"stepname\":\"B\",\"copy\":0,\"linesRead\":7,\"errors\":1}]}" );
+    assertEquals( 4L, status.getVersion() );
+    assertTrue( status.isRunning() );
+    assertEquals( 1L, status.getErrors() );
+    assertEquals( "", status.getLoggingString() );
+    List<StepStatus> steps = status.getStepStatusList();
+    assertEquals( 2, steps.size() );
+    assertEquals( 10L, steps.get( 0 ).getLinesRead() );
+    assertEquals( 7L, steps.get( 1 ).getLinesRead() );
+
+    status.update( "{\"version\":5,\"full\":false,\"status_desc\":\"Finished\",\"paused\":false,"
+      + "\"finished\":true,\"errors\":1,\"last_log_line_nr\":14,\"log\":\"done\",\"steps\":[]}" );
+    assertFalse( status.isRunning() );
+    assertTrue( status.isFinished() );
+  }
+
+  @Test( expected = KettleException.class )
+  public void unknownTransformationIsAnError() throws Exception {
+    new SlaveServerTransStatusDelta( "trans", "id" ).update(
+      "{\"result\":\"ERROR\",\"message\":\"Unable to find transformation trans\"}" );
+  }
+}
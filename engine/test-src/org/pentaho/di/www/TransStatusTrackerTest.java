@@ -0,0 +1,115 @@
+/*! ******************************************************************************
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2016 by Pentaho : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+
+package org.pentaho.di.www;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.pentaho.di.trans.Trans;
+import org.pentaho.di.trans.step.BaseStepData.StepExecutionStatus;
+import org.pentaho.di.trans.step.StepInterface;
+
+public class TransStatusTrackerTest {
+  private Trans trans;
+  private StepInterface step1;
+  private StepInterface step2;
+  private TransStatusTracker tracker;
+
+  @Before
+  public void setup() {
+    trans = mock( Trans.class );
+    step1 = mock( StepInterface.class );
+    step2 = mock( StepInterface.class );
+    when( trans.nrSteps() ).thenReturn( 2 );
+    when( trans.getRunThread( 0 ) ).thenReturn( step1 );
+    when( trans.getRunThread( 1 ) ).thenReturn( step2 );
+    when( trans.getStatus() ).thenReturn( Trans.STRING_RUNNING );
+    when( step1.getStatus() ).thenReturn( StepExecutionStatus.STATUS_RUNNING );
+    when( step2.getStatus() ).thenReturn( StepExecutionStatus.STATUS_RUNNING );
+    tracker = new TransStatusTracker();
+  }
+
+  @Test
+  public void testFirstRequestGetsAllSteps() {
+    long version = tracker.update( trans );
+    assertEquals( 1L, version );
+    assertTrue( tracker.isFullRefresh( 0L ) );
+    assertTrue( tracker.isTransChangedSince( 0L ) );
+    assertEquals( 2, tracker.getStepsChangedSince( trans, 0L ).size() );
+  }
+
+  @Test
+  public void testOnlyChangedStepsAreReturned() {
+    long version = tracker.update( trans );
+
+    // Nothing changed: same version, nothing to send
+    //
+    assertEquals( version, tracker.update( trans ) );
+    assertFalse( tracker.isFullRefresh( version ) );
+    assertFalse( tracker.isTransChangedSince( version ) );
+    assertTrue( tracker.getStepsChangedSince( trans, version ).isEmpty() );
+
+    when( step2.getLinesWritten() ).thenReturn( 1000L );
+    long next = tracker.update( trans );
+    assertEquals( version + 1, next );
+    List<StepInterface> changed = tracker.getStepsChangedSince( trans, version );
+    assertEquals( 1, changed.size() );
+    assertSame( step2, changed.get( 0 ) );
+    assertFalse( tracker.isTransChangedSince( version ) );
+
+    // A client that is two versions behind sees both changes
+    //
+    when( step1.getStatus() ).thenReturn( StepExecutionStatus.STATUS_FINISHED );
+    when( trans.getStatus() ).thenReturn( Trans.STRING_FINISHED );
+    long last = tracker.update( trans );
+    assertEquals( 1, tracker.getStepsChangedSince( trans, next ).size() );
+    assertEquals( 2, tracker.getStepsChangedSince( trans, version ).size() );
+    assertTrue( tracker.isTransChangedSince( next ) );
+    assertFalse( tracker.isTransChangedSince( last ) );
+  }
+
+  @Test
+  public void testUnknownVersionGetsFullRefresh() {
+    tracker.update( trans );
+    assertTrue( tracker.isFullRefresh( 42L ) );
+    assertEquals( 2, tracker.getStepsChangedSince( trans, 42L ).size() );
+  }
+
+  @Test
+  public void testReplacedStepsAreAllChanged() {
+    long version = tracker.update( trans );
+    when( trans.nrSteps() ).thenReturn( 1 );
+    long next = tracker.update( trans );
+    assertTrue( next > version );
+    assertEquals( 1, tracker.getStepsChangedSince( trans, version ).size() );
+  }
+}
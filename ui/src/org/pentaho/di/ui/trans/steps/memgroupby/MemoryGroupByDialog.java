@@ -29,6 +29,7 @@ import java.util.Map;
 import java.util.Set;
 
 import org.eclipse.swt.SWT;
+import org.eclipse.swt.custom.CCombo;
 import org.eclipse.swt.events.ModifyEvent;
 import org.eclipse.swt.events.ModifyListener;
 import org.eclipse.swt.events.SelectionAdapter;
@@ -75,6 +76,10 @@ public class MemoryGroupByDialog extends BaseStepDialog implements StepDialogInt
   private Button wAlwaysAddResult;
   private FormData fdlAlwaysAddResult, fdAlwaysAddResult;
 
+  private Label wlAggregationMode;
+  private CCombo wAggregationMode;
+  private FormData fdlAggregationMode, fdAggregationMode;
+
   private Button wGet, wGetAgg;
   private FormData fdGet, fdGetAgg;
   private Listener lsGet, lsGetAgg;
@@ -157,12 +162,36 @@ public class MemoryGroupByDialog extends BaseStepDialog implements StepDialogInt
     fdAlwaysAddResult.right = new FormAttachment( 100, 0 );
     wAlwaysAddResult.setLayoutData( fdAlwaysAddResult );
 
+    // Calculate the aggregates completely, partially or merge partial results
+    //
+    wlAggregationMode = new Label( shell, SWT.RIGHT );
+    wlAggregationMode.setText( BaseMessages.getString( PKG, "MemoryGroupByDialog.AggregationMode.Label" ) );
+    wlAggregationMode
+      .setToolTipText( BaseMessages.getString( PKG, "MemoryGroupByDialog.AggregationMode.ToolTip" ) );
+    props.setLook( wlAggregationMode );
+    fdlAggregationMode = new FormData();
+    fdlAggregationMode.left = new FormAttachment( 0, 0 );
+    fdlAggregationMode.top = new FormAttachment( wAlwaysAddResult, margin );
+    fdlAggregationMode.right = new FormAttachment( middle, -margin );
+    wlAggregationMode.setLayoutData( fdlAggregationMode );
+    wAggregationMode = new CCombo( shell, SWT.SINGLE | SWT.READ_ONLY | SWT.BORDER );
+    wAggregationMode.setItems( MemoryGroupByMeta.aggregationModeDesc );
+    wAggregationMode
+      .setToolTipText( BaseMessages.getString( PKG, "MemoryGroupByDialog.AggregationMode.ToolTip" ) );
+    props.setLook( wAggregationMode );
+    wAggregationMode.addModifyListener( lsMod );
+    fdAggregationMode = new FormData();
+    fdAggregationMode.left = new FormAttachment( middle, 0 );
+    fdAggregationMode.top = new FormAttachment( wAlwaysAddResult, margin );
+    fdAggregationMode.right = new FormAttachment( 100, 0 );
+    wAggregationMode.setLayoutData( fdAggregationMode );
+
     wlGroup = new Label( shell, SWT.NONE );
     wlGroup.setText( BaseMessages.getString( PKG, "MemoryGroupByDialog.Group.Label" ) );
     props.setLook( wlGroup );
     fdlGroup = new FormData();
     fdlGroup.left = new FormAttachment( 0, 0 );
-    fdlGroup.top = new FormAttachment( wAlwaysAddResult, margin );
+    fdlGroup.top = new FormAttachment( wAggregationMode, margin );
     wlGroup.setLayoutData( fdlGroup );
 
     int nrKeyCols = 1;
@@ -357,6 +386,7 @@ public class MemoryGroupByDialog extends BaseStepDialog implements StepDialogInt
     logDebug( BaseMessages.getString( PKG, "MemoryGroupByDialog.Log.GettingKeyInfo" ) );
 
     wAlwaysAddResult.setSelection( input.isAlwaysGivingBackOneRow() );
+    wAggregationMode.select( input.getAggregationMode() );
 
     if ( input.getGroupField() != null ) {
       for ( int i = 0; i < input.getGroupField().length; i++ ) {
@@ -407,6 +437,7 @@ public class MemoryGroupByDialog extends BaseStepDialog implements StepDialogInt
     int nrfields = wAgg.nrNonEmpty();
 
     input.setAlwaysGivingBackOneRow( wAlwaysAddResult.getSelection() );
+    input.setAggregationMode( Math.max( 0, wAggregationMode.getSelectionIndex() ) );
 
     input.allocate( sizegroup, nrfields );
 
@@ -29,6 +29,7 @@ import java.util.Map;
 import java.util.Set;
 
 import org.eclipse.swt.SWT;
+import org.eclipse.swt.custom.CCombo;
 import org.eclipse.swt.events.ModifyEvent;
 import org.eclipse.swt.events.ModifyListener;
 import org.eclipse.swt.events.SelectionAdapter;
@@ -50,6 +51,7 @@ import org.eclipse.swt.widgets.Table;
 import org.eclipse.swt.widgets.TableItem;
 import org.eclipse.swt.widgets.Text;
 import org.pentaho.di.core.Const;
+import org.pentaho.di.core.compress.CompressionProviderFactory;
 import org.pentaho.di.core.exception.KettleException;
 import org.pentaho.di.core.row.RowMetaInterface;
 import org.pentaho.di.core.row.ValueMetaInterface;
@@ -91,6 +93,10 @@ public class SortRowsDialog extends BaseStepDialog implements StepDialogInterfac
   private CheckBoxVar wCompress;
   private FormData fdlCompress, fdCompress;
 
+  private Label wlCompressionType;
+  private CCombo wCompressionType;
+  private FormData fdlCompressionType, fdCompressionType;
+
   private Label wlUniqueRows;
   private Button wUniqueRows;
   private FormData fdlUniqueRows, fdUniqueRows;
@@ -279,6 +285,25 @@ public class SortRowsDialog extends BaseStepDialog implements StepDialogInterfac
       }
     } );
 
+    // Which compression to use for the temporary files?
+    wlCompressionType = new Label( shell, SWT.RIGHT );
+    wlCompressionType.setText( BaseMessages.getString( PKG, "SortRowsDialog.CompressionType.Label" ) );
+    props.setLook( wlCompressionType );
+    fdlCompressionType = new FormData();
+    fdlCompressionType.left = new FormAttachment( 0, 0 );
+    fdlCompressionType.right = new FormAttachment( middle, -margin );
+    fdlCompressionType.top = new FormAttachment( wCompress, margin );
+    wlCompressionType.setLayoutData( fdlCompressionType );
+    wCompressionType = new CCombo( shell, SWT.BORDER | SWT.READ_ONLY );
+    wCompressionType.setItems( CompressionProviderFactory.getInstance().getCompressionProviderNames() );
+    props.setLook( wCompressionType );
+    wCompressionType.addModifyListener( lsMod );
+    fdCompressionType = new FormData();
+    fdCompressionType.left = new FormAttachment( middle, 0 );
+    fdCompressionType.top = new FormAttachment( wCompress, margin );
+    fdCompressionType.right = new FormAttachment( 100, 0 );
+    wCompressionType.setLayoutData( fdCompressionType );
+
     // Using compression for temporary files?
     wlUniqueRows = new Label( shell, SWT.RIGHT );
     wlUniqueRows.setText( BaseMessages.getString( PKG, "SortRowsDialog.UniqueRows.Label" ) );
@@ -286,14 +311,14 @@ public class SortRowsDialog extends BaseStepDialog implements StepDialogInterfac
     fdlUniqueRows = new FormData();
     fdlUniqueRows.left = new FormAttachment( 0, 0 );
     fdlUniqueRows.right = new FormAttachment( middle, -margin );
-    fdlUniqueRows.top = new FormAttachment( wCompress, margin );
+    fdlUniqueRows.top = new FormAttachment( wCompressionType, margin );
     wlUniqueRows.setLayoutData( fdlUniqueRows );
     wUniqueRows = new Button( shell, SWT.CHECK );
     wUniqueRows.setToolTipText( BaseMessages.getString( PKG, "SortRowsDialog.UniqueRows.Tooltip" ) );
     props.setLook( wUniqueRows );
     fdUniqueRows = new FormData();
     fdUniqueRows.left = new FormAttachment( middle, 0 );
-    fdUniqueRows.top = new FormAttachment( wCompress, margin );
+    fdUniqueRows.top = new FormAttachment( wCompressionType, margin );
     fdUniqueRows.right = new FormAttachment( 100, 0 );
     wUniqueRows.setLayoutData( fdUniqueRows );
 
@@ -468,6 +493,7 @@ public class SortRowsDialog extends BaseStepDialog implements StepDialogInterfac
     wFreeMemory.setText( Const.NVL( input.getFreeMemoryLimit(), "" ) );
     wCompress.setSelection( input.getCompressFiles() );
     wCompress.setVariableName( input.getCompressFilesVariable() );
+    wCompressionType.setText( Const.NVL( input.getCompressionType(), SortRowsMeta.DEFAULT_COMPRESSION_TYPE ) );
     wUniqueRows.setSelection( input.isOnlyPassingUniqueRows() );
 
     Table table = wFields.table;
@@ -514,6 +540,7 @@ public class SortRowsDialog extends BaseStepDialog implements StepDialogInterfac
     log.logDetailed( "Sort rows", "Compression is set to " + wCompress.getSelection() );
     input.setCompressFiles( wCompress.getSelection() );
     input.setCompressFilesVariable( wCompress.getVariableName() );
+    input.setCompressionType( wCompressionType.getText() );
     input.setOnlyPassingUniqueRows( wUniqueRows.getSelection() );
 
     // Table table = wFields.table;